@@ -103,6 +103,7 @@ public class AdbHelper implements AndroidDevicesHelper {
   private final Supplier<ExecutionContext> contextSupplier;
   private final boolean restartAdbOnFailure;
   private final ImmutableList<String> rapidInstallTypes;
+  private final boolean exopackageDeltaInstall;
   private final Supplier<ImmutableList<AndroidDevice>> devicesSupplier;
 
   @Nullable private ListeningExecutorService executorService = null;
@@ -113,13 +114,15 @@ public class AdbHelper implements AndroidDevicesHelper {
       ToolchainProvider toolchainProvider,
       Supplier<ExecutionContext> contextSupplier,
       boolean restartAdbOnFailure,
-      ImmutableList<String> rapidInstallTypes) {
+      ImmutableList<String> rapidInstallTypes,
+      boolean exopackageDeltaInstall) {
     this.options = adbOptions;
     this.deviceOptions = deviceOptions;
     this.toolchainProvider = toolchainProvider;
     this.contextSupplier = contextSupplier;
     this.restartAdbOnFailure = restartAdbOnFailure;
     this.rapidInstallTypes = rapidInstallTypes;
+    this.exopackageDeltaInstall = exopackageDeltaInstall;
     this.devicesSupplier = MoreSuppliers.memoize(this::getDevicesImpl);
   }
 
@@ -606,15 +609,20 @@ public class AdbHelper implements AndroidDevicesHelper {
       throws InterruptedException {
     adbCall(
         "install exopackage apk",
-        device ->
-            new ExopackageInstaller(
-                    pathResolver,
-                    contextSupplier.get(),
-                    hasInstallableApk.getProjectFilesystem(),
-                    tryToExtractPackageNameFromManifest(
-                        pathResolver, hasInstallableApk.getApkInfo()),
-                    device)
-                .doInstall(hasInstallableApk.getApkInfo(), processName),
+        device -> {
+          ExopackageInstaller installer =
+              new ExopackageInstaller(
+                  pathResolver,
+                  contextSupplier.get(),
+                  hasInstallableApk.getProjectFilesystem(),
+                  tryToExtractPackageNameFromManifest(pathResolver, hasInstallableApk.getApkInfo()),
+                  device);
+          if (exopackageDeltaInstall) {
+            installer.doDeltaInstall(hasInstallableApk.getApkInfo(), processName);
+            return true;
+          }
+          return installer.doInstall(hasInstallableApk.getApkInfo(), processName);
+        },
         quiet);
   }
 
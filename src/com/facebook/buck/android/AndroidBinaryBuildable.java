@@ -105,6 +105,9 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
   // Post-process resource compression
   @AddToRuleKey private final boolean isCompressResources;
 
+  // Assemble the APK with StreamingApkBuilderStep instead of ApkBuilderStep and zipalign.
+  @AddToRuleKey private final boolean streamingApkBuilder;
+
   @AddToRuleKey private final ImmutableMap<APKModule, SourcePath> moduleResourceApkPaths;
 
   private final boolean isApk;
@@ -140,7 +143,8 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
       ImmutableSortedSet<APKModule> apkModules,
       ImmutableMap<APKModule, SourcePath> moduleResourceApkPaths,
       Optional<SourcePath> bundleConfigFilePath,
-      boolean isApk) {
+      boolean isApk,
+      boolean streamingApkBuilder) {
     this.filesystem = filesystem;
     this.buildTarget = buildTarget;
     this.androidSdkLocation = androidSdkLocation;
@@ -164,6 +168,7 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
     this.resourceFilesInfo = resourceFilesInfo;
     this.bundleConfigFilePath = bundleConfigFilePath;
     this.isApk = isApk;
+    this.streamingApkBuilder = streamingApkBuilder;
   }
 
   @SuppressWarnings("PMD.PrematureDeclaration")
@@ -256,6 +261,31 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
         resourceFilesInfo.pathsToThirdPartyJars.stream()
             .map(resolver::getAbsolutePath)
             .collect(ImmutableSet.toImmutableSet());
+    if (isApk && streamingApkBuilder && !redexOptions.isPresent()) {
+      // Write the APK aligned and without timestamps, so that it only needs to be signed.
+      Path zipalignedApkPath = getZipalignedApkPath();
+      steps.add(
+          new StreamingApkBuilderStep(
+              getProjectFilesystem(),
+              pathResolver.getAbsolutePath(resourceFilesInfo.resourcesApkPath),
+              zipalignedApkPath,
+              pathResolver.getRelativePath(dexFilesInfo.primaryDexPath),
+              allAssetDirectories,
+              nativeLibraryDirectoriesBuilder.build(),
+              zipFiles.build(),
+              thirdPartyJars,
+              isCompressResources));
+      steps.add(
+          new ApkSignerStep(
+              getProjectFilesystem(),
+              zipalignedApkPath,
+              getFinalApkPath(),
+              keystoreProperties,
+              false));
+      buildableContext.recordArtifact(getFinalApkPath());
+      return steps.build();
+    }
+
     if (isApk) {
       steps.add(
           new ApkBuilderStep(
@@ -150,6 +150,7 @@ public class AndroidBinaryFactory {
         filesInfo.getNativeFilesInfo(),
         filesInfo.getResourceFilesInfo(),
         ImmutableSortedSet.copyOf(result.getAPKModuleGraph().getAPKModules()),
-        filesInfo.getExopackageInfo());
+        filesInfo.getExopackageInfo(),
+        androidBuckConfig.isStreamingApkBuilderEnabled());
   }
 }
@@ -711,7 +711,8 @@ public class AndroidBinaryGraphEnhancer {
             dxExecutorService,
             xzCompressionLevel,
             dxConfig.getDxMaxHeapSize(),
-            dexTool);
+            dexTool,
+            dxConfig.isIncrementalPreDexMergeEnabled());
     graphBuilder.addToIndex(preDexMerge);
 
     return preDexMerge;
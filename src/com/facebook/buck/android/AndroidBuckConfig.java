@@ -231,6 +231,14 @@ public class AndroidBuckConfig {
         delegate.getBooleanValue("resources", "resource_grayscale_enabled", false));
   }
 
+  /**
+   * Whether APKs are assembled in a single pass, already aligned, instead of going through the
+   * {@code ApkBuilder}, scrubbing, resource compression and zipalign steps.
+   */
+  public boolean isStreamingApkBuilderEnabled() {
+    return delegate.getBooleanValue("android", "streaming_apk_builder", false);
+  }
+
   /**
    * Returns the CPU specific app platform, or the fallback one if set. If neither are set, returns
    * `Optional.empty` instead of a default value so callers can determine the difference between
@@ -210,6 +210,7 @@ public class AndroidBundle extends AbstractBuildRule
             apkModules,
             enhancementResult.getModuleResourceApkPaths(),
             bundleConfigFilePath,
+            false,
             false);
     this.exopackageInfo = exopackageInfo;
 
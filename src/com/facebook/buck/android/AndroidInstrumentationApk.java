@@ -97,7 +97,8 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         nativeFilesInfo,
         resourceFilesInfo,
         ImmutableSortedSet.copyOf(enhancementResult.getAPKModuleGraph().getAPKModules()),
-        exopackageInfo);
+        exopackageInfo,
+        false);
     this.apkUnderTest = apkUnderTest;
   }
 
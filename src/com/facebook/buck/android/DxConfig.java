@@ -46,4 +46,13 @@ public class DxConfig {
   public OptionalInt getDxMaxThreadCount() {
     return delegate.getInteger("dx", "max_threads");
   }
+
+  /**
+   * @return Whether pre-dex merging should keep pre-dexed libraries in the secondary dex they were
+   *     assigned to by the previous build, so that only the affected secondary dexes are merged
+   *     again.
+   */
+  public boolean isIncrementalPreDexMergeEnabled() {
+    return delegate.getBooleanValue("dx", "incremental_pre_dex_merge", false);
+  }
 }
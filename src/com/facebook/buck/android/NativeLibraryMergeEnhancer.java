@@ -59,7 +59,6 @@ import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
-import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
@@ -1050,42 +1049,29 @@ class NativeLibraryMergeEnhancer {
                   elf.getMandatorySectionByName(linkOutput, sectionName).getSection();
               ElfSection strings =
                   elf.getMandatorySectionByName(linkOutput, stringSectionName).getSection();
-              ElfSymbolTable table = ElfSymbolTable.parse(elf.header.ei_class, section.body);
-
-              ImmutableList.Builder<ElfSymbolTable.Entry> fixedEntries = ImmutableList.builder();
-              RichStream.from(table.entries)
-                  .map(
-                      entry ->
-                          new ElfSymbolTable.Entry(
-                              entry.st_name,
-                              fixInfoField(strings, entry.st_name, entry.st_info),
-                              fixOtherField(strings, entry.st_name, entry.st_other),
-                              entry.st_shndx,
-                              entry.st_value,
-                              entry.st_size))
-                  .forEach(fixedEntries::add);
-              ElfSymbolTable fixedUpTable = new ElfSymbolTable(fixedEntries.build());
-              Preconditions.checkState(table.entries.size() == fixedUpTable.entries.size());
-              section.body.rewind();
-              fixedUpTable.write(elf.header.ei_class, section.body);
-            }
-
-            private ElfSymbolTable.Entry.Info fixInfoField(
-                ElfSection strings, long st_name, ElfSymbolTable.Entry.Info st_info) {
-              if (symbolsToLocalize.contains(strings.lookupString(st_name))) {
-                // Change binding to local.
-                return new ElfSymbolTable.Entry.Info(
-                    ElfSymbolTable.Entry.Info.Bind.STB_LOCAL, st_info.st_type);
-              }
-              return st_info;
-            }
-
-            private int fixOtherField(ElfSection strings, long st_name, int st_other) {
-              if (symbolsToLocalize.contains(strings.lookupString(st_name))) {
-                // Change visibility to hidden.
-                return (st_other & ~0x3) | 2;
+              // Only the entries of the symbols to localize change, so patch them in place.
+              int numberOfEntries =
+                  ElfSymbolTable.getNumberOfEntries(elf.header.ei_class, section.body);
+              for (int index = 0; index < numberOfEntries; index++) {
+                ElfSymbolTable.Entry entry =
+                    ElfSymbolTable.getEntry(elf.header.ei_class, section.body, index);
+                if (symbolsToLocalize.contains(strings.lookupString(entry.st_name))) {
+                  ElfSymbolTable.putEntry(
+                      elf.header.ei_class,
+                      section.body,
+                      index,
+                      new ElfSymbolTable.Entry(
+                          entry.st_name,
+                          // Change binding to local.
+                          new ElfSymbolTable.Entry.Info(
+                              ElfSymbolTable.Entry.Info.Bind.STB_LOCAL, entry.st_info.st_type),
+                          // Change visibility to hidden.
+                          (entry.st_other & ~0x3) | 2,
+                          entry.st_shndx,
+                          entry.st_value,
+                          entry.st_size));
+                }
               }
-              return st_other;
             }
 
             @Override
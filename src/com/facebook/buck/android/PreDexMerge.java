@@ -39,8 +39,10 @@ import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.facebook.buck.step.fs.RmStep;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.facebook.buck.util.types.Pair;
+import com.google.common.base.Splitter;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.HashMultimap;
@@ -58,6 +60,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -96,6 +99,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
 
   @AddToRuleKey private final DexSplitMode dexSplitMode;
   @AddToRuleKey private final String dexTool;
+  @AddToRuleKey private final boolean incrementalMerge;
 
   private final AndroidPlatformTarget androidPlatformTarget;
   private final APKModuleGraph apkModuleGraph;
@@ -115,7 +119,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       ListeningExecutorService dxExecutorService,
       int xzCompressionLevel,
       Optional<String> dxMaxHeapSize,
-      String dexTool) {
+      String dexTool,
+      boolean incrementalMerge) {
     super(buildTarget, projectFilesystem, params);
     this.androidPlatformTarget = androidPlatformTarget;
     this.dexSplitMode = dexSplitMode;
@@ -125,6 +130,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     this.xzCompressionLevel = xzCompressionLevel;
     this.dxMaxHeapSize = dxMaxHeapSize;
     this.dexTool = dexTool;
+    this.incrementalMerge = incrementalMerge;
   }
 
   @Override
@@ -164,6 +170,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     private final Path additionalJarfilesDir;
     private final Path additionalJarfilesSubdir;
     private final Path metadataFile;
+    private final Path assignmentFile;
 
     private SplitDexPaths() {
       Path workDir = getSecondaryDexRoot();
@@ -179,6 +186,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       additionalJarfilesDir = workDir.resolve("additional_dexes");
       additionalJarfilesSubdir = additionalJarfilesDir.resolve("assets");
       metadataFile = metadataSubdir.resolve("metadata.txt");
+      // Recorded with the secondary dexes it describes, so that a fetched split is continued.
+      assignmentFile = workDir.resolve("secondary_dex_assignment.txt");
     }
   }
 
@@ -308,9 +317,11 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
                   "^com/facebook/buck_generated/AppWithoutResourcesStub^")
               .build();
     }
+    SourcePathResolver sourcePathResolver = context.getSourcePathResolver();
+    ImmutableMultimap<APKModule, DexWithClasses> dexFilesToMerge = dexFilesToMergeBuilder.build();
     PreDexedFilesSorter preDexedFilesSorter =
         new PreDexedFilesSorter(
-            dexFilesToMergeBuilder.build(),
+            dexFilesToMerge,
             primaryDexPatterns,
             apkModuleGraph,
             paths.scratchDir,
@@ -319,7 +330,10 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
             dexSplitMode.getLinearAllocHardLimit(),
             dexSplitMode.getDexStore(),
             paths.jarfilesSubdir,
-            paths.additionalJarfilesSubdir);
+            paths.additionalJarfilesSubdir,
+            incrementalMerge
+                ? readPreviousAssignment(sourcePathResolver, dexFilesToMerge, paths.assignmentFile)
+                : Optional.empty());
     ImmutableMap<String, PreDexedFilesSorter.Result> sortResults =
         preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(getProjectFilesystem(), steps);
 
@@ -329,7 +343,6 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       throw new HumanReadableException("No classes found in primary or secondary dexes");
     }
 
-    SourcePathResolver sourcePathResolver = context.getSourcePathResolver();
     Multimap<Path, SourcePath> aggregatedOutputToInputs = HashMultimap.create();
     ImmutableMap.Builder<Path, Sha1HashCode> dexInputHashesBuilder = ImmutableMap.builder();
     for (PreDexedFilesSorter.Result result : sortResults.values()) {
@@ -386,6 +399,91 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     }
 
     addMetadataWriteStep(rootApkModuleResult, steps, paths.metadataFile);
+
+    if (incrementalMerge) {
+      addAssignmentWriteStep(sourcePathResolver, sortResults, steps, paths.assignmentFile);
+      buildableContext.recordArtifact(paths.assignmentFile);
+    } else {
+      steps.add(
+          RmStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), paths.assignmentFile)));
+    }
+  }
+
+  /**
+   * Reads the secondary dex assignment written by the previous incremental build, if any. Each
+   * line holds the APK module name, the zero-based secondary dex index and the path of a pre-dexed
+   * input, separated by tabs.
+   */
+  private Optional<ImmutableMap<String, ImmutableMap<SourcePath, Integer>>> readPreviousAssignment(
+      SourcePathResolver sourcePathResolver,
+      ImmutableMultimap<APKModule, DexWithClasses> dexFilesToMerge,
+      Path assignmentFile) {
+    if (!getProjectFilesystem().isFile(assignmentFile)) {
+      return Optional.empty();
+    }
+    Map<String, Map<String, Integer>> previousIndexes = new HashMap<>();
+    try {
+      for (String line : getProjectFilesystem().readLines(assignmentFile)) {
+        List<String> fields = Splitter.on('\t').limit(3).splitToList(line);
+        if (fields.size() != 3) {
+          return Optional.empty();
+        }
+        previousIndexes
+            .computeIfAbsent(fields.get(0), module -> new HashMap<>())
+            .put(fields.get(2), Integer.parseInt(fields.get(1)));
+      }
+    } catch (IOException | NumberFormatException e) {
+      // A damaged assignment only costs a full re-merge.
+      return Optional.empty();
+    }
+
+    ImmutableMap.Builder<String, ImmutableMap<SourcePath, Integer>> assignment =
+        ImmutableMap.builder();
+    for (APKModule module : dexFilesToMerge.keySet()) {
+      Map<String, Integer> moduleIndexes =
+          previousIndexes.getOrDefault(module.getName(), ImmutableMap.of());
+      ImmutableMap.Builder<SourcePath, Integer> moduleAssignment = ImmutableMap.builder();
+      for (DexWithClasses dexWithClasses : dexFilesToMerge.get(module)) {
+        SourcePath sourcePath = dexWithClasses.getSourcePathToDexFile();
+        Integer index =
+            moduleIndexes.get(
+                sourcePathResolver.getRelativePath(getProjectFilesystem(), sourcePath).toString());
+        if (index != null) {
+          moduleAssignment.put(sourcePath, index);
+        }
+      }
+      assignment.put(module.getName(), moduleAssignment.build());
+    }
+    return Optional.of(assignment.build());
+  }
+
+  private void addAssignmentWriteStep(
+      SourcePathResolver sourcePathResolver,
+      ImmutableMap<String, PreDexedFilesSorter.Result> sortResults,
+      ImmutableList.Builder<Step> steps,
+      Path assignmentFile) {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    for (PreDexedFilesSorter.Result result : sortResults.values()) {
+      for (Map.Entry<SourcePath, Integer> entry : result.secondaryDexAssignment.entrySet()) {
+        lines.add(
+            String.format(
+                "%s\t%d\t%s",
+                result.apkModule.getName(),
+                entry.getValue(),
+                sourcePathResolver.getRelativePath(getProjectFilesystem(), entry.getKey())));
+      }
+    }
+    ImmutableList<String> assignmentLines = lines.build();
+    steps.add(
+        new AbstractExecutionStep("write_secondary_dex_assignment") {
+          @Override
+          public StepExecutionResult execute(ExecutionContext executionContext) throws IOException {
+            getProjectFilesystem().writeLinesToPath(assignmentLines, assignmentFile);
+            return StepExecutionResults.SUCCESS;
+          }
+        });
   }
 
   private void addResolvedPathsToBuilder(
@@ -30,6 +30,7 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
@@ -50,7 +51,10 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /** Responsible for bucketing pre-dexed objects into primary and secondary dex files. */
 public class PreDexedFilesSorter {
@@ -62,6 +66,8 @@ public class PreDexedFilesSorter {
   private final DexStore dexStore;
   private final Path secondaryDexJarFilesDir;
   private final Path additionalDexJarFilesDir;
+  private final Optional<ImmutableMap<String, ImmutableMap<SourcePath, Integer>>>
+      previousAssignment;
 
   /**
    * Directory under the project filesystem where this step may write temporary data. This directory
@@ -78,6 +84,33 @@ public class PreDexedFilesSorter {
       DexStore dexStore,
       Path secondaryDexJarFilesDir,
       Path additionalDexJarFilesDir) {
+    this(
+        dexFilesToMerge,
+        primaryDexPatterns,
+        apkModuleGraph,
+        scratchDirectory,
+        dexWeightLimit,
+        dexStore,
+        secondaryDexJarFilesDir,
+        additionalDexJarFilesDir,
+        Optional.empty());
+  }
+
+  /**
+   * @param previousAssignment if present, the secondary dex index each input was assigned to by a
+   *     previous build, keyed by APK module name. Inputs keep their previous secondary dex whenever
+   *     the weight limit allows, so that unchanged secondary dexes do not have to be merged again.
+   */
+  public PreDexedFilesSorter(
+      ImmutableMultimap<APKModule, DexWithClasses> dexFilesToMerge,
+      ImmutableSet<String> primaryDexPatterns,
+      APKModuleGraph apkModuleGraph,
+      Path scratchDirectory,
+      long dexWeightLimit,
+      DexStore dexStore,
+      Path secondaryDexJarFilesDir,
+      Path additionalDexJarFilesDir,
+      Optional<ImmutableMap<String, ImmutableMap<SourcePath, Integer>>> previousAssignment) {
     this.dexFilesToMerge = dexFilesToMerge;
     this.primaryDexFilter = ClassNameFilter.fromConfiguration(primaryDexPatterns);
     this.apkModuleGraph = apkModuleGraph;
@@ -87,6 +120,7 @@ public class PreDexedFilesSorter {
     this.dexStore = dexStore;
     this.secondaryDexJarFilesDir = secondaryDexJarFilesDir;
     this.additionalDexJarFilesDir = additionalDexJarFilesDir;
+    this.previousAssignment = previousAssignment;
   }
 
   public ImmutableMap<String, Result> sortIntoPrimaryAndSecondaryDexes(
@@ -104,19 +138,36 @@ public class PreDexedFilesSorter {
               .toSortedList(DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
 
       // Bucket each DexWithClasses into the appropriate dex file.
+      List<DexWithClasses> secondaryDexFilesToMerge = new ArrayList<>();
       for (DexWithClasses dexWithClasses : sortedDexFilesToMerge) {
         if (module.equals(apkModuleGraph.getRootAPKModule())
             && mustBeInPrimaryDex(dexWithClasses)) {
           // Case 1: Entry must be in the primary dex.
           rootStoreContents.addPrimaryDex(dexWithClasses);
         } else {
-          DexStoreContents storeContents = apkModuleDexesContents.get(module);
-          if (storeContents == null) {
-            storeContents = new DexStoreContents(module, filesystem, steps);
-            apkModuleDexesContents.put(module, storeContents);
-          }
-          storeContents.addDex(dexWithClasses);
+          secondaryDexFilesToMerge.add(dexWithClasses);
+        }
+      }
+      if (secondaryDexFilesToMerge.isEmpty()) {
+        continue;
+      }
+
+      DexStoreContents storeContents = apkModuleDexesContents.get(module);
+      if (storeContents == null) {
+        storeContents = new DexStoreContents(module, filesystem, steps);
+        apkModuleDexesContents.put(module, storeContents);
+      }
+      Optional<ImmutableMap<SourcePath, Integer>> previousModuleAssignment =
+          previousAssignment.map(assignment -> assignment.get(module.getName()));
+      if (previousModuleAssignment.isPresent()) {
+        for (List<DexWithClasses> secondaryDex :
+            assignSecondaryDexes(
+                secondaryDexFilesToMerge, previousModuleAssignment.get(), dexWeightLimit)) {
+          storeContents.startNewDex();
+          secondaryDex.forEach(storeContents::addToCurrentDex);
         }
+      } else {
+        secondaryDexFilesToMerge.forEach(storeContents::addDex);
       }
     }
 
@@ -129,6 +180,80 @@ public class PreDexedFilesSorter {
     return resultBuilder.build();
   }
 
+  /**
+   * Splits the inputs of one dex store into secondary dexes, starting from the split of a previous
+   * build. Inputs stay in their previous secondary dex while it has room; new inputs and inputs
+   * that no longer fit are added to the first secondary dex with room for them. Falls back to a
+   * fresh split if reusing the previous split would produce more secondary dexes than a fresh one.
+   *
+   * @param sortedDexFiles inputs in the order used for a fresh split
+   * @param previousAssignment the previous secondary dex index of each input that had one
+   */
+  @VisibleForTesting
+  static List<List<DexWithClasses>> assignSecondaryDexes(
+      List<DexWithClasses> sortedDexFiles,
+      Map<SourcePath, Integer> previousAssignment,
+      long dexWeightLimit) {
+    List<List<DexWithClasses>> freshSplit = splitGreedily(sortedDexFiles, dexWeightLimit);
+
+    SortedMap<Integer, List<DexWithClasses>> previousDexes = new TreeMap<>();
+    Map<Integer, Long> previousDexWeights = new HashMap<>();
+    List<DexWithClasses> unassigned = new ArrayList<>();
+    for (DexWithClasses dexWithClasses : sortedDexFiles) {
+      Integer index = previousAssignment.get(dexWithClasses.getSourcePathToDexFile());
+      long weight = dexWithClasses.getWeightEstimate();
+      if (index != null && previousDexWeights.getOrDefault(index, 0L) + weight <= dexWeightLimit) {
+        previousDexes.computeIfAbsent(index, i -> new ArrayList<>()).add(dexWithClasses);
+        previousDexWeights.merge(index, weight, Long::sum);
+      } else {
+        unassigned.add(dexWithClasses);
+      }
+    }
+
+    List<List<DexWithClasses>> split = new ArrayList<>(previousDexes.values());
+    List<Long> weights = new ArrayList<>();
+    for (Integer index : previousDexes.keySet()) {
+      weights.add(previousDexWeights.get(index));
+    }
+    for (DexWithClasses dexWithClasses : unassigned) {
+      long weight = dexWithClasses.getWeightEstimate();
+      int index = 0;
+      while (index < split.size() && weights.get(index) + weight > dexWeightLimit) {
+        index++;
+      }
+      if (index == split.size()) {
+        split.add(new ArrayList<>());
+        weights.add(0L);
+      }
+      split.get(index).add(dexWithClasses);
+      weights.set(index, weights.get(index) + weight);
+    }
+
+    return split.size() > freshSplit.size() ? freshSplit : split;
+  }
+
+  /** Fills each secondary dex in order until the next input would exceed the weight limit. */
+  private static List<List<DexWithClasses>> splitGreedily(
+      List<DexWithClasses> sortedDexFiles, long dexWeightLimit) {
+    List<List<DexWithClasses>> split = new ArrayList<>();
+    List<DexWithClasses> current = new ArrayList<>();
+    long currentWeight = 0;
+    for (DexWithClasses dexWithClasses : sortedDexFiles) {
+      long weight = dexWithClasses.getWeightEstimate();
+      if (!current.isEmpty() && currentWeight + weight > dexWeightLimit) {
+        split.add(current);
+        current = new ArrayList<>();
+        currentWeight = 0;
+      }
+      current.add(dexWithClasses);
+      currentWeight += weight;
+    }
+    if (!current.isEmpty()) {
+      split.add(current);
+    }
+    return split;
+  }
+
   private boolean mustBeInPrimaryDex(DexWithClasses dexWithClasses) {
     for (String className : dexWithClasses.getClassNames()) {
       if (primaryDexFilter.matches(className)) {
@@ -171,10 +296,17 @@ public class PreDexedFilesSorter {
     public void addDex(DexWithClasses dexWithClasses) {
       // If we're over the size threshold, start writing to a new dex
       if (dexWithClasses.getWeightEstimate() + currentDexSize > dexWeightLimit) {
-        currentDexSize = 0;
-        currentDexContents = new ArrayList<>();
+        startNewDex();
       }
+      addToCurrentDex(dexWithClasses);
+    }
 
+    void startNewDex() {
+      currentDexSize = 0;
+      currentDexContents = new ArrayList<>();
+    }
+
+    void addToCurrentDex(DexWithClasses dexWithClasses) {
       // If this is the first class in the dex, initialize it with a canary and add it to the set of
       // dexes.
       if (currentDexContents.isEmpty()) {
@@ -202,6 +334,7 @@ public class PreDexedFilesSorter {
       Map<Path, DexWithClasses> metadataTxtEntries = new HashMap<>();
       ImmutableMultimap.Builder<Path, SourcePath> secondaryOutputToInputs =
           ImmutableMultimap.builder();
+      ImmutableMap.Builder<SourcePath, Integer> secondaryDexAssignment = ImmutableMap.builder();
       boolean isRootModule = apkModule.equals(apkModuleGraph.getRootAPKModule());
 
       for (int index = 0; index < dexesContents.size(); index++) {
@@ -216,6 +349,11 @@ public class PreDexedFilesSorter {
                   .resolve(dexStore.fileNameForSecondary(apkModule.getName(), index));
         }
         metadataTxtEntries.put(pathToSecondaryDex, dexesContents.get(index).get(0));
+        // The first entry is the canary, which is recreated for every build.
+        for (DexWithClasses dexWithClasses :
+            dexesContents.get(index).subList(1, dexesContents.get(index).size())) {
+          secondaryDexAssignment.put(dexWithClasses.getSourcePathToDexFile(), index);
+        }
         Collection<SourcePath> dexContentPaths =
             Collections2.transform(
                 dexesContents.get(index), DexWithClasses::getSourcePathToDexFile);
@@ -232,7 +370,8 @@ public class PreDexedFilesSorter {
           primaryDexInputs,
           secondaryOutputToInputs.build(),
           metadataTxtEntries,
-          dexInputsHashes.build());
+          dexInputsHashes.build(),
+          secondaryDexAssignment.build());
     }
 
     private void throwErrorForPrimaryDexExceedsWeightLimit() {
@@ -319,18 +458,22 @@ public class PreDexedFilesSorter {
     public final Multimap<Path, SourcePath> secondaryOutputToInputs;
     public final Map<Path, DexWithClasses> metadataTxtDexEntries;
     public final ImmutableMap<SourcePath, Sha1HashCode> dexInputHashes;
+    /** The zero-based secondary dex index of every input that is not in the primary dex. */
+    public final ImmutableMap<SourcePath, Integer> secondaryDexAssignment;
 
     public Result(
         APKModule apkModule,
         Set<SourcePath> primaryDexInputs,
         Multimap<Path, SourcePath> secondaryOutputToInputs,
         Map<Path, DexWithClasses> metadataTxtDexEntries,
-        ImmutableMap<SourcePath, Sha1HashCode> dexInputHashes) {
+        ImmutableMap<SourcePath, Sha1HashCode> dexInputHashes,
+        ImmutableMap<SourcePath, Integer> secondaryDexAssignment) {
       this.apkModule = apkModule;
       this.primaryDexInputs = primaryDexInputs;
       this.secondaryOutputToInputs = secondaryOutputToInputs;
       this.metadataTxtDexEntries = metadataTxtDexEntries;
       this.dexInputHashes = dexInputHashes;
+      this.secondaryDexAssignment = secondaryDexAssignment;
     }
   }
 }
@@ -19,6 +19,8 @@ import com.facebook.buck.android.DxStep.Option;
 import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
@@ -232,10 +234,27 @@ public class SmartDexingStep implements Step {
       throws StepFailedException, InterruptedException {
     // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
     // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-    Stream<ImmutableList<Step>> dxSteps = generateDxCommands(filesystem, outputToInputs);
+    ImmutableList<ImmutableList<Step>> dxSteps =
+        generateDxCommands(filesystem, outputToInputs).collect(ImmutableList.toImmutableList());
+
+    // Report how many of the dex files had to be rewritten, which shows how well an incremental
+    // pre-dex merge kept the unchanged secondary dexes stable.
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(
+            context.getBuckEventBus(),
+            PerfEventId.of(SHORT_NAME),
+            "dex_files_total",
+            outputToInputs.keySet().size(),
+            "dex_files_rewritten",
+            dxSteps.size())) {
+      runDxSteps(context, dxSteps);
+    }
+  }
 
+  private void runDxSteps(ExecutionContext context, ImmutableList<ImmutableList<Step>> dxSteps)
+      throws StepFailedException, InterruptedException {
     ImmutableList<Callable<Void>> callables =
-        dxSteps
+        dxSteps.stream()
             .map(
                 steps ->
                     (Callable<Void>)
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.android.common.SdkConstants;
+import com.android.common.sdklib.build.ApkBuilder;
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.PreparedZipEntry;
+import com.facebook.buck.util.zip.RawZipFile;
+import com.facebook.buck.util.zip.ZipOutputStreams;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes the same entries as {@link ApkBuilderStep} in a single pass, already aligned and without
+ * timestamps, so that the result can be signed directly by {@link ApkSignerStep} without going
+ * through {@code ZipScrubberStep}, {@code RepackZipEntriesStep} and {@link ZipalignStep} first.
+ *
+ * <p>Loose files are deflated on a pool of threads while entries are written in order. Entries
+ * copied from zip files (the resource apk, prebuilt native library zips and resource jars) keep
+ * their compressed bytes and are not inflated and deflated again.
+ */
+public class StreamingApkBuilderStep implements Step {
+
+  /** The alignment zipalign applies to uncompressed entries. */
+  @VisibleForTesting static final int ALIGNMENT = 4;
+
+  /** The compression level ApkBuilder uses for files it adds to the APK. */
+  private static final int COMPRESSION_LEVEL = 4;
+
+  /** The compression level RepackZipEntriesStep uses for compressed resources. */
+  private static final int RESOURCES_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+
+  private static final Pattern NATIVE_LIBRARY_PATTERN =
+      Pattern.compile("^.+\\.(so|bc)$", Pattern.CASE_INSENSITIVE);
+
+  private static final String RESOURCES_TABLE = "resources.arsc";
+
+  private final ProjectFilesystem filesystem;
+  private final Path resourceApk;
+  private final Path dexFile;
+  private final Path pathToOutputApkFile;
+  private final ImmutableSet<Path> assetDirectories;
+  private final ImmutableSet<Path> nativeLibraryDirectories;
+  private final ImmutableSet<Path> zipFiles;
+  private final ImmutableSet<Path> jarFilesThatMayContainResources;
+  private final boolean compressResources;
+
+  /**
+   * @param resourceApk Path to the Apk which only contains resources, no dex files.
+   * @param pathToOutputApkFile Path to output our APK to. The APK is aligned but not signed.
+   * @param dexFile Path to the classes.dex file.
+   * @param assetDirectories List of paths to assets to be included in the apk.
+   * @param nativeLibraryDirectories List of paths to native directories.
+   * @param zipFiles List of paths to zipfiles to be included into the apk.
+   * @param compressResources Whether to deflate {@code resources.arsc} if it is stored.
+   */
+  public StreamingApkBuilderStep(
+      ProjectFilesystem filesystem,
+      Path resourceApk,
+      Path pathToOutputApkFile,
+      Path dexFile,
+      ImmutableSet<Path> assetDirectories,
+      ImmutableSet<Path> nativeLibraryDirectories,
+      ImmutableSet<Path> zipFiles,
+      ImmutableSet<Path> jarFilesThatMayContainResources,
+      boolean compressResources) {
+    this.filesystem = filesystem;
+    this.resourceApk = resourceApk;
+    this.pathToOutputApkFile = pathToOutputApkFile;
+    this.dexFile = dexFile;
+    this.assetDirectories = assetDirectories;
+    this.nativeLibraryDirectories = nativeLibraryDirectories;
+    this.zipFiles = zipFiles;
+    this.jarFilesThatMayContainResources = jarFilesThatMayContainResources;
+    this.compressResources = compressResources;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    int threads = Math.max(1, context.getConcurrencyLimit().threadLimit);
+    ExecutorService executor = MostExecutors.newMultiThreadExecutor("apk_builder", threads);
+    try (EntrySources sources = collectEntries()) {
+      writeApk(sources.entries, executor, 2 * threads);
+    } catch (ExecutionException e) {
+      context.logError(e.getCause(), "Error when creating APK at: %s.", pathToOutputApkFile);
+      return StepExecutionResults.ERROR;
+    } finally {
+      executor.shutdownNow();
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  /**
+   * Prepares entries on {@code executor}, keeping at most {@code window} of them in memory, and
+   * writes them in the order in which they were collected.
+   */
+  private void writeApk(List<PreparedZipEntry.Source> entries, ExecutorService executor, int window)
+      throws IOException, InterruptedException, ExecutionException {
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(filesystem.resolve(pathToOutputApkFile))) {
+      PreparedZipEntry.writeInOrder(out, entries, executor, window);
+    }
+  }
+
+  /** Lists the entries of the APK in the order used by {@link ApkBuilder}. */
+  private EntrySources collectEntries() throws IOException {
+    EntrySources sources = new EntrySources();
+    try {
+      sources.addZip(filesystem.resolve(resourceApk), false);
+      sources.addFile(filesystem.resolve(dexFile), SdkConstants.FN_APK_CLASSES_DEX);
+      for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
+        addNativeLibraries(sources, filesystem.resolve(nativeLibraryDirectory));
+      }
+      for (Path assetDirectory : assetDirectories) {
+        for (Path child : sortedChildren(filesystem.resolve(assetDirectory))) {
+          addSourceFile(sources, child, null);
+        }
+      }
+      for (Path zipFile : zipFiles) {
+        if (filesystem.exists(zipFile) && filesystem.isFile(zipFile)) {
+          sources.addZip(filesystem.resolve(zipFile), false);
+        }
+      }
+      for (Path jarFile : jarFilesThatMayContainResources) {
+        sources.addZip(filesystem.resolve(jarFile), true);
+      }
+    } catch (IOException | RuntimeException e) {
+      sources.close();
+      throw e;
+    }
+    return sources;
+  }
+
+  private void addNativeLibraries(EntrySources sources, Path nativeFolder) throws IOException {
+    if (!Files.isDirectory(nativeFolder)) {
+      return;
+    }
+    for (Path abi : sortedChildren(nativeFolder)) {
+      if (!Files.isDirectory(abi)) {
+        continue;
+      }
+      for (Path library : sortedChildren(abi)) {
+        String name = library.getFileName().toString();
+        if (Files.isRegularFile(library) && NATIVE_LIBRARY_PATTERN.matcher(name).matches()) {
+          sources.addFile(
+              library,
+              SdkConstants.FD_APK_NATIVE_LIBS + "/" + abi.getFileName() + "/" + name);
+        }
+      }
+    }
+  }
+
+  private void addSourceFile(EntrySources sources, Path file, String parent) throws IOException {
+    String name = file.getFileName().toString();
+    String path = parent == null ? name : parent + "/" + name;
+    if (Files.isDirectory(file)) {
+      if (ApkBuilder.checkFolderForPackaging(name)) {
+        for (Path child : sortedChildren(file)) {
+          addSourceFile(sources, child, path);
+        }
+      }
+    } else if (ApkBuilder.checkFileForPackaging(name)) {
+      sources.addFile(file, path);
+    }
+  }
+
+  private static List<Path> sortedChildren(Path directory) throws IOException {
+    try (Stream<Path> children = Files.list(directory)) {
+      return children.sorted().collect(Collectors.toList());
+    }
+  }
+
+  /** Same checks as the filter {@link ApkBuilder} applies to the entries of resource jars. */
+  private static boolean isJavaResource(String archivePath) {
+    String[] segments = archivePath.split("/");
+    if (segments.length == 0) {
+      return false;
+    }
+    for (int i = 0; i < segments.length - 1; i++) {
+      if (!ApkBuilder.checkFolderForPackaging(segments[i])) {
+        return false;
+      }
+    }
+    return ApkBuilder.checkFileForPackaging(segments[segments.length - 1]);
+  }
+
+  /** Aligns {@code entry} like zipalign does, if it is stored. */
+  private static PreparedZipEntry aligned(PreparedZipEntry entry) {
+    if (entry.getEntry().getMethod() == ZipEntry.STORED) {
+      entry.getEntry().setAlignment(ALIGNMENT);
+    }
+    return entry;
+  }
+
+  @Override
+  public String getShortName() {
+    return "streaming_apk_builder";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.join(
+        " ",
+        "streaming_apk_builder",
+        "-u",
+        pathToOutputApkFile.toString(),
+        "-z",
+        resourceApk.toString(),
+        "-f",
+        dexFile.toString());
+  }
+
+  /** The entries of the APK, along with the zip files they are copied from. */
+  private class EntrySources implements Closeable {
+    private final List<PreparedZipEntry.Source> entries = new ArrayList<>();
+    private final Map<String, Path> origins = new HashMap<>();
+    private final List<RawZipFile> openZips = new ArrayList<>();
+
+    void addFile(Path file, String name) {
+      checkForDuplicate(name, file);
+      entries.add(
+          () ->
+              aligned(
+                  PreparedZipEntry.compressedOrStored(
+                      name, Files.readAllBytes(file), COMPRESSION_LEVEL)));
+    }
+
+    void addZip(Path path, boolean onlyJavaResources) throws IOException {
+      RawZipFile zip = new RawZipFile(path);
+      openZips.add(zip);
+      for (RawZipFile.Entry entry : zip.getEntries()) {
+        String name = entry.getName();
+        if (entry.isDirectory()
+            || name.startsWith("META-INF/")
+            || (onlyJavaResources && !isJavaResource(name))) {
+          continue;
+        }
+        checkForDuplicate(name, path);
+        boolean deflate =
+            compressResources
+                && name.equals(RESOURCES_TABLE)
+                && entry.getMethod() == ZipEntry.STORED;
+        entries.add(
+            () -> {
+              byte[] data = zip.readRawData(entry);
+              if (deflate) {
+                return aligned(
+                    PreparedZipEntry.compressedOrStored(name, data, RESOURCES_COMPRESSION_LEVEL));
+              }
+              return aligned(PreparedZipEntry.copied(name, entry, data));
+            });
+      }
+    }
+
+    private void checkForDuplicate(String name, Path origin) {
+      Path previous = origins.putIfAbsent(name, origin);
+      if (previous != null) {
+        throw new HumanReadableException(
+            String.format(
+                "Found duplicate file for APK: %1$s\nOrigin 1: %2$s\nOrigin 2: %3$s",
+                name, previous, origin));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RawZipFile zip : openZips) {
+        zip.close();
+      }
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.ThrowingPrintWriter;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.xml.DocumentLocation;
 import com.facebook.buck.util.xml.PositionalXmlHandler;
@@ -39,6 +40,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -46,14 +48,22 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
@@ -81,6 +91,8 @@ public class MiniAapt implements Step {
   private static final String PUBLIC_TAG = "public";
   private static final String PUBLIC_FILENAME = "public.xml";
   private static final String CUSTOM_DRAWABLE_PREFIX = "app-";
+  // How many xml files are parsed or being parsed ahead of the reader, per thread.
+  private static final int XML_READ_AHEAD_PER_THREAD = 4;
 
   private static final XPathExpression ANDROID_ID_USAGE =
       createExpression(
@@ -119,6 +131,14 @@ public class MiniAapt implements Step {
   private final boolean isGrayscaleImageProcessingEnabled;
   private final ResourceCollectionType resourceCollectionType;
 
+  /**
+   * Parses the xml files that the current pass over the res directory is about to read, on a thread
+   * pool. Only the parsing happens in parallel. Resources are still collected on a single thread
+   * and in the same order as before, as the collectors keep the first definition of a resource that
+   * they see.
+   */
+  @Nullable private XmlReadAhead xmlReadAhead;
+
   public MiniAapt(
       SourcePathResolver resolver,
       ProjectFilesystem filesystem,
@@ -193,12 +213,37 @@ public class MiniAapt implements Step {
     ImmutableSet.Builder<RDotTxtEntry> references = ImmutableSet.builder();
 
     ProjectFilesystemView filesystemViewWithoutIgnores = filesystem.asView();
+    int threads = Math.max(1, context.getConcurrencyLimit().threadLimit);
+    ExecutorService executor = MostExecutors.newMultiThreadExecutor("mini_aapt", threads);
     try {
+      ImmutableList<Path> xmlFiles = getXmlFiles(filesystemViewWithoutIgnores);
+      // Both passes read the files in the order of the directory walk, skipping some of them.
+      xmlReadAhead =
+          new XmlReadAhead(
+              xmlFiles.stream()
+                  .filter(path -> isAValuesDir(getResourceDirName(path)) || isDrawable(path))
+                  .collect(ImmutableList.toImmutableList()),
+              executor,
+              threads * XML_READ_AHEAD_PER_THREAD);
       collectResources(filesystemViewWithoutIgnores, context.getBuckEventBus());
+      xmlReadAhead.close();
+      xmlReadAhead =
+          new XmlReadAhead(
+              xmlFiles.stream()
+                  .filter(path -> !isAValuesDir(getResourceDirName(path)))
+                  .collect(ImmutableList.toImmutableList()),
+              executor,
+              threads * XML_READ_AHEAD_PER_THREAD);
       processXmlFilesForIds(filesystemViewWithoutIgnores, references);
     } catch (XPathExpressionException | ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return StepExecutionResults.ERROR;
+    } finally {
+      if (xmlReadAhead != null) {
+        xmlReadAhead.close();
+        xmlReadAhead = null;
+      }
+      executor.shutdownNow();
     }
 
     Set<RDotTxtEntry> missing = verifyReferences(filesystem, references.build());
@@ -331,11 +376,9 @@ public class MiniAapt implements Step {
     boolean isGrayscaleImage = false;
     boolean isCustomDrawable = false;
     if (filename.endsWith(".xml")) {
-      try (InputStream stream = filesystem.newFileInputStream(resourceFile)) {
-        Document dom = parseXml(resourceFile, stream);
-        Element root = dom.getDocumentElement();
-        isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
-      }
+      Document dom = readXml(filesystem, resourceFile);
+      Element root = dom.getDocumentElement();
+      isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
     } else if (isGrayscaleImageProcessingEnabled) {
       isGrayscaleImage = filename.endsWith(".g.png");
     }
@@ -397,61 +440,59 @@ public class MiniAapt implements Step {
   @VisibleForTesting
   void processValuesFile(ProjectFilesystem filesystem, Path valuesFile)
       throws IOException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(valuesFile)) {
-      Document dom = parseXml(valuesFile, stream);
-      Element root = dom.getDocumentElement();
+    Document dom = readXml(filesystem, valuesFile);
+    Element root = dom.getDocumentElement();
+
+    // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
+    // This is useful to exclude using generated strings to build the
+    // resource map, which ensures a build break will show up at build time
+    // rather than being hidden until generated resources are updated.
+    if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
+      return;
+    }
 
-      // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
-      // This is useful to exclude using generated strings to build the
-      // resource map, which ensures a build break will show up at build time
-      // rather than being hidden until generated resources are updated.
-      if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
-        return;
+    for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
       }
 
-      for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
-        if (node.getNodeType() != Node.ELEMENT_NODE) {
-          continue;
-        }
-
-        String resourceType = node.getNodeName();
-        if (resourceType.equals(ITEM_TAG)) {
-          Node typeNode = verifyNodeHasTypeAttribute(valuesFile, node);
-          resourceType = typeNode.getNodeValue();
-        } else if (resourceType.equals(PUBLIC_TAG)) {
-          Node nameAttribute = node.getAttributes().getNamedItem("name");
-          if (nameAttribute == null || nameAttribute.getNodeValue().isEmpty()) {
-            throw new ResourceParseException(
-                "Error parsing file '%s', expected a 'name' attribute in \n'%s'\n",
-                valuesFile, node.toString());
-          }
-          String type = verifyNodeHasTypeAttribute(valuesFile, node).getNodeValue();
-
-          if (!RESOURCE_TYPES.containsKey(type)) {
-            throw new ResourceParseException(
-                "Invalid resource type '%s' in <public> resource '%s' in file '%s'.",
-                type, nameAttribute.getNodeValue(), valuesFile);
-          }
-
-          if (!PUBLIC_FILENAME.equals(valuesFile.getFileName().toString())) {
-            throw new ResourceParseException(
-                "<public> resource '%s' must be declared in res/values/public.xml, but was declared in '%s'",
-                nameAttribute.getNodeValue(), valuesFile);
-          }
+      String resourceType = node.getNodeName();
+      if (resourceType.equals(ITEM_TAG)) {
+        Node typeNode = verifyNodeHasTypeAttribute(valuesFile, node);
+        resourceType = typeNode.getNodeValue();
+      } else if (resourceType.equals(PUBLIC_TAG)) {
+        Node nameAttribute = node.getAttributes().getNamedItem("name");
+        if (nameAttribute == null || nameAttribute.getNodeValue().isEmpty()) {
+          throw new ResourceParseException(
+              "Error parsing file '%s', expected a 'name' attribute in \n'%s'\n",
+              valuesFile, node.toString());
         }
+        String type = verifyNodeHasTypeAttribute(valuesFile, node).getNodeValue();
 
-        if (IGNORED_TAGS.contains(resourceType)) {
-          continue;
+        if (!RESOURCE_TYPES.containsKey(type)) {
+          throw new ResourceParseException(
+              "Invalid resource type '%s' in <public> resource '%s' in file '%s'.",
+              type, nameAttribute.getNodeValue(), valuesFile);
         }
 
-        if (!RESOURCE_TYPES.containsKey(resourceType)) {
+        if (!PUBLIC_FILENAME.equals(valuesFile.getFileName().toString())) {
           throw new ResourceParseException(
-              "Invalid resource type '<%s>' in '%s'.", resourceType, valuesFile);
+              "<public> resource '%s' must be declared in res/values/public.xml, but was declared in '%s'",
+              nameAttribute.getNodeValue(), valuesFile);
         }
+      }
+
+      if (IGNORED_TAGS.contains(resourceType)) {
+        continue;
+      }
 
-        RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(resourceType));
-        addToResourceCollector(node, rType, valuesFile);
+      if (!RESOURCE_TYPES.containsKey(resourceType)) {
+        throw new ResourceParseException(
+            "Invalid resource type '<%s>' in '%s'.", resourceType, valuesFile);
       }
+
+      RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(resourceType));
+      addToResourceCollector(node, rType, valuesFile);
     }
   }
 
@@ -506,15 +547,8 @@ public class MiniAapt implements Step {
   void processXmlFilesForIds(
       ProjectFilesystemView filesystemView, ImmutableSet.Builder<RDotTxtEntry> references)
       throws IOException, XPathExpressionException, ResourceParseException {
-    Path absoluteResDir = resolver.getAbsolutePath(resDirectory);
-    Path relativeResDir = resolver.getRelativePath(resDirectory);
-    for (Path path :
-        filesystemView.getFilesUnderPath(
-            absoluteResDir,
-            input -> input.toString().endsWith(".xml"),
-            EnumSet.of(FileVisitOption.FOLLOW_LINKS))) {
-      String dirname = relativeResDir.relativize(path).getName(0).toString();
-      if (isAValuesDir(dirname)) {
+    for (Path path : getXmlFiles(filesystemView)) {
+      if (isAValuesDir(getResourceDirName(path))) {
         // Ignore files under values* directories.
         continue;
       }
@@ -526,46 +560,145 @@ public class MiniAapt implements Step {
   void processXmlFile(
       ProjectFilesystem filesystem, Path xmlFile, ImmutableSet.Builder<RDotTxtEntry> references)
       throws IOException, XPathExpressionException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
-      Document dom = parseXml(xmlFile, stream);
-      NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesWithIds.getLength(); i++) {
-        String resourceName = nodesWithIds.item(i).getNodeValue();
-        if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
-        Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
+    Document dom = readXml(filesystem, xmlFile);
+    NodeList nodesWithIds = (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
+    for (int i = 0; i < nodesWithIds.getLength(); i++) {
+      String resourceName = nodesWithIds.item(i).getNodeValue();
+      if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      }
+      Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
 
-        Element ownerElement = ((Attr) nodesWithIds.item(i)).getOwnerElement();
-        DocumentLocation location = extractDocumentLocation(ownerElement);
-        resourceCollector.addIntResourceIfNotPresent(
-            RType.ID, resourceName.substring(ID_DEFINITION_PREFIX.length()), xmlFile, location);
+      Element ownerElement = ((Attr) nodesWithIds.item(i)).getOwnerElement();
+      DocumentLocation location = extractDocumentLocation(ownerElement);
+      resourceCollector.addIntResourceIfNotPresent(
+          RType.ID, resourceName.substring(ID_DEFINITION_PREFIX.length()), xmlFile, location);
+    }
+
+    NodeList nodesUsingIds = (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
+    for (int i = 0; i < nodesUsingIds.getLength(); i++) {
+      String resourceName = nodesUsingIds.item(i).getNodeValue();
+      int slashPosition = resourceName.indexOf('/');
+      if (resourceName.charAt(0) != '@' || slashPosition == -1) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
       }
 
-      NodeList nodesUsingIds = (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesUsingIds.getLength(); i++) {
-        String resourceName = nodesUsingIds.item(i).getNodeValue();
-        int slashPosition = resourceName.indexOf('/');
-        if (resourceName.charAt(0) != '@' || slashPosition == -1) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
+      String rawRType = resourceName.substring(1, slashPosition);
+      String name = resourceName.substring(slashPosition + 1);
 
-        String rawRType = resourceName.substring(1, slashPosition);
-        String name = resourceName.substring(slashPosition + 1);
+      String nodeName = nodesUsingIds.item(i).getNodeName();
+      if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
+        continue;
+      }
+      if (!RESOURCE_TYPES.containsKey(rawRType)) {
+        throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      }
+      RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
 
-        String nodeName = nodesUsingIds.item(i).getNodeName();
-        if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
-          continue;
-        }
-        if (!RESOURCE_TYPES.containsKey(rawRType)) {
-          throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+    }
+  }
+
+  private ImmutableList<Path> getXmlFiles(ProjectFilesystemView filesystemView)
+      throws IOException {
+    return ImmutableList.copyOf(
+        filesystemView.getFilesUnderPath(
+            resolver.getAbsolutePath(resDirectory),
+            input -> input.toString().endsWith(".xml"),
+            EnumSet.of(FileVisitOption.FOLLOW_LINKS)));
+  }
+
+  /** @return the name of the directory directly under the res directory which holds the file. */
+  private String getResourceDirName(Path path) {
+    return resolver.getRelativePath(resDirectory).relativize(path).getName(0).toString();
+  }
+
+  private boolean isDrawable(Path path) {
+    String dirname = getResourceDirName(path);
+    int dashIndex = dirname.indexOf('-');
+    if (dashIndex != -1) {
+      dirname = dirname.substring(0, dashIndex);
+    }
+    return RESOURCE_TYPES.get(dirname) == RType.DRAWABLE;
+  }
+
+  private Document readXml(ProjectFilesystem filesystem, Path file)
+      throws IOException, ResourceParseException {
+    Optional<Future<Document>> parsedXmlFile =
+        xmlReadAhead == null ? Optional.empty() : xmlReadAhead.take(filesystem.resolve(file));
+    if (!parsedXmlFile.isPresent()) {
+      try (InputStream stream = filesystem.newFileInputStream(file)) {
+        return parseXml(file, stream);
+      }
+    }
+    try {
+      return parsedXmlFile.get().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing " + file);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(
+          e.getCause(), IOException.class, ResourceParseException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Parses files in the order they are expected to be read, keeping at most a fixed number of them
+   * parsed or being parsed. Each document is handed out once, and files skipped over by the reader
+   * are dropped, so only the documents about to be read are kept in memory. Failures are only
+   * reported if the file is read, so that files which would otherwise have been skipped do not
+   * cause errors.
+   */
+  private class XmlReadAhead implements AutoCloseable {
+    private final Iterator<Path> upcomingFiles;
+    private final ExecutorService executor;
+    private final int window;
+    private final LinkedHashMap<Path, Future<Document>> parsingFiles = new LinkedHashMap<>();
+
+    XmlReadAhead(ImmutableList<Path> files, ExecutorService executor, int window) {
+      this.upcomingFiles = files.iterator();
+      this.executor = executor;
+      this.window = window;
+      fill();
+    }
+
+    /** @return the parse of the given file, if it was started ahead of time. */
+    Optional<Future<Document>> take(Path absolutePath) {
+      if (!parsingFiles.containsKey(absolutePath)) {
+        return Optional.empty();
+      }
+      Iterator<Map.Entry<Path, Future<Document>>> entries = parsingFiles.entrySet().iterator();
+      while (true) {
+        Map.Entry<Path, Future<Document>> entry = entries.next();
+        entries.remove();
+        if (entry.getKey().equals(absolutePath)) {
+          fill();
+          return Optional.of(entry.getValue());
         }
-        RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
+        entry.getValue().cancel(true);
+      }
+    }
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+    private void fill() {
+      while (parsingFiles.size() < window && upcomingFiles.hasNext()) {
+        Path path = upcomingFiles.next();
+        parsingFiles.put(
+            filesystem.resolve(path),
+            executor.submit(
+                () -> {
+                  try (InputStream stream = filesystem.newFileInputStream(path)) {
+                    return parseXml(path, stream);
+                  }
+                }));
       }
     }
+
+    @Override
+    public void close() {
+      parsingFiles.values().forEach(future -> future.cancel(true));
+      parsingFiles.clear();
+    }
   }
 
   private static Document parseXml(Path filepath, InputStream inputStream)
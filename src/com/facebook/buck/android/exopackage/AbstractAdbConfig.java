@@ -42,4 +42,9 @@ public abstract class AbstractAdbConfig implements ConfigView<BuckConfig> {
   public boolean getMultiInstallMode() {
     return getDelegate().getBooleanValue("adb", "multi_install_mode", false);
   }
+
+  @Value.Lazy
+  public boolean getExopackageDeltaInstall() {
+    return getDelegate().getBooleanValue("adb", "exopackage_delta_install", false);
+  }
 }
@@ -44,6 +44,9 @@ public interface AndroidDevice {
 
   void rmFiles(String dirPath, Iterable<String> filesToDelete);
 
+  /** @return the contents of a text file on the device, or empty if it doesn't exist. */
+  Optional<String> readFile(Path path) throws Exception;
+
   AutoCloseable createForward() throws Exception;
 
   void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception;
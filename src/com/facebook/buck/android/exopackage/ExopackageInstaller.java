@@ -32,14 +32,18 @@ import com.facebook.buck.util.NamedTemporaryFile;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Closer;
 import java.io.File;
 import java.io.IOException;
@@ -48,8 +52,8 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /** ExopackageInstaller manages the installation of apps with the "exopackage" flag set to true. */
@@ -60,6 +64,7 @@ public class ExopackageInstaller {
   public static final String SECONDARY_DEX_TYPE = "secondary_dex";
   public static final String NATIVE_LIBRARY_TYPE = "native_library";
   public static final String RESOURCES_TYPE = "resources";
+  public static final Path HASH_MANIFEST = Paths.get("hashes.txt");
 
   private final ProjectFilesystem projectFilesystem;
   private final BuckEventBus eventBus;
@@ -99,6 +104,20 @@ public class ExopackageInstaller {
     return true;
   }
 
+  /**
+   * Like {@link #doInstall}, but plans the installation of the exopackage files from a manifest of
+   * the hashes of the files on the device rather than by listing the device's install directory.
+   * Every changed file, metadata included, is pushed in a single transfer and the manifest is
+   * rewritten along with them.
+   */
+  public void doDeltaInstall(ApkInfo apkInfo, @Nullable String processName) throws Exception {
+    if (exopackageEnabled(apkInfo)) {
+      installExopackageFilesDelta(apkInfo.getExopackageInfo().get());
+    }
+    installApkIfNecessary(apkInfo);
+    killApp(apkInfo, processName);
+  }
+
   public void killApp(ApkInfo apkInfo, @Nullable String processName) throws Exception {
     // TODO(dreiss): Make this work on Gingerbread.
     try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "kill_app")) {
@@ -129,13 +148,23 @@ public class ExopackageInstaller {
 
   public void finishExoFileInstallation(
       ImmutableSortedSet<Path> presentFiles, ExopackageInfo exoInfo) throws Exception {
-    ImmutableSet.Builder<Path> wantedPaths = ImmutableSet.builder();
+    ImmutableMap.Builder<Path, Path> wantedFiles = ImmutableMap.builder();
     ImmutableMap.Builder<Path, String> metadata = ImmutableMap.builder();
+    addWantedFiles(exoInfo, wantedFiles, metadata);
+
+    deleteUnwantedFiles(presentFiles, wantedFiles.build().keySet());
+    installMetadata(metadata.build());
+  }
 
+  private void addWantedFiles(
+      ExopackageInfo exoInfo,
+      ImmutableMap.Builder<Path, Path> wantedFiles,
+      ImmutableMap.Builder<Path, String> metadata)
+      throws IOException {
     if (exoInfo.getDexInfo().isPresent()) {
       DexExoHelper dexExoHelper =
           new DexExoHelper(pathResolver, projectFilesystem, exoInfo.getDexInfo().get());
-      wantedPaths.addAll(dexExoHelper.getFilesToInstall().keySet());
+      wantedFiles.putAll(dexExoHelper.getFilesToInstall());
       metadata.putAll(dexExoHelper.getMetadataToInstall());
     }
 
@@ -152,26 +181,135 @@ public class ExopackageInstaller {
               pathResolver,
               projectFilesystem,
               exoInfo.getNativeLibsInfo().get());
-      wantedPaths.addAll(nativeExoHelper.getFilesToInstall().keySet());
+      wantedFiles.putAll(nativeExoHelper.getFilesToInstall());
       metadata.putAll(nativeExoHelper.getMetadataToInstall());
     }
 
     if (exoInfo.getResourcesInfo().isPresent()) {
       ResourcesExoHelper resourcesExoHelper =
           new ResourcesExoHelper(pathResolver, projectFilesystem, exoInfo.getResourcesInfo().get());
-      wantedPaths.addAll(resourcesExoHelper.getFilesToInstall().keySet());
+      wantedFiles.putAll(resourcesExoHelper.getFilesToInstall());
       metadata.putAll(resourcesExoHelper.getMetadataToInstall());
     }
 
     if (exoInfo.getModuleInfo().isPresent()) {
       ModuleExoHelper moduleExoHelper =
           new ModuleExoHelper(pathResolver, projectFilesystem, exoInfo.getModuleInfo().get());
-      wantedPaths.addAll(moduleExoHelper.getFilesToInstall().keySet());
+      wantedFiles.putAll(moduleExoHelper.getFilesToInstall());
       metadata.putAll(moduleExoHelper.getMetadataToInstall());
     }
+  }
 
-    deleteUnwantedFiles(presentFiles, wantedPaths.build());
-    installMetadata(metadata.build());
+  private void installExopackageFilesDelta(ExopackageInfo exoInfo) throws Exception {
+    Optional<ImmutableSortedMap<Path, String>> manifest;
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(eventBus, "exo_delta_read_manifest")) {
+      manifest =
+          device
+              .readFile(dataRoot.resolve(HASH_MANIFEST))
+              .flatMap(ExopackageInstaller::parseHashManifest);
+      scope.appendFinishedInfo("found", manifest.isPresent());
+    }
+    ImmutableSortedMap<Path, String> presentHashes;
+    if (manifest.isPresent()) {
+      presentHashes = manifest.get();
+    } else {
+      // Without a manifest, fall back to what's on the device.  Files are named after the hash of
+      // their contents, so the ones which are present are up to date, but the metadata isn't.
+      device.mkDirP(dataRoot.toString());
+      presentHashes =
+          device.listDirRecursive(dataRoot).stream()
+              .collect(
+                  ImmutableSortedMap.toImmutableSortedMap(
+                      Ordering.natural(), path -> path, path -> path.getFileName().toString()));
+    }
+
+    ImmutableSortedMap<Path, String> wantedHashes;
+    ImmutableMap<Path, Path> changedFiles;
+    ImmutableMap<Path, String> changedMetadata;
+    ImmutableSortedSet<Path> filesToDelete;
+    try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(eventBus, "exo_delta_compute")) {
+      ImmutableMap.Builder<Path, Path> wantedFiles = ImmutableMap.builder();
+      ImmutableMap.Builder<Path, String> metadata = ImmutableMap.builder();
+      addWantedFiles(exoInfo, wantedFiles, metadata);
+      wantedHashes = getWantedHashes(wantedFiles.build().keySet(), metadata.build());
+      Predicate<Path> isChanged =
+          path -> !Objects.requireNonNull(wantedHashes.get(path)).equals(presentHashes.get(path));
+      changedFiles = ImmutableMap.copyOf(Maps.filterKeys(wantedFiles.build(), isChanged));
+      changedMetadata = ImmutableMap.copyOf(Maps.filterKeys(metadata.build(), isChanged));
+      filesToDelete =
+          presentHashes.keySet().stream()
+              .filter(
+                  path ->
+                      !path.getFileName().toString().equals("lock")
+                          && !path.equals(HASH_MANIFEST)
+                          && !wantedHashes.containsKey(path))
+              .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+      scope.appendFinishedInfo("changed", changedFiles.size() + changedMetadata.size());
+      scope.appendFinishedInfo("deleted", filesToDelete.size());
+    }
+    if (changedFiles.isEmpty() && changedMetadata.isEmpty() && filesToDelete.isEmpty()) {
+      return;
+    }
+
+    // Remove the manifest while the device is out of sync with it, so that an interrupted install
+    // falls back to listing the device next time.
+    if (manifest.isPresent()) {
+      device.rmFiles(dataRoot.toString(), ImmutableList.of(HASH_MANIFEST.toString()));
+    }
+    try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "exo_delta_delete")) {
+      deleteFiles(filesToDelete);
+    }
+    try (Closer closer = Closer.create()) {
+      ImmutableMap.Builder<Path, Path> filesToInstall = ImmutableMap.builder();
+      filesToInstall.putAll(changedFiles);
+      for (Map.Entry<Path, String> entry : changedMetadata.entrySet()) {
+        filesToInstall.put(entry.getKey(), writeTemporaryFile(closer, entry.getValue()));
+      }
+      // The manifest goes last, it only arrives on the device if everything before it did.
+      filesToInstall.put(
+          HASH_MANIFEST, writeTemporaryFile(closer, formatHashManifest(wantedHashes)));
+      installFiles("delta", filesToInstall.build());
+    }
+  }
+
+  /**
+   * Files are named after the hash of their contents, so their names identify them in the hash
+   * manifest. Metadata files are identified by the hash of the metadata.
+   */
+  private static ImmutableSortedMap<Path, String> getWantedHashes(
+      ImmutableSet<Path> wantedFiles, ImmutableMap<Path, String> metadata) {
+    ImmutableSortedMap.Builder<Path, String> builder = ImmutableSortedMap.naturalOrder();
+    for (Path path : wantedFiles) {
+      builder.put(path, path.getFileName().toString());
+    }
+    for (Map.Entry<Path, String> entry : metadata.entrySet()) {
+      builder.put(
+          entry.getKey(), Hashing.sha1().hashString(entry.getValue(), Charsets.UTF_8).toString());
+    }
+    return builder.build();
+  }
+
+  @VisibleForTesting
+  static String formatHashManifest(ImmutableSortedMap<Path, String> hashes) {
+    StringBuilder builder = new StringBuilder();
+    hashes.forEach((path, hash) -> builder.append(path).append(' ').append(hash).append('\n'));
+    return builder.toString();
+  }
+
+  /** @return the hashes in the manifest, or empty if it can't be parsed. */
+  @VisibleForTesting
+  static Optional<ImmutableSortedMap<Path, String>> parseHashManifest(String manifest) {
+    ImmutableSortedMap.Builder<Path, String> builder = ImmutableSortedMap.naturalOrder();
+    for (String line : Splitter.onPattern("\r?\n").omitEmptyStrings().split(manifest)) {
+      List<String> parts = Splitter.on(' ').splitToList(line);
+      if (parts.size() != 2) {
+        LOG.warn("Ignoring exopackage hash manifest with illegal line: %s", line);
+        return Optional.empty();
+      }
+      builder.put(Paths.get(parts.get(0)), parts.get(1));
+    }
+    return Optional.of(builder.build());
   }
 
   public void installMissingExopackageFiles(
@@ -309,7 +447,7 @@ public class ExopackageInstaller {
 
   private void installFiles(String filesType, ImmutableMap<Path, Path> filesToInstall)
       throws Exception {
-    try (SimplePerfEvent.Scope ignored =
+    try (SimplePerfEvent.Scope scope =
             SimplePerfEvent.scope(eventBus, "multi_install_" + filesType);
         AutoCloseable ignored1 = device.createForward()) {
       // Make sure all the directories exist.
@@ -324,13 +462,14 @@ public class ExopackageInstaller {
                   throw new RuntimeException(e);
                 }
               });
-      // Plan the installation.
-      Map<Path, Path> installPaths =
+      // Plan the installation.  Keep the order, the files are sent to the device in it.
+      ImmutableMap<Path, Path> installPaths =
           filesToInstall.entrySet().stream()
               .collect(
-                  Collectors.toMap(
+                  ImmutableMap.toImmutableMap(
                       entry -> dataRoot.resolve(entry.getKey()),
                       entry -> projectFilesystem.resolve(entry.getValue())));
+      scope.appendFinishedInfo("files", installPaths.size());
       // Install the files.
       device.installFiles(filesType, installPaths);
     }
@@ -340,15 +479,18 @@ public class ExopackageInstaller {
     try (Closer closer = Closer.create()) {
       Map<Path, Path> filesToInstall = new HashMap<>();
       for (Map.Entry<Path, String> entry : metadataToInstall.entrySet()) {
-        NamedTemporaryFile temp = closer.register(new NamedTemporaryFile("metadata", "tmp"));
-        com.google.common.io.Files.write(
-            entry.getValue().getBytes(Charsets.UTF_8), temp.get().toFile());
-        filesToInstall.put(entry.getKey(), temp.get());
+        filesToInstall.put(entry.getKey(), writeTemporaryFile(closer, entry.getValue()));
       }
       installFiles("metadata", ImmutableMap.copyOf(filesToInstall));
     }
   }
 
+  private static Path writeTemporaryFile(Closer closer, String contents) throws IOException {
+    NamedTemporaryFile temp = closer.register(new NamedTemporaryFile("metadata", "tmp"));
+    com.google.common.io.Files.write(contents.getBytes(Charsets.UTF_8), temp.get().toFile());
+    return temp.get();
+  }
+
   /**
    * Parses a text file which is supposed to be in the following format: "file_path_without_spaces
    * file_hash ...." i.e. it parses the first two columns of each line and ignores the rest of it.
@@ -42,6 +42,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
 import com.google.common.primitives.Ints;
@@ -70,6 +71,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -91,6 +93,8 @@ public class RealAndroidDevice implements AndroidDevice {
   private static final int MAX_ADB_COMMAND_SIZE = 1019;
 
   private static final Pattern LINE_ENDING = Pattern.compile("\r?\n");
+  private static final String FILE_MARKER = "--file--";
+  private static final Pattern FILE_MARKER_PATTERN = Pattern.compile(FILE_MARKER + "\r?\n");
 
   // constants for making requests to the adb daemon
   private static final String CHARSET_NAME = "ISO-8859-1";
@@ -678,6 +682,19 @@ public class RealAndroidDevice implements AndroidDevice {
     }
   }
 
+  @Override
+  public Optional<String> readFile(Path path) throws Exception {
+    // Print a marker first so that a missing file can be told apart from an empty one.
+    String output =
+        executeCommandWithErrorChecking(
+            String.format("if [ -f %s ]; then echo %s; cat %s; fi", path, FILE_MARKER, path));
+    Matcher matcher = FILE_MARKER_PATTERN.matcher(output);
+    if (!matcher.lookingAt()) {
+      return Optional.empty();
+    }
+    return Optional.of(output.substring(matcher.end()));
+  }
+
   @Override
   public AutoCloseable createForward() throws Exception {
     device.createForward(agentPort, agentPort);
@@ -938,9 +955,7 @@ public class RealAndroidDevice implements AndroidDevice {
       throw shellException;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
   private class BuckInitiatedInstallReceiver extends CollectingOutputReceiver {
@@ -1072,12 +1087,10 @@ public class RealAndroidDevice implements AndroidDevice {
       throw failure;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
-  private void chmod644(Path targetDevicePath)
+  private void chmod644(Iterable<Path> targetDevicePaths)
       throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
           IOException {
     // The standard Java libraries on Android always create new files un-readable by other users.
@@ -1085,7 +1098,15 @@ public class RealAndroidDevice implements AndroidDevice {
     // to allow the app to read them.  Ideally, the agent would do this automatically, but
     // there's no easy way to do this in Java.  We can drop this if we drop support for the
     // Java agent.
-    executeCommandWithErrorChecking("chmod 644 " + targetDevicePath);
+    String commandPrefix = "chmod 644 ";
+    // Add a fudge factor for separators and error checking.
+    int overhead = commandPrefix.length() + 100;
+    for (List<String> chmodArgs :
+        chunkArgs(
+            Iterables.transform(targetDevicePaths, Path::toString),
+            MAX_ADB_COMMAND_SIZE - overhead)) {
+      executeCommandWithErrorChecking(commandPrefix + Joiner.on(' ').join(chmodArgs));
+    }
   }
 
   @Override
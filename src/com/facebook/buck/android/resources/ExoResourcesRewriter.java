@@ -29,6 +29,7 @@ import com.google.common.io.ByteStreams;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -39,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -48,6 +50,7 @@ import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
 
 /**
  * ExoResourceRewriter is the core of constructing build outputs for exo-for-resources.
@@ -129,19 +132,14 @@ public class ExoResourcesRewriter {
           BringToFrontMapper.construct(ResTablePackage.APP_PACKAGE_ID, closure.idsByType);
       // Rewrite the arsc.
       apkZip.getResourceTable().reassignIds(resMapping);
-      // Update the references in xml files.
-      for (ResourcesXml xml : apkZip.getResourcesXmls()) {
-        xml.transformReferences(resMapping::map);
-      }
+      // Update the references in xml files. Each file is independent, so they are parsed and
+      // rewritten in parallel.
+      apkZip.getResourcesXmlPaths().parallelStream()
+          .forEach(path -> apkZip.getXml(path).transformReferences(resMapping::map));
       // Write the full (rearranged) resources to the exo resources.
       try (ResourcesZipBuilder zipBuilder = new ResourcesZipBuilder(exoResources)) {
         for (ZipEntry entry : apkZip.getEntries()) {
-          addEntry(
-              zipBuilder,
-              entry.getName(),
-              apkZip.getContent(entry.getName()),
-              entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
-              false);
+          addEntry(zipBuilder, apkZip, entry);
         }
       }
       // Then, slice out the resources needed for the primary apk.
@@ -159,13 +157,7 @@ public class ExoResourcesRewriter {
                 : Deflater.BEST_COMPRESSION,
             false);
         for (String path : RichStream.from(closure.files).sorted().toOnceIterable()) {
-          ZipEntry entry = apkZip.getEntry(path);
-          addEntry(
-              zipBuilder,
-              entry.getName(),
-              apkZip.getContent(entry.getName()),
-              entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
-              false);
+          addEntry(zipBuilder, apkZip, apkZip.getEntry(path));
         }
       }
       return resMapping;
@@ -238,6 +230,22 @@ public class ExoResourcesRewriter {
     }
   }
 
+  private static void addEntry(ResourcesZipBuilder zipBuilder, ApkZip apkZip, ZipEntry entry)
+      throws IOException {
+    int compressionLevel = entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION;
+    byte[] content = apkZip.getLoadedContent(entry.getName());
+    if (content != null) {
+      // The arsc and xml files have been parsed and possibly rewritten in memory.
+      addEntry(zipBuilder, entry.getName(), content, compressionLevel, false);
+      return;
+    }
+    // Everything else is copied unchanged, so stream it rather than reading it into memory.
+    try (InputStream stream = apkZip.getInputStream(entry)) {
+      zipBuilder.addEntry(
+          stream, entry.getSize(), entry.getCrc(), entry.getName(), compressionLevel, false);
+    }
+  }
+
   private static void addEntry(
       ResourcesZipBuilder zipBuilder,
       String name,
@@ -245,8 +253,6 @@ public class ExoResourcesRewriter {
       int compressionLevel,
       boolean isDirectory)
       throws IOException {
-    // TODO(cjhopman): for files that we don't already have in memory, we should use the builder's
-    // stream api.
     CRC32 crc32 = new CRC32();
     crc32.update(content);
     zipBuilder.addEntry(
@@ -272,8 +278,9 @@ public class ExoResourcesRewriter {
               .collect(
                   ImmutableSortedMap.toImmutableSortedMap(
                       Ordering.natural(), ZipEntry::getName, e -> e));
-      this.entryContents = new HashMap<>();
-      this.xmlEntries = new HashMap<>();
+      // The xml files are parsed from multiple threads.
+      this.entryContents = new ConcurrentHashMap<>();
+      this.xmlEntries = new ConcurrentHashMap<>();
       this.resourceTable =
           MoreSuppliers.memoize(
               () -> ResourceTable.get(ResChunk.wrap(getContent("resources.arsc"))));
@@ -307,7 +314,7 @@ public class ExoResourcesRewriter {
       return entries.get(path);
     }
 
-    Iterable<ResourcesXml> getResourcesXmls() {
+    ImmutableList<String> getResourcesXmlPaths() {
       return entries.keySet().stream()
           .filter(
               name ->
@@ -315,7 +322,6 @@ public class ExoResourcesRewriter {
                       || ((name.startsWith("res")
                           && !name.startsWith("res/raw")
                           && name.endsWith(".xml"))))
-          .map(this::getXml)
           .collect(ImmutableList.toImmutableList());
     }
 
@@ -323,6 +329,16 @@ public class ExoResourcesRewriter {
       return entryContents.computeIfAbsent(path, this::extractContent);
     }
 
+    /** Returns the content of the entry if it has already been read into memory, null otherwise. */
+    @Nullable
+    byte[] getLoadedContent(String path) {
+      return entryContents.get(path);
+    }
+
+    InputStream getInputStream(ZipEntry entry) throws IOException {
+      return zipFile.getInputStream(entry);
+    }
+
     private byte[] extractContent(String path) {
       try {
         return ByteStreams.toByteArray(zipFile.getInputStream(entries.get(path)));
@@ -52,10 +52,12 @@ public class ResTablePackage extends ResChunk {
   private final StringPool keys;
   private final List<ResTableTypeSpec> typeSpecs;
 
+  /**
+   * Reassigns ids in all the types of this package. Each type only touches its own data, so types
+   * are processed in parallel. The mapper must be safe to use from multiple threads.
+   */
   public void reassignIds(ReferenceMapper refMapping) {
-    for (ResTableTypeSpec spec : typeSpecs) {
-      spec.reassignIds(refMapping);
-    }
+    typeSpecs.parallelStream().forEach(spec -> spec.reassignIds(refMapping));
   }
 
   private void assertValidIds(Iterable<Integer> ids) {
@@ -70,7 +72,7 @@ public class ResTablePackage extends ResChunk {
     byte[] nameData = Arrays.copyOf(resPackage.nameData, NAME_DATA_LENGTH);
 
     List<ResTableTypeSpec> newSpecs =
-        resPackage.getTypeSpecs().stream()
+        resPackage.getTypeSpecs().parallelStream()
             .map(
                 spec ->
                     ResTableTypeSpec.slice(
@@ -91,9 +93,7 @@ public class ResTablePackage extends ResChunk {
     StringPool newKeys = StringPool.create(keysToExtract.stream().map(keys::getString)::iterator);
 
     // Adjust the key references.
-    for (ResTableTypeSpec spec : newSpecs) {
-      spec.transformKeyReferences(keyMapping::get);
-    }
+    newSpecs.parallelStream().forEach(spec -> spec.transformKeyReferences(keyMapping::get));
 
     StringPool types = resPackage.types.copy();
 
@@ -17,7 +17,6 @@
 package com.facebook.buck.android.resources;
 
 import com.google.common.base.Preconditions;
-import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
@@ -58,30 +57,38 @@ public class ResTableType extends ResChunk {
 
   @Nullable
   public static ResTableType slice(ResTableType type, int count) {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    int currentOffset = 0;
+    // Size the new entry data up front so that it can be filled with slices of the original data
+    // rather than going through an intermediate stream.
+    int[] offsets = new int[count];
+    int[] sizes = new int[count];
+    int entryDataSize = 0;
+    for (int i = 0; i < count; i++) {
+      offsets[i] = type.getEntryValueOffset(i);
+      if (offsets[i] != -1) {
+        sizes[i] = type.getEntrySizeAtOffset(offsets[i]);
+        entryDataSize += sizes[i];
+      }
+    }
+    if (entryDataSize == 0) {
+      return null;
+    }
+
     ByteBuffer entryOffsets = wrap(new byte[count * 4]);
+    ByteBuffer entryData = wrap(new byte[entryDataSize]);
     for (int i = 0; i < count; i++) {
-      int offset = type.getEntryValueOffset(i);
-      if (offset == -1) {
+      if (offsets[i] == -1) {
         entryOffsets.putInt(i * 4, -1);
       } else {
-        entryOffsets.putInt(i * 4, currentOffset);
-        int dataSize = type.getEntrySizeAtOffset(offset);
-        currentOffset += dataSize;
-        output.write(type.entryData.array(), type.entryData.arrayOffset() + offset, dataSize);
+        entryOffsets.putInt(i * 4, entryData.position());
+        entryData.put(slice(type.entryData, offsets[i], sizes[i]));
       }
     }
-
-    byte[] entryData = output.toByteArray();
-    if (entryData.length == 0) {
-      return null;
-    }
+    entryData.position(0);
     int headerSize = type.getHeaderSize();
-    int chunkSize = headerSize + count * 4 + entryData.length;
+    int chunkSize = headerSize + count * 4 + entryDataSize;
 
     return new ResTableType(
-        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, wrap(entryData));
+        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, entryData);
   }
 
   private int getEntrySizeAtOffset(int offset) {
@@ -454,6 +461,10 @@ public class ResTableType extends ResChunk {
   }
 
   private void sortAttributesAt(ByteBuffer entryData, int attrCount, int attrStart) {
+    if (areAttributesSortedAt(entryData, attrCount, attrStart)) {
+      // The common case, which leaves the entry data untouched.
+      return;
+    }
     class AttrRef implements Comparable<AttrRef> {
       final int offset;
       final int size;
@@ -487,6 +498,21 @@ public class ResTableType extends ResChunk {
     slice(entryData, attrStart).put(newData);
   }
 
+  private static boolean areAttributesSortedAt(
+      ByteBuffer entryData, int attrCount, int attrStart) {
+    int entryOffset = attrStart;
+    int previous = Integer.MIN_VALUE;
+    for (int j = 0; j < attrCount; j++) {
+      int resId = entryData.getInt(entryOffset + ATTRIBUTE_NAME_REF_OFFSET);
+      if (j > 0 && resId - previous < 0) {
+        return false;
+      }
+      previous = resId;
+      entryOffset += 4 + entryData.getShort(entryOffset + ATTRIBUTE_SIZE_OFFSET);
+    }
+    return true;
+  }
+
   public void transformReferences(RefTransformer visitor) {
     for (int i = 0; i < entryCount; i++) {
       int offset = getEntryValueOffset(i);
@@ -45,7 +45,7 @@ public class ResTableTypeSpec extends ResChunk {
 
   public static ResTableTypeSpec slice(ResTableTypeSpec spec, int count) {
     ImmutableList<ResTableType> configs =
-        spec.getConfigs().stream()
+        spec.getConfigs().parallelStream()
             .map(config -> ResTableType.slice(config, count))
             .filter(Objects::nonNull)
             .collect(ImmutableList.toImmutableList());
@@ -188,7 +188,7 @@ public class ResTableTypeSpec extends ResChunk {
 
   public void reassignIds(ReferenceMapper refMapping) {
     refMapping.rewrite(getResourceType(), entryFlags.asIntBuffer());
-    configs.forEach(c -> c.reassignIds(refMapping));
+    configs.parallelStream().forEach(c -> c.reassignIds(refMapping));
   }
 
   public int getEntryCount() {
@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableList;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.List;
 
 /**
@@ -221,12 +222,14 @@ public class StringPool extends ResChunk {
     return getStringAtOffset(getEncodedStringOffset(id), true);
   }
 
-  private String decodeString(int start, int utf16Length) {
-    byte[] data = new byte[utf16Length];
-    stringData.position(start);
-    stringData.get(data);
-    stringData.position(0);
-    return new String(data, utf8 ? Charsets.UTF_8 : Charsets.UTF_16LE);
+  // This only uses absolute reads of stringData so that strings can be looked up from multiple
+  // threads at once.
+  private String decodeString(int start, int length) {
+    Charset charset = utf8 ? Charsets.UTF_8 : Charsets.UTF_16LE;
+    if (stringData.hasArray()) {
+      return new String(stringData.array(), stringData.arrayOffset() + start, length, charset);
+    }
+    return charset.decode(slice(stringData, start, length)).toString();
   }
 
   public void dump(PrintStream out) {
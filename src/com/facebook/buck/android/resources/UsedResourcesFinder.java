@@ -31,6 +31,7 @@ import java.util.TreeSet;
 import java.util.stream.IntStream;
 
 public class UsedResourcesFinder {
+  /** Provides the contents of an apk. It's accessed from multiple threads at once. */
   interface ApkContentProvider {
     ResourceTable getResourceTable();
 
@@ -131,18 +132,29 @@ public class UsedResourcesFinder {
     void iterateArsc(ImmutableMap<Integer, SortedSet<Integer>> ids) {
       ResTablePackage resPackage = apkContent.getResourceTable().getPackage();
       StringPool strings = apkContent.getResourceTable().getStrings();
-      ids.forEach(
-          (k, v) -> {
-            ResTableTypeSpec spec = resPackage.getTypeSpec(k);
-            String resourceTypeName = spec.getResourceTypeName(resPackage);
-            int[] idsToVisit = v.stream().mapToInt(i -> i).toArray();
-            spec.visitReferences(idsToVisit, this::addIdToProcess);
-            if (!resourceTypeName.equals("string") && !resourceTypeName.equals("id")) {
-              spec.visitStringReferences(
-                  idsToVisit,
-                  (stringRef) -> addPossibleFileToExtract(strings.getString(stringRef)));
-            }
-          });
+      // The types are visited in parallel. Their references are then recorded in the same order as
+      // if they had been visited one after another.
+      ImmutableList<References> references =
+          ids.entrySet().parallelStream()
+              .map(
+                  entry -> {
+                    References typeReferences = new References();
+                    ResTableTypeSpec spec = resPackage.getTypeSpec(entry.getKey());
+                    String resourceTypeName = spec.getResourceTypeName(resPackage);
+                    int[] idsToVisit = entry.getValue().stream().mapToInt(i -> i).toArray();
+                    spec.visitReferences(idsToVisit, typeReferences.ids::add);
+                    if (!resourceTypeName.equals("string") && !resourceTypeName.equals("id")) {
+                      spec.visitStringReferences(
+                          idsToVisit,
+                          (stringRef) -> typeReferences.files.add(strings.getString(stringRef)));
+                    }
+                    return typeReferences;
+                  })
+              .collect(ImmutableList.toImmutableList());
+      for (References typeReferences : references) {
+        typeReferences.ids.forEach(this::addIdToProcess);
+        typeReferences.files.forEach(this::addPossibleFileToExtract);
+      }
     }
 
     private void addPossibleFileToExtract(String val) {
@@ -156,8 +168,23 @@ public class UsedResourcesFinder {
 
     void processXml() {
       // This doesn't add new xml to process.
-      xmlToProcess.forEach(s -> apkContent.getXml(s).visitReferences(this::addIdToProcess));
+      ImmutableList<List<Integer>> references =
+          xmlToProcess.parallelStream()
+              .map(
+                  path -> {
+                    List<Integer> xmlReferences = new ArrayList<>();
+                    apkContent.getXml(path).visitReferences(xmlReferences::add);
+                    return xmlReferences;
+                  })
+              .collect(ImmutableList.toImmutableList());
+      references.forEach(xmlReferences -> xmlReferences.forEach(this::addIdToProcess));
       xmlToProcess.clear();
     }
   }
+
+  /** The references found while visiting a single type. */
+  private static class References {
+    final List<Integer> ids = new ArrayList<>();
+    final List<String> files = new ArrayList<>();
+  }
 }
@@ -48,6 +48,7 @@ import com.facebook.buck.cxx.toolchain.CxxToolProvider;
 import com.facebook.buck.cxx.toolchain.ElfSharedLibraryInterfaceParams;
 import com.facebook.buck.cxx.toolchain.GnuArchiver;
 import com.facebook.buck.cxx.toolchain.HeaderVerification;
+import com.facebook.buck.cxx.toolchain.InProcessGnuArchiver;
 import com.facebook.buck.cxx.toolchain.PosixNmSymbolNameTool;
 import com.facebook.buck.cxx.toolchain.PrefixMapDebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.PreprocessorProvider;
@@ -559,6 +560,8 @@ public class NdkCxxPlatforms {
             true);
     PreprocessorProvider cxxpp = new PreprocessorProvider(cxxTool, type, ToolType.CXXPP, true);
 
+    Tool ar = getGccTool(toolchainPaths, "ar", version, executableFinder);
+
     CxxPlatform.Builder cxxPlatformBuilder = CxxPlatform.builder();
     ImmutableBiMap<Path, String> sanitizePaths = sanitizePathsBuilder.build();
     PrefixMapDebugPathSanitizer compilerDebugPathSanitizer =
@@ -597,7 +600,7 @@ public class NdkCxxPlatforms {
                     getGccTool(toolchainPaths, "nm", version, executableFinder))))
         .setAr(
             ArchiverProvider.from(
-                new GnuArchiver(getGccTool(toolchainPaths, "ar", version, executableFinder))))
+                config.getArchiverInProcess() ? new InProcessGnuArchiver(ar) : new GnuArchiver(ar)))
         .setArchiveContents(config.getArchiveContents().orElse(ArchiveContents.NORMAL))
         .setRanlib(
             new ConstantToolProvider(
@@ -620,6 +623,7 @@ public class NdkCxxPlatforms {
                 : Optional.empty())
         .setPublicHeadersSymlinksEnabled(config.getPublicHeadersSymlinksEnabled())
         .setPrivateHeadersSymlinksEnabled(config.getPrivateHeadersSymlinksEnabled())
+        .setPreferHeaderMaps(config.getPreferHeaderMaps())
         .setFilepathLengthLimited(config.getFilepathLengthLimited());
 
     // Add the NDK root path to the white-list so that headers from the NDK won't trigger the
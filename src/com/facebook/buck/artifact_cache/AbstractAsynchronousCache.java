@@ -26,6 +26,7 @@ import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -36,17 +37,24 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
@@ -66,11 +74,17 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   private final Optional<Long> maxStoreSize;
   private final ProjectFilesystem projectFilesystem;
   private final ArtifactCacheMode mode;
+  private final Optional<AdaptiveConcurrencyLimiter> fetchConcurrencyLimiter;
+  private final Optional<AdaptiveConcurrencyLimiter> storeConcurrencyLimiter;
 
   private final BlockingQueue<FetchRequest> pendingFetchRequests = new LinkedBlockingQueue<>();
 
   private final BlockingQueue<FetchRequest> pendingCheckRequests = new LinkedBlockingQueue<>();
 
+  // The fetches waiting for another fetch of the same key, by key, when fetches are deduplicated.
+  // A key is in here for as long as a fetch of it is in flight.
+  private final Map<RuleKey, List<FetchRequest>> inFlightFetchFollowers = new HashMap<>();
+
   // TODO(cjhopman): Remove this error-based disabling of multiFetch, it's only here to make rollout
   // less disruptive.
   private volatile boolean enableMultiFetch = true;
@@ -86,6 +100,35 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       CacheEventListener eventListener,
       Optional<Long> maxStoreSize,
       ProjectFilesystem projectFilesystem) {
+    this(
+        name,
+        mode,
+        cacheReadMode,
+        storeExecutorService,
+        fetchExecutorService,
+        eventListener,
+        maxStoreSize,
+        projectFilesystem,
+        Optional.empty(),
+        Optional.empty());
+  }
+
+  /**
+   * @param fetchConcurrencyLimiter bounds how many fetches are in flight, when the fetch executor
+   *     has more threads than the cache should get requests at once.
+   * @param storeConcurrencyLimiter bounds how many stores are in flight in the same way.
+   */
+  public AbstractAsynchronousCache(
+      String name,
+      ArtifactCacheMode mode,
+      CacheReadMode cacheReadMode,
+      ListeningExecutorService storeExecutorService,
+      ListeningExecutorService fetchExecutorService,
+      CacheEventListener eventListener,
+      Optional<Long> maxStoreSize,
+      ProjectFilesystem projectFilesystem,
+      Optional<AdaptiveConcurrencyLimiter> fetchConcurrencyLimiter,
+      Optional<AdaptiveConcurrencyLimiter> storeConcurrencyLimiter) {
     this.name = name;
     this.cacheReadMode = cacheReadMode;
     this.storeExecutorService = storeExecutorService;
@@ -94,6 +137,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     this.maxStoreSize = maxStoreSize;
     this.projectFilesystem = projectFilesystem;
     this.mode = mode;
+    this.fetchConcurrencyLimiter = fetchConcurrencyLimiter;
+    this.storeConcurrencyLimiter = storeConcurrencyLimiter;
   }
 
   protected final String getName() {
@@ -131,6 +176,22 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return 0;
   }
 
+  /**
+   * Used to bound how long a multiFetch request may wait for more fetches to be requested, when
+   * fewer than its batch size are pending. If < 1, batches are sent with whatever is pending.
+   */
+  protected long getMultiFetchMaxDelayMillis() {
+    return 0;
+  }
+
+  /**
+   * Whether fetches of a key which is already being fetched should wait for that fetch and share
+   * its result, rather than being sent too.
+   */
+  protected boolean isFetchDeduplicationEnabled() {
+    return false;
+  }
+
   protected boolean isMultiCheckEnabled() {
     return false;
   }
@@ -138,7 +199,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   private void doMultiCheck(ImmutableMap<RuleKey, ClaimedFetchRequest> ruleKeyToRequest) {
     try {
       ImmutableMap<RuleKey, CacheResult> ruleKeyToResult =
-          multiContainsImpl(ruleKeyToRequest.keySet()).getCacheResults();
+          callWithinLimit(
+                  fetchConcurrencyLimiter,
+                  () -> multiContainsImpl(ruleKeyToRequest.keySet()),
+                  result -> true)
+              .getCacheResults();
       for (Map.Entry<RuleKey, CacheResult> result : ruleKeyToResult.entrySet()) {
         CacheResult cacheResult = result.getValue();
         ClaimedFetchRequest claimedFetchRequest = ruleKeyToRequest.get(result.getKey());
@@ -184,10 +249,18 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                 .collect(ImmutableList.toImmutableList()))) {
       try {
         MultiFetchResult result =
-            multiFetchImpl(
-                requests.stream()
-                    .map(ClaimedFetchRequest::getRequest)
-                    .collect(ImmutableList.toImmutableList()));
+            callWithinLimit(
+                fetchConcurrencyLimiter,
+                () ->
+                    multiFetchImpl(
+                        requests.stream()
+                            .map(ClaimedFetchRequest::getRequest)
+                            .collect(ImmutableList.toImmutableList())),
+                multiFetchResult ->
+                    multiFetchResult.getResults().stream()
+                        .anyMatch(
+                            fetchResult ->
+                                fetchResult.getCacheResult().getType() != CacheResultType.ERROR));
         Preconditions.checkState(result.getResults().size() == requests.size());
         // MultiFetch must return a non-skipped result for at least one of the requested keys.
         Preconditions.checkState(
@@ -258,7 +331,10 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         eventListener.fetchStarted(request.getBuildTarget(), request.getRuleKey());
     try {
       FetchResult fetchResult =
-          fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput());
+          callWithinLimit(
+              fetchConcurrencyLimiter,
+              () -> fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput()),
+              r -> r.getCacheResult().getType() != CacheResultType.ERROR);
       result = fetchResult.getCacheResult();
       requestEvents.finished(fetchResult);
     } catch (IOException e) {
@@ -361,8 +437,13 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       if (multiFetchLimit > 0) {
         ImmutableList.Builder<ClaimedFetchRequest> requestsBuilder = ImmutableList.builder();
         try {
+          // Once there is a request to send, wait a little for more to fill the batch, so that
+          // bursts of fetches go out in a few large requests rather than many small ones.
+          long deadlineNanos =
+              System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMultiFetchMaxDelayMillis());
           for (int i = 0; i < multiFetchLimit; i++) {
-            ClaimedFetchRequest request = getFetchRequest();
+            ClaimedFetchRequest request =
+                i == 0 ? getFetchRequest() : getFetchRequest(deadlineNanos);
             if (request == null) {
               break;
             }
@@ -439,6 +520,25 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return new ClaimedFetchRequest(request);
   }
 
+  @Nullable
+  private ClaimedFetchRequest getFetchRequest(long deadlineNanos) {
+    long timeoutNanos = deadlineNanos - System.nanoTime();
+    if (timeoutNanos <= 0) {
+      return getFetchRequest();
+    }
+    FetchRequest request;
+    try {
+      request = pendingFetchRequests.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    if (request == null) {
+      return null;
+    }
+    return new ClaimedFetchRequest(request);
+  }
+
   private ImmutableList<ClaimedFetchRequest> getCheckRequests() {
     int numberOfCheckRequests = pendingCheckRequests.size();
     ArrayList<FetchRequest> pendingCheckRequestsRequests = new ArrayList<>(numberOfCheckRequests);
@@ -468,6 +568,18 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
     SettableFuture<CacheResult> future = SettableFuture.create();
     FetchRequest fetchRequest = new FetchRequest(target, ruleKey, output, future);
+    if (isFetchDeduplicationEnabled()) {
+      synchronized (inFlightFetchFollowers) {
+        List<FetchRequest> followers = inFlightFetchFollowers.get(ruleKey);
+        if (followers != null) {
+          followers.add(fetchRequest);
+          return future;
+        }
+        inFlightFetchFollowers.put(ruleKey, new ArrayList<>());
+      }
+      // Rescheduled requests keep their future, so this only runs once the key is done with.
+      future.addListener(() -> completeFollowers(fetchRequest), MoreExecutors.directExecutor());
+    }
     if (isMultiCheckEnabled()) {
       addCheckRequest(fetchRequest);
     } else {
@@ -476,12 +588,44 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return future;
   }
 
+  private void completeFollowers(FetchRequest leader) {
+    List<FetchRequest> followers;
+    synchronized (inFlightFetchFollowers) {
+      followers = inFlightFetchFollowers.remove(leader.getRuleKey());
+    }
+    for (FetchRequest follower : followers) {
+      try {
+        CacheResult result = Futures.getDone(leader.future);
+        if (result.getType() == CacheResultType.HIT) {
+          Path leaderOutput = leader.getOutput().get();
+          Path followerOutput = follower.getOutput().get();
+          if (!leaderOutput.equals(followerOutput)) {
+            projectFilesystem.createParentDirs(followerOutput);
+            projectFilesystem.copyFile(leaderOutput, followerOutput);
+          }
+        }
+        follower.future.set(result);
+      } catch (IOException e) {
+        String msg =
+            String.format(
+                "fetch(%s): %s: %s", follower.getRuleKey(), e.getClass().getName(), e.getMessage());
+        follower.future.set(CacheResult.error(name, mode, msg));
+      } catch (ExecutionException e) {
+        follower.future.setException(e.getCause());
+      } catch (CancellationException e) {
+        follower.future.cancel(false);
+      }
+    }
+  }
+
   @Override
   public final ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
       ImmutableSet<RuleKey> ruleKeys) {
     return fetchExecutorService.submit(
         () -> {
-          MultiContainsResult results = multiContainsImpl(ruleKeys);
+          MultiContainsResult results =
+              callWithinLimit(
+                  fetchConcurrencyLimiter, () -> multiContainsImpl(ruleKeys), result -> true);
           return results.getCacheResults();
         });
   }
@@ -513,7 +657,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         () -> {
           StoreEvents.StoreRequestEvents requestEvents = events.started();
           try {
-            StoreResult result = storeImpl(info, tmp);
+            StoreResult result =
+                callWithinLimit(storeConcurrencyLimiter, () -> storeImpl(info, tmp), r -> true);
             requestEvents.finished(result);
             return null;
           } catch (IOException e) {
@@ -585,9 +730,12 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
           for (int i = 0; i < matchedArtifacts.size(); i++) {
             StoreEvents.StoreRequestEvents requestEvents = events.get(i).started();
             try {
+              Pair<ArtifactInfo, Path> artifact = matchedArtifacts.get(i);
               StoreResult result =
-                  storeImpl(
-                      matchedArtifacts.get(i).getFirst(), matchedArtifacts.get(i).getSecond());
+                  callWithinLimit(
+                      storeConcurrencyLimiter,
+                      () -> storeImpl(artifact.getFirst(), artifact.getSecond()),
+                      r -> true);
               requestEvents.finished(result);
             } catch (IOException e) {
               String msg =
@@ -618,6 +766,34 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         });
   }
 
+  /**
+   * Makes a request to the cache once the limiter has room for it, and tells the limiter how it
+   * went: requests which throw, or whose result doesn't pass the check, failed.
+   */
+  private static <T> T callWithinLimit(
+      Optional<AdaptiveConcurrencyLimiter> limiter,
+      ThrowingSupplier<T, IOException> request,
+      Predicate<T> succeeded)
+      throws IOException {
+    if (!limiter.isPresent()) {
+      return request.get();
+    }
+    AdaptiveConcurrencyLimiter.Permit permit;
+    try {
+      permit = limiter.get().acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to make a cache request.");
+    }
+    try (AdaptiveConcurrencyLimiter.Permit ignored = permit) {
+      T result = request.get();
+      if (succeeded.test(result)) {
+        permit.succeeded();
+      }
+      return result;
+    }
+  }
+
   @Override
   public final CacheReadMode getCacheReadMode() {
     return cacheReadMode;
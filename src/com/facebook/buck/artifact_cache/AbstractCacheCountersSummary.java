@@ -78,4 +78,39 @@ abstract class AbstractCacheCountersSummary {
   @Value.Parameter
   @JsonView(JsonViews.MachineReadableLog.class)
   public abstract AtomicInteger getFailureUploadCount();
+
+  /** @return the number of artifacts fetched ahead of the build engine which it then used. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getTotalPrefetchHits() {
+    return 0;
+  }
+
+  /**
+   * @return the number of artifacts fetched ahead of the build engine which it never asked for,
+   *     plus the prefetches it asked for which missed or failed.
+   */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getTotalPrefetchWastes() {
+    return 0;
+  }
+
+  /**
+   * @return the number of hits served from memory, which are also counted as hits of the mode of
+   *     the cache the artifacts first came from. The hit rate of the in-memory cache is this over
+   *     the total hits and misses.
+   */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getTotalMemoryCacheHits() {
+    return 0;
+  }
+
+  /** @return the number of bytes of the hits served from memory. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public long getTotalMemoryCacheBytes() {
+    return 0;
+  }
 }
@@ -30,6 +30,9 @@ import org.immutables.value.Value;
 @BuckStyleImmutable
 abstract class AbstractCacheResult {
 
+  /** The source of hits served from the artifacts the daemon keeps in memory. */
+  public static final String MEMORY_CACHE_SOURCE = "memory";
+
   private static final CacheResult MISS_RESULT =
       CacheResult.of(
           CacheResultType.MISS,
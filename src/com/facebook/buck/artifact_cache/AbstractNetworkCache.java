@@ -60,7 +60,9 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
             args.getCacheName(),
             new ErrorReporter(args)),
         args.getMaxStoreSizeBytes(),
-        args.getProjectFilesystem());
+        args.getProjectFilesystem(),
+        args.getFetchConcurrencyLimiter(),
+        args.getStoreConcurrencyLimiter());
     this.repository = args.getRepository();
     this.scheduleType = args.getScheduleType();
     this.fetchClient = args.getFetchClient();
@@ -63,4 +63,8 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  Optional<AdaptiveConcurrencyLimiter> getFetchConcurrencyLimiter();
+
+  Optional<AdaptiveConcurrencyLimiter> getStoreConcurrencyLimiter();
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.timing.Clock;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Bounds how many requests to a cache are in flight at once, with a limit which adapts to how the
+ * cache copes, the way TCP congestion control does: the limit grows by one for every limit's worth
+ * of requests which succeed while it is reached, and shrinks by a factor when requests fail or get
+ * markedly slower than they usually are.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final String COUNTER_CATEGORY = "buck_artifact_cache_concurrency";
+
+  /** How much of the limit is kept when a request fails. */
+  static final double ERROR_BACKOFF_RATIO = 0.5;
+
+  /** How much of the limit is kept when requests get slower. */
+  static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+  /** How many times slower than usual recent requests may be before the limit shrinks. */
+  static final double LATENCY_TOLERANCE = 2.0;
+
+  private static final double RECENT_LATENCY_WEIGHT = 0.2;
+  private static final double USUAL_LATENCY_WEIGHT = 0.02;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final Clock clock;
+  private final SamplingCounter limitCounter;
+  private final IntegerCounter limitDecreases;
+  private final IntegerCounter throttledRequests;
+
+  private double limit;
+  private int inFlight = 0;
+  private double recentLatencyNanos = -1;
+  private double usualLatencyNanos = -1;
+  // Requests which started before the last decrease don't decrease the limit again, so that a
+  // burst of failures shrinks it once rather than down to the minimum.
+  private long lastDecreaseNanos = Long.MIN_VALUE;
+
+  /**
+   * @param operation what the requests do, which tags the counters.
+   * @param initialLimit the limit until requests show how many the cache copes with.
+   */
+  public AdaptiveConcurrencyLimiter(
+      String operation,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      Clock clock,
+      BuckEventBus eventBus) {
+    Preconditions.checkArgument(0 < minLimit && minLimit <= maxLimit);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    this.clock = clock;
+
+    ImmutableMap<String, String> tags = ImmutableMap.of("operation", operation);
+    limitCounter = new SamplingCounter(COUNTER_CATEGORY, "concurrency_limit", tags);
+    limitDecreases = new IntegerCounter(COUNTER_CATEGORY, "concurrency_limit_decreases", tags);
+    throttledRequests = new IntegerCounter(COUNTER_CATEGORY, "throttled_requests", tags);
+    eventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(limitCounter, limitDecreases, throttledRequests)));
+  }
+
+  /**
+   * Waits until there is room for another request under the limit.
+   *
+   * @return the permit to close once the request is done, after marking it succeeded if it did.
+   */
+  public synchronized Permit acquire() throws InterruptedException {
+    if (inFlight >= getLimit()) {
+      throttledRequests.inc();
+      while (inFlight >= getLimit()) {
+        wait();
+      }
+    }
+    inFlight++;
+    return new Permit(clock.nanoTime(), inFlight);
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  private synchronized void release(long startNanos, int inFlightAtStart, boolean succeeded) {
+    inFlight--;
+    long nowNanos = clock.nanoTime();
+    boolean mayDecrease = startNanos >= lastDecreaseNanos;
+    if (!succeeded) {
+      if (mayDecrease) {
+        decrease(ERROR_BACKOFF_RATIO, nowNanos);
+      }
+    } else {
+      long latencyNanos = nowNanos - startNanos;
+      recentLatencyNanos = average(recentLatencyNanos, latencyNanos, RECENT_LATENCY_WEIGHT);
+      usualLatencyNanos = average(usualLatencyNanos, latencyNanos, USUAL_LATENCY_WEIGHT);
+      if (recentLatencyNanos > LATENCY_TOLERANCE * usualLatencyNanos) {
+        if (mayDecrease) {
+          decrease(LATENCY_BACKOFF_RATIO, nowNanos);
+        }
+      } else if (inFlightAtStart >= getLimit()) {
+        // Only grow the limit when it is what holds requests back.
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+    }
+    limitCounter.addSample(getLimit());
+    notifyAll();
+  }
+
+  private void decrease(double ratio, long nowNanos) {
+    limit = Math.max(minLimit, limit * ratio);
+    lastDecreaseNanos = nowNanos;
+    limitDecreases.inc();
+  }
+
+  private static double average(double average, long sample, double weight) {
+    return average < 0 ? sample : average + weight * (sample - average);
+  }
+
+  /** Room for one request under the limit. Requests which aren't marked succeeded failed. */
+  public class Permit implements Scope {
+    private final long startNanos;
+    private final int inFlightAtStart;
+    private boolean succeeded = false;
+    private boolean released = false;
+
+    private Permit(long startNanos, int inFlightAtStart) {
+      this.startNanos = startNanos;
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    public void succeeded() {
+      succeeded = true;
+    }
+
+    @Override
+    public void close() {
+      if (!released) {
+        released = true;
+        release(startNanos, inFlightAtStart, succeeded);
+      }
+    }
+  }
+}
@@ -99,6 +99,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final String producerId;
   private final String producerHostname;
   private final Optional<ClientCertificateHandler> clientCertificateHandler;
+  private final Optional<InMemoryArtifactStore> inMemoryArtifactStore;
 
   /** {@link TaskAction} implementation for {@link ArtifactCaches}. */
   static class ArtifactCachesCloseAction implements TaskAction<List<ArtifactCache>> {
@@ -162,6 +163,44 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       String producerId,
       String producerHostname,
       Optional<ClientCertificateHandler> clientCertificateHandler) {
+    this(
+        buckConfig,
+        buckEventBus,
+        unconfiguredBuildTargetFactory,
+        targetConfigurationSerializer,
+        projectFilesystem,
+        wifiSsid,
+        httpWriteExecutorService,
+        httpFetchExecutorService,
+        downloadHeavyBuildHttpFetchExecutorService,
+        dirWriteExecutorService,
+        managerScope,
+        producerId,
+        producerHostname,
+        clientCertificateHandler,
+        Optional.empty());
+  }
+
+  /**
+   * @param inMemoryArtifactStore where small artifacts are kept in memory across commands, in
+   *     front of the local caches.
+   */
+  public ArtifactCaches(
+      ArtifactCacheBuckConfig buckConfig,
+      BuckEventBus buckEventBus,
+      Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory,
+      TargetConfigurationSerializer targetConfigurationSerializer,
+      ProjectFilesystem projectFilesystem,
+      Optional<String> wifiSsid,
+      ListeningExecutorService httpWriteExecutorService,
+      ListeningExecutorService httpFetchExecutorService,
+      ListeningExecutorService downloadHeavyBuildHttpFetchExecutorService,
+      ListeningExecutorService dirWriteExecutorService,
+      TaskManagerCommandScope managerScope,
+      String producerId,
+      String producerHostname,
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      Optional<InMemoryArtifactStore> inMemoryArtifactStore) {
     this.buckConfig = buckConfig;
     this.buckEventBus = buckEventBus;
     this.unconfiguredBuildTargetFactory = unconfiguredBuildTargetFactory;
@@ -176,6 +215,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     this.producerId = producerId;
     this.producerHostname = producerHostname;
     this.clientCertificateHandler = clientCertificateHandler;
+    this.inMemoryArtifactStore = inMemoryArtifactStore;
   }
 
   private static Request.Builder addHeadersToBuilder(
@@ -244,7 +284,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             distributedBuildModeEnabled,
             producerId,
             producerHostname,
-            clientCertificateHandler);
+            clientCertificateHandler,
+            inMemoryArtifactStore);
 
     artifactCaches.add(artifactCache);
 
@@ -268,7 +309,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         managerScope,
         producerId,
         producerHostname,
-        clientCertificateHandler);
+        clientCertificateHandler,
+        inMemoryArtifactStore);
   }
 
   /**
@@ -310,7 +352,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       boolean distributedBuildModeEnabled,
       String producerId,
       String producerHostname,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      Optional<InMemoryArtifactStore> inMemoryArtifactStore) {
     ImmutableSet<ArtifactCacheMode> modes = buckConfig.getArtifactCacheModes();
     if (modes.isEmpty()) {
       return new NoopArtifactCache();
@@ -347,7 +390,12 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               httpWriteExecutorService,
               httpFetchExecutorService,
               builder,
-              HttpArtifactCache::new,
+              (args) ->
+                  new HttpArtifactCache(
+                      args,
+                      buckConfig.getHttpMultiFetchEnabled() ? buckConfig.getMultiFetchLimit() : 0,
+                      buckConfig.getHttpFetchConcurrency(),
+                      buckConfig.getHttpMultiFetchMaxDelayMillis()),
               mode,
               clientCertificateHandler);
           break;
@@ -401,6 +449,19 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       result = new MultiArtifactCache(artifactCaches);
     }
 
+    // Always support reading chunked stores, for the same reason as two-level ones below.
+    result =
+        new ChunkedArtifactCacheDecorator(
+            result,
+            artifactCaches.stream()
+                .filter(cache -> cache.getCacheReadMode().isWritable())
+                .collect(ImmutableList.toImmutableList()),
+            projectFilesystem,
+            buckEventBus,
+            buckConfig.getChunkedCachingEnabled(),
+            buckConfig.getChunkedCachingMinimumSize(),
+            buckConfig.getChunkedCachingAverageChunkSize());
+
     // Always support reading two-level cache stores (in case we performed any in the past).
     result =
         new TwoLevelArtifactCacheDecorator(
@@ -411,6 +472,13 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             buckConfig.getTwoLevelCachingMinimumSize(),
             buckConfig.getTwoLevelCachingMaximumSize());
 
+    // Artifacts are kept in memory whole, after being joined from chunks or two-level entries.
+    if (inMemoryArtifactStore.isPresent() && !cacheTypeBlacklist.contains(local)) {
+      result =
+          new InMemoryArtifactCacheDecorator(
+              result, inMemoryArtifactStore.get(), projectFilesystem, buckEventBus);
+    }
+
     return result;
   }
 
@@ -675,7 +743,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         fetchService =
             new RetryingHttpService(
                 buckEventBus,
-                new LoadBalancedService(clientSideSlb, fetchClient, buckEventBus),
+                new LoadBalancedService(
+                    clientSideSlb, fetchClient, buckEventBus, /* hedgeRequests */ true),
                 "buck_cache_fetch_request_http_retries",
                 config.getMaxFetchRetries());
         storeService =
@@ -716,9 +785,37 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setFetchConcurrencyLimiter(
+                createConcurrencyLimiter(
+                    config,
+                    "fetch",
+                    config.getHttpFetchConcurrency(),
+                    config.getHttpFetchThreads(),
+                    buckEventBus))
+            .setStoreConcurrencyLimiter(
+                createConcurrencyLimiter(
+                    config,
+                    "store",
+                    config.getHttpMaxConcurrentWrites(),
+                    config.getHttpWriteThreads(),
+                    buckEventBus))
             .build());
   }
 
+  private static Optional<AdaptiveConcurrencyLimiter> createConcurrencyLimiter(
+      ArtifactCacheBuckConfig config,
+      String operation,
+      int initialLimit,
+      int maxLimit,
+      BuckEventBus buckEventBus) {
+    if (!config.getHttpAdaptiveConcurrencyEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new AdaptiveConcurrencyLimiter(
+            operation, initialLimit, 1, maxLimit, new DefaultClock(), buckEventBus));
+  }
+
   private static ArtifactCache createSQLiteArtifactCache(
       BuckEventBus buckEventBus,
       SQLiteCacheEntry cacheConfig,
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/**
+ * Reports how the artifacts fetched ahead of the build engine were used, once the build is over.
+ */
+public class ArtifactPrefetchEvent extends AbstractBuckEvent {
+  private final int hits;
+  private final int wastes;
+
+  private ArtifactPrefetchEvent(EventKey eventKey, int hits, int wastes) {
+    super(eventKey);
+    this.hits = hits;
+    this.wastes = wastes;
+  }
+
+  /**
+   * @param hits the number of prefetched artifacts the build engine used.
+   * @param wastes the number of artifacts which were prefetched, or being prefetched, but which the
+   *     build engine never asked for, plus the prefetches it asked for which weren't hits it could
+   *     use.
+   */
+  public static ArtifactPrefetchEvent finished(int hits, int wastes) {
+    return new ArtifactPrefetchEvent(EventKey.unique(), hits, wastes);
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getWastes() {
+    return wastes;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("hits=%d wastes=%d", hits, wastes);
+  }
+
+  @Override
+  public String getEventName() {
+    return "ArtifactPrefetchFinished";
+  }
+}
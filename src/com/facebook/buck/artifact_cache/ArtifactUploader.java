@@ -30,6 +30,7 @@ import com.facebook.buck.util.CloseableHolder;
 import com.facebook.buck.util.ErrorLogger;
 import com.facebook.buck.util.NamedTemporaryFile;
 import com.facebook.buck.util.zip.ZipConstants;
+import com.facebook.buck.util.zstd.ParallelZstdOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
@@ -50,7 +51,6 @@ import java.util.Collection;
 import java.util.SortedSet;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 /**
  * ArtifactUploader contains the logic of how to take a list of artifact paths and metadata and
@@ -182,13 +182,16 @@ public class ArtifactUploader {
     }
   }
 
-  /** Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard. */
+  /**
+   * Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard. Blocks of the
+   * tarball are compressed in parallel, into frames which any zstd decoder reads as one stream.
+   */
   @VisibleForTesting
   static void compress(
       ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInArchive, Path out)
       throws IOException {
     try (OutputStream o = new BufferedOutputStream(Files.newOutputStream(out));
-        OutputStream z = new ZstdCompressorOutputStream(o);
+        OutputStream z = new ParallelZstdOutputStream(o);
         TarArchiveOutputStream archive = new TarArchiveOutputStream(z)) {
       archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
       for (Path path : pathsToIncludeInArchive) {
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.ContentDefinedChunker.Chunk;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Stores large artifacts as chunks, so that an artifact which only changed in places shares most
+ * of its chunks with its previous versions, and only the chunks which changed are uploaded. The
+ * data is stored using the following scheme: rulekey -> (metadata, manifest) and chunk hash ->
+ * chunk, where the manifest lists the chunks of the artifact in order. Chunks are cut with {@link
+ * ContentDefinedChunker}, so that inserting or removing bytes doesn't shift every chunk after the
+ * edit.
+ *
+ * <p>Like {@link TwoLevelArtifactCacheDecorator}, whose content hash indirection this extends to
+ * parts of artifacts, this costs an extra round trip for the chunks of an artifact. Chunks are
+ * fetched through the delegate, so when it is a {@link MultiArtifactCache} with a local cache in
+ * front, the chunks a machine has already fetched aren't downloaded again either.
+ */
+public class ChunkedArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  @VisibleForTesting static final String METADATA_KEY = "CHUNKED_CACHE_ARTIFACT_SIZE";
+  private static final String COUNTER_CATEGORY = "buck_chunked_cache_stats";
+  // Distinguishes chunk keys from rule keys and from the content hashes of two-level entries.
+  private static final String CHUNK_KEY_SUFFIX = "2c01";
+
+  private static final Logger LOG = Logger.get(ChunkedArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ImmutableList<ArtifactCache> chunkStores;
+  private final ProjectFilesystem projectFilesystem;
+  private final boolean performChunkedStores;
+  private final long minimumChunkedStoredArtifactSize;
+  private final ContentDefinedChunker chunker;
+
+  private final SamplingCounter uploadedChunkBytes;
+  private final SamplingCounter deduplicatedChunkBytes;
+  private final IntegerCounter chunkMisses;
+
+  // A MultiArtifactCache delegate copies fetched chunks into its local caches asynchronously, so
+  // they are only deleted once the cache is closed.
+  private final Set<Path> fetchedChunkDirectories = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param chunkStores the caches stores go to. A chunk is only left out of a store if all of them
+   *     already have it, since a {@link MultiArtifactCache} delegate finds chunks in any of them.
+   */
+  public ChunkedArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ImmutableList<ArtifactCache> chunkStores,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      boolean performChunkedStores,
+      long minimumChunkedStoredArtifactSize,
+      int averageChunkSize) {
+    this.delegate = delegate;
+    this.chunkStores = chunkStores;
+    this.projectFilesystem = projectFilesystem;
+    this.performChunkedStores = performChunkedStores;
+    this.minimumChunkedStoredArtifactSize = minimumChunkedStoredArtifactSize;
+    this.chunker = new ContentDefinedChunker(averageChunkSize);
+
+    uploadedChunkBytes =
+        new SamplingCounter(COUNTER_CATEGORY, "uploaded_chunk_bytes", ImmutableMap.of());
+    deduplicatedChunkBytes =
+        new SamplingCounter(COUNTER_CATEGORY, "deduplicated_chunk_bytes", ImmutableMap.of());
+    chunkMisses = new IntegerCounter(COUNTER_CATEGORY, "chunk_misses", ImmutableMap.of());
+    buckEventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(uploadedChunkBytes, deduplicatedChunkBytes, chunkMisses)));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return Futures.transformAsync(
+        delegate.fetchAsync(target, ruleKey, output),
+        (CacheResult fetchResult) -> {
+          if (!fetchResult.getType().isSuccess()
+              || !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+            return Futures.immediateFuture(fetchResult);
+          }
+          Path outputPath = output.get();
+          if (Files.size(outputPath)
+              == Long.parseLong(fetchResult.getMetadata().get(METADATA_KEY))) {
+            // A local cache copied the joined artifact rather than the manifest it was fetched as.
+            LOG.verbose("Found an already joined chunked artifact for %s.", ruleKey);
+            return Futures.immediateFuture(withoutArtifactSize(fetchResult));
+          }
+          LOG.verbose("Found the manifest of a chunked artifact for %s.", ruleKey);
+          return fetchChunks(target, fetchResult, outputPath);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Fetches the chunks listed by the manifest at {@code output}, and joins them in its place. */
+  private ListenableFuture<CacheResult> fetchChunks(
+      @Nullable BuildTarget target, CacheResult manifestResult, Path output) throws IOException {
+    Map<RuleKey, Integer> manifest = new LinkedHashMap<>();
+    List<RuleKey> chunkKeys = new ArrayList<>();
+    for (String line : Files.readAllLines(output, StandardCharsets.UTF_8)) {
+      List<String> fields = Splitter.on(' ').splitToList(line);
+      RuleKey chunkKey = new RuleKey(fields.get(0));
+      manifest.put(chunkKey, Integer.parseInt(fields.get(1)));
+      chunkKeys.add(chunkKey);
+    }
+
+    Path chunksDirectory = createTempDirectory("chunks");
+    fetchedChunkDirectories.add(chunksDirectory);
+    List<ListenableFuture<CacheResult>> chunkResults = new ArrayList<>(manifest.size());
+    for (RuleKey chunkKey : manifest.keySet()) {
+      chunkResults.add(
+          delegate.fetchAsync(
+              target, chunkKey, LazyPath.ofInstance(chunksDirectory.resolve(chunkKey.toString()))));
+    }
+
+    return Futures.transform(
+        Futures.allAsList(chunkResults),
+        results -> {
+          for (CacheResult chunkResult : results) {
+            if (!chunkResult.getType().isSuccess()) {
+              LOG.verbose("Missed a chunk of an artifact.");
+              chunkMisses.inc();
+              return chunkResult;
+            }
+          }
+          try {
+            joinChunks(chunksDirectory, manifest, chunkKeys, output);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return withoutArtifactSize(manifestResult);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  // The artifact size was not part of the original metadata that was stored to the cache, don't
+  // include it in the result.
+  private static CacheResult withoutArtifactSize(CacheResult manifestResult) {
+    return manifestResult.withMetadata(
+        ImmutableMap.copyOf(
+            Maps.filterKeys(manifestResult.getMetadata(), key -> !key.equals(METADATA_KEY))));
+  }
+
+  private void joinChunks(
+      Path chunksDirectory, Map<RuleKey, Integer> manifest, List<RuleKey> chunkKeys, Path output)
+      throws IOException {
+    Path temp =
+        projectFilesystem.createTempFile(
+            output.getParent(), output.getFileName().toString(), ".tmp");
+    try (OutputStream joined = projectFilesystem.newFileOutputStream(temp)) {
+      for (RuleKey chunkKey : chunkKeys) {
+        Path chunk = chunksDirectory.resolve(chunkKey.toString());
+        if (Files.size(chunk) != manifest.get(chunkKey)) {
+          throw new IOException(String.format("Chunk %s has an unexpected size.", chunkKey));
+        }
+        Files.copy(chunk, joined);
+      }
+    }
+    projectFilesystem.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    long fileSize;
+    try {
+      fileSize = projectFilesystem.getFileSize(output.getPath());
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot get file size of " + output.getPath());
+    }
+    if (!performChunkedStores || fileSize < minimumChunkedStoredArtifactSize) {
+      return delegate.store(info, output);
+    }
+
+    ImmutableList<Chunk> chunks;
+    try (InputStream input = projectFilesystem.newFileInputStream(output.getPath())) {
+      chunks = chunker.chunk(input);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot split " + output.getPath() + " into chunks");
+    }
+    ImmutableSet<RuleKey> chunkKeys =
+        chunks.stream()
+            .map(ChunkedArtifactCacheDecorator::getKey)
+            .collect(ImmutableSet.toImmutableSet());
+
+    return Futures.transformAsync(
+        findStoredChunks(chunkKeys),
+        storedChunkKeys -> storeChunks(info, output, fileSize, chunks, storedChunkKeys),
+        MoreExecutors.directExecutor());
+  }
+
+  /** @return the chunks which every store already has. */
+  private ListenableFuture<Set<RuleKey>> findStoredChunks(ImmutableSet<RuleKey> chunkKeys) {
+    if (chunkStores.isEmpty()) {
+      return Futures.immediateFuture(ImmutableSet.of());
+    }
+    List<ListenableFuture<Set<RuleKey>>> storedChunkKeys = new ArrayList<>(chunkStores.size());
+    for (ArtifactCache chunkStore : chunkStores) {
+      ListenableFuture<ImmutableMap<RuleKey, CacheResult>> results;
+      try {
+        results = chunkStore.multiContainsAsync(chunkKeys);
+      } catch (RuntimeException e) {
+        results = Futures.immediateFailedFuture(e);
+      }
+      storedChunkKeys.add(
+          Futures.catching(
+              Futures.transform(
+                  results,
+                  resultsByKey ->
+                      Maps.filterValues(resultsByKey, result -> result.getType().isSuccess())
+                          .keySet(),
+                  MoreExecutors.directExecutor()),
+              Exception.class,
+              e -> {
+                // Not every cache can tell what it contains, in which case every chunk is stored.
+                LOG.debug(e, "Cannot find the chunks already stored in a cache.");
+                return ImmutableSet.of();
+              },
+              MoreExecutors.directExecutor()));
+    }
+    return Futures.transform(
+        Futures.allAsList(storedChunkKeys),
+        sets -> {
+          Set<RuleKey> intersection = new HashSet<>(chunkKeys);
+          sets.forEach(intersection::retainAll);
+          return intersection;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<Void> storeChunks(
+      ArtifactInfo info,
+      BorrowablePath output,
+      long fileSize,
+      ImmutableList<Chunk> chunks,
+      Set<RuleKey> storedChunkKeys)
+      throws IOException {
+    Path chunksDirectory = createTempDirectory("chunks");
+    List<ListenableFuture<Void>> chunkStoreResults = new ArrayList<>();
+    Set<RuleKey> storingChunkKeys = new HashSet<>();
+    Path manifest = chunksDirectory.resolve("manifest");
+    long uploadedBytes = 0;
+    try (InputStream input = projectFilesystem.newFileInputStream(output.getPath());
+        BufferedWriter manifestWriter = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+      for (Chunk chunk : chunks) {
+        RuleKey chunkKey = getKey(chunk);
+        manifestWriter.write(chunkKey + " " + chunk.getSize() + "\n");
+        if (storedChunkKeys.contains(chunkKey) || !storingChunkKeys.add(chunkKey)) {
+          ByteStreams.skipFully(input, chunk.getSize());
+          continue;
+        }
+        Path chunkFile = chunksDirectory.resolve(chunkKey.toString());
+        try (OutputStream chunkOutput = Files.newOutputStream(chunkFile)) {
+          ByteStreams.copy(ByteStreams.limit(input, chunk.getSize()), chunkOutput);
+        }
+        uploadedBytes += chunk.getSize();
+        chunkStoreResults.add(
+            delegate.store(
+                ArtifactInfo.builder()
+                    .addRuleKeys(chunkKey)
+                    .setBuildTarget(info.getBuildTarget())
+                    .setBuildTimeMs(info.getBuildTimeMs())
+                    .build(),
+                BorrowablePath.borrowablePath(chunkFile)));
+      }
+    }
+    uploadedChunkBytes.addSample(uploadedBytes);
+    deduplicatedChunkBytes.addSample(fileSize - uploadedBytes);
+    LOG.verbose(
+        "Storing %d of the %d bytes of %s as new chunks.",
+        uploadedBytes, fileSize, output.getPath());
+
+    // Like two-level stores, the manifest is only stored once its chunks are, so that it is never
+    // found before all of them are.
+    ArtifactInfo manifestInfo =
+        ArtifactInfo.builder()
+            .setRuleKeys(info.getRuleKeys())
+            .setMetadata(
+                ImmutableMap.<String, String>builder()
+                    .putAll(info.getMetadata())
+                    .put(METADATA_KEY, String.valueOf(fileSize))
+                    .build())
+            .setBuildTarget(info.getBuildTarget())
+            .setBuildTimeMs(info.getBuildTimeMs())
+            .build();
+    ListenableFuture<Void> result =
+        Futures.transformAsync(
+            Futures.allAsList(chunkStoreResults),
+            ignored -> delegate.store(manifestInfo, BorrowablePath.borrowablePath(manifest)),
+            MoreExecutors.directExecutor());
+    result.addListener(() -> deleteTempDirectory(chunksDirectory), MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private static RuleKey getKey(Chunk chunk) {
+    return new RuleKey(chunk.getHashCode() + CHUNK_KEY_SUFFIX);
+  }
+
+  private Path createTempDirectory(String prefix) throws IOException {
+    Path tmpDir = projectFilesystem.getBuckPaths().getTmpDir();
+    projectFilesystem.mkdirs(tmpDir);
+    return Files.createTempDirectory(projectFilesystem.resolve(tmpDir), prefix);
+  }
+
+  private static void deleteTempDirectory(Path directory) {
+    try {
+      MostFiles.deleteRecursivelyIfExists(directory);
+    } catch (IOException e) {
+      LOG.debug(e, "Exception when deleting temp directory %s.", directory);
+    }
+  }
+
+  /** Contains is supposed to be best-effort, but super-fast => Assume the chunks are present. */
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    // Only deletes the manifests, chunks may be shared with other artifacts.
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+    fetchedChunkDirectories.forEach(ChunkedArtifactCacheDecorator::deleteTempDirectory);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits files into chunks whose boundaries depend on the bytes around them rather than on their
+ * offsets, so that an edit only changes the chunks it touches, and the chunks after it are the
+ * same as before, even if the edit inserted or removed bytes.
+ *
+ * <p>Boundaries are found with a gear hash of the last 64 bytes, as in FastCDC: a boundary is cut
+ * where the top bits of the hash are all zero. More bits are tested before the average size than
+ * after it, which keeps most chunks close to the average size.
+ */
+class ContentDefinedChunker {
+
+  // Fixed, so that every machine cuts the same chunks out of the same bytes.
+  private static final long[] GEAR = new long[256];
+
+  static {
+    Random random = new Random(0x6275636b);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int minimumSize;
+  private final int averageSize;
+  private final int maximumSize;
+  private final long smallMask;
+  private final long largeMask;
+
+  /** @param averageSize the size chunks are cut around, which must be a power of two. */
+  ContentDefinedChunker(int averageSize) {
+    Preconditions.checkArgument(
+        averageSize >= 64 && Integer.bitCount(averageSize) == 1,
+        "The average chunk size must be a power of two of at least 64 bytes.");
+    this.averageSize = averageSize;
+    this.minimumSize = averageSize / 4;
+    this.maximumSize = averageSize * 8;
+    int bits = Integer.numberOfTrailingZeros(averageSize);
+    this.smallMask = -1L << (64 - bits - 1);
+    this.largeMask = -1L << (64 - bits + 1);
+  }
+
+  /** A chunk of a file, identified by the hash of its contents. */
+  static class Chunk {
+    private final long offset;
+    private final int size;
+    private final HashCode hashCode;
+
+    Chunk(long offset, int size, HashCode hashCode) {
+      this.offset = offset;
+      this.size = size;
+      this.hashCode = hashCode;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    HashCode getHashCode() {
+      return hashCode;
+    }
+  }
+
+  /** @return the chunks of the input, in order, which together cover all of it. */
+  ImmutableList<Chunk> chunk(InputStream input) throws IOException {
+    ImmutableList.Builder<Chunk> chunks = ImmutableList.builder();
+    byte[] buffer = new byte[64 * 1024];
+    long offset = 0;
+    int size = 0;
+    long hash = 0;
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+      int start = 0;
+      for (int i = 0; i < read; i++) {
+        size++;
+        if (size <= minimumSize) {
+          continue;
+        }
+        hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+        long mask = size < averageSize ? smallMask : largeMask;
+        if ((hash & mask) == 0 || size == maximumSize) {
+          hasher.putBytes(buffer, start, i + 1 - start);
+          chunks.add(new Chunk(offset, size, hasher.hash()));
+          offset += size;
+          start = i + 1;
+          size = 0;
+          hash = 0;
+          hasher = Hashing.sha1().newHasher();
+        }
+      }
+      hasher.putBytes(buffer, start, read - start);
+    }
+    if (size > 0) {
+      chunks.add(new Chunk(offset, size, hasher.hash()));
+    }
+    return chunks.build();
+  }
+}
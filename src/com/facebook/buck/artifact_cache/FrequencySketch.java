@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ * Copyright 2015 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates how often keys were seen recently, as a count-min sketch of 4-bit counters. Once as
+ * many keys were seen as ten times the sketch is sized for, every counter is halved, so that keys
+ * which were popular a long time ago age out.
+ *
+ * <p>Estimates can be too high, when keys share all their counters, but are never too low until
+ * counters are halved. Not thread safe.
+ *
+ * <p>Adapted from {@code com.github.benmanes.caffeine.cache.FrequencySketch} of Caffeine
+ * (https://github.com/ben-manes/caffeine), which is also licensed under the Apache License, Version
+ * 2.0.
+ */
+class FrequencySketch {
+  static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  // Each long holds 16 counters, and each key has one counter in each of 4 longs.
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int size = 0;
+
+  /** @param expectedKeys how many distinct keys are expected to be tracked at once. */
+  FrequencySketch(int expectedKeys) {
+    Preconditions.checkArgument(expectedKeys > 0);
+    int length = Integer.highestOneBit(Math.max(expectedKeys - 1, 1)) << 1;
+    this.table = new long[length];
+    this.tableMask = length - 1;
+    this.sampleSize = 10 * length;
+  }
+
+  /** Records that the key was seen. */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++size == sampleSize) {
+      reset();
+    }
+  }
+
+  /** @return about how often the key was seen recently, at most {@link #MAX_FREQUENCY}. */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < 4; i++) {
+      int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  private int indexOf(int hash, int i) {
+    long index = (hash + SEEDS[i]) * SEEDS[i];
+    index += index >>> 32;
+    return ((int) index) & tableMask;
+  }
+
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    // Halving rounds odd counters down, which the size accounts for too.
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  private static int spread(int hash) {
+    int spread = hash * 0x31848bab;
+    return spread ^ (spread >>> 14);
+  }
+}
@@ -23,6 +23,7 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.slb.HttpResponse;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 import java.io.DataInputStream;
@@ -33,7 +34,10 @@ import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 import okhttp3.MediaType;
@@ -53,13 +57,39 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
    */
   private static final Logger LOG = Logger.get(HttpArtifactCache.class);
 
+  private static final ImmutableSet<Integer> ENDPOINT_MISSING_STATUSES =
+      ImmutableSet.of(
+          HttpURLConnection.HTTP_NOT_FOUND,
+          HttpURLConnection.HTTP_BAD_METHOD,
+          HttpURLConnection.HTTP_NOT_IMPLEMENTED);
+
   private final Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
 
+  private final int multiFetchLimit;
+  private final int concurrency;
+  private final long multiFetchMaxDelayMillis;
+  // Cleared once a server answers that it doesn't have the multi-fetch endpoint.
+  private volatile boolean multiFetchSupported = true;
+
   public HttpArtifactCache(NetworkCacheArgs args) {
+    this(args, 0, 1, 0);
+  }
+
+  /**
+   * @param multiFetchLimit the most keys fetched by a single request to the multi-fetch endpoint,
+   *     which is only used if this is greater than 1.
+   * @param concurrency the number of threads fetching, which batches are spread over.
+   * @param multiFetchMaxDelayMillis how long a batch may wait for more fetches to fill it.
+   */
+  public HttpArtifactCache(
+      NetworkCacheArgs args, int multiFetchLimit, int concurrency, long multiFetchMaxDelayMillis) {
     super(args);
     this.unconfiguredBuildTargetFactory = args.getUnconfiguredBuildTargetFactory();
     this.targetConfigurationSerializer = args.getTargetConfigurationSerializer();
+    this.multiFetchLimit = multiFetchLimit > 1 ? multiFetchLimit : 0;
+    this.concurrency = Math.max(1, concurrency);
+    this.multiFetchMaxDelayMillis = multiFetchMaxDelayMillis;
   }
 
   @Override
@@ -94,64 +124,118 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
-        // Setup a temporary file, which sits next to the destination, to write to and
-        // make sure all parent dirs exist.
-        Path file = output.get();
-        getProjectFilesystem().createParentDirs(file);
-        Path temp =
-            getProjectFilesystem()
-                .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
-
-        FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
-          fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
-        }
+        return readArtifact(
+            response.requestUrl(),
+            ruleKey,
+            output,
+            resultBuilder,
+            sink -> HttpArtifactCacheBinaryProtocol.readFetchResponse(input, sink));
+      }
+    }
+  }
 
-        resultBuilder
-            .setBuildTarget(
-                AbstractArtifactCacheEventFactory.getTarget(
-                    unconfiguredBuildTargetFactory,
-                    targetConfigurationSerializer,
-                    fetchedData.getMetadata()))
-            .setResponseSizeBytes(fetchedData.getResponseSizeBytes())
-            .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
-
-        // Verify that we were one of the rule keys that stored this artifact.
-        if (!fetchedData.getRuleKeys().contains(ruleKey)) {
-          String msg = "incorrect key name";
-          reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
-        }
+  /**
+   * Reads a fetched artifact into a temporary file next to the output, and moves it into place if
+   * it was stored for the given key and has the expected checksum.
+   */
+  private FetchResult readArtifact(
+      String requestUrl,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchResult.Builder resultBuilder,
+      ArtifactReader reader)
+      throws IOException {
+    // Setup a temporary file, which sits next to the destination, to write to and
+    // make sure all parent dirs exist.
+    Path file = output.get();
+    getProjectFilesystem().createParentDirs(file);
+    Path temp =
+        getProjectFilesystem()
+            .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
 
-        // Now form the checksum on the file we got and compare it to the checksum form the
-        // the HTTP header.  If it's incorrect, log this and return a miss.
-        if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
-          String msg = "artifact had invalid checksum";
-          reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          getProjectFilesystem().deleteFileAtPath(temp);
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
-        }
+    FetchResponseReadResult fetchedData;
+    try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
+      fetchedData = reader.read(tempFileOutputStream);
+    }
 
-        // Finally, move the temp file into it's final place.
-        getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
-
-        LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
-        return resultBuilder
-            .setCacheResult(
-                CacheResult.hit(
-                    getName(),
-                    getMode(),
-                    fetchedData.getMetadata(),
-                    fetchedData.getResponseSizeBytes()))
-            .build();
-      }
+    resultBuilder
+        .setBuildTarget(
+            AbstractArtifactCacheEventFactory.getTarget(
+                unconfiguredBuildTargetFactory,
+                targetConfigurationSerializer,
+                fetchedData.getMetadata()))
+        .setResponseSizeBytes(fetchedData.getResponseSizeBytes())
+        .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
+
+    // Verify that we were one of the rule keys that stored this artifact.
+    if (!fetchedData.getRuleKeys().contains(ruleKey)) {
+      String msg = "incorrect key name";
+      reportFailureWithFormatKey("fetch(%s, %s): %s", requestUrl, ruleKey, msg);
+      getProjectFilesystem().deleteFileAtPath(temp);
+      return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
     }
+
+    // Now form the checksum on the file we got and compare it to the checksum form the
+    // the HTTP header.  If it's incorrect, log this and return a miss.
+    if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
+      String msg = "artifact had invalid checksum";
+      reportFailureWithFormatKey("fetch(%s, %s): %s", requestUrl, ruleKey, msg);
+      getProjectFilesystem().deleteFileAtPath(temp);
+      return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
+    }
+
+    // Finally, move the temp file into it's final place.
+    getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+    LOG.info("fetch(%s, %s): cache hit", requestUrl, ruleKey);
+    return resultBuilder
+        .setCacheResult(
+            CacheResult.hit(
+                getName(),
+                getMode(),
+                fetchedData.getMetadata(),
+                fetchedData.getResponseSizeBytes()))
+        .build();
   }
 
   @Override
-  protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
-    throw new UnsupportedOperationException("multiContains is not supported");
+  protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .post(
+                RequestBody.create(
+                    OCTET_STREAM_CONTENT_TYPE,
+                    HttpArtifactCacheBinaryProtocol.createMultiContainsRequest(ruleKeys)));
+    try (HttpResponse response =
+            fetchClient.makeRequest("/artifacts/multicontains", requestBuilder);
+        DataInputStream input =
+            new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+      if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException(
+            String.format(
+                "multicontains(%s): unexpected server response: [%d:%s]",
+                response.requestUrl(), response.statusCode(), response.statusMessage()));
+      }
+
+      ImmutableList<Boolean> found =
+          HttpArtifactCacheBinaryProtocol.readMultiContainsResponse(input);
+      if (found.size() != ruleKeys.size()) {
+        throw new IOException(
+            String.format(
+                "expected %d entries in the multicontains response, got %d",
+                ruleKeys.size(), found.size()));
+      }
+      MultiContainsResult.Builder resultBuilder =
+          MultiContainsResult.builder().setResponseSizeBytes(response.contentLength());
+      int i = 0;
+      for (RuleKey ruleKey : ruleKeys) {
+        resultBuilder.putCacheResults(
+            ruleKey,
+            found.get(i++) ? CacheResult.contains(getName(), getMode()) : CacheResult.miss());
+      }
+      return resultBuilder.build();
+    }
   }
 
   @Override
@@ -215,9 +299,116 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     throw new RuntimeException("Delete operation is not yet supported");
   }
 
+  @Override
+  protected int getMultiFetchBatchSize(int pendingRequestsSize) {
+    if (multiFetchLimit < 1 || !multiFetchSupported) {
+      return 0;
+    }
+    if (multiFetchMaxDelayMillis > 0) {
+      // Batches are then bounded by the delay, so start them as large as they are allowed to be.
+      return multiFetchLimit;
+    }
+    return Math.min(multiFetchLimit, 1 + pendingRequestsSize / concurrency);
+  }
+
+  @Override
+  protected long getMultiFetchMaxDelayMillis() {
+    return multiFetchMaxDelayMillis;
+  }
+
+  @Override
+  protected boolean isFetchDeduplicationEnabled() {
+    return multiFetchLimit > 0;
+  }
+
   @Override
   protected MultiFetchResult multiFetchImpl(
-      Iterable<AbstractAsynchronousCache.FetchRequest> requests) {
-    throw new RuntimeException("multiFetch not supported");
+      Iterable<AbstractAsynchronousCache.FetchRequest> requests) throws IOException {
+    ImmutableList<FetchRequest> requestList = ImmutableList.copyOf(requests);
+    if (requestList.size() == 1) {
+      // A plain GET is cheaper for a single key, and can be served by any cache server.
+      FetchRequest request = requestList.get(0);
+      return MultiFetchResult.of(
+          ImmutableList.of(
+              fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput())));
+    }
+
+    // Each key is only fetched once, into the output of the first request for it.
+    Map<RuleKey, FetchRequest> firstRequests = new LinkedHashMap<>();
+    for (FetchRequest request : requestList) {
+      firstRequests.putIfAbsent(request.getRuleKey(), request);
+    }
+    ImmutableSet<RuleKey> ruleKeys = ImmutableSet.copyOf(firstRequests.keySet());
+
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .post(
+                RequestBody.create(
+                    OCTET_STREAM_CONTENT_TYPE,
+                    HttpArtifactCacheBinaryProtocol.createMultiFetchRequest(ruleKeys)));
+    Map<RuleKey, FetchResult> results = new HashMap<>();
+    try (HttpResponse response = fetchClient.makeRequest("/artifacts/multifetch", requestBuilder);
+        DataInputStream input =
+            new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+      if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+        LOG.info(
+            "multifetch(%s): unexpected server response: [%d:%s], fetching keys one by one",
+            response.requestUrl(), response.statusCode(), response.statusMessage());
+        if (ENDPOINT_MISSING_STATUSES.contains(response.statusCode())) {
+          multiFetchSupported = false;
+        }
+        ImmutableList.Builder<FetchResult> fetchResults =
+            ImmutableList.builderWithExpectedSize(requestList.size());
+        for (FetchRequest request : requestList) {
+          fetchResults.add(
+              fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput()));
+        }
+        return MultiFetchResult.of(fetchResults.build());
+      }
+
+      int entriesCount = HttpArtifactCacheBinaryProtocol.readMultiFetchResponseHeader(input);
+      if (entriesCount != ruleKeys.size()) {
+        throw new IOException(
+            String.format(
+                "expected %d entries in the multifetch response, got %d",
+                ruleKeys.size(), entriesCount));
+      }
+      // Entries are streamed in request order, so each of them is read as soon as it arrives.
+      for (RuleKey ruleKey : ruleKeys) {
+        FetchResult.Builder resultBuilder = FetchResult.builder();
+        if (!HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input)) {
+          LOG.info("multifetch(%s, %s): cache miss", response.requestUrl(), ruleKey);
+          results.put(ruleKey, resultBuilder.setCacheResult(CacheResult.miss()).build());
+          continue;
+        }
+        results.put(
+            ruleKey,
+            readArtifact(
+                response.requestUrl(),
+                ruleKey,
+                firstRequests.get(ruleKey).getOutput(),
+                resultBuilder,
+                sink -> HttpArtifactCacheBinaryProtocol.readMultiFetchHit(input, sink)));
+      }
+    }
+
+    ImmutableList.Builder<FetchResult> orderedResults =
+        ImmutableList.builderWithExpectedSize(requestList.size());
+    for (FetchRequest request : requestList) {
+      FetchRequest firstRequest = firstRequests.get(request.getRuleKey());
+      FetchResult result = results.get(request.getRuleKey());
+      if (request != firstRequest && result.getCacheResult().getType() == CacheResultType.HIT) {
+        Path output = request.getOutput().get();
+        getProjectFilesystem().createParentDirs(output);
+        getProjectFilesystem().copyFile(firstRequest.getOutput().get(), output);
+      }
+      orderedResults.add(result);
+    }
+    return MultiFetchResult.of(orderedResults.build());
+  }
+
+  /** Reads a fetched artifact, writing its payload to the given sink. */
+  private interface ArtifactReader {
+    FetchResponseReadResult read(OutputStream payloadSink) throws IOException;
   }
 }
@@ -22,6 +22,7 @@ import com.facebook.buck.util.hash.HasherInputStream;
 import com.facebook.buck.util.hash.HasherOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -34,9 +35,11 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 import org.immutables.value.Value;
 
@@ -247,11 +250,128 @@ public class HttpArtifactCacheBinaryProtocol {
 
     public void write(OutputStream responseSink) throws IOException {
       try (DataOutputStream dataOutputStream = new DataOutputStream(responseSink)) {
-        dataOutputStream.writeInt(rawMetadata.length);
-        dataOutputStream.write(rawMetadata);
-        payloadSource.copyTo(responseSink);
+        writeTo(dataOutputStream);
       }
     }
+
+    private void writeTo(DataOutputStream dataOutputStream) throws IOException {
+      dataOutputStream.writeInt(rawMetadata.length);
+      dataOutputStream.write(rawMetadata);
+      payloadSource.copyTo(dataOutputStream);
+    }
+  }
+
+  /**
+   * @return the body of a multi-fetch request for the given keys, which is laid out like the keys
+   *     header of a store request.
+   */
+  public static byte[] createMultiFetchRequest(ImmutableSet<RuleKey> ruleKeys) throws IOException {
+    return createKeysHeader(ruleKeys);
+  }
+
+  public static ImmutableList<RuleKey> readMultiFetchRequest(DataInputStream input)
+      throws IOException {
+    int ruleKeysCount = input.readInt();
+    ImmutableList.Builder<RuleKey> ruleKeys = ImmutableList.builderWithExpectedSize(ruleKeysCount);
+    for (int i = 0; i < ruleKeysCount; i++) {
+      ruleKeys.add(new RuleKey(input.readUTF()));
+    }
+    return ruleKeys.build();
+  }
+
+  /**
+   * Writes the start of a multi-fetch response, which must be followed by one {@link
+   * #writeMultiFetchHit} or {@link #writeMultiFetchMiss} per requested key, in request order.
+   * Entries are written as soon as they are available, so that clients can start reading the
+   * response before the server has looked up every key.
+   */
+  public static void writeMultiFetchResponseHeader(DataOutputStream output, int entriesCount)
+      throws IOException {
+    output.writeInt(entriesCount);
+  }
+
+  public static void writeMultiFetchHit(DataOutputStream output, FetchResponse fetchResponse)
+      throws IOException {
+    writeMultiFetchHitHeader(output, fetchResponse.getContentLength());
+    fetchResponse.writeTo(output);
+  }
+
+  /**
+   * Writes the start of an entry of a multi-fetch response which was found, for servers which keep
+   * fetch responses as they are sent. It must be followed by the {@code fetchResponseLength} bytes
+   * of the fetch response.
+   */
+  public static void writeMultiFetchHitHeader(DataOutputStream output, long fetchResponseLength)
+      throws IOException {
+    output.writeBoolean(true);
+    output.writeLong(fetchResponseLength);
+  }
+
+  public static void writeMultiFetchMiss(DataOutputStream output) throws IOException {
+    output.writeBoolean(false);
+  }
+
+  /** @return the number of entries following the header of a multi-fetch response. */
+  public static int readMultiFetchResponseHeader(DataInputStream input) throws IOException {
+    return input.readInt();
+  }
+
+  /**
+   * @return whether the server has the key of the next entry of a multi-fetch response, in which
+   *     case the entry must then be read with {@link #readMultiFetchHit}.
+   */
+  public static boolean readMultiFetchEntryFound(DataInputStream input) throws IOException {
+    return input.readBoolean();
+  }
+
+  /** @return the body of a multi-contains request, which is laid out like a multi-fetch one. */
+  public static byte[] createMultiContainsRequest(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    return createKeysHeader(ruleKeys);
+  }
+
+  public static ImmutableList<RuleKey> readMultiContainsRequest(DataInputStream input)
+      throws IOException {
+    return readMultiFetchRequest(input);
+  }
+
+  /** Writes whether the server has each of the keys of a multi-contains request, in order. */
+  public static void writeMultiContainsResponse(DataOutputStream output, List<Boolean> found)
+      throws IOException {
+    output.writeInt(found.size());
+    for (boolean entryFound : found) {
+      output.writeBoolean(entryFound);
+    }
+  }
+
+  public static ImmutableList<Boolean> readMultiContainsResponse(DataInputStream input)
+      throws IOException {
+    int entriesCount = input.readInt();
+    ImmutableList.Builder<Boolean> found = ImmutableList.builderWithExpectedSize(entriesCount);
+    for (int i = 0; i < entriesCount; i++) {
+      found.add(input.readBoolean());
+    }
+    return found.build();
+  }
+
+  /**
+   * Reads an entry of a multi-fetch response which was found, writing its payload to the given
+   * sink. The input is left at the start of the next entry, even if reading this one failed.
+   */
+  public static FetchResponseReadResult readMultiFetchHit(
+      DataInputStream input, OutputStream payloadSink) throws IOException {
+    long length = input.readLong();
+    // Reading the entry closes the stream it is given, which must not close the response.
+    InputStream entry =
+        new FilterInputStream(ByteStreams.limit(input, length)) {
+          @Override
+          public void close() throws IOException {
+            ByteStreams.exhaust(in);
+          }
+        };
+    try (DataInputStream entryInput = new DataInputStream(entry)) {
+      return readFetchResponse(entryInput, payloadSink);
+    }
   }
 
   abstract static class MetadataAndPayloadReadResult {
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Serves fetches of small artifacts from an {@link InMemoryArtifactStore}, in front of the local
+ * and remote caches, and keeps the small artifacts they return there. Hits are returned with
+ * {@link CacheResult#MEMORY_CACHE_SOURCE} as their source, and the mode of the cache the artifact
+ * first came from.
+ */
+public class InMemoryArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  private static final String COUNTER_CATEGORY = "buck_in_memory_cache_stats";
+
+  private static final Logger LOG = Logger.get(InMemoryArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final InMemoryArtifactStore store;
+  private final ProjectFilesystem projectFilesystem;
+
+  private final IntegerCounter hits;
+  private final IntegerCounter misses;
+  private final IntegerCounter hitBytes;
+  private final SamplingCounter storeSizeBytes;
+
+  public InMemoryArtifactCacheDecorator(
+      ArtifactCache delegate,
+      InMemoryArtifactStore store,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus) {
+    this.delegate = delegate;
+    this.store = store;
+    this.projectFilesystem = projectFilesystem;
+
+    hits = new IntegerCounter(COUNTER_CATEGORY, "memory_hits", ImmutableMap.of());
+    misses = new IntegerCounter(COUNTER_CATEGORY, "memory_misses", ImmutableMap.of());
+    hitBytes = new IntegerCounter(COUNTER_CATEGORY, "memory_hit_bytes", ImmutableMap.of());
+    storeSizeBytes = new SamplingCounter(COUNTER_CATEGORY, "memory_size_bytes", ImmutableMap.of());
+    buckEventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(hits, misses, hitBytes, storeSizeBytes)));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    Optional<InMemoryArtifactStore.Entry> entry = store.get(ruleKey);
+    if (entry.isPresent()) {
+      try {
+        write(entry.get().getData(), output.get());
+        hits.inc();
+        hitBytes.inc(entry.get().getSize());
+        return Futures.immediateFuture(entry.get().getCacheResult());
+      } catch (IOException e) {
+        LOG.warn(e, "Cannot write the artifact for %s from memory, fetching it instead.", ruleKey);
+      }
+    }
+    misses.inc();
+    return Futures.transform(
+        delegate.fetchAsync(target, ruleKey, output),
+        result -> {
+          if (result.getType() == CacheResultType.HIT) {
+            keep(ruleKey, result, output);
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void keep(RuleKey ruleKey, CacheResult result, LazyPath output) {
+    try {
+      Path path = output.get();
+      long size = projectFilesystem.getFileSize(path);
+      if (size > store.getMaxArtifactBytes()) {
+        return;
+      }
+      // Direct buffers keep artifacts out of the heap, which the garbage collector scans.
+      ByteBuffer data;
+      try {
+        data = ByteBuffer.allocateDirect((int) size);
+      } catch (OutOfMemoryError e) {
+        // Direct memory is limited separately from the heap, and running out of it only means
+        // this artifact isn't kept, rather than failing the fetch which already succeeded.
+        LOG.debug(e, "Cannot allocate memory to keep the artifact for %s.", ruleKey);
+        return;
+      }
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        while (data.hasRemaining() && channel.read(data) >= 0) {}
+      }
+      if (data.hasRemaining()) {
+        return;
+      }
+      data.flip();
+      store.put(
+          ruleKey,
+          result.withCacheSource(CacheResult.MEMORY_CACHE_SOURCE).withArtifactSizeBytes(size),
+          data);
+      storeSizeBytes.addSample(store.getSizeBytes());
+    } catch (IOException e) {
+      LOG.debug(e, "Cannot keep the artifact for %s in memory.", ruleKey);
+    }
+  }
+
+  private void write(ByteBuffer data, Path output) throws IOException {
+    projectFilesystem.createParentDirs(output);
+    Path temp =
+        projectFilesystem.createTempFile(
+            output.getParent(), output.getFileName().toString(), ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(projectFilesystem.resolve(temp), StandardOpenOption.WRITE)) {
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    }
+    projectFilesystem.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    ruleKeys.forEach(store::invalidate);
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps small artifacts in direct memory, outside of the heap, up to a number of bytes. It lives as
+ * long as the daemon does, so artifacts fetched by one command are served from memory to the
+ * following ones.
+ *
+ * <p>Which artifacts are kept is decided by W-TinyLFU: new artifacts go to a small LRU window, and
+ * an artifact leaving the window only replaces artifacts in the main space if a {@link
+ * FrequencySketch} says it was fetched more often recently than they were. The main space is a
+ * segmented LRU, where artifacts fetched again are protected from artifacts on probation. So a
+ * build which fetches many artifacts once doesn't push out the ones fetched by every build.
+ */
+public class InMemoryArtifactStore {
+
+  /** The share of the capacity for artifacts which were just added. */
+  static final double WINDOW_RATIO = 0.01;
+
+  /** The share of the main space for artifacts which were fetched again. */
+  static final double PROTECTED_RATIO = 0.8;
+
+  // Artifacts are not expected to be smaller than this on average, which sizes the sketch.
+  private static final long EXPECTED_ARTIFACT_SIZE = 4 * 1024L;
+  private static final int MAX_EXPECTED_ARTIFACTS = 1 << 22;
+
+  private final long capacityBytes;
+  private final long maxArtifactBytes;
+  private final long windowCapacityBytes;
+  private final long protectedCapacityBytes;
+  private final FrequencySketch sketch;
+
+  // From the least to the most recently used.
+  private final LinkedHashMap<RuleKey, Entry> window = new LinkedHashMap<>();
+  private final LinkedHashMap<RuleKey, Entry> probation = new LinkedHashMap<>();
+  private final LinkedHashMap<RuleKey, Entry> protectedSegment = new LinkedHashMap<>();
+  private long windowBytes = 0;
+  private long probationBytes = 0;
+  private long protectedBytes = 0;
+
+  /**
+   * @param capacityBytes the most bytes of artifacts to keep.
+   * @param maxArtifactBytes the size of the largest artifacts which are kept.
+   */
+  public InMemoryArtifactStore(long capacityBytes, long maxArtifactBytes) {
+    Preconditions.checkArgument(capacityBytes > 0 && maxArtifactBytes > 0);
+    this.capacityBytes = capacityBytes;
+    this.windowCapacityBytes = (long) (capacityBytes * WINDOW_RATIO);
+    // Artifacts must fit in the main space, or they couldn't be admitted to it.
+    long mainCapacityBytes = capacityBytes - windowCapacityBytes;
+    this.maxArtifactBytes =
+        Math.min(maxArtifactBytes, Math.min(mainCapacityBytes, Integer.MAX_VALUE));
+    this.protectedCapacityBytes = (long) (mainCapacityBytes * PROTECTED_RATIO);
+    this.sketch =
+        new FrequencySketch(
+            (int)
+                Math.max(
+                    16, Math.min(MAX_EXPECTED_ARTIFACTS, capacityBytes / EXPECTED_ARTIFACT_SIZE)));
+  }
+
+  public long getMaxArtifactBytes() {
+    return maxArtifactBytes;
+  }
+
+  /** @return the artifact stored for the key, which counts as a use of it. */
+  public synchronized Optional<Entry> get(RuleKey ruleKey) {
+    sketch.increment(ruleKey);
+    Entry entry = window.remove(ruleKey);
+    if (entry != null) {
+      window.put(ruleKey, entry);
+      return Optional.of(entry);
+    }
+    entry = protectedSegment.remove(ruleKey);
+    if (entry != null) {
+      protectedSegment.put(ruleKey, entry);
+      return Optional.of(entry);
+    }
+    entry = probation.remove(ruleKey);
+    if (entry != null) {
+      probationBytes -= entry.getSize();
+      protectedSegment.put(ruleKey, entry);
+      protectedBytes += entry.getSize();
+      demoteProtected();
+      return Optional.of(entry);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Adds an artifact, which may be dropped straight away if artifacts already kept are used more.
+   *
+   * @param result what fetching the artifact returned, which fetches from memory return too.
+   * @param data the contents of the artifact, which must not be changed after this.
+   */
+  public synchronized void put(RuleKey ruleKey, CacheResult result, ByteBuffer data) {
+    if (data.remaining() > maxArtifactBytes) {
+      return;
+    }
+    invalidate(ruleKey);
+    Entry entry = new Entry(result, data.asReadOnlyBuffer());
+    window.put(ruleKey, entry);
+    windowBytes += entry.getSize();
+    while (windowBytes > windowCapacityBytes) {
+      Iterator<Map.Entry<RuleKey, Entry>> oldest = window.entrySet().iterator();
+      Map.Entry<RuleKey, Entry> candidate = oldest.next();
+      oldest.remove();
+      windowBytes -= candidate.getValue().getSize();
+      admit(candidate.getKey(), candidate.getValue());
+    }
+  }
+
+  /** Drops the artifact stored for the key, if there is one. */
+  public synchronized void invalidate(RuleKey ruleKey) {
+    Entry entry = window.remove(ruleKey);
+    if (entry != null) {
+      windowBytes -= entry.getSize();
+    }
+    entry = probation.remove(ruleKey);
+    if (entry != null) {
+      probationBytes -= entry.getSize();
+    }
+    entry = protectedSegment.remove(ruleKey);
+    if (entry != null) {
+      protectedBytes -= entry.getSize();
+    }
+  }
+
+  /** @return the number of bytes of artifacts kept. */
+  public synchronized long getSizeBytes() {
+    return windowBytes + probationBytes + protectedBytes;
+  }
+
+  public synchronized int getArtifactCount() {
+    return window.size() + probation.size() + protectedSegment.size();
+  }
+
+  /** Moves an artifact from the window to the main space, if it is used more than its victims. */
+  private void admit(RuleKey ruleKey, Entry entry) {
+    long mainCapacityBytes = capacityBytes - windowCapacityBytes;
+    long excessBytes = probationBytes + protectedBytes + entry.getSize() - mainCapacityBytes;
+    if (excessBytes > 0) {
+      List<RuleKey> victims = new ArrayList<>();
+      int candidateFrequency = sketch.frequency(ruleKey);
+      Iterator<Map.Entry<RuleKey, Entry>> probationVictims = probation.entrySet().iterator();
+      Iterator<Map.Entry<RuleKey, Entry>> protectedVictims =
+          protectedSegment.entrySet().iterator();
+      while (excessBytes > 0) {
+        Map.Entry<RuleKey, Entry> victim =
+            probationVictims.hasNext() ? probationVictims.next() : protectedVictims.next();
+        if (sketch.frequency(victim.getKey()) >= candidateFrequency) {
+          // Keep the artifacts which are used at least as often, and drop the new one.
+          return;
+        }
+        victims.add(victim.getKey());
+        excessBytes -= victim.getValue().getSize();
+      }
+      victims.forEach(this::invalidate);
+    }
+    probation.put(ruleKey, entry);
+    probationBytes += entry.getSize();
+  }
+
+  /** Moves the least recently used protected artifacts back on probation, if there are too many. */
+  private void demoteProtected() {
+    while (protectedBytes > protectedCapacityBytes) {
+      Iterator<Map.Entry<RuleKey, Entry>> oldest = protectedSegment.entrySet().iterator();
+      Map.Entry<RuleKey, Entry> demoted = oldest.next();
+      oldest.remove();
+      protectedBytes -= demoted.getValue().getSize();
+      probation.put(demoted.getKey(), demoted.getValue());
+      probationBytes += demoted.getValue().getSize();
+    }
+  }
+
+  /** An artifact kept in memory. */
+  public static class Entry {
+    private final CacheResult cacheResult;
+    private final ByteBuffer data;
+
+    private Entry(CacheResult cacheResult, ByteBuffer data) {
+      this.cacheResult = cacheResult;
+      this.data = data;
+    }
+
+    public CacheResult getCacheResult() {
+      return cacheResult;
+    }
+
+    /** @return the contents of the artifact, in a buffer of their own which may be read. */
+    public ByteBuffer getData() {
+      return data.duplicate();
+    }
+
+    public int getSize() {
+      return data.remaining();
+    }
+  }
+}
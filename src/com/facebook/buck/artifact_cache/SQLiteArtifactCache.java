@@ -274,7 +274,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
     // verify that all metadata keys are valid
     for (String key : metadata.keySet()) {
       if (!BuildInfo.METADATA_KEYS.contains(key)
-          && !key.equals(TwoLevelArtifactCacheDecorator.METADATA_KEY)) {
+          && !key.equals(TwoLevelArtifactCacheDecorator.METADATA_KEY)
+          && !key.equals(ChunkedArtifactCacheDecorator.METADATA_KEY)) {
         throw new HumanReadableException("Metadata contained unexpected key: [%s]", key);
       }
     }
@@ -126,6 +126,18 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
 
+  private static final String CHUNKED_CACHING_ENABLED_FIELD_NAME = "chunked_cache_enabled";
+  private static final String CHUNKED_CACHING_MIN_SIZE_FIELD_NAME = "chunked_cache_minimum_size";
+  private static final String CHUNKED_CACHING_AVERAGE_CHUNK_SIZE_FIELD_NAME =
+      "chunked_cache_average_chunk_size";
+  private static final long CHUNKED_CACHING_MIN_SIZE_DEFAULT = 4 * 1024 * 1024L;
+  private static final long CHUNKED_CACHING_AVERAGE_CHUNK_SIZE_DEFAULT = 128 * 1024L;
+
+  private static final String IN_MEMORY_CACHE_SIZE_FIELD_NAME = "in_memory_cache_size";
+  private static final String IN_MEMORY_CACHE_MAX_ARTIFACT_SIZE_FIELD_NAME =
+      "in_memory_cache_max_artifact_size";
+  private static final long IN_MEMORY_CACHE_MAX_ARTIFACT_SIZE_DEFAULT = 256 * 1024L;
+
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
   private static final String DEFAULT_REPOSITORY = "";
@@ -136,6 +148,11 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
+  private static final String HTTP_MULTI_FETCH = "http_multi_fetch";
+  private static final String HTTP_MULTI_FETCH_MAX_DELAY_MS = "http_multi_fetch_max_delay_ms";
+  private static final String HTTP_ADAPTIVE_CONCURRENCY = "http_adaptive_concurrency";
+  private static final String HTTP_MAX_ADAPTIVE_CONCURRENCY = "http_max_adaptive_concurrency";
+  private static final int DEFAULT_HTTP_MAX_ADAPTIVE_CONCURRENCY = 32;
 
   private static final String DOWNLOAD_HEAVY_BUILD_CACHE_FETCH_THREADS =
       "download_heavy_build_http_cache_fetch_threads";
@@ -189,6 +206,15 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_MULTI_FETCH_LIMIT);
   }
 
+  /** @return whether fetches from http caches are batched, up to the multi fetch limit. */
+  public boolean getHttpMultiFetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_MULTI_FETCH, false);
+  }
+
+  public long getHttpMultiFetchMaxDelayMillis() {
+    return buckConfig.getLong(CACHE_SECTION_NAME, HTTP_MULTI_FETCH_MAX_DELAY_MS).orElse(0L);
+  }
+
   public String getRepository() {
     return buckConfig.getValue(CACHE_SECTION_NAME, REPOSITORY).orElse(DEFAULT_REPOSITORY);
   }
@@ -218,6 +244,35 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
             .orElse(DEFAULT_HTTP_MAX_CONCURRENT_WRITES));
   }
 
+  /**
+   * @return whether how many fetches and stores are in flight to http caches adapts to their
+   *     latency and errors, starting from the configured concurrency.
+   */
+  public boolean getHttpAdaptiveConcurrencyEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_ADAPTIVE_CONCURRENCY, false);
+  }
+
+  /** @return the most fetches, or stores, the adaptive concurrency may have in flight. */
+  public int getHttpMaxAdaptiveConcurrency() {
+    return buckConfig
+        .getInteger(CACHE_SECTION_NAME, HTTP_MAX_ADAPTIVE_CONCURRENCY)
+        .orElse(DEFAULT_HTTP_MAX_ADAPTIVE_CONCURRENCY);
+  }
+
+  /** @return how many threads fetch from http caches, which bounds how many fetches are sent. */
+  public int getHttpFetchThreads() {
+    return getHttpAdaptiveConcurrencyEnabled()
+        ? Math.max(getHttpFetchConcurrency(), getHttpMaxAdaptiveConcurrency())
+        : getHttpFetchConcurrency();
+  }
+
+  /** @return how many threads store to http caches, which bounds how many stores are sent. */
+  public int getHttpWriteThreads() {
+    return getHttpAdaptiveConcurrencyEnabled()
+        ? Math.max(getHttpMaxConcurrentWrites(), getHttpMaxAdaptiveConcurrency())
+        : getHttpMaxConcurrentWrites();
+  }
+
   public int getHttpWriterShutdownTimeout() {
     return Integer.parseInt(
         buckConfig
@@ -387,6 +442,44 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  public boolean getChunkedCachingEnabled() {
+    return buckConfig.getBooleanValue(
+        CACHE_SECTION_NAME, CHUNKED_CACHING_ENABLED_FIELD_NAME, false);
+  }
+
+  public long getChunkedCachingMinimumSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_MIN_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(CHUNKED_CACHING_MIN_SIZE_DEFAULT);
+  }
+
+  /** @return the size chunks are cut around, rounded down to a power of two. */
+  public int getChunkedCachingAverageChunkSize() {
+    long size =
+        buckConfig
+            .getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_AVERAGE_CHUNK_SIZE_FIELD_NAME)
+            .map(SizeUnit::parseBytes)
+            .orElse(CHUNKED_CACHING_AVERAGE_CHUNK_SIZE_DEFAULT);
+    // Chunks may grow to 8 times the average size, which must still fit in an int.
+    return (int) Long.highestOneBit(Math.max(1024, Math.min(size, 16 * 1024 * 1024)));
+  }
+
+  /** @return how many bytes of small artifacts the daemon keeps in memory, or zero for none. */
+  public long getInMemoryCacheSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, IN_MEMORY_CACHE_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(0L);
+  }
+
+  public long getInMemoryCacheMaxArtifactSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, IN_MEMORY_CACHE_MAX_ARTIFACT_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(IN_MEMORY_CACHE_MAX_ARTIFACT_SIZE_DEFAULT);
+  }
+
   /**
    * If true, fail if client TLS certificate or key paths are unspecified, don't exist, are not the
    * right format or have expired
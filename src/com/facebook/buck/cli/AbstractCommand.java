@@ -374,6 +374,7 @@ public abstract class AbstractCommand extends CommandWithPluginManager {
                 params.getBuckConfig().getView(RuleKeyConfig.class).getRuleKeyDiagnosticsMode())
             .setConcurrencyLimit(getConcurrencyLimit(params.getBuckConfig()))
             .setPersistentWorkerPools(params.getPersistentWorkerPools())
+            .setDaemonCaches(params.getGlobalState().getDaemonCaches())
             .setProjectFilesystemFactory(params.getProjectFilesystemFactory());
     return builder;
   }
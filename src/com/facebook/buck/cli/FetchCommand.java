@@ -156,7 +156,8 @@ public class FetchCommand extends BuildCommand {
                       ruleKeyCacheScope.getCache()),
                   new NoOpRemoteBuildRuleCompletionWaiter(),
                   cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
-                      params.getManifestServiceSupplier()));
+                      params.getManifestServiceSupplier()),
+                  cachingBuildEngineBuckConfig.getArtifactPrefetchBatchSize());
           Build build =
               new Build(
                   actionGraphAndBuilder.getActionGraphBuilder(),
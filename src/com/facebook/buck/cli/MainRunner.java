@@ -1011,7 +1011,7 @@ public final class MainRunner {
                 httpFetchExecutorService =
                     getExecutorWrapper(
                         getHttpFetchExecutorService(
-                            "standard", cacheBuckConfig.getHttpFetchConcurrency()),
+                            "standard", cacheBuckConfig.getHttpFetchThreads()),
                         "HTTP Read",
                         cacheBuckConfig.getHttpWriterShutdownTimeout());
             ThrowingCloseableWrapper<ScheduledExecutorService, InterruptedException>
@@ -1127,7 +1127,8 @@ public final class MainRunner {
                     managerScope,
                     getArtifactProducerId(executionEnvironment),
                     executionEnvironment.getHostname(),
-                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig));
+                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig),
+                    buckGlobalState.getInMemoryArtifactStore());
 
             // Once command completes it should be safe to not wait for executors and other stateful
             // objects to terminate and release semaphore right away. It will help to retry
@@ -1923,8 +1924,7 @@ public final class MainRunner {
     if (isUsingDistributedBuild || buckConfig.hasAtLeastOneWriteableRemoteCache()) {
       // Distributed builds need to upload from the local cache to the remote cache.
       ExecutorService executorService =
-          MostExecutors.newMultiThreadExecutor(
-              "HTTP Write", buckConfig.getHttpMaxConcurrentWrites());
+          MostExecutors.newMultiThreadExecutor("HTTP Write", buckConfig.getHttpWriteThreads());
       return listeningDecorator(executorService);
     } else {
       return newDirectExecutorService();
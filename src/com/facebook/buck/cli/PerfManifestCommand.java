@@ -187,6 +187,7 @@ public class PerfManifestCommand extends AbstractPerfCommand<Context> {
                                   .setEventBus(params.getBuckEventBus())
                                   .setJavaPackageFinder(params.getJavaPackageFinder())
                                   .setSourcePathResolver(graphBuilder.getSourcePathResolver())
+                                  .setDaemonCaches(params.getGlobalState().getDaemonCaches())
                                   .build(),
                               params.getCell().getCellPathResolver())));
             } catch (Exception e) {
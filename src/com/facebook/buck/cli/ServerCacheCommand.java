@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.httpserver.CacheServer;
+import com.facebook.buck.httpserver.ShardedArtifactStore;
+import com.facebook.buck.util.ExitCode;
+import com.facebook.buck.util.unit.SizeUnit;
+import com.facebook.infer.annotation.SuppressFieldNotInitialized;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.kohsuke.args4j.Option;
+
+/** Runs a standalone http cache server in the foreground, until it is killed. */
+public class ServerCacheCommand extends AbstractCommand {
+
+  @Option(name = "--port", usage = "The port to listen on, or 0 for an ephemeral port.")
+  private int port = 8080;
+
+  @Option(name = "--dir", required = true, usage = "The directory to keep the artifacts in.")
+  @SuppressFieldNotInitialized
+  private String dir;
+
+  @Option(name = "--max-size", usage = "The size past which artifacts are evicted, e.g. 100GB.")
+  private String maxSize = "10GB";
+
+  @Option(name = "--shards", usage = "The number of independently locked shards of the store.")
+  private int shards = 16;
+
+  @Option(name = "--threads", usage = "The number of threads handling requests.")
+  private int threads = 32;
+
+  @Override
+  public ExitCode runWithoutHelp(CommandRunnerParams params) throws Exception {
+    Path root = params.getCell().getFilesystem().getRootPath().resolve(Paths.get(dir));
+    ShardedArtifactStore store =
+        new ShardedArtifactStore(root.resolve("store"), shards, SizeUnit.parseBytes(maxSize));
+    try (CacheServer server = new CacheServer(port, threads, store, root.resolve("uploads"))) {
+      server.start();
+      params.getConsole().getStdOut().printf("Serving %s on port %d.%n", root, server.getPort());
+      server.join();
+    }
+    return ExitCode.SUCCESS;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "serve a shared http cache from a local directory";
+  }
+}
@@ -26,6 +26,7 @@ public class ServerCommand extends AbstractContainerCommand {
 
   @Argument(handler = AdditionalOptionsSubCommandHandler.class)
   @SubCommands({
+    @SubCommand(name = "cache", impl = ServerCacheCommand.class),
     @SubCommand(name = "status", impl = ServerStatusCommand.class),
   })
   @SuppressFieldNotInitialized
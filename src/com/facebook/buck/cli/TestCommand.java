@@ -602,7 +602,8 @@ public class TestCommand extends BuildCommand {
                         ruleKeyCacheScope.getCache()),
                     new NoOpRemoteBuildRuleCompletionWaiter(),
                     cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
-                        params.getManifestServiceSupplier()));
+                        params.getManifestServiceSupplier()),
+                    cachingBuildEngineBuckConfig.getArtifactPrefetchBatchSize());
             Build build =
                 new Build(
                     actionGraphAndBuilder.getActionGraphBuilder(),
@@ -43,6 +43,7 @@ import com.facebook.buck.util.CleanBuildShutdownException;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ExitCode;
 import com.facebook.buck.util.Threads;
+import com.facebook.buck.util.cache.CacheStats;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.string.MoreStrings;
 import com.facebook.buck.util.timing.Clock;
@@ -80,6 +81,7 @@ public class Build implements Closeable {
   private final JavaPackageFinder javaPackageFinder;
   private final Clock clock;
   private final BuildEngineBuildContext buildContext;
+  private final CacheLookupCounter cacheLookupCounter = new CacheLookupCounter();
   private boolean symlinksCreated = false;
 
   public Build(
@@ -99,6 +101,7 @@ public class Build implements Closeable {
     this.javaPackageFinder = javaPackageFinder;
     this.clock = clock;
     this.buildContext = createBuildContext(isKeepGoing);
+    executionContext.getBuckEventBus().register(cacheLookupCounter);
   }
 
   private BuildEngineBuildContext createBuildContext(boolean isKeepGoing) {
@@ -115,6 +118,7 @@ public class Build implements Closeable {
                         .getBuckConfig()
                         .getView(BuildBuckConfig.class)
                         .getShouldDeleteTemporaries())
+                .setDaemonCaches(executionContext.getDaemonCaches())
                 .build())
         .setClock(clock)
         .setArtifactCache(artifactCache)
@@ -414,7 +418,8 @@ public class Build implements Closeable {
 
     try {
       // Can throw BuildExecutionException
-      BuildExecutionResult buildExecutionResult = waitForBuildToFinish(rulesToBuild, resultFutures);
+      BuildExecutionResult buildExecutionResult =
+          withCacheStats(waitForBuildToFinish(rulesToBuild, resultFutures));
 
       int code =
           processBuildReportAndGenerateExitCode(
@@ -445,7 +450,9 @@ public class Build implements Closeable {
     // root, so it is not appropriate to use ProjectFilesystem to write the output.
     BuildReport buildReport =
         new BuildReport(
-            e.createBuildExecutionResult(), graphBuilder.getSourcePathResolver(), rootCell);
+            withCacheStats(e.createBuildExecutionResult()),
+            graphBuilder.getSourcePathResolver(),
+            rootCell);
     try {
       String jsonBuildReport = buildReport.generateJsonBuildReport();
       eventBus.post(BuildEvent.buildReport(jsonBuildReport));
@@ -456,11 +463,20 @@ public class Build implements Closeable {
     }
   }
 
+  /** @return the given result, with the stats of the caches the steps looked up so far. */
+  private BuildExecutionResult withCacheStats(BuildExecutionResult result) {
+    return BuildExecutionResult.builder()
+        .from(result)
+        .setCacheStats(cacheLookupCounter.getStats())
+        .build();
+  }
+
   @Override
   public void close() {
     // As time goes by, we add and remove things from this close() method. Instead of having to move
     // Build instances in and out of try-with-resources blocks, just keep the close() method even
     // when it doesn't do anything.
+    executionContext.getBuckEventBus().unregister(cacheLookupCounter);
   }
 
   @Value.Immutable
@@ -475,5 +491,11 @@ public class Build implements Closeable {
     public abstract Map<BuildRule, Optional<BuildResult>> getResults();
 
     public abstract ImmutableSet<BuildResult> getFailures();
+
+    /**
+     * @return the hit and miss counts of the caches which build steps looked up themselves, by
+     *     cache name.
+     */
+    public abstract Map<String, CacheStats> getCacheStats();
   }
 }
@@ -190,6 +190,20 @@ public class BuildReport {
     report.put("success", isOverallSuccess);
     report.put("results", results);
     report.put("failures", failures);
+    if (!buildExecutionResult.getCacheStats().isEmpty()) {
+      Map<String, Object> cacheStats = new LinkedHashMap<>();
+      buildExecutionResult
+          .getCacheStats()
+          .forEach(
+              (name, stats) -> {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("hits", stats.getHitCount().orElse(0L));
+                value.put("misses", stats.getMissCount().orElse(0L));
+                value.put("hit_rate", stats.hitRate().orElse(0.0));
+                cacheStats.put(name, value);
+              });
+      report.put("cache_stats", cacheStats);
+    }
     return ObjectMappers.WRITER
         .withFeatures(SerializationFeature.INDENT_OUTPUT)
         .writeValueAsString(report);
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.command;
+
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.util.cache.CacheStats;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.eventbus.Subscribe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Counts the {@link CacheLookupEvent}s posted during a build, per cache. */
+class CacheLookupCounter {
+
+  private final ConcurrentMap<String, Counts> counts = new ConcurrentHashMap<>();
+
+  @Subscribe
+  public void cacheLookup(CacheLookupEvent event) {
+    Counts cacheCounts = counts.computeIfAbsent(event.getCacheName(), name -> new Counts());
+    (event.isHit() ? cacheCounts.hits : cacheCounts.misses).incrementAndGet();
+  }
+
+  /** @return the hit and miss counts of every cache which was looked up so far. */
+  public ImmutableSortedMap<String, CacheStats> getStats() {
+    ImmutableSortedMap.Builder<String, CacheStats> stats = ImmutableSortedMap.naturalOrder();
+    counts.forEach(
+        (name, cacheCounts) ->
+            stats.put(
+                name,
+                CacheStats.builder()
+                    .setHitCount(cacheCounts.hits.get())
+                    .setMissCount(cacheCounts.misses.get())
+                    .build()));
+    return stats.build();
+  }
+
+  private static class Counts {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+  }
+}
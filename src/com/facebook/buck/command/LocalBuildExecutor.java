@@ -250,7 +250,8 @@ public class LocalBuildExecutor implements BuildExecutor {
             ruleKeyCacheScope.getCache(),
             ruleKeyLogger),
         remoteBuildRuleCompletionWaiter,
-        args.getManifestService());
+        args.getManifestService(),
+        engineConfig.getArtifactPrefetchBatchSize());
   }
 
   public Build getBuild() {
@@ -20,6 +20,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.util.cache.DaemonCaches;
 import java.nio.file.Path;
 import org.immutables.value.Value;
 
@@ -37,4 +38,10 @@ abstract class AbstractBuildContext {
   public abstract BuckEventBus getEventBus();
 
   public abstract boolean getShouldDeleteTemporaries();
+
+  /** @return the caches which rules keep across builds, see {@link DaemonCaches}. */
+  @Value.Default
+  public DaemonCaches getDaemonCaches() {
+    return new DaemonCaches();
+  }
 }
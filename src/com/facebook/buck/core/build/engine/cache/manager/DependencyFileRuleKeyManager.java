@@ -20,8 +20,10 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.build.engine.type.DepFiles;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.attr.DependencyFileInputIndex;
 import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.RuleKeyCalculationEvent;
@@ -31,12 +33,15 @@ import com.facebook.buck.rules.keys.RuleKeyFactories;
 import com.facebook.buck.rules.keys.SizeLimiter;
 import com.facebook.buck.util.Discardable;
 import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.cache.DaemonCaches;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.Optional;
 
 public class DependencyFileRuleKeyManager {
@@ -62,6 +67,20 @@ public class DependencyFileRuleKeyManager {
     this.eventBus = eventBus;
   }
 
+  /**
+   * @return the rules whose dep file listed the given absolute input when this daemon last built
+   *     them, as recorded in the {@link DependencyFileInputIndex}es of the daemon caches. These are
+   *     the rules whose dep-file rule key changes when the input is edited.
+   */
+  public static ImmutableSet<BuildTarget> getRulesIncludingInput(
+      DaemonCaches daemonCaches, Path input) {
+    ImmutableSet.Builder<BuildTarget> rules = ImmutableSet.builder();
+    for (DependencyFileInputIndex index : daemonCaches.getAll(DependencyFileInputIndex.class)) {
+      rules.addAll(index.getRulesIncludingInput(input));
+    }
+    return rules.build();
+  }
+
   public boolean useDependencyFileRuleKey() {
     return depFiles != DepFiles.DISABLED
         && rule instanceof SupportsDependencyFileRuleKey
@@ -62,6 +62,14 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return how many rule keys to look up at once when fetching artifacts ahead of the build
+   *     engine, or 0 to not prefetch artifacts.
+   */
+  public int getArtifactPrefetchBatchSize() {
+    return getDelegate().getInteger("build", "artifact_prefetch_batch_size").orElse(0);
+  }
+
   /** @return whether the ManifestService should be used for ManifestRuleKey caching. */
   public boolean isManifestServiceEnabled() {
     return getDelegate().getBooleanValue("build", "enable_manifest_service", false);
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactPrefetchEvent;
+import com.facebook.buck.artifact_cache.CacheDeleteResult;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.build.engine.BuildEngineBuildContext;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
+import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
+import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Fetches artifacts from the cache ahead of the build engine, and hands them over when the engine
+ * fetches them.
+ *
+ * <p>The engine only checks the cache for a rule once the rule depending on it missed, so a deep
+ * graph is fetched one level at a time, with a round trip per rule. Once the rule keys are
+ * computed, this walks the graph from the top-level rules instead, looking up a whole level of
+ * rules with a single {@link ArtifactCache#multiContainsAsync} call per batch, and starts fetching
+ * the artifacts of the hits right away. Like a shallow build, the walk doesn't descend into the
+ * build deps of hits, nor below rules already up to date on disk, so it only fetches artifacts the
+ * engine is going to ask for. Caches which can't look up artifacts are fetched from without a look
+ * up, a level of the graph at a time.
+ */
+class ArtifactPrefetcher implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(ArtifactPrefetcher.class);
+
+  private final BuildEngineBuildContext buildContext;
+  private final ArtifactCache delegate;
+  private final ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator;
+  private final RuleDepsCache ruleDeps;
+  private final BuildInfoStoreManager buildInfoStoreManager;
+  private final ListeningExecutorService executorService;
+  private final int batchSize;
+
+  private final Set<BuildRule> visited = Sets.newConcurrentHashSet();
+  private final AtomicInteger hits = new AtomicInteger();
+  // Prefetches handed over to the engine which it couldn't use.
+  private final AtomicInteger wastes = new AtomicInteger();
+
+  @GuardedBy("this")
+  private final Map<RuleKey, Prefetch> prefetches = new HashMap<>();
+
+  // Keys the engine already fetched, which aren't worth prefetching anymore.
+  @GuardedBy("this")
+  private final Set<RuleKey> requested = new HashSet<>();
+
+  @GuardedBy("this")
+  private boolean stopped = false;
+
+  // Set once the cache failed to look up artifacts, after which they're fetched without a look up.
+  private volatile boolean lookUpFailed = false;
+
+  /**
+   * @param buildContext the context of the build, whose artifact cache the artifacts are fetched
+   *     from.
+   * @param batchSize the largest number of rule keys to look up at once.
+   */
+  ArtifactPrefetcher(
+      BuildEngineBuildContext buildContext,
+      ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator,
+      RuleDepsCache ruleDeps,
+      BuildInfoStoreManager buildInfoStoreManager,
+      ListeningExecutorService executorService,
+      int batchSize) {
+    this.buildContext = buildContext;
+    this.delegate = buildContext.getArtifactCache();
+    this.ruleKeyCalculator = ruleKeyCalculator;
+    this.ruleDeps = ruleDeps;
+    this.buildInfoStoreManager = buildInfoStoreManager;
+    this.executorService = executorService;
+    this.batchSize = batchSize;
+  }
+
+  /** @return the cache the artifacts are fetched from. */
+  ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  /** Starts prefetching the artifacts the engine will fetch when building the given rule. */
+  void prefetch(BuildRule rule) {
+    walk(ImmutableList.of(rule));
+  }
+
+  private void walk(Iterable<BuildRule> rules) {
+    if (isStopped()) {
+      return;
+    }
+    List<BuildRule> level = new ArrayList<>();
+    for (BuildRule rule : rules) {
+      if (visited.add(rule)) {
+        level.add(rule);
+      }
+    }
+    for (List<BuildRule> batch : Lists.partition(level, batchSize)) {
+      Futures.addCallback(
+          Futures.allAsList(
+              batch.stream()
+                  .map(rule -> ruleKeyCalculator.calculate(buildContext.getEventBus(), rule))
+                  .collect(Collectors.toList())),
+          new FutureCallback<List<RuleKey>>() {
+            @Override
+            public void onSuccess(List<RuleKey> ruleKeys) {
+              lookUp(batch, ruleKeys);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              // The engine reports failures to compute rule keys, and won't build anything below.
+              LOG.debug(t, "Failed to compute rule keys, not prefetching below them.");
+            }
+          },
+          executorService);
+    }
+  }
+
+  private void lookUp(List<BuildRule> rules, List<RuleKey> ruleKeys) {
+    Map<BuildRule, RuleKey> toLookUp = new LinkedHashMap<>();
+    List<BuildRule> next = new ArrayList<>();
+    for (int i = 0; i < rules.size(); i++) {
+      BuildRule rule = rules.get(i);
+      RuleKey ruleKey = ruleKeys.get(i);
+      if (isUpToDate(rule, ruleKey)) {
+        // The engine won't look below a rule it doesn't have to build, except for runtime deps.
+        next.addAll(ruleDeps.getRuntimeDeps(rule));
+        continue;
+      }
+      if (rule.isCacheable()) {
+        toLookUp.put(rule, ruleKey);
+      } else {
+        next.addAll(ruleDeps.get(rule));
+      }
+    }
+    walk(next);
+    if (toLookUp.isEmpty() || isStopped()) {
+      return;
+    }
+
+    if (lookUpFailed) {
+      fetchWithoutLookUp(toLookUp);
+      return;
+    }
+
+    ListenableFuture<ImmutableMap<RuleKey, CacheResult>> lookUp;
+    try {
+      lookUp = delegate.multiContainsAsync(ImmutableSet.copyOf(toLookUp.values()));
+    } catch (RuntimeException e) {
+      lookUp = Futures.immediateFailedFuture(e);
+    }
+    Futures.addCallback(
+        lookUp,
+        new FutureCallback<ImmutableMap<RuleKey, CacheResult>>() {
+          @Override
+          public void onSuccess(ImmutableMap<RuleKey, CacheResult> results) {
+            List<BuildRule> next = new ArrayList<>();
+            for (Map.Entry<BuildRule, RuleKey> entry : toLookUp.entrySet()) {
+              BuildRule rule = entry.getKey();
+              CacheResult result = results.get(entry.getValue());
+              if (result != null && result.getType().isSuccess()) {
+                // The engine won't need the build deps of a hit, only its runtime deps.
+                start(rule, entry.getValue());
+                next.addAll(ruleDeps.getRuntimeDeps(rule));
+              } else {
+                next.addAll(ruleDeps.get(rule));
+              }
+            }
+            walk(next);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            // Some caches can't look up artifacts, and won't be able to for the rest of the build.
+            if (!lookUpFailed) {
+              lookUpFailed = true;
+              LOG.info(t, "Failed to look up artifacts in the cache, fetching them directly.");
+            }
+            fetchWithoutLookUp(toLookUp);
+          }
+        },
+        executorService);
+  }
+
+  /**
+   * Fetches the artifacts of the given rules without looking them up first, and only walks below
+   * each rule once its fetch tells whether it was a hit. This costs a level of round trips per
+   * level of the graph, like the engine, but the fetches of a whole level still run in parallel.
+   */
+  private void fetchWithoutLookUp(Map<BuildRule, RuleKey> rules) {
+    for (Map.Entry<BuildRule, RuleKey> entry : rules.entrySet()) {
+      BuildRule rule = entry.getKey();
+      ListenableFuture<CacheResult> result = start(rule, entry.getValue());
+      if (result == null) {
+        // The engine already fetched the artifact, and will go on from there by itself.
+        continue;
+      }
+      Futures.addCallback(
+          result,
+          new FutureCallback<CacheResult>() {
+            @Override
+            public void onSuccess(CacheResult fetched) {
+              walk(
+                  fetched.getType().isSuccess()
+                      ? ruleDeps.getRuntimeDeps(rule)
+                      : ruleDeps.get(rule));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              // Failed fetches already turn into errors, so the fetch can only be cancelled.
+            }
+          },
+          executorService);
+    }
+  }
+
+  private boolean isUpToDate(BuildRule rule, RuleKey ruleKey) {
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(), filesystem, buildInfoStoreManager.get(filesystem));
+    return ruleKey.equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null));
+  }
+
+  /** @return the result of the fetch started, or null if none was. */
+  @Nullable
+  private ListenableFuture<CacheResult> start(BuildRule rule, RuleKey ruleKey) {
+    synchronized (this) {
+      if (stopped || requested.contains(ruleKey) || prefetches.containsKey(ruleKey)) {
+        return null;
+      }
+    }
+
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    Path path;
+    try {
+      Path tmpDir = filesystem.resolve(filesystem.getBuckPaths().getTmpDir());
+      Files.createDirectories(tmpDir);
+      path =
+          Files.createTempFile(
+              tmpDir,
+              "buck_prefetch_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
+              ".zip");
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to create a file to prefetch %s into.", rule.getBuildTarget());
+      return null;
+    }
+
+    Prefetch prefetch = new Prefetch(path);
+    synchronized (this) {
+      // The engine may have asked for the artifact in the meantime.
+      if (stopped || requested.contains(ruleKey) || prefetches.containsKey(ruleKey)) {
+        deleteQuietly(path);
+        return null;
+      }
+      prefetches.put(ruleKey, prefetch);
+    }
+    prefetch.result.setFuture(
+        Futures.catching(
+            delegate.fetchAsync(rule.getBuildTarget(), ruleKey, LazyPath.ofInstance(path)),
+            Exception.class,
+            e -> {
+              LOG.debug(e, "Failed to prefetch %s.", rule.getBuildTarget());
+              return CacheResult.error(
+                  "prefetch", ArtifactCacheMode.unknown, String.valueOf(e.getMessage()));
+            },
+            MoreExecutors.directExecutor()));
+    return prefetch.result;
+  }
+
+  private synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  private synchronized void stop() {
+    stopped = true;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    Prefetch prefetch;
+    synchronized (this) {
+      requested.add(ruleKey);
+      prefetch = prefetches.remove(ruleKey);
+    }
+    if (prefetch == null) {
+      return delegate.fetchAsync(target, ruleKey, output);
+    }
+
+    return Futures.transformAsync(
+        prefetch.result,
+        result -> {
+          if (result.getType() == CacheResultType.HIT) {
+            try {
+              Files.move(prefetch.path, output.get(), StandardCopyOption.REPLACE_EXISTING);
+              hits.incrementAndGet();
+              return Futures.immediateFuture(result);
+            } catch (IOException e) {
+              LOG.warn(e, "Failed to move the prefetched artifact of %s.", target);
+            }
+          }
+          deleteQuietly(prefetch.path);
+          wastes.incrementAndGet();
+          if (result.getType() == CacheResultType.HIT
+              || result.getType() == CacheResultType.ERROR) {
+            // The artifact couldn't be handed over, or the error may have been transient.
+            return delegate.fetchAsync(target, ruleKey, output);
+          }
+          // The prefetch was a full fetch, so fetching again would only repeat the miss.
+          return Futures.immediateFuture(result);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    stop();
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  /**
+   * Stops prefetching, drops the artifacts the engine never asked for and reports how prefetching
+   * went. The cache the artifacts are fetched from belongs to the build, and isn't closed.
+   */
+  @Override
+  public void close() {
+    List<Prefetch> wasted;
+    synchronized (this) {
+      stopped = true;
+      wasted = new ArrayList<>(prefetches.values());
+      prefetches.clear();
+    }
+    for (Prefetch prefetch : wasted) {
+      prefetch.result.addListener(
+          () -> deleteQuietly(prefetch.path), MoreExecutors.directExecutor());
+    }
+    int totalWastes = wastes.get() + wasted.size();
+    LOG.debug("Prefetched artifacts: %d used, %d wasted.", hits.get(), totalWastes);
+    buildContext.getEventBus().post(ArtifactPrefetchEvent.finished(hits.get(), totalWastes));
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete %s.", path);
+    }
+  }
+
+  private static class Prefetch {
+    private final Path path;
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+
+    Prefetch(Path path) {
+      this.path = path;
+    }
+  }
+}
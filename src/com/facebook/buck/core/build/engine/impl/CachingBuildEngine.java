@@ -83,6 +83,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A build engine used to build a {@link BuildRule} which also caches the results. If the current
@@ -149,6 +150,12 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final Optional<ManifestService> manifestService;
 
+  private final int artifactPrefetchBatchSize;
+
+  @GuardedBy("this")
+  @Nullable
+  private ArtifactPrefetcher artifactPrefetcher;
+
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
       Optional<BuildRuleStrategy> customBuildRuleStrategy,
@@ -165,7 +172,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
-      Optional<ManifestService> manifestService) {
+      Optional<ManifestService> manifestService,
+      int artifactPrefetchBatchSize) {
     this(
         cachingBuildEngineDelegate,
         customBuildRuleStrategy,
@@ -191,7 +199,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     .getDefaultRuleKeyFactory()
                     .buildForDiagnostics(appendable, new StringRuleKeyHasher())),
         consoleLogBuildFailuresInline,
-        manifestService);
+        manifestService,
+        artifactPrefetchBatchSize);
   }
 
   /** This constructor MUST ONLY BE USED FOR TESTS. */
@@ -213,7 +222,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
       boolean consoleLogBuildFailuresInline,
-      Optional<ManifestService> manifestService) {
+      Optional<ManifestService> manifestService,
+      int artifactPrefetchBatchSize) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
     this.customBuildRuleStrategy = customBuildRuleStrategy;
 
@@ -231,6 +241,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
     this.buildInfoStoreManager = buildInfoStoreManager;
     this.remoteBuildRuleCompletionWaiter = remoteBuildRuleCompletionWaiter;
+    this.artifactPrefetchBatchSize = artifactPrefetchBatchSize;
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver, actionToBuildRuleResolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
@@ -252,6 +263,13 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   @Override
   public void close() {
+    ArtifactPrefetcher prefetcher;
+    synchronized (this) {
+      prefetcher = artifactPrefetcher;
+    }
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
     try {
       if (customBuildRuleStrategy.isPresent()) {
         customBuildRuleStrategy.get().close();
@@ -450,10 +468,44 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
     ListenableFuture<BuildResult> resultFuture =
-        getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+        getBuildRuleResultWithRuntimeDeps(
+            rule, prefetchArtifacts(rule, buildContext), executionContext);
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  /**
+   * Starts fetching the artifacts the build of the given rule will fetch, if enabled.
+   *
+   * @return the context to build the rule with, whose artifact cache hands the prefetched
+   *     artifacts over.
+   */
+  private BuildEngineBuildContext prefetchArtifacts(
+      BuildRule rule, BuildEngineBuildContext buildContext) {
+    // Only shallow builds skip the deps of cache hits, which is what makes fetches predictable.
+    if (artifactPrefetchBatchSize <= 0 || buildMode != BuildType.SHALLOW) {
+      return buildContext;
+    }
+    ArtifactPrefetcher prefetcher;
+    synchronized (this) {
+      if (artifactPrefetcher == null) {
+        artifactPrefetcher =
+            new ArtifactPrefetcher(
+                buildContext,
+                ruleKeyCalculator,
+                ruleDeps,
+                buildInfoStoreManager,
+                serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS),
+                artifactPrefetchBatchSize);
+      }
+      prefetcher = artifactPrefetcher;
+    }
+    if (prefetcher.getDelegate() != buildContext.getArtifactCache()) {
+      return buildContext;
+    }
+    prefetcher.prefetch(rule);
+    return buildContext.withArtifactCache(prefetcher);
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
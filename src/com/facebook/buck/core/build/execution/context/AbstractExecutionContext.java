@@ -32,6 +32,7 @@ import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.cache.DaemonCaches;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ExecutorPool;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
@@ -154,6 +155,12 @@ abstract class AbstractExecutionContext implements Closeable {
     return new ClassLoaderCache();
   }
 
+  /** Caches kept with the daemon state, or for this invocation only when there is no daemon. */
+  @Value.Default
+  public DaemonCaches getDaemonCaches() {
+    return new DaemonCaches();
+  }
+
   @Value.Derived
   public Verbosity getVerbosity() {
     return getConsole().getVerbosity();
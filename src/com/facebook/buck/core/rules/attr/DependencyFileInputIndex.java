@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.rules.attr;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+
+/**
+ * Remembers which inputs the dep files of {@link SupportsDependencyFileRuleKey} rules listed, so
+ * that the rules whose dep-file rule key an edit to an input changes are known without reading any
+ * dep file.
+ */
+public interface DependencyFileInputIndex {
+
+  /**
+   * @return the rules whose last dep file listed the given absolute input. Rules which were
+   *     forgotten to keep the index bounded aren't included.
+   */
+  ImmutableSet<BuildTarget> getRulesIncludingInput(Path input);
+}
@@ -595,7 +595,8 @@ abstract class AbstractCxxSourceRuleFactory {
                     getCxxPlatform(), CxxSourceTypes.getPreprocessorOutputType(source.getType()))
                 .resolve(getActionGraphBuilder(), getBaseBuildTarget().getTargetConfiguration()),
             computeCompilerFlags(source.getType(), source.getFlags()),
-            getCxxPlatform().getUseArgFile());
+            getCxxPlatform().getUseArgFile(),
+            getCxxBuckConfig().getObjectCacheDir());
 
     PreprocessorDelegateCacheValue preprocessorDelegateValue =
         preprocessorDelegates.apply(
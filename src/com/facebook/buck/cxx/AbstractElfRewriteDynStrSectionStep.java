@@ -111,35 +111,35 @@ abstract class AbstractElfRewriteDynStrSectionStep implements Step {
   private SectionUsingDynamicStrings getDynSymProcessor(Elf elf) throws IOException {
     return new SectionUsingDynamicStrings() {
 
+      // Only the names of the symbols use the dynamic string table, so they're read and patched
+      // in place rather than parsing and rewriting the whole symbol table.
       private final ElfSection dynSymSection =
           elf.getMandatorySectionByName(getPath(), DYNSYM).getSection();
-      private final ElfSymbolTable dynSym =
-          ElfSymbolTable.parse(elf.header.ei_class, dynSymSection.body);
+      private final int numberOfEntries =
+          ElfSymbolTable.getNumberOfEntries(elf.header.ei_class, dynSymSection.body);
 
       @Override
       public ImmutableList<Long> getStringReferences() {
-        return RichStream.from(dynSym.entries).map(e -> e.st_name).toImmutableList();
+        ImmutableList.Builder<Long> references =
+            ImmutableList.builderWithExpectedSize(numberOfEntries);
+        for (int index = 0; index < numberOfEntries; index++) {
+          references.add(
+              ElfSymbolTable.getEntryName(elf.header.ei_class, dynSymSection.body, index));
+        }
+        return references.build();
       }
 
       @Override
       public void processNewStringReferences(
           long newSize, ImmutableMap<Long, Long> newStringIndices) {
-        // Rewrite the dynamic symbol table.
-        ElfSymbolTable newSymbolTable =
-            new ElfSymbolTable(
-                RichStream.from(dynSym.entries)
-                    .map(
-                        e ->
-                            new ElfSymbolTable.Entry(
-                                Objects.requireNonNull(newStringIndices.get(e.st_name)),
-                                e.st_info,
-                                e.st_other,
-                                e.st_shndx,
-                                e.st_value,
-                                e.st_size))
-                    .toImmutableList());
-        dynSymSection.body.rewind();
-        newSymbolTable.write(elf.header.ei_class, dynSymSection.body);
+        for (int index = 0; index < numberOfEntries; index++) {
+          long name = ElfSymbolTable.getEntryName(elf.header.ei_class, dynSymSection.body, index);
+          ElfSymbolTable.putEntryName(
+              elf.header.ei_class,
+              dynSymSection.body,
+              index,
+              Objects.requireNonNull(newStringIndices.get(name)));
+        }
       }
     };
   }
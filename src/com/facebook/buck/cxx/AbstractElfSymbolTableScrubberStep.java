@@ -29,11 +29,8 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
-import com.facebook.buck.util.RichStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -41,7 +38,6 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.immutables.value.Value;
 
 /** A step which scrubs an ELF symbol table of information relevant to dynamic linking. */
@@ -51,6 +47,9 @@ abstract class AbstractElfSymbolTableScrubberStep implements Step {
 
   @VisibleForTesting static final int STABLE_SECTION = 1;
 
+  // Version symbol table entries are an Elf32_Half or Elf64_Half, which are both two bytes.
+  private static final int VERSYM_ENTRY_SIZE = 2;
+
   abstract ProjectFilesystem getFilesystem();
 
   abstract Path getPath();
@@ -63,85 +62,24 @@ abstract class AbstractElfSymbolTableScrubberStep implements Step {
 
   abstract boolean isScrubUndefinedSymbols();
 
-  private ElfSymbolTable fixUpSymbolTable(ElfSymbolTable table) {
-    ImmutableList.Builder<ElfSymbolTable.Entry> entries = ImmutableList.builder();
-
-    // The first symbol serves as the undefined symbol index, so always include it and start
-    // processing symbols after it.
-    entries.add(table.entries.get(0));
-
-    // Fixup and add the remaining entries.
-    AtomicInteger count = new AtomicInteger();
-    RichStream.from(table.entries)
-        .skip(1)
-        // Filter out undefined symbols.
-        .filter(entry -> !isScrubUndefinedSymbols() || entry.st_shndx != 0)
-        // Generate a new sanitized symbol table entry.
-        .map(
-            entry ->
-                new ElfSymbolTable.Entry(
-                    entry.st_name,
-                    entry.st_info,
-                    entry.st_other,
-                    // A section index of 0 is special and means the symbol is undefined, so we
-                    // must maintain that.  Otherwise, if it's non-zero, fix it up to an arbitrary
-                    // stable section value so the number and ordering of sections can never affect
-                    // the content of the symbol table.
-                    entry.st_shndx > 0 ? STABLE_SECTION : entry.st_shndx,
-                    // Substitute non-zero addresses, dependent on size/layout of sections with a
-                    // stable address determined by the index of this symbol table entry in the
-                    // symbol table.
-                    entry.st_value == 0 ? 0 : count.incrementAndGet(),
-                    // For functions, set the size to zero.
-                    entry.st_info.st_type == ElfSymbolTable.Entry.Info.Type.STT_FUNC
-                        ? 0
-                        : entry.st_size))
-        .forEach(entries::add);
-
-    return new ElfSymbolTable(entries.build());
-  }
-
-  // Read in versions from the ELF file.
-  private ImmutableList<Integer> parseVersions(ElfHeader.EIClass eiClass, ElfSection verSym) {
-    ImmutableList.Builder<Integer> versions = ImmutableList.builder();
-    while (verSym.body.hasRemaining()) {
-      int val;
-      if (eiClass == ElfHeader.EIClass.ELFCLASS32) {
-        val = Elf.Elf32.getElf32Half(verSym.body);
-      } else {
-        val = Elf.Elf64.getElf64Half(verSym.body);
-      }
-      versions.add(val);
-    }
-    return versions.build();
-  }
-
-  // Write out versions to the ELF file.
-  private void writeVersions(
-      ElfHeader.EIClass eiClass, ByteBuffer buffer, Iterable<Integer> versions) {
-    for (int version : versions) {
-      if (eiClass == ElfHeader.EIClass.ELFCLASS32) {
-        Elf.Elf32.putElf32Half(buffer, (short) version);
-      } else {
-        Elf.Elf64.putElf64Half(buffer, (short) version);
-      }
-    }
-  }
-
-  // Drop versions whose corresponding symbol is undefined, and therefore getting scrubbed from the
-  // symbol table.
-  private ImmutableMap<Integer, Integer> fixUpVersions(
-      ElfSymbolTable table, ImmutableList<Integer> versions) {
-    Preconditions.checkArgument(table.entries.size() == versions.size());
-    Preconditions.checkState(isScrubUndefinedSymbols());
-    ImmutableMap.Builder<Integer, Integer> fixedVersions = ImmutableMap.builder();
-    fixedVersions.put(0, versions.get(0));
-    for (int index = 1; index < table.entries.size(); index++) {
-      if (table.entries.get(index).st_shndx != 0) {
-        fixedVersions.put(index, versions.get(index));
-      }
-    }
-    return fixedVersions.build();
+  /**
+   * @return a sanitized copy of the given symbol table entry, which is the {@code address}th entry
+   *     with a non-zero value.
+   */
+  private ElfSymbolTable.Entry fixUpEntry(ElfSymbolTable.Entry entry, int address) {
+    return new ElfSymbolTable.Entry(
+        entry.st_name,
+        entry.st_info,
+        entry.st_other,
+        // A section index of 0 is special and means the symbol is undefined, so we must maintain
+        // that.  Otherwise, if it's non-zero, fix it up to an arbitrary stable section value so
+        // the number and ordering of sections can never affect the content of the symbol table.
+        entry.st_shndx > 0 ? STABLE_SECTION : entry.st_shndx,
+        // Substitute non-zero addresses, dependent on size/layout of sections with a stable
+        // address determined by the index of this symbol table entry in the symbol table.
+        entry.st_value == 0 ? 0 : address,
+        // For functions, set the size to zero.
+        entry.st_info.st_type == ElfSymbolTable.Entry.Info.Type.STT_FUNC ? 0 : entry.st_size);
   }
 
   @Override
@@ -153,6 +91,7 @@ abstract class AbstractElfSymbolTableScrubberStep implements Step {
             StandardOpenOption.WRITE)) {
       MappedByteBuffer buffer = channel.map(READ_WRITE, 0, channel.size());
       Elf elf = new Elf(buffer);
+      ElfHeader.EIClass eiClass = elf.header.ei_class;
 
       // Locate the symbol table section.
       Optional<ElfSectionLookupResult> sectionResult = elf.getSectionByName(getSection());
@@ -168,43 +107,62 @@ abstract class AbstractElfSymbolTableScrubberStep implements Step {
 
       int sectionIndex = sectionResult.get().getIndex();
       ElfSection section = sectionResult.get().getSection();
+      int numberOfEntries = ElfSymbolTable.getNumberOfEntries(eiClass, section.body);
+
+      // If a versym section is given, its entries have to be dropped along with their symbols.
+      Optional<ElfSectionLookupResult> versymSectionResult =
+          isScrubUndefinedSymbols()
+              ? getVersymSection().flatMap(elf::getSectionByName)
+              : Optional.empty();
+      versymSectionResult.ifPresent(
+          result ->
+              Preconditions.checkState(
+                  result.getSection().body.limit() / VERSYM_ENTRY_SIZE == numberOfEntries));
+
+      // Fix up the symbol table entries in place, one at a time.  The first symbol serves as the
+      // undefined symbol index, so always keep it and start processing symbols after it.  As
+      // symbols are only ever dropped, every entry is written at or before the position it was
+      // read from.
+      int newNumberOfEntries = 1;
+      int address = 0;
+      for (int index = 1; index < numberOfEntries; index++) {
+        ElfSymbolTable.Entry entry = ElfSymbolTable.getEntry(eiClass, section.body, index);
+        // Filter out undefined symbols.
+        if (isScrubUndefinedSymbols() && entry.st_shndx == 0) {
+          continue;
+        }
+        if (entry.st_value != 0) {
+          address++;
+        }
+        ElfSymbolTable.putEntry(
+            eiClass, section.body, newNumberOfEntries, fixUpEntry(entry, address));
+        if (versymSectionResult.isPresent()) {
+          ByteBuffer versym = versymSectionResult.get().getSection().body;
+          versym.putShort(
+              newNumberOfEntries * VERSYM_ENTRY_SIZE, versym.getShort(index * VERSYM_ENTRY_SIZE));
+        }
+        newNumberOfEntries++;
+      }
 
-      // Read in and fixup the symbol table then write it back out.
-      ElfSymbolTable table = ElfSymbolTable.parse(elf.header.ei_class, section.body);
-      ElfSymbolTable fixedUpTable = fixUpSymbolTable(table);
-      section.body.rewind();
-      fixedUpTable.write(elf.header.ei_class, section.body);
-
-      // If we've dropped some symbols, we have some additional work to do.
-      if (table.entries.size() != fixedUpTable.entries.size()) {
+      // If we've dropped some symbols, fixup the section headers with the new sizes.
+      if (newNumberOfEntries != numberOfEntries) {
         Preconditions.checkState(isScrubUndefinedSymbols());
-
-        // Fixup the section header with the new size and write it out.
         buffer.position((int) (elf.header.e_shoff + sectionIndex * elf.header.e_shentsize));
-        section.header.withSize(section.body.position()).write(elf.header.ei_class, buffer);
-
-        // If a versym section is given, also update it to remove dropped symbols.
-        if (getVersymSection().isPresent()) {
-          Optional<ElfSectionLookupResult> versymSectionResult =
-              elf.getSectionByName(getVersymSection().get());
-          if (versymSectionResult.isPresent()) {
-            int versymSectionIndex = versymSectionResult.get().getIndex();
-            ElfSection versymSection = versymSectionResult.get().getSection();
-
-            // Remove dropped symbols from the version symbol table and re-write it.
-            ImmutableList<Integer> versions = parseVersions(elf.header.ei_class, versymSection);
-            ImmutableMap<Integer, Integer> fixedVersions = fixUpVersions(table, versions);
-            versymSection.body.rewind();
-            writeVersions(elf.header.ei_class, versymSection.body, fixedVersions.values());
-
-            // Fixup the version section header with the new size and write it out.
-            buffer.position(
-                (int) (elf.header.e_shoff + versymSectionIndex * elf.header.e_shentsize));
-            versymSection
-                .header
-                .withSize(versymSection.body.position())
-                .write(elf.header.ei_class, buffer);
-          }
+        section
+            .header
+            .withSize(newNumberOfEntries * ElfSymbolTable.getEntrySize(eiClass))
+            .write(eiClass, buffer);
+
+        if (versymSectionResult.isPresent()) {
+          int versymSectionIndex = versymSectionResult.get().getIndex();
+          buffer.position(
+              (int) (elf.header.e_shoff + versymSectionIndex * elf.header.e_shentsize));
+          versymSectionResult
+              .get()
+              .getSection()
+              .header
+              .withSize(newNumberOfEntries * VERSYM_ENTRY_SIZE)
+              .write(eiClass, buffer);
         }
       }
     }
@@ -156,21 +156,29 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
 
       ImmutableList.Builder<Step> builder = ImmutableList.builder();
       Path outputPath = outputPathResolver.resolvePath(output);
-      builder
-          .add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())))
-          .add(
-              new ArchiveStep(
-                  filesystem,
-                  archiver.getEnvironment(resolver),
-                  archiver.getCommandPrefix(resolver),
-                  archiverFlags,
-                  archiver.getArchiveOptions(contents == ArchiveContents.THIN),
-                  outputPath,
-                  inputs.stream()
-                      .map(resolver::getRelativePath)
-                      .collect(ImmutableList.toImmutableList()),
-                  archiver,
-                  outputPathResolver.getTempPath()));
+      builder.add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())));
+      ImmutableList<Path> inputPaths =
+          inputs.stream().map(resolver::getRelativePath).collect(ImmutableList.toImmutableList());
+      // The in-process writer knows nothing of archiver flags or scrubbers, archives which need
+      // either are still written by the archiver.
+      if (archiver.isInProcess() && archiverFlags.isEmpty() && archiver.getScrubbers().isEmpty()) {
+        return builder
+            .add(
+                new InProcessArchiveStep(
+                    filesystem, outputPath, inputPaths, contents == ArchiveContents.THIN))
+            .build();
+      }
+      builder.add(
+          new ArchiveStep(
+              filesystem,
+              archiver.getEnvironment(resolver),
+              archiver.getCommandPrefix(resolver),
+              archiverFlags,
+              archiver.getArchiveOptions(contents == ArchiveContents.THIN),
+              outputPath,
+              inputPaths,
+              archiver,
+              outputPathResolver.getTempPath()));
 
       if (archiver.isRanLibStepRequired()) {
         Tool tool = ranlib.get();
@@ -82,7 +82,9 @@ class ArchiveStep implements Step {
     this.scratchDir = scratchDir;
   }
 
-  private ImmutableList<String> getAllInputs() throws IOException {
+  /** @return the inputs, with directories replaced by the files found under them, sorted. */
+  static ImmutableList<String> getAllInputs(
+      ProjectFilesystem filesystem, ImmutableList<Path> inputs) throws IOException {
     ImmutableList.Builder<String> allInputs = ImmutableList.builder();
 
     // Inputs can either be files or directories.  In the case of the latter, we add all files
@@ -135,7 +137,7 @@ class ArchiveStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws IOException, InterruptedException {
-    ImmutableList<String> allInputs = getAllInputs();
+    ImmutableList<String> allInputs = getAllInputs(filesystem, inputs);
     if (allInputs.isEmpty()) {
       filesystem.writeContentsToPath("!<arch>\n", output);
       return StepExecutionResults.SUCCESS;
@@ -18,6 +18,9 @@ package com.facebook.buck.cxx;
 
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.DefaultFieldSerialization;
+import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
+import com.facebook.buck.core.rulekey.IgnoredFieldInputs;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.common.BuildableSupport;
@@ -30,30 +33,53 @@ import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /** Helper class for generating compiler invocations for a cxx compilation rule. */
 class CompilerDelegate implements AddsToRuleKey {
+  /** The name of the object cache in the cache stats of the build report. */
+  static final String OBJECT_CACHE_NAME = "cxx_object_cache";
+
   // Fields that are added to rule key as is.
   @AddToRuleKey private final Compiler compiler;
   @AddToRuleKey private final CxxToolFlags compilerFlags;
   @AddToRuleKey private final DebugPathSanitizer sanitizer;
   @AddToRuleKey private final Optional<Boolean> useArgFile;
 
+  @ExcludeFromRuleKey(
+      reason =
+          "Objects are only reused from the cache when they were compiled from the same "
+              + "preprocessed source with the same command, so it doesn't affect the output.",
+      serialization = DefaultFieldSerialization.class,
+      inputs = IgnoredFieldInputs.class)
+  private final Optional<String> objectCacheDir;
+
   public CompilerDelegate(
       DebugPathSanitizer sanitizer,
       Compiler compiler,
       CxxToolFlags flags,
       Optional<Boolean> useArgFile) {
+    this(sanitizer, compiler, flags, useArgFile, Optional.empty());
+  }
+
+  public CompilerDelegate(
+      DebugPathSanitizer sanitizer,
+      Compiler compiler,
+      CxxToolFlags flags,
+      Optional<Boolean> useArgFile,
+      Optional<Path> objectCacheDir) {
     this.sanitizer = sanitizer;
     this.compiler = compiler;
     this.compilerFlags = flags;
     this.useArgFile = useArgFile;
+    this.objectCacheDir = objectCacheDir.map(Path::toString);
   }
 
   public ImmutableList<String> getCommandPrefix(SourcePathResolver resolver) {
@@ -111,6 +137,16 @@ class CompilerDelegate implements AddsToRuleKey {
     return compiler;
   }
 
+  /**
+   * @return the local store of objects the compiler output should be looked up in, if any. Like
+   *     ccache's preprocessor mode, objects are addressed by their preprocessed source and the
+   *     command compiling it, which only change when the headers actually included do.
+   */
+  public Optional<ContentAddressedFileStore> getObjectCache() {
+    return objectCacheDir.map(
+        dir -> new ContentAddressedFileStore(OBJECT_CACHE_NAME, "1", Paths.get(dir)));
+  }
+
   public Iterable<BuildRule> getDeps(SourcePathRuleFinder ruleFinder) {
     ImmutableList.Builder<BuildRule> deps = ImmutableList.builder();
     deps.addAll(BuildableSupport.getDepsCollection(getCompiler(), ruleFinder));
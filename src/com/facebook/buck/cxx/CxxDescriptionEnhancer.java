@@ -141,19 +141,36 @@ public class CxxDescriptionEnhancer {
     return cxxPlatform
         .getHeaderMode()
         .orElseGet(
-            () -> {
-              boolean useHeaderMap =
-                  (cxxPlatform.getCpp().resolve(resolver, targetConfiguration).supportsHeaderMaps()
-                      && cxxPlatform
-                          .getCxxpp()
-                          .resolve(resolver, targetConfiguration)
-                          .supportsHeaderMaps());
-              return !useHeaderMap
-                  ? HeaderMode.SYMLINK_TREE_ONLY
-                  : (shouldCreateHeadersSymlinks
-                      ? HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP
-                      : HeaderMode.HEADER_MAP_ONLY);
-            });
+            () ->
+                !supportsHeaderMaps(resolver, targetConfiguration, cxxPlatform)
+                    ? HeaderMode.SYMLINK_TREE_ONLY
+                    : (shouldCreateHeadersSymlinks && !cxxPlatform.getPreferHeaderMaps()
+                        ? HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP
+                        : HeaderMode.HEADER_MAP_ONLY));
+  }
+
+  /**
+   * @return whether {@link #getHeaderModeForPlatform} only picks {@link
+   *     HeaderMode#HEADER_MAP_ONLY} because the platform prefers header maps, i.e. it would
+   *     otherwise have picked {@link HeaderMode#SYMLINK_TREE_WITH_HEADER_MAP}.
+   */
+  public static boolean isHeaderMapPreferredOverSymlinkTree(
+      BuildRuleResolver resolver,
+      TargetConfiguration targetConfiguration,
+      CxxPlatform cxxPlatform,
+      boolean shouldCreateHeadersSymlinks) {
+    return !cxxPlatform.getHeaderMode().isPresent()
+        && shouldCreateHeadersSymlinks
+        && cxxPlatform.getPreferHeaderMaps()
+        && supportsHeaderMaps(resolver, targetConfiguration, cxxPlatform);
+  }
+
+  private static boolean supportsHeaderMaps(
+      BuildRuleResolver resolver,
+      TargetConfiguration targetConfiguration,
+      CxxPlatform cxxPlatform) {
+    return cxxPlatform.getCpp().resolve(resolver, targetConfiguration).supportsHeaderMaps()
+        && cxxPlatform.getCxxpp().resolve(resolver, targetConfiguration).supportsHeaderMaps();
   }
 
   public static HeaderSymlinkTree createHeaderSymlinkTree(
@@ -164,6 +181,30 @@ public class CxxDescriptionEnhancer {
       ImmutableMap<Path, SourcePath> headers,
       HeaderVisibility headerVisibility,
       Flavor... flavors) {
+    return createHeaderSymlinkTree(
+        buildTarget,
+        projectFilesystem,
+        ruleFinder,
+        mode,
+        false,
+        headers,
+        headerVisibility,
+        flavors);
+  }
+
+  /**
+   * @param headerMapReplacesSymlinkTree whether a {@link HeaderMode#HEADER_MAP_ONLY} mode was only
+   *     chosen because the platform prefers header maps.
+   */
+  public static HeaderSymlinkTree createHeaderSymlinkTree(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      SourcePathRuleFinder ruleFinder,
+      HeaderMode mode,
+      boolean headerMapReplacesSymlinkTree,
+      ImmutableMap<Path, SourcePath> headers,
+      HeaderVisibility headerVisibility,
+      Flavor... flavors) {
     BuildTarget headerSymlinkTreeTarget =
         CxxDescriptionEnhancer.createHeaderSymlinkTreeTarget(
             buildTarget, headerVisibility, flavors);
@@ -176,7 +217,8 @@ public class CxxDescriptionEnhancer {
         ruleFinder,
         headerSymlinkTreeRoot,
         headers,
-        mode);
+        mode,
+        headerMapReplacesSymlinkTree);
   }
 
   public static HeaderSymlinkTree createHeaderSymlinkTree(
@@ -196,6 +238,11 @@ public class CxxDescriptionEnhancer {
             buildTarget.getTargetConfiguration(),
             cxxPlatform,
             shouldCreateHeadersSymlinks),
+        isHeaderMapPreferredOverSymlinkTree(
+            resolver,
+            buildTarget.getTargetConfiguration(),
+            cxxPlatform,
+            shouldCreateHeadersSymlinks),
         headers,
         headerVisibility,
         cxxPlatform.getFlavor());
@@ -183,8 +183,10 @@ class CxxInferCapture extends AbstractBuildRule implements SupportsDependencyFil
     try {
       dependencies =
           Depfiles.parseAndVerifyDependencies(
+              DepfileCache.of(context.getDaemonCaches()),
               context.getEventBus(),
               getProjectFilesystem(),
+              getBuildTarget(),
               preprocessorDelegate.getHeaderPathNormalizer(context),
               preprocessorDelegate.getHeaderVerification(),
               getDepFilePath(),
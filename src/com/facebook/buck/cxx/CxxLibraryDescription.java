@@ -57,7 +57,6 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -328,23 +327,14 @@ public class CxxLibraryDescription
                     .build());
         BuildRule rawRule = graphBuilder.requireRule(rawTarget);
         CxxLibraryGroup rule = (CxxLibraryGroup) rawRule;
-        ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
-            rule.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder);
-
-        ImmutableList<CxxPreprocessorDep> privateDepsForPlatform =
-            RichStream.from(privateDeps.get(graphBuilder, cxxPlatform))
-                .filter(CxxPreprocessorDep.class)
-                .toImmutableList();
-        if (privateDepsForPlatform.isEmpty()) {
-          // Nothing to add.
-          return inputs.values().stream();
-        } else {
-          Map<BuildTarget, CxxPreprocessorInput> result = new LinkedHashMap<>(inputs);
-          for (CxxPreprocessorDep dep : privateDepsForPlatform) {
-            result.putAll(dep.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
-          }
-          return result.values().stream();
-        }
+        ImmutableList.Builder<TransitiveCxxPreprocessorInputs> inputs = ImmutableList.builder();
+        inputs.add(rule.getTransitiveCxxPreprocessorInputs(cxxPlatform, graphBuilder));
+        RichStream.from(privateDeps.get(graphBuilder, cxxPlatform))
+            .filter(CxxPreprocessorDep.class)
+            .forEach(
+                dep ->
+                    inputs.add(dep.getTransitiveCxxPreprocessorInputs(cxxPlatform, graphBuilder)));
+        return TransitiveCxxPreprocessorInputs.toMap(inputs.build()).values().stream();
       };
     }
 
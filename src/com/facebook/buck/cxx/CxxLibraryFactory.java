@@ -165,7 +165,12 @@ public class CxxLibraryFactory {
           Optional<HeaderMode> mode = CxxLibraryDescription.HEADER_MODE.getValue(buildTarget);
           if (mode.isPresent()) {
             return createExportedHeaderSymlinkTreeBuildRule(
-                untypedBuildTarget, projectFilesystem, graphBuilder, mode.get(), args);
+                untypedBuildTarget,
+                projectFilesystem,
+                graphBuilder,
+                cxxPlatformOrDefaultSupplier.get(),
+                mode.get(),
+                args);
           }
           break;
           // $CASES-OMITTED$
@@ -659,18 +664,32 @@ public class CxxLibraryFactory {
         shouldCreatePrivateHeaderSymlinks);
   }
 
-  /** @return a {@link HeaderSymlinkTree} for the exported headers of this C/C++ library. */
+  /**
+   * @param cxxPlatform the platform the header mode was picked for, which tells whether a header
+   *     map is only used because the platform prefers header maps.
+   * @return a {@link HeaderSymlinkTree} for the exported headers of this C/C++ library.
+   */
   private HeaderSymlinkTree createExportedHeaderSymlinkTreeBuildRule(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
       ActionGraphBuilder graphBuilder,
+      CxxPlatform cxxPlatform,
       HeaderMode mode,
       CxxLibraryDescriptionArg args) {
+    boolean headerMapReplacesSymlinkTree =
+        mode == HeaderMode.HEADER_MAP_ONLY
+            && CxxDescriptionEnhancer.isHeaderMapPreferredOverSymlinkTree(
+                graphBuilder,
+                buildTarget.getTargetConfiguration(),
+                cxxPlatform,
+                args.getXcodePublicHeadersSymlinks()
+                    .orElse(cxxPlatform.getPublicHeadersSymlinksEnabled()));
     return CxxDescriptionEnhancer.createHeaderSymlinkTree(
         buildTarget,
         projectFilesystem,
         graphBuilder,
         mode,
+        headerMapReplacesSymlinkTree,
         CxxDescriptionEnhancer.parseExportedHeaders(
             buildTarget, graphBuilder, Optional.empty(), args),
         HeaderVisibility.PUBLIC);
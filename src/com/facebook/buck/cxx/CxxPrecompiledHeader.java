@@ -254,8 +254,10 @@ class CxxPrecompiledHeader extends AbstractBuildRule
           context,
           () ->
               Depfiles.parseAndVerifyDependencies(
+                  DepfileCache.of(context.getDaemonCaches()),
                   context.getEventBus(),
                   getProjectFilesystem(),
+                  getBuildTarget(),
                   preprocessorDelegate.getHeaderPathNormalizer(context),
                   preprocessorDelegate.getHeaderVerification(),
                   getDepFilePath(context.getSourcePathResolver()),
@@ -314,6 +316,7 @@ class CxxPrecompiledHeader extends AbstractBuildRule
         /* useArgFile*/ true,
         /* nonArgfileArgs */ ImmutableList.of(),
         compilerDelegate.getCompiler(),
+        Optional.empty(),
         Optional.empty());
   }
 
@@ -233,8 +233,10 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
       try {
         dependencies =
             Depfiles.parseAndVerifyDependencies(
+                DepfileCache.of(context.getDaemonCaches()),
                 context.getEventBus(),
                 getProjectFilesystem(),
+                getBuildTarget(),
                 preprocessorDelegate.getHeaderPathNormalizer(context),
                 preprocessorDelegate.getHeaderVerification(),
                 getDepFilePath(),
@@ -359,7 +361,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
                   .setTarget(targetName)
                   .setSourcePath(relativeInputPath)
                   .setOutputPath(resolvedOutput)
-                  .build()));
+                  .build()),
+          compilerDelegate.getObjectCache());
     }
 
     static Path getDepFilePath(Path outputPath) {
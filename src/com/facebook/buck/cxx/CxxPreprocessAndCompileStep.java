@@ -21,6 +21,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.cxx.toolchain.Compiler;
 import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
+import com.facebook.buck.event.CacheLookupEvent;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
@@ -31,12 +32,15 @@ import com.facebook.buck.util.DefaultProcessExecutor;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
 import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -66,6 +70,7 @@ class CxxPreprocessAndCompileStep implements Step {
   private final DebugPathSanitizer sanitizer;
   private final Compiler compiler;
   private final Optional<CxxLogInfo> cxxLogInfo;
+  private final Optional<ContentAddressedFileStore> objectCache;
 
   /** Directory to use to store intermediate/temp files used for compilation. */
   private final Path scratchDir;
@@ -95,7 +100,8 @@ class CxxPreprocessAndCompileStep implements Step {
       boolean useArgfile,
       ImmutableList<String> preArgfileArgs,
       Compiler compiler,
-      Optional<CxxLogInfo> cxxLogInfo) {
+      Optional<CxxLogInfo> cxxLogInfo,
+      Optional<ContentAddressedFileStore> objectCache) {
     this.filesystem = filesystem;
     this.operation = operation;
     this.output = output;
@@ -110,6 +116,7 @@ class CxxPreprocessAndCompileStep implements Step {
     this.preArgfileArgs = preArgfileArgs;
     this.compiler = compiler;
     this.cxxLogInfo = cxxLogInfo;
+    this.objectCache = objectCache;
   }
 
   @Override
@@ -153,8 +160,26 @@ class CxxPreprocessAndCompileStep implements Step {
     return filesystem.resolve(scratchDir).resolve("ppandcompile.argsfile");
   }
 
+  private Path getPreprocessArgfile() {
+    return filesystem.resolve(scratchDir).resolve("preprocess.argsfile");
+  }
+
+  /** @return where the preprocessed source is written to, when using the object cache. */
+  private Path getPreprocessedOutput() {
+    return scratchDir.resolve("preprocessed.i");
+  }
+
   @VisibleForTesting
   ImmutableList<String> getArguments(boolean allowColorsInDiagnostics) {
+    return getArguments(allowColorsInDiagnostics, output, "-c");
+  }
+
+  /**
+   * @return the arguments to run the compiler with, writing the given output. The given flag picks
+   *     how far the compiler goes, e.g. "-c" to compile or "-E" to only preprocess.
+   */
+  private ImmutableList<String> getArguments(
+      boolean allowColorsInDiagnostics, Path output, String operationFlag) {
     boolean useUnixPathSeparator = compiler.getUseUnixPathSeparator();
     String inputLanguage =
         operation == Operation.GENERATE_PCH
@@ -176,7 +201,7 @@ class CxxPreprocessAndCompileStep implements Step {
                 useUnixPathSeparator
                     ? PathFormatter.pathWithUnixSeparators(output.toString())
                     : output.toString()))
-        .add("-c")
+        .add(operationFlag)
         .addAll(
             depFile
                 .map(depFile -> compiler.outputDependenciesArgs(depFile.toString()))
@@ -188,37 +213,44 @@ class CxxPreprocessAndCompileStep implements Step {
         .build();
   }
 
-  private ProcessExecutor.Result executeCompilation(ExecutionContext context)
+  /** Runs the compiler with the given arguments, through the given argfile if we use them. */
+  private ProcessExecutor.Result launchCompiler(
+      ExecutionContext context, ImmutableList<String> arguments, Path argfile)
       throws IOException, InterruptedException {
     ProcessExecutorParams.Builder builder = makeSubprocessBuilder(context);
 
     if (useArgfile) {
       filesystem.writeLinesToPath(
-          Iterables.transform(
-              getArguments(context.getAnsi().isAnsiTerminal()), Escaper.ARGFILE_ESCAPER::apply),
-          getArgfile());
+          Iterables.transform(arguments, Escaper.ARGFILE_ESCAPER::apply), argfile);
       builder.setCommand(
           ImmutableList.<String>builder()
               .addAll(command.getCommandPrefix())
               .addAll(preArgfileArgs)
-              .add("@" + getArgfile())
+              .add("@" + argfile)
               .build());
     } else {
       builder.setCommand(
           ImmutableList.<String>builder()
               .addAll(command.getCommandPrefix())
-              .addAll(getArguments(context.getAnsi().isAnsiTerminal()))
+              .addAll(arguments)
               .build());
     }
 
-    ProcessExecutorParams params = builder.build();
+    return new DefaultProcessExecutor(Console.createNullConsole())
+        .launchAndExecute(builder.build());
+  }
 
+  private ProcessExecutor.Result executeCompilation(ExecutionContext context)
+      throws IOException, InterruptedException {
     if (LOG.isVerboseEnabled()) {
-      LOG.verbose("Running command (pwd=%s): %s", params.getDirectory(), getDescription(context));
+      LOG.verbose(
+          "Running command (pwd=%s): %s",
+          filesystem.getRootPath().toAbsolutePath(),
+          getDescription(context));
     }
 
     ProcessExecutor.Result result =
-        new DefaultProcessExecutor(Console.createNullConsole()).launchAndExecute(params);
+        launchCompiler(context, getArguments(context.getAnsi().isAnsiTerminal()), getArgfile());
 
     String err = getSanitizedStderr(result, context);
     result =
@@ -355,6 +387,22 @@ class CxxPreprocessAndCompileStep implements Step {
       LOG.debug("%s %s -> %s", operation.toString().toLowerCase(), input, output);
     }
 
+    Optional<HashCode> objectCacheKey =
+        canUseObjectCache() ? computeObjectCacheKey(context) : Optional.empty();
+    if (objectCacheKey.isPresent()) {
+      Optional<ProcessExecutor.Result> cachedResult =
+          fetchFromObjectCache(context, objectCacheKey.get());
+      context
+          .getBuckEventBus()
+          .post(
+              cachedResult.isPresent()
+                  ? CacheLookupEvent.hit(objectCache.get().getName())
+                  : CacheLookupEvent.miss(objectCache.get().getName()));
+      if (cachedResult.isPresent()) {
+        return StepExecutionResult.of(cachedResult.get());
+      }
+    }
+
     ProcessExecutor.Result result = executeCompilation(context);
     int exitCode = result.getExitCode();
 
@@ -374,6 +422,10 @@ class CxxPreprocessAndCompileStep implements Step {
         sanitizer.restoreCompilationDirectory(path, filesystem.getRootPath().toAbsolutePath());
         FILE_LAST_MODIFIED_DATE_SCRUBBER.scrubFileWithPath(path);
       }
+
+      if (objectCacheKey.isPresent()) {
+        storeInObjectCache(objectCacheKey.get(), path, result.getStderr().orElse(""));
+      }
     }
 
     if (exitCode != 0) {
@@ -385,6 +437,74 @@ class CxxPreprocessAndCompileStep implements Step {
     return StepExecutionResult.of(result);
   }
 
+  /**
+   * The object cache needs the preprocessor to write the dependency file, so it's only used with
+   * compilers which can write it while only preprocessing.
+   */
+  private boolean canUseObjectCache() {
+    return objectCache.isPresent()
+        && operation == Operation.PREPROCESS_AND_COMPILE
+        && (!depFile.isPresent()
+            || compiler.getDependencyTrackingMode() == DependencyTrackingMode.MAKEFILE);
+  }
+
+  /**
+   * Runs the preprocessor, which also writes the dependency file, and hashes its output along with
+   * everything else which affects the object the compiler produces from it.
+   *
+   * @return the key of the object in the object cache, or empty if preprocessing failed, in which
+   *     case compiling will report the errors.
+   */
+  private Optional<HashCode> computeObjectCacheKey(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Path preprocessed = getPreprocessedOutput();
+    ImmutableList<String> preprocessArguments = getArguments(false, preprocessed, "-E");
+    ProcessExecutor.Result result =
+        launchCompiler(context, preprocessArguments, getPreprocessArgfile());
+    if (result.getExitCode() != 0) {
+      LOG.debug("Preprocessing %s failed, not using the object cache", input);
+      return Optional.empty();
+    }
+
+    Hasher hasher = objectCache.get().newKeyHasher();
+    ContentAddressedFileStore.putStrings(hasher, command.getCommandPrefix());
+    ContentAddressedFileStore.putBinary(
+        hasher, filesystem.resolve(command.getCommandPrefix().get(0)));
+    // The output path can end up in the object, e.g. with split debug info. Including it still
+    // lets a rule reuse its own objects, which is what the cache is for.
+    ContentAddressedFileStore.putStrings(hasher, getArguments(context.getAnsi().isAnsiTerminal()));
+    hasher.putBoolean(shouldSanitizeOutputBinary());
+    hasher.putBoolean(context.shouldReportAbsolutePaths());
+    for (Map.Entry<String, String> entry : command.getEnvironment().entrySet()) {
+      ContentAddressedFileStore.putStrings(hasher, entry.getKey(), entry.getValue());
+    }
+    hasher.putBytes(Files.readAllBytes(filesystem.resolve(preprocessed)));
+    filesystem.deleteFileAtPathIfExists(preprocessed);
+    return Optional.of(hasher.hash());
+  }
+
+  /**
+   * Entries of the object cache hold the diagnostics the compiler printed along with the object,
+   * so that warnings are still shown on hits.
+   */
+  private Optional<ProcessExecutor.Result> fetchFromObjectCache(
+      ExecutionContext context, HashCode key) {
+    Optional<String> err = objectCache.get().read(key, "stderr");
+    if (!err.isPresent() || !objectCache.get().fetch(key, "o", filesystem.resolve(output))) {
+      return Optional.empty();
+    }
+    ProcessExecutor.Result result =
+        new ProcessExecutor.Result(0, false, Optional.empty(), Optional.of(err.get()));
+    // Replay the diagnostics of the compilation, so warnings don't disappear on hits.
+    processResult(result, context);
+    return Optional.of(result);
+  }
+
+  private void storeInObjectCache(HashCode key, Path object, String err) {
+    objectCache.get().write(key, "stderr", err);
+    objectCache.get().store(key, "o", object);
+  }
+
   ImmutableList<String> getCommand() {
     // We set allowColorsInDiagnostics to false here because this function is only used by the
     // compilation database (its contents should not depend on how Buck was invoked) and in the
@@ -40,8 +40,6 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 public class CxxPreprocessables {
 
@@ -106,11 +104,11 @@ public class CxxPreprocessables {
       Iterable<? extends CxxPreprocessorDep> inputs) {
     // We don't really care about the order we get back here, since headers shouldn't
     // conflict.  However, we want something that's deterministic, so maintain the insertion order.
-    Map<BuildTarget, CxxPreprocessorInput> deps = new LinkedHashMap<>();
+    ImmutableList.Builder<TransitiveCxxPreprocessorInputs> deps = ImmutableList.builder();
     for (CxxPreprocessorDep input : inputs) {
-      deps.putAll(input.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+      deps.add(input.getTransitiveCxxPreprocessorInputs(cxxPlatform, graphBuilder));
     }
-    return deps.values();
+    return TransitiveCxxPreprocessorInputs.toMap(deps.build()).values();
   }
 
   /**
@@ -137,13 +135,30 @@ public class CxxPreprocessables {
       Path root,
       ImmutableMap<Path, SourcePath> links,
       HeaderMode headerMode) {
+    return createHeaderSymlinkTreeBuildRule(
+        target, filesystem, ruleFinder, root, links, headerMode, false);
+  }
+
+  /**
+   * @param headerMapReplacesSymlinkTree whether a {@link HeaderMode#HEADER_MAP_ONLY} mode was only
+   *     chosen because the platform prefers header maps.
+   */
+  public static HeaderSymlinkTree createHeaderSymlinkTreeBuildRule(
+      BuildTarget target,
+      ProjectFilesystem filesystem,
+      SourcePathRuleFinder ruleFinder,
+      Path root,
+      ImmutableMap<Path, SourcePath> links,
+      HeaderMode headerMode,
+      boolean headerMapReplacesSymlinkTree) {
     switch (headerMode) {
       case SYMLINK_TREE_WITH_HEADER_MAP:
         return HeaderSymlinkTreeWithHeaderMap.create(target, filesystem, root, links, ruleFinder);
       case SYMLINK_TREE_WITH_MODULEMAP:
         return HeaderSymlinkTreeWithModuleMap.create(target, filesystem, root, links, ruleFinder);
       case HEADER_MAP_ONLY:
-        return new DirectHeaderMap(target, filesystem, root, links, ruleFinder);
+        return new DirectHeaderMap(
+            target, filesystem, root, links, ruleFinder, headerMapReplacesSymlinkTree);
       default:
       case SYMLINK_TREE_ONLY:
         return new HeaderSymlinkTree(target, filesystem, root, links, ruleFinder);
@@ -48,4 +48,15 @@ public interface CxxPreprocessorDep {
    */
   ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder);
+
+  /**
+   * Returns the same inputs as {@link #getTransitiveCxxPreprocessorInput}, in a form which shares
+   * the inputs of the deps instead of copying them. Rules which cache their transitive inputs with
+   * a {@link TransitiveCxxPreprocessorInputCache} should return the cached value.
+   */
+  default TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return TransitiveCxxPreprocessorInputs.copyOf(
+        getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+  }
 }
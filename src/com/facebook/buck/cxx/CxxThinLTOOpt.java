@@ -183,7 +183,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
                   .setTarget(targetName)
                   .setSourcePath(relativeInputPath)
                   .setOutputPath(resolvedOutput)
-                  .build()));
+                  .build()),
+          Optional.empty());
     }
 
     @Override
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.attr.DependencyFileInputIndex;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.util.cache.DaemonCaches;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Remembers the headers found in dep files, so that a dep file which was seen before doesn't have
+ * to be parsed and normalized again. It is kept with the daemon state, see {@link #of}.
+ *
+ * <p>Parsed dep files are keyed by a hash of their contents, and their raw headers are interned,
+ * since most headers appear in many dep files. Normalized headers are also remembered per {@link
+ * HeaderPathNormalizer}, which lives as long as the action graph it was created for. Both are
+ * bounded to the given number of dep files.
+ *
+ * <p>The cache also indexes the rules by the headers their last dep file included, for the most
+ * recently built rules up to the same bound, so that the rules affected by a header edit can be
+ * found without looking at any dep file.
+ */
+class DepfileCache implements DependencyFileInputIndex {
+
+  private static final long MAXIMUM_SIZE = 100_000;
+  private static final String COUNTER_CATEGORY = "buck_depfile_cache";
+
+  private final long maximumSize;
+  private final Cache<HashCode, ImmutableList<String>> rawHeaders;
+  private final Cache<HeaderPathNormalizer, Cache<HashCode, ImmutableList<Path>>>
+      normalizedHeaders;
+  private final Interner<String> headerInterner = Interners.newWeakInterner();
+
+  // The headers of each rule's last dep file, least recently recorded first, and the reverse.
+  @GuardedBy("this")
+  private final LinkedHashMap<BuildTarget, ImmutableSet<String>> headersByRule =
+      new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private final Map<String, Set<BuildTarget>> rulesByHeader = new HashMap<>();
+
+  private final IntegerCounter hits;
+  private final IntegerCounter normalizedHits;
+  private final IntegerCounter misses;
+
+  // The event buses of the commands whose counter registry already has the counters.
+  @GuardedBy("this")
+  private final Set<BuckEventBus> eventBusesWithCounters =
+      Collections.newSetFromMap(new WeakHashMap<>());
+
+  DepfileCache(long maximumSize) {
+    this.maximumSize = maximumSize;
+    this.rawHeaders = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    this.normalizedHeaders = CacheBuilder.newBuilder().weakKeys().build();
+    this.hits = new IntegerCounter(COUNTER_CATEGORY, "parsed_hits", ImmutableMap.of());
+    this.normalizedHits =
+        new IntegerCounter(COUNTER_CATEGORY, "normalized_hits", ImmutableMap.of());
+    this.misses = new IntegerCounter(COUNTER_CATEGORY, "misses", ImmutableMap.of());
+  }
+
+  /** @return the dep file cache kept in the given daemon caches. */
+  static DepfileCache of(DaemonCaches daemonCaches) {
+    return daemonCaches.get(DepfileCache.class, () -> new DepfileCache(MAXIMUM_SIZE));
+  }
+
+  /**
+   * Registers the counters of the cache with the counter registry of the command using the given
+   * event bus, unless they already were. The cache outlives commands, so each one registers them.
+   */
+  void registerCounters(BuckEventBus eventBus) {
+    synchronized (this) {
+      if (!eventBusesWithCounters.add(eventBus)) {
+        return;
+      }
+    }
+    eventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(hits, normalizedHits, misses)));
+  }
+
+  /** @return the normalized headers of a dep file, if they were normalized before. */
+  Optional<ImmutableList<Path>> getNormalizedHeaders(
+      HeaderPathNormalizer headerPathNormalizer, HashCode key) {
+    Cache<HashCode, ImmutableList<Path>> normalized =
+        normalizedHeaders.getIfPresent(headerPathNormalizer);
+    ImmutableList<Path> headers = normalized == null ? null : normalized.getIfPresent(key);
+    if (headers != null) {
+      normalizedHits.inc();
+    }
+    return Optional.ofNullable(headers);
+  }
+
+  void putNormalizedHeaders(
+      HeaderPathNormalizer headerPathNormalizer, HashCode key, ImmutableList<Path> headers) {
+    normalizedHeaders
+        .asMap()
+        .computeIfAbsent(
+            headerPathNormalizer,
+            ignored -> CacheBuilder.newBuilder().maximumSize(maximumSize).build())
+        .put(key, headers);
+  }
+
+  /** @return the raw headers of a dep file, if it was parsed before. */
+  Optional<ImmutableList<String>> getRawHeaders(HashCode key) {
+    ImmutableList<String> headers = rawHeaders.getIfPresent(key);
+    if (headers == null) {
+      misses.inc();
+    } else {
+      hits.inc();
+    }
+    return Optional.ofNullable(headers);
+  }
+
+  void putRawHeaders(HashCode key, List<String> headers) {
+    rawHeaders.put(key, intern(headers));
+  }
+
+  /** Records the (normalized) headers which were last found in the dep file of a rule. */
+  void recordHeaders(BuildTarget target, Collection<Path> headers) {
+    ImmutableSet<String> interned =
+        ImmutableSet.copyOf(
+            intern(headers.stream().map(Path::toString).collect(ImmutableList.toImmutableList())));
+    synchronized (this) {
+      unindex(target, headersByRule.remove(target));
+      headersByRule.put(target, interned);
+      for (String header : interned) {
+        rulesByHeader.computeIfAbsent(header, ignored -> new HashSet<>()).add(target);
+      }
+      Iterator<Map.Entry<BuildTarget, ImmutableSet<String>>> eldest =
+          headersByRule.entrySet().iterator();
+      while (headersByRule.size() > maximumSize) {
+        Map.Entry<BuildTarget, ImmutableSet<String>> entry = eldest.next();
+        unindex(entry.getKey(), entry.getValue());
+        eldest.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized ImmutableSet<BuildTarget> getRulesIncludingInput(Path input) {
+    Set<BuildTarget> rules = rulesByHeader.get(input.toString());
+    return rules == null ? ImmutableSet.of() : ImmutableSet.copyOf(rules);
+  }
+
+  long getHitCount() {
+    return hits.get();
+  }
+
+  long getNormalizedHitCount() {
+    return normalizedHits.get();
+  }
+
+  long getMissCount() {
+    return misses.get();
+  }
+
+  @GuardedBy("this")
+  private void unindex(BuildTarget target, @Nullable Set<String> headers) {
+    if (headers == null) {
+      return;
+    }
+    for (String header : headers) {
+      Set<BuildTarget> rules = rulesByHeader.get(header);
+      rules.remove(target);
+      if (rules.isEmpty()) {
+        rulesByHeader.remove(header);
+      }
+    }
+  }
+
+  private ImmutableList<String> intern(List<String> headers) {
+    ImmutableList.Builder<String> interned = ImmutableList.builderWithExpectedSize(headers.size());
+    for (String header : headers) {
+      interned.add(headerInterner.intern(header));
+    }
+    return interned.build();
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.cxx;
 
 import com.facebook.buck.core.exceptions.ExceptionWithHumanReadableMessage;
 import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.util.log.Logger;
@@ -33,11 +34,17 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharSource;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -208,16 +215,16 @@ class Depfiles {
   }
 
   private static ImmutableList<String> getRawUsedHeadersFromDepfile(
-      ProjectFilesystem filesystem,
-      Path sourceDepFile,
+      byte[] depFileContents,
       Path inputPath,
       DependencyTrackingMode dependencyTrackingMode,
       boolean useUnixPathSeparator)
       throws IOException {
     switch (dependencyTrackingMode) {
       case MAKEFILE:
-        try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
+        try (BufferedReader reader =
+            new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(depFileContents)))) {
           ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
           // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
           // appear first in the dep file, followed by the input source file.  So, just skip over
@@ -245,7 +252,8 @@ class Depfiles {
         // An intermediate depfile in `show_include` mode contains a source file + used headers
         // (see CxxPreprocessAndCompileStep for details).
         // So, we "strip" the the source file first.
-        List<String> srcAndIncludes = filesystem.readLines(sourceDepFile);
+        List<String> srcAndIncludes =
+            CharSource.wrap(new String(depFileContents, StandardCharsets.UTF_8)).readLines();
         List<String> includes = srcAndIncludes.subList(1, srcAndIncludes.size());
         // We don't require the tree structure here, we remove the spaces
         return includes.stream().map(String::trim).collect(ImmutableList.toImmutableList());
@@ -260,8 +268,10 @@ class Depfiles {
   /**
    * Reads and processes {@code .dep} file produced by a cxx compiler.
    *
+   * @param depfileCache Remembers the headers of dep files which were processed before.
    * @param eventBus Used for outputting perf events and messages.
    * @param filesystem Used to access the filesystem and handle String to Path conversion.
+   * @param buildTarget The rule the dep file belongs to, recorded as including its headers.
    * @param headerPathNormalizer Used to convert raw paths into absolutized paths that can be
    *     resolved to SourcePaths.
    * @param headerVerification Setting for how to respond to untracked header errors.
@@ -278,8 +288,10 @@ class Depfiles {
    *     headerVerification == ERROR}.
    */
   public static ImmutableList<Path> parseAndVerifyDependencies(
+      DepfileCache depfileCache,
       BuckEventBus eventBus,
       ProjectFilesystem filesystem,
+      BuildTarget buildTarget,
       HeaderPathNormalizer headerPathNormalizer,
       HeaderVerification headerVerification,
       Path sourceDepFile,
@@ -295,43 +307,80 @@ class Depfiles {
     // included them using source relative include paths. To handle both cases we check for the
     // prerequisites both in the values and the keys of the replacement map.
     Logger.get(Depfiles.class).debug("Processing dependency file %s as Makefile", sourceDepFile);
+    depfileCache.registerCounters(eventBus);
     try (SimplePerfEvent.Scope perfEvent =
         SimplePerfEvent.scope(
             eventBus,
             PerfEventId.of("depfile-parse"),
             ImmutableMap.of("input", inputPath, "output", outputPath))) {
 
-      List<String> headers =
-          getRawUsedHeadersFromDepfile(
-              filesystem, sourceDepFile, inputPath, dependencyTrackingMode, useUnixPathSeparator);
-
-      return normalizeAndVerifyHeaders(
-          eventBus,
-          filesystem,
-          headerPathNormalizer,
-          headerVerification,
-          inputPath,
-          headers,
-          sourceDepFile,
-          dependencyTrackingMode);
+      byte[] depFileContents;
+      try (InputStream input = filesystem.newFileInputStream(sourceDepFile)) {
+        depFileContents = ByteStreams.toByteArray(input);
+      }
+      // The headers found in a dep file depend on how it is interpreted as well as its contents.
+      HashCode key =
+          Hashing.murmur3_128()
+              .newHasher()
+              .putBytes(depFileContents)
+              .putUnencodedChars(inputPath.toString())
+              .putInt(dependencyTrackingMode.ordinal())
+              .putBoolean(useUnixPathSeparator)
+              .hash();
+
+      Optional<ImmutableList<Path>> cachedResult =
+          depfileCache.getNormalizedHeaders(headerPathNormalizer, key);
+      if (cachedResult.isPresent()) {
+        perfEvent.appendFinishedInfo("cache", "normalized");
+        depfileCache.recordHeaders(buildTarget, cachedResult.get());
+        return cachedResult.get();
+      }
+
+      Optional<ImmutableList<String>> cachedHeaders = depfileCache.getRawHeaders(key);
+      List<String> headers;
+      if (cachedHeaders.isPresent()) {
+        perfEvent.appendFinishedInfo("cache", "parsed");
+        headers = cachedHeaders.get();
+      } else {
+        perfEvent.appendFinishedInfo("cache", "miss");
+        headers =
+            getRawUsedHeadersFromDepfile(
+                depFileContents, inputPath, dependencyTrackingMode, useUnixPathSeparator);
+        depfileCache.putRawHeaders(key, headers);
+      }
+
+      UntrackedHeaderReporterWithFallback untrackedHeaderReporter =
+          new UntrackedHeaderReporterWithFallback(
+              dependencyTrackingMode, filesystem, headerPathNormalizer, sourceDepFile, inputPath);
+      List<String> errors = new ArrayList<String>();
+      ImmutableList<Path> result =
+          normalizeAndVerifyHeaders(
+              filesystem,
+              headerPathNormalizer,
+              headerVerification,
+              headers,
+              untrackedHeaderReporter,
+              errors);
+      if (errors.isEmpty()) {
+        // Results with untracked headers aren't cached, so that they are reported every time.
+        depfileCache.putNormalizedHeaders(headerPathNormalizer, key, result);
+      } else {
+        reportUntrackedHeaders(eventBus, headerVerification, untrackedHeaderReporter, errors);
+      }
+      depfileCache.recordHeaders(buildTarget, result);
+      return result;
     }
   }
 
   private static ImmutableList<Path> normalizeAndVerifyHeaders(
-      BuckEventBus eventBus,
       ProjectFilesystem filesystem,
       HeaderPathNormalizer headerPathNormalizer,
       HeaderVerification headerVerification,
-      Path inputPath,
       List<String> headers,
-      Path sourceDepFile,
-      DependencyTrackingMode dependencyTrackingMode)
-      throws IOException, HeaderVerificationException {
+      UntrackedHeaderReporter untrackedHeaderReporter,
+      List<String> errors)
+      throws IOException {
     ImmutableList.Builder<Path> resultBuilder = ImmutableList.builder();
-    UntrackedHeaderReporterWithFallback untrackedHeaderReporter =
-        new UntrackedHeaderReporterWithFallback(
-            dependencyTrackingMode, filesystem, headerPathNormalizer, sourceDepFile, inputPath);
-    List<String> errors = new ArrayList<String>();
     for (String rawHeader : headers) {
       Path header = filesystem.resolve(rawHeader).normalize();
       Optional<Path> absolutePath = headerPathNormalizer.getAbsolutePathForUnnormalizedPath(header);
@@ -352,30 +401,35 @@ class Depfiles {
         }
       }
     }
-    // Check if any errors occurred and report them
-    if (!errors.isEmpty()) {
-      String errorMessage =
-          String.format(
-              "%s%n%n%s",
-              errors.stream()
-                  .collect(Collectors.joining(System.lineSeparator() + System.lineSeparator())),
-              UNTRACKED_HEADER_ERROR_TIPS);
-      if (!untrackedHeaderReporter.isDetailed()) {
-        errorMessage += UNTRACKED_HEADER_ERROR_DETAILED_SUGGESTION;
-      }
-      eventBus.post(
-          ConsoleEvent.create(
-              headerVerification.getMode() == HeaderVerification.Mode.ERROR
-                  ? Level.SEVERE
-                  : Level.WARNING,
-              errorMessage));
-      if (headerVerification.getMode() == HeaderVerification.Mode.ERROR) {
-        throw new HeaderVerificationException(errorMessage);
-      }
-    }
     return resultBuilder.build();
   }
 
+  private static void reportUntrackedHeaders(
+      BuckEventBus eventBus,
+      HeaderVerification headerVerification,
+      UntrackedHeaderReporter untrackedHeaderReporter,
+      List<String> errors)
+      throws HeaderVerificationException {
+    String errorMessage =
+        String.format(
+            "%s%n%n%s",
+            errors.stream()
+                .collect(Collectors.joining(System.lineSeparator() + System.lineSeparator())),
+            UNTRACKED_HEADER_ERROR_TIPS);
+    if (!untrackedHeaderReporter.isDetailed()) {
+      errorMessage += UNTRACKED_HEADER_ERROR_DETAILED_SUGGESTION;
+    }
+    eventBus.post(
+        ConsoleEvent.create(
+            headerVerification.getMode() == HeaderVerification.Mode.ERROR
+                ? Level.SEVERE
+                : Level.WARNING,
+            errorMessage));
+    if (headerVerification.getMode() == HeaderVerification.Mode.ERROR) {
+      throw new HeaderVerificationException(errorMessage);
+    }
+  }
+
   public static class Depfile {
 
     private final String target;
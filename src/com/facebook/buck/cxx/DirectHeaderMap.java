@@ -39,6 +39,10 @@ import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * A header map which references the headers directly where they are, used instead of a symlink
+ * tree of the headers by preprocessors which support header maps.
+ */
 class DirectHeaderMap extends HeaderSymlinkTree {
 
   private static final Logger LOG = Logger.get(DirectHeaderMap.class);
@@ -46,14 +50,32 @@ class DirectHeaderMap extends HeaderSymlinkTree {
   @AddToRuleKey(stringify = true)
   private final Path headerMapPath;
 
+  // Only affects the symlinks_avoided count, so it's not part of the rule key.
+  private final boolean replacesSymlinkTree;
+
   public DirectHeaderMap(
       BuildTarget target,
       ProjectFilesystem filesystem,
       Path root,
       ImmutableMap<Path, SourcePath> links,
       SourcePathRuleFinder ruleFinder) {
+    this(target, filesystem, root, links, ruleFinder, false);
+  }
+
+  /**
+   * @param replacesSymlinkTree whether this header map is only used because the platform prefers
+   *     header maps, where it would otherwise have created a symlink tree.
+   */
+  public DirectHeaderMap(
+      BuildTarget target,
+      ProjectFilesystem filesystem,
+      Path root,
+      ImmutableMap<Path, SourcePath> links,
+      SourcePathRuleFinder ruleFinder,
+      boolean replacesSymlinkTree) {
     super(target, filesystem, root, links, ruleFinder);
     this.headerMapPath = BuildTargetPaths.getGenPath(filesystem, target, "%s.hmap");
+    this.replacesSymlinkTree = replacesSymlinkTree;
   }
 
   @Override
@@ -89,7 +111,12 @@ class DirectHeaderMap extends HeaderSymlinkTree {
             RmStep.of(
                 BuildCellRelativePath.fromCellRelativePath(
                     context.getBuildCellRootPath(), getProjectFilesystem(), headerMapPath)))
-        .add(new HeaderMapStep(getProjectFilesystem(), headerMapPath, entriesBuilder.build()))
+        .add(
+            new HeaderMapStep(
+                getProjectFilesystem(),
+                headerMapPath,
+                entriesBuilder.build(),
+                replacesSymlinkTree))
         .build();
   }
 
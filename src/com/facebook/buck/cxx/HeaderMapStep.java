@@ -19,30 +19,61 @@ package com.facebook.buck.cxx;
 import com.facebook.buck.apple.clang.HeaderMap;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 class HeaderMapStep implements Step {
 
   private static final Logger LOG = Logger.get(HeaderMapStep.class);
 
+  // Total of the symlinks which header maps spared the commands, reported once per command.
+  private static final IntegerCounter SYMLINKS_AVOIDED =
+      new IntegerCounter("buck_header_maps", "symlinks_avoided", ImmutableMap.of());
+
+  // The event buses of the commands whose counter registry already has the counter.
+  private static final Set<BuckEventBus> EVENT_BUSES_WITH_COUNTER =
+      Collections.newSetFromMap(new WeakHashMap<>());
+
   private final ProjectFilesystem filesystem;
   private final Path output;
   private final ImmutableMap<Path, Path> entries;
+  private final boolean replacesSymlinkTree;
 
   public HeaderMapStep(
       ProjectFilesystem filesystem, Path output, ImmutableMap<Path, Path> entries) {
+    this(filesystem, output, entries, false);
+  }
+
+  /**
+   * @param replacesSymlinkTree whether the header map is written instead of the symlink tree the
+   *     platform would otherwise have used, in which case every entry is counted as a symlink
+   *     which didn't have to be created.
+   */
+  public HeaderMapStep(
+      ProjectFilesystem filesystem,
+      Path output,
+      ImmutableMap<Path, Path> entries,
+      boolean replacesSymlinkTree) {
     this.filesystem = filesystem;
     this.output = output;
     this.entries = entries;
+    this.replacesSymlinkTree = replacesSymlinkTree;
   }
 
   @Override
@@ -58,26 +89,52 @@ class HeaderMapStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
     LOG.debug("Writing header map with %d entries to %s", entries.size(), output);
-    HeaderMap.Builder builder = HeaderMap.builder();
-    for (Map.Entry<Path, Path> entry : entries.entrySet()) {
-      builder.add(PathFormatter.pathWithUnixSeparators(entry.getKey()), entry.getValue());
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(context.getBuckEventBus(), "header_map")) {
+      HeaderMap.Builder builder = HeaderMap.builder();
+      for (Map.Entry<Path, Path> entry : entries.entrySet()) {
+        builder.add(PathFormatter.pathWithUnixSeparators(entry.getKey()), entry.getValue());
+      }
+      HeaderMap headerMap = builder.build();
+      filesystem.writeBytesToPath(headerMap.getBytes(), output);
+      scope.appendFinishedInfo("entries", entries.size());
+      scope.appendFinishedInfo("symlinks_avoided", replacesSymlinkTree ? entries.size() : 0);
+    }
+    if (replacesSymlinkTree) {
+      registerCounter(context.getBuckEventBus());
+      SYMLINKS_AVOIDED.inc(entries.size());
     }
-    HeaderMap headerMap = builder.build();
-    filesystem.writeBytesToPath(headerMap.getBytes(), output);
     return StepExecutionResults.SUCCESS;
   }
 
+  private static void registerCounter(BuckEventBus eventBus) {
+    synchronized (EVENT_BUSES_WITH_COUNTER) {
+      if (!EVENT_BUSES_WITH_COUNTER.add(eventBus)) {
+        return;
+      }
+    }
+    eventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(ImmutableList.of(SYMLINKS_AVOIDED)));
+  }
+
+  /** @return the symlinks avoided since the counter was last flushed, for tests. */
+  static long getSymlinksAvoided() {
+    return SYMLINKS_AVOIDED.get();
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof HeaderMapStep)) {
       return false;
     }
     HeaderMapStep that = (HeaderMapStep) obj;
-    return Objects.equal(this.output, that.output) && Objects.equal(this.entries, that.entries);
+    return Objects.equal(this.output, that.output)
+        && Objects.equal(this.entries, that.entries)
+        && this.replacesSymlinkTree == that.replacesSymlinkTree;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(output, entries);
+    return Objects.hashCode(output, entries, replacesSymlinkTree);
   }
 }
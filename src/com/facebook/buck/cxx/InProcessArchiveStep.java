@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.cxx.toolchain.objectfile.GnuArchiveWriter;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Create a GNU object archive, with its symbol table, without running ar and ranlib. */
+class InProcessArchiveStep implements Step {
+
+  private final ProjectFilesystem filesystem;
+  private final Path output;
+  private final ImmutableList<Path> inputs;
+  private final boolean thin;
+
+  public InProcessArchiveStep(
+      ProjectFilesystem filesystem, Path output, ImmutableList<Path> inputs, boolean thin) {
+    Preconditions.checkArgument(!output.isAbsolute());
+    // Thin archives refer to their inputs relative to the output, like in ArchiveStep.
+    for (Path input : inputs) {
+      Preconditions.checkArgument(!input.isAbsolute());
+    }
+    this.filesystem = filesystem;
+    this.output = output;
+    this.inputs = inputs;
+    this.thin = thin;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    ImmutableList<Path> members =
+        ArchiveStep.getAllInputs(filesystem, inputs).stream()
+            .map(filesystem::resolve)
+            .collect(ImmutableList.toImmutableList());
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(context.getBuckEventBus(), "in_process_archive")) {
+      GnuArchiveWriter.write(filesystem.resolve(output), members, thin);
+      scope.appendFinishedInfo("members", members.size());
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "write %s archive %s from %s",
+        thin ? "thin" : "normal", output, Joiner.on(' ').join(inputs));
+  }
+
+  @Override
+  public String getShortName() {
+    return "archive";
+  }
+}
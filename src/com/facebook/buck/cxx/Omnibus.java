@@ -30,6 +30,7 @@ import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.core.util.graph.TopologicalSort;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.cxx.config.CxxBuckConfig;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
@@ -44,9 +45,15 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.rules.args.StringArg;
+import com.facebook.buck.util.MoreIterables;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.concurrent.Parallelizer;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -54,7 +61,10 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -62,13 +72,28 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.immutables.value.Value;
 
 public class Omnibus {
 
+  private static final Logger LOG = Logger.get(Omnibus.class);
+
   private static final Flavor OMNIBUS_FLAVOR = InternalFlavor.of("omnibus");
   private static final Flavor DUMMY_OMNIBUS_FLAVOR = InternalFlavor.of("dummy-omnibus");
 
+  // Whether the subgraph of a native linkable has any nodes which don't support omnibus linking.
+  // This only depends on the action graph, so it's computed once per graph and shared by the specs
+  // of all the binaries using omnibus linking, which skip the subgraphs without any nodes to
+  // exclude. Like the caches of CxxToolProvider, it is keyed by the graph builder and goes away
+  // with it.
+  private static final LoadingCache<ActionGraphBuilder, Map<NativeLinkable, Boolean>>
+      HAS_EXCLUDED_NODES_CACHE =
+          CacheBuilder.newBuilder()
+              .weakKeys()
+              .build(CacheLoader.from(graphBuilder -> new ConcurrentHashMap<>()));
+
   private Omnibus() {}
 
   private static String getOmnibusSoname(CxxPlatform cxxPlatform) {
@@ -111,6 +136,46 @@ public class Omnibus {
     }
   }
 
+  // Returns whether the given node or any of its transitive deps doesn't support omnibus linking.
+  static boolean hasExcludedNodes(NativeLinkable nativeLinkable, ActionGraphBuilder graphBuilder) {
+    Map<NativeLinkable, Boolean> cache = HAS_EXCLUDED_NODES_CACHE.getUnchecked(graphBuilder);
+    Boolean cached = cache.get(nativeLinkable);
+    if (cached != null) {
+      return cached;
+    }
+
+    // Compute the uncached subgraph bottom-up, with an explicit stack as graphs can be deep.
+    Set<NativeLinkable> expanded = Sets.newIdentityHashSet();
+    Deque<NativeLinkable> stack = new ArrayDeque<>();
+    stack.push(nativeLinkable);
+    while (!stack.isEmpty()) {
+      NativeLinkable node = stack.peek();
+      if (cache.containsKey(node)) {
+        stack.pop();
+      } else if (!node.supportsOmnibusLinking()) {
+        cache.put(node, true);
+        stack.pop();
+      } else if (expanded.add(node)) {
+        for (NativeLinkable dep : getDeps(node, graphBuilder)) {
+          if (!cache.containsKey(dep)) {
+            stack.push(dep);
+          }
+        }
+      } else {
+        stack.pop();
+        boolean hasExcludedNodes = false;
+        for (NativeLinkable dep : getDeps(node, graphBuilder)) {
+          if (Objects.requireNonNull(cache.get(dep))) {
+            hasExcludedNodes = true;
+            break;
+          }
+        }
+        cache.put(node, hasExcludedNodes);
+      }
+    }
+    return Objects.requireNonNull(cache.get(nativeLinkable));
+  }
+
   // Build the data structure containing bookkeeping which describing the omnibus link for the
   // given included and excluded roots.
   static OmnibusSpec buildSpec(
@@ -129,13 +194,18 @@ public class Omnibus {
     // Process all the roots included in the omnibus link.
     Map<BuildTarget, NativeLinkTarget> roots = new LinkedHashMap<>();
     Map<BuildTarget, NativeLinkable> rootDeps = new LinkedHashMap<>();
+    Map<BuildTarget, ImmutableList<NativeLinkable>> rootLinkables = new LinkedHashMap<>();
     for (NativeLinkTarget root : includedRoots) {
       roots.put(root.getBuildTarget(), root);
-      for (NativeLinkable dep :
-          NativeLinkables.getNativeLinkables(
-              actionGraphBuilder,
-              root.getNativeLinkTargetDeps(actionGraphBuilder),
-              Linker.LinkableDepType.SHARED)) {
+      // Keep the topologically sorted deps of the root around, to assemble its link line with.
+      ImmutableList<NativeLinkable> linkables =
+          ImmutableList.copyOf(
+              NativeLinkables.getNativeLinkables(
+                  actionGraphBuilder,
+                  root.getNativeLinkTargetDeps(actionGraphBuilder),
+                  Linker.LinkableDepType.SHARED));
+      rootLinkables.put(root.getBuildTarget(), linkables);
+      for (NativeLinkable dep : linkables) {
         Linker.LinkableDepType linkStyle =
             NativeLinkableGroups.getLinkStyle(
                 dep.getPreferredLinkage(), Linker.LinkableDepType.SHARED);
@@ -160,10 +230,14 @@ public class Omnibus {
     // included roots.  We'll accomplish two things here:
     // 1. Build up the map of node names to their native linkable objects.
     // 2. Perform an initial discovery of dependency nodes to exclude from the omnibus link.
+    // Subgraphs which don't have any nodes to exclude are skipped, the last walk adds them.
     new AbstractBreadthFirstTraversal<BuildTarget>(rootDeps.keySet()) {
       @Override
       public Iterable<BuildTarget> visit(BuildTarget target) {
         NativeLinkable nativeLinkable = Objects.requireNonNull(nativeLinkables.get(target));
+        if (!hasExcludedNodes(nativeLinkable, actionGraphBuilder)) {
+          return ImmutableSet.of();
+        }
         ImmutableMap<BuildTarget, NativeLinkable> deps =
             Maps.uniqueIndex(
                 getDeps(nativeLinkable, actionGraphBuilder), NativeLinkable::getBuildTarget);
@@ -198,10 +272,10 @@ public class Omnibus {
       public Iterable<BuildTarget> visit(BuildTarget target) {
         graphBuilder.addNode(target);
         Set<BuildTarget> keep = new LinkedHashSet<>();
-        for (BuildTarget dep :
-            Iterables.transform(
-                getDeps(target, roots, nativeLinkables, actionGraphBuilder),
-                NativeLinkable::getBuildTarget)) {
+        for (NativeLinkable nativeLinkable :
+            getDeps(target, roots, nativeLinkables, actionGraphBuilder)) {
+          BuildTarget dep = nativeLinkable.getBuildTarget();
+          nativeLinkables.put(dep, nativeLinkable);
           if (excluded.contains(dep)) {
             deps.add(dep);
           } else {
@@ -230,6 +304,7 @@ public class Omnibus {
         .excluded(Maps.asMap(excluded, Functions.forMap(nativeLinkables)))
         .excludedRoots(
             RichStream.from(excludedRoots).map(NativeLinkable::getBuildTarget).toImmutableSet())
+        .rootLinkables(rootLinkables)
         .build();
   }
 
@@ -303,11 +378,8 @@ public class Omnibus {
     argsBuilder.addAll(input.getArgs());
 
     // Grab a topologically sorted mapping of all the root's deps.
-    ImmutableList<? extends NativeLinkable> deps =
-        NativeLinkables.getNativeLinkables(
-            graphBuilder,
-            root.getNativeLinkTargetDeps(graphBuilder),
-            Linker.LinkableDepType.SHARED);
+    ImmutableList<NativeLinkable> deps =
+        Objects.requireNonNull(spec.getRootLinkables().get(root.getBuildTarget()));
 
     // Now process the dependencies in topological order, to assemble the link line.
     boolean alreadyAddedOmnibusToArgs = false;
@@ -629,7 +701,9 @@ public class Omnibus {
 
     OmnibusLibraries.Builder libs = OmnibusLibraries.builder();
 
+    Stopwatch stopwatch = Stopwatch.createStarted();
     OmnibusSpec spec = buildSpec(nativeLinkTargetRoots, nativeLinkableRoots, graphBuilder);
+    long specMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
     // Create an empty dummy omnibus library, to give the roots something to link against before
     // we have the actual omnibus library available.  Note that this requires that the linker
@@ -645,37 +719,46 @@ public class Omnibus {
             extraOmnibusLdflags);
 
     // Create rule for each of the root nodes, linking against the dummy omnibus library above.
-    for (NativeLinkTarget target : spec.getRoots().values()) {
-
-      // For executable roots, some platforms can't properly build them when there are any
-      // unresolved symbols, so we initially link a dummy root just to provide a way to grab the
-      // undefined symbol list we need to build the real omnibus library.
-      if (shouldCreateDummyRoot(target)) {
-        createDummyRoot(
-            buildTarget,
-            projectFilesystem,
-            cellPathResolver,
-            graphBuilder,
-            cxxBuckConfig,
-            cxxPlatform,
-            spec,
-            dummyOmnibus,
-            target);
-      } else {
-        OmnibusRoot root =
-            createRoot(
-                buildTarget,
-                projectFilesystem,
-                cellPathResolver,
-                graphBuilder,
-                cxxBuckConfig,
-                cxxPlatform,
-                spec,
-                dummyOmnibus,
-                target);
-        libs.putRoots(target.getBuildTarget(), root);
-      }
-    }
+    // The rules of the roots don't depend on each other, so they're created in parallel.
+    Parallelizer parallelizer = graphBuilder.getParallelizer();
+    ImmutableList<NativeLinkTarget> roots = spec.getRoots().values().asList();
+    Collection<Optional<OmnibusRoot>> firstPassRoots =
+        parallelizer.maybeParallelizeTransform(
+            roots,
+            target -> {
+
+              // For executable roots, some platforms can't properly build them when there are any
+              // unresolved symbols, so we initially link a dummy root just to provide a way to grab
+              // the undefined symbol list we need to build the real omnibus library.
+              if (shouldCreateDummyRoot(target)) {
+                createDummyRoot(
+                    buildTarget,
+                    projectFilesystem,
+                    cellPathResolver,
+                    graphBuilder,
+                    cxxBuckConfig,
+                    cxxPlatform,
+                    spec,
+                    dummyOmnibus,
+                    target);
+                return Optional.empty();
+              }
+              return Optional.of(
+                  createRoot(
+                      buildTarget,
+                      projectFilesystem,
+                      cellPathResolver,
+                      graphBuilder,
+                      cxxBuckConfig,
+                      cxxPlatform,
+                      spec,
+                      dummyOmnibus,
+                      target));
+            });
+    MoreIterables.forEachPair(
+        roots,
+        firstPassRoots,
+        (target, root) -> root.ifPresent(r -> libs.putRoots(target.getBuildTarget(), r)));
 
     // If there are any body nodes, generate the giant merged omnibus library.
     Optional<SourcePath> realOmnibus = Optional.empty();
@@ -697,22 +780,27 @@ public class Omnibus {
 
     // Do another pass over executable roots, building the real DSO which links to the real omnibus.
     // See the comment above in the first pass for more details.
-    for (NativeLinkTarget target : spec.getRoots().values()) {
-      if (shouldCreateDummyRoot(target)) {
-        OmnibusRoot root =
-            createRoot(
-                buildTarget,
-                projectFilesystem,
-                cellPathResolver,
-                graphBuilder,
-                cxxBuckConfig,
-                cxxPlatform,
-                spec,
-                realOmnibus.orElse(dummyOmnibus),
-                target);
-        libs.putRoots(target.getBuildTarget(), root);
-      }
-    }
+    ImmutableList<NativeLinkTarget> executableRoots =
+        RichStream.from(roots).filter(Omnibus::shouldCreateDummyRoot).toImmutableList();
+    SourcePath omnibus = realOmnibus.orElse(dummyOmnibus);
+    Collection<OmnibusRoot> secondPassRoots =
+        parallelizer.maybeParallelizeTransform(
+            executableRoots,
+            target ->
+                createRoot(
+                    buildTarget,
+                    projectFilesystem,
+                    cellPathResolver,
+                    graphBuilder,
+                    cxxBuckConfig,
+                    cxxPlatform,
+                    spec,
+                    omnibus,
+                    target));
+    MoreIterables.forEachPair(
+        executableRoots,
+        secondPassRoots,
+        (target, root) -> libs.putRoots(target.getBuildTarget(), root));
 
     // Lastly, add in any shared libraries from excluded nodes the normal way, omitting non-root
     // static libraries.
@@ -726,6 +814,16 @@ public class Omnibus {
       }
     }
 
+    LOG.verbose(
+        "%s: built omnibus spec with %d roots, %d body nodes and %d excluded nodes in %dms, "
+            + "and its link rules in %dms",
+        buildTarget,
+        spec.getRoots().size(),
+        spec.getBody().size(),
+        spec.getExcluded().size(),
+        specMillis,
+        stopwatch.elapsed(TimeUnit.MILLISECONDS) - specMillis);
+
     return libs.build();
   }
 
@@ -751,6 +849,9 @@ public class Omnibus {
     // The subset of excluded nodes which are first-order deps of any root or body nodes.
     public abstract ImmutableMap<BuildTarget, NativeLinkable> getDeps();
 
+    // The topologically sorted native linkables to consider when linking each root.
+    public abstract ImmutableMap<BuildTarget, ImmutableList<NativeLinkable>> getRootLinkables();
+
     @Value.Check
     public void verify() {
 
@@ -46,7 +46,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -198,26 +197,28 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
     return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
   }
 
-  private ImmutableList<CxxPreprocessorInput> getCxxPreprocessorInputs(
+  @Override
+  public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
-    ImmutableList.Builder<CxxPreprocessorInput> builder = ImmutableList.builder();
-    for (Map.Entry<BuildTarget, CxxPreprocessorInput> entry :
-        getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder).entrySet()) {
-      builder.add(entry.getValue());
-    }
-    return builder.build();
+    return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
   }
 
-  private ImmutableList<CxxHeaders> getIncludes(
+  /** The transitive inputs, flattened once per use since they aren't kept. */
+  private ImmutableList<CxxPreprocessorInput> getCxxPreprocessorInputs(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
-    return getCxxPreprocessorInputs(cxxPlatform, graphBuilder).stream()
+    return getTransitiveCxxPreprocessorInputs(cxxPlatform, graphBuilder).toMap().values().asList();
+  }
+
+  private static ImmutableList<CxxHeaders> getIncludes(
+      ImmutableList<CxxPreprocessorInput> inputs) {
+    return inputs.stream()
         .flatMap(input -> input.getIncludes().stream())
         .collect(ImmutableList.toImmutableList());
   }
 
-  private ImmutableSet<FrameworkPath> getFrameworks(
-      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
-    return getCxxPreprocessorInputs(cxxPlatform, graphBuilder).stream()
+  private static ImmutableSet<FrameworkPath> getFrameworks(
+      ImmutableList<CxxPreprocessorInput> inputs) {
+    return inputs.stream()
         .flatMap(input -> input.getFrameworks().stream())
         .collect(ImmutableSet.toImmutableSet());
   }
@@ -225,13 +226,15 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
   private ImmutableSortedSet<BuildRule> getPreprocessDeps(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
     ImmutableSortedSet.Builder<BuildRule> builder = ImmutableSortedSet.naturalOrder();
-    for (CxxPreprocessorInput input : getCxxPreprocessorInputs(cxxPlatform, graphBuilder)) {
+    ImmutableList<CxxPreprocessorInput> inputs =
+        getCxxPreprocessorInputs(cxxPlatform, graphBuilder);
+    for (CxxPreprocessorInput input : inputs) {
       builder.addAll(input.getDeps(graphBuilder));
     }
-    for (CxxHeaders cxxHeaders : getIncludes(cxxPlatform, graphBuilder)) {
+    for (CxxHeaders cxxHeaders : getIncludes(inputs)) {
       cxxHeaders.getDeps(graphBuilder).forEachOrdered(builder::add);
     }
-    for (FrameworkPath frameworkPath : getFrameworks(cxxPlatform, graphBuilder)) {
+    for (FrameworkPath frameworkPath : getFrameworks(inputs)) {
       builder.addAll(frameworkPath.getDeps(graphBuilder));
     }
 
@@ -269,6 +272,8 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
       CxxToolFlags preprocessorFlags,
       ActionGraphBuilder graphBuilder,
       SourcePathResolver pathResolver) {
+    ImmutableList<CxxPreprocessorInput> inputs =
+        getCxxPreprocessorInputs(cxxPlatform, graphBuilder);
     return new PreprocessorDelegate(
         cxxPlatform.getHeaderVerification(),
         PathSourcePath.of(getProjectFilesystem(), Paths.get("")),
@@ -276,8 +281,8 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
         PreprocessorFlags.of(
             Optional.of(getHeaderSourcePath()),
             preprocessorFlags,
-            getIncludes(cxxPlatform, graphBuilder),
-            getFrameworks(cxxPlatform, graphBuilder)),
+            getIncludes(inputs),
+            getFrameworks(inputs)),
         CxxDescriptionEnhancer.frameworkPathToSearchPath(cxxPlatform, pathResolver),
         /* leadingIncludePaths */ Optional.empty(),
         Optional.empty(),
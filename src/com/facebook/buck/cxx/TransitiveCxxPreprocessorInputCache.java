@@ -24,17 +24,17 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 
-/** Transitive C++ preprocessor input cache */
+/**
+ * Transitive C++ preprocessor input cache. Each rule only keeps its own input and references to
+ * the cached inputs of its deps, see {@link TransitiveCxxPreprocessorInputs}.
+ */
 public class TransitiveCxxPreprocessorInputCache {
-  private final Cache<CxxPlatform, ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>> cache =
+  private final Cache<CxxPlatform, TransitiveCxxPreprocessorInputs> cache =
       CacheBuilder.newBuilder().build();
   private final CxxPreprocessorDep preprocessorDep;
 
@@ -42,14 +42,20 @@ public class TransitiveCxxPreprocessorInputCache {
     this.preprocessorDep = preprocessorDep;
   }
 
-  /** Get a value from the cache */
+  /** Get a value from the cache, flattened into a map which isn't cached itself. */
   public ImmutableMap<BuildTarget, CxxPreprocessorInput> getUnchecked(
       CxxPlatform key, ActionGraphBuilder graphBuilder) {
+    return getInputsUnchecked(key, graphBuilder).toMap();
+  }
+
+  /** Get a value from the cache */
+  public TransitiveCxxPreprocessorInputs getInputsUnchecked(
+      CxxPlatform key, ActionGraphBuilder graphBuilder) {
     try {
       return cache.get(
           key,
           () ->
-              computeTransitiveCxxToPreprocessorInputMap(
+              computeTransitiveCxxPreprocessorInputs(
                   key, preprocessorDep, true, graphBuilder, graphBuilder.getParallelizer()));
     } catch (ExecutionException e) {
       throw new UncheckedExecutionException(e.getCause());
@@ -62,40 +68,28 @@ public class TransitiveCxxPreprocessorInputCache {
           CxxPreprocessorDep preprocessorDep,
           boolean includeDep,
           ActionGraphBuilder graphBuilder) {
-    return computeTransitiveCxxToPreprocessorInputMap(
-        key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer());
+    return computeTransitiveCxxPreprocessorInputs(
+            key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer())
+        .toMap();
   }
 
-  private static ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>
-      computeTransitiveCxxToPreprocessorInputMap(
-          @Nonnull CxxPlatform key,
-          CxxPreprocessorDep preprocessorDep,
-          boolean includeDep,
-          ActionGraphBuilder graphBuilder,
-          Parallelizer parallelizer) {
-    Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
-    if (includeDep) {
-      builder.put(
-          preprocessorDep.getBuildTarget(),
-          preprocessorDep.getCxxPreprocessorInput(key, graphBuilder));
-    }
+  private static TransitiveCxxPreprocessorInputs computeTransitiveCxxPreprocessorInputs(
+      @Nonnull CxxPlatform key,
+      CxxPreprocessorDep preprocessorDep,
+      boolean includeDep,
+      ActionGraphBuilder graphBuilder,
+      Parallelizer parallelizer) {
+    ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
+        includeDep
+            ? ImmutableMap.of(
+                preprocessorDep.getBuildTarget(),
+                preprocessorDep.getCxxPreprocessorInput(key, graphBuilder))
+            : ImmutableMap.of();
 
-    Collection<ImmutableMap<BuildTarget, CxxPreprocessorInput>> transitiveDepInputs =
+    Collection<TransitiveCxxPreprocessorInputs> transitiveDepInputs =
         parallelizer.maybeParallelizeTransform(
             ImmutableList.copyOf(preprocessorDep.getCxxPreprocessorDeps(key, graphBuilder)),
-            dep -> dep.getTransitiveCxxPreprocessorInput(key, graphBuilder));
-    transitiveDepInputs.forEach(builder::putAll);
-
-    // Using an ImmutableSortedMap here:
-    //
-    // 1. Memory efficiency. ImmutableSortedMap is implemented with 2 lists (an ImmutableSortedSet
-    // of keys, and a ImmutableList of values). This is much more efficient than an ImmutableMap,
-    // which creates an Entry instance for each entry.
-    //
-    // 2. Historically we seem to care that the result has some definite order.
-    //
-    // 3. We mostly iterate over these maps rather than do lookups, so ImmutableSortedMap
-    // binary-search based lookup is not an issue.
-    return ImmutableSortedMap.copyOf(builder);
+            dep -> dep.getTransitiveCxxPreprocessorInputs(key, graphBuilder));
+    return TransitiveCxxPreprocessorInputs.of(inputs, transitiveDepInputs);
   }
 }
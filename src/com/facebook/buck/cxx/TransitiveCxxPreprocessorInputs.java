@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Sets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The transitive preprocessor inputs of a rule, stored as the inputs the rule adds itself and
+ * references to the transitive inputs of its deps, which are shared with the deps instead of being
+ * copied into every rule that depends on them.
+ *
+ * <p>Storing a full map per rule and platform takes memory and time quadratic in the depth of the
+ * graph, while this only takes as much as the graph itself. The full map is only computed by the
+ * rules which need it, with {@link #toMap()}, and isn't kept.
+ */
+public class TransitiveCxxPreprocessorInputs {
+
+  private static final TransitiveCxxPreprocessorInputs EMPTY =
+      new TransitiveCxxPreprocessorInputs(ImmutableMap.of(), ImmutableList.of());
+
+  private final ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs;
+  private final ImmutableList<TransitiveCxxPreprocessorInputs> deps;
+
+  private TransitiveCxxPreprocessorInputs(
+      ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs,
+      ImmutableList<TransitiveCxxPreprocessorInputs> deps) {
+    this.inputs = inputs;
+    this.deps = deps;
+  }
+
+  /** @return the given inputs, followed by the transitive inputs of the given deps. */
+  public static TransitiveCxxPreprocessorInputs of(
+      Map<BuildTarget, CxxPreprocessorInput> inputs,
+      Iterable<TransitiveCxxPreprocessorInputs> deps) {
+    ImmutableList<TransitiveCxxPreprocessorInputs> nonEmptyDeps =
+        ImmutableList.copyOf(deps).stream()
+            .filter(dep -> dep != EMPTY)
+            .collect(ImmutableList.toImmutableList());
+    if (inputs.isEmpty() && nonEmptyDeps.size() <= 1) {
+      // Nothing to add, share the only dep as is.
+      return nonEmptyDeps.isEmpty() ? EMPTY : nonEmptyDeps.get(0);
+    }
+    return new TransitiveCxxPreprocessorInputs(ImmutableMap.copyOf(inputs), nonEmptyDeps);
+  }
+
+  /** @return transitive inputs which were already flattened into a map. */
+  public static TransitiveCxxPreprocessorInputs copyOf(
+      Map<BuildTarget, CxxPreprocessorInput> inputs) {
+    return of(inputs, ImmutableList.of());
+  }
+
+  /**
+   * Calls the given consumer once per target, in no particular order. Inputs which are shared by
+   * several deps are only visited once.
+   */
+  public void forEach(BiConsumer<BuildTarget, CxxPreprocessorInput> consumer) {
+    forEach(Sets.newIdentityHashSet(), new HashSet<>(), consumer);
+  }
+
+  /** @return all the transitive inputs, sorted by target. */
+  public ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> toMap() {
+    Map<BuildTarget, CxxPreprocessorInput> map = new HashMap<>();
+    forEach(map::put);
+    // Sorted maps are much more compact than hash based ones, and give a definite order.
+    return ImmutableSortedMap.copyOf(map);
+  }
+
+  /**
+   * @return the transitive inputs of all the given ones, in the same order as if their maps were
+   *     merged one after the other. The inputs they share are only visited once.
+   */
+  public static ImmutableMap<BuildTarget, CxxPreprocessorInput> toMap(
+      Iterable<TransitiveCxxPreprocessorInputs> all) {
+    Set<TransitiveCxxPreprocessorInputs> visited = Sets.newIdentityHashSet();
+    Set<BuildTarget> targets = new HashSet<>();
+    ImmutableMap.Builder<BuildTarget, CxxPreprocessorInput> builder = ImmutableMap.builder();
+    for (TransitiveCxxPreprocessorInputs inputs : all) {
+      // Maps which were flattened already keep their own order, see copyOf.
+      Map<BuildTarget, CxxPreprocessorInput> added =
+          inputs.deps.isEmpty() ? new LinkedHashMap<>() : new TreeMap<>();
+      inputs.forEach(visited, targets, added::put);
+      builder.putAll(added);
+    }
+    return builder.build();
+  }
+
+  private void forEach(
+      Set<TransitiveCxxPreprocessorInputs> visited,
+      Set<BuildTarget> targets,
+      BiConsumer<BuildTarget, CxxPreprocessorInput> consumer) {
+    // Graphs can be deep enough to overflow the stack, so walk them with an explicit one.
+    Deque<TransitiveCxxPreprocessorInputs> stack = new ArrayDeque<>();
+    stack.push(this);
+    while (!stack.isEmpty()) {
+      TransitiveCxxPreprocessorInputs node = stack.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      node.inputs.forEach(
+          (target, input) -> {
+            if (targets.add(target)) {
+              consumer.accept(target, input);
+            }
+          });
+      node.deps.forEach(stack::push);
+    }
+  }
+}
@@ -60,6 +60,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -79,6 +80,7 @@ public class CxxBuckConfig {
   private static final String HOST_PLATFORM = "host_platform";
   private static final String ARCHIVER_PLATFORM = "archiver_platform";
   private static final String ARCHIVER_TYPE = "archiver_type";
+  private static final String ARCHIVER_IN_PROCESS = "archiver_in_process";
   private static final String MAX_TEST_OUTPUT_SIZE = "max_test_output_size";
   private static final String LINKER_PLATFORM = "linker_platform";
   private static final String UNTRACKED_HEADERS = "untracked_headers";
@@ -115,6 +117,8 @@ public class CxxBuckConfig {
   private static final String USE_ARG_FILE = "use_arg_file";
   private static final String TOOLCHAIN_TARGET = "toolchain_target";
   private static final String FILEPATH_LENGTH_LIMITED = "filepath_length_limited";
+  private static final String PREFER_HEADER_MAPS = "prefer_header_maps";
+  private static final String OBJECT_CACHE_DIR = "object_cache_dir";
 
   private static final String OBJCOPY = "objcopy";
   private static final String NM = "nm";
@@ -295,6 +299,9 @@ public class CxxBuckConfig {
               delegate.getEnum(cxxSection, ARCHIVER_PLATFORM, Platform.class);
 
           Platform platform = archiverPlatform.orElse(defaultPlatform);
+          if (platform == Platform.LINUX && getArchiverInProcess()) {
+            return ArchiverProvider.from(archiver, ArchiverProvider.Type.GNU_IN_PROCESS);
+          }
           return ArchiverProvider.from(archiver, platform, type);
         });
   }
@@ -600,6 +607,32 @@ public class CxxBuckConfig {
     return delegate.getBooleanValue(cxxSection, FILEPATH_LENGTH_LIMITED, false);
   }
 
+  /**
+   * @return whether GNU archives should be written by Buck itself, instead of by running ar and
+   *     ranlib.
+   */
+  public boolean getArchiverInProcess() {
+    return delegate.getBooleanValue(cxxSection, ARCHIVER_IN_PROCESS, false);
+  }
+
+  /**
+   * @return whether libraries should only generate header maps, instead of header symlink trees,
+   *     when the preprocessors support them.
+   */
+  public boolean getPreferHeaderMaps() {
+    return delegate.getBooleanValue(cxxSection, PREFER_HEADER_MAPS, false);
+  }
+
+  /**
+   * @return the directory of the local cache of object files keyed by the preprocessed sources
+   *     they were compiled from, if there should be one.
+   */
+  public Optional<Path> getObjectCacheDir() {
+    return delegate
+        .getValue(cxxSection, OBJECT_CACHE_DIR)
+        .map(dir -> delegate.resolvePathThatMayBeOutsideTheProjectFilesystem(Paths.get(dir)));
+  }
+
   public BuckConfig getDelegate() {
     return delegate;
   }
@@ -162,6 +162,15 @@ interface AbstractCxxPlatform extends FlavorConvertible {
   /** @return the explicit header mode to use for this platform. */
   Optional<HeaderMode> getHeaderMode();
 
+  /**
+   * @return whether to only create header maps, and no header symlink trees, when the preprocessors
+   *     of this platform support header maps and no explicit header mode is set.
+   */
+  @Value.Default
+  default boolean getPreferHeaderMaps() {
+    return false;
+  }
+
   /** @return whether shorter names for intermediate files should be used */
   @Value.Default
   default boolean getFilepathLengthLimited() {
@@ -42,4 +42,12 @@ public interface Archiver extends Tool {
    * @return whether @argfile is required for a long command line
    */
   boolean isArgfileRequired();
+
+  /**
+   * Whether archives can be written by Buck itself instead of by running the archiver. They are
+   * still written by the archiver when archiver flags are given or scrubbers are needed.
+   */
+  default boolean isInProcess() {
+    return false;
+  }
 }
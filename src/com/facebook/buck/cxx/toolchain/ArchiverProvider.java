@@ -100,6 +100,8 @@ public interface ArchiverProvider {
             return new BsdArchiver(archiver);
           case GNU:
             return new GnuArchiver(archiver);
+          case GNU_IN_PROCESS:
+            return new InProcessGnuArchiver(archiver);
           case WINDOWS:
             return new WindowsArchiver(archiver);
           case WINDOWS_CLANG:
@@ -124,6 +126,7 @@ public interface ArchiverProvider {
   enum Type {
     BSD,
     GNU,
+    GNU_IN_PROCESS,
     WINDOWS,
     WINDOWS_CLANG,
   }
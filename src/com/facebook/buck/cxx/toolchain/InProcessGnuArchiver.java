@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain;
+
+import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.objectfile.GnuArchiveWriter;
+import com.facebook.buck.io.file.FileScrubber;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A GNU archiver whose archives are written by {@link GnuArchiveWriter}, which is deterministic and
+ * builds the symbol table itself, so the archives need neither ranlib nor scrubbing.
+ *
+ * <p>Archives with archiver flags are written by {@code ar} in deterministic mode and with a symbol
+ * table, which gives the same archives.
+ */
+public class InProcessGnuArchiver extends GnuArchiver {
+  public InProcessGnuArchiver(Tool tool) {
+    super(tool);
+  }
+
+  @Override
+  public ImmutableList<String> getArchiveOptions(boolean isThinArchive) {
+    return ImmutableList.of(isThinArchive ? "qcsDT" : "qcsD");
+  }
+
+  @Override
+  public ImmutableList<FileScrubber> getScrubbers() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public boolean isRanLibStepRequired() {
+    return false;
+  }
+
+  @Override
+  public boolean isInProcess() {
+    return true;
+  }
+}
@@ -43,6 +43,60 @@ public class ElfSymbolTable {
     }
   }
 
+  /** @return the size of a symbol table entry in the given ELF class. */
+  public static int getEntrySize(ElfHeader.EIClass eiClass) {
+    return eiClass == ElfHeader.EIClass.ELFCLASS32 ? 16 : 24;
+  }
+
+  /** @return the number of entries in the given symbol table section body. */
+  public static int getNumberOfEntries(ElfHeader.EIClass eiClass, ByteBuffer body) {
+    return body.limit() / getEntrySize(eiClass);
+  }
+
+  /**
+   * @return the entry at the given index of the given symbol table section body, parsed without
+   *     parsing any other entry of the table.
+   */
+  public static Entry getEntry(ElfHeader.EIClass eiClass, ByteBuffer body, int index) {
+    body.position(index * getEntrySize(eiClass));
+    return Entry.parse(eiClass, body);
+  }
+
+  /** Overwrites the entry at the given index of the given symbol table section body in place. */
+  public static void putEntry(ElfHeader.EIClass eiClass, ByteBuffer body, int index, Entry entry) {
+    body.position(index * getEntrySize(eiClass));
+    entry.write(eiClass, body);
+  }
+
+  /**
+   * @return the string table offset of the name of the entry at the given index, which is the
+   *     first field of an entry in both ELF classes.
+   */
+  public static long getEntryName(ElfHeader.EIClass eiClass, ByteBuffer body, int index) {
+    return body.getInt(index * getEntrySize(eiClass)) & 0xffffffffL;
+  }
+
+  /** Overwrites the string table offset of the name of the entry at the given index in place. */
+  public static void putEntryName(
+      ElfHeader.EIClass eiClass, ByteBuffer body, int index, long stName) {
+    body.putInt(index * getEntrySize(eiClass), (int) stName);
+  }
+
+  /**
+   * @return the raw binding of the entry at the given index, which may be an OS specific one (e.g.
+   *     {@code STB_GNU_UNIQUE}) that {@link Entry.Info.Bind} doesn't know about.
+   */
+  public static int getEntryBinding(ElfHeader.EIClass eiClass, ByteBuffer body, int index) {
+    int offset = eiClass == ElfHeader.EIClass.ELFCLASS32 ? 12 : 4;
+    return (body.get(index * getEntrySize(eiClass) + offset) & 0xff) >> 4;
+  }
+
+  /** @return the index of the section the entry at the given index is defined in. */
+  public static int getEntrySectionIndex(ElfHeader.EIClass eiClass, ByteBuffer body, int index) {
+    int offset = eiClass == ElfHeader.EIClass.ELFCLASS32 ? 14 : 6;
+    return body.getShort(index * getEntrySize(eiClass) + offset) & 0xffff;
+  }
+
   /** Encapsulate the data in an ELF section header. */
   public static class Entry {
 
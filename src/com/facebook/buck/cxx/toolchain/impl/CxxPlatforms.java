@@ -175,6 +175,7 @@ public class CxxPlatforms {
         .setPicTypeForSharedLinking(picTypeForSharedLinking)
         .setConflictingHeaderBasenameWhitelist(config.getConflictingHeaderBasenameWhitelist())
         .setHeaderMode(config.getHeaderMode())
+        .setPreferHeaderMaps(config.getPreferHeaderMaps())
         .setUseArgFile(config.getUseArgFile())
         .setFilepathLengthLimited(config.getFilepathLengthLimited());
 
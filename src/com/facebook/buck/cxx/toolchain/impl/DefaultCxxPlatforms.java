@@ -38,6 +38,7 @@ import com.facebook.buck.cxx.toolchain.CxxToolProvider.Type;
 import com.facebook.buck.cxx.toolchain.CxxToolTypeInferer;
 import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.cxx.toolchain.InProcessGnuArchiver;
 import com.facebook.buck.cxx.toolchain.PicType;
 import com.facebook.buck.cxx.toolchain.PosixNmSymbolNameTool;
 import com.facebook.buck.cxx.toolchain.PrefixMapDebugPathSanitizer;
@@ -112,7 +113,9 @@ public class DefaultCxxPlatforms {
         defaultCxxFrontend = getExecutablePath("g++", DEFAULT_CXX_FRONTEND, env);
         defaultLinker = defaultCxxFrontend;
         linkerType = LinkerProvider.Type.GNU;
-        archiver = new GnuArchiver(getHashedFileTool(config, "ar", DEFAULT_AR, env));
+        Tool ar = getHashedFileTool(config, "ar", DEFAULT_AR, env);
+        archiver =
+            config.getArchiverInProcess() ? new InProcessGnuArchiver(ar) : new GnuArchiver(ar);
         compilerSanitizer = new PrefixMapDebugPathSanitizer(".", ImmutableBiMap.of());
         binaryExtension = Optional.empty();
         ranlib =
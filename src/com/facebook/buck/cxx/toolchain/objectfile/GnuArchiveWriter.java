@@ -0,0 +1,340 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.elf.ElfHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSection;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSymbolTable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes GNU archives, both normal and thin ones, with a symbol table of the global symbols defined
+ * by their ELF members, without running {@code ar} and {@code ranlib}. Like {@code ar}, archives
+ * without ELF members have no symbol table.
+ *
+ * <p>The output only depends on the members and their order: dates, owners and groups are zeroed
+ * and modes are fixed, like {@code ar D} does, so there is nothing to scrub afterwards. The symbols
+ * of all members are read in parallel before anything is written, which gives the offsets the
+ * symbol table needs upfront, and the members of normal archives are then copied with {@link
+ * FileChannel#transferTo} so that their contents never go through the heap.
+ */
+public class GnuArchiveWriter {
+
+  private static final int HEADER_SIZE = 60;
+  private static final int MAX_SHORT_NAME_LENGTH = 15;
+  private static final long MAX_32_BIT_OFFSET = 0xffffffffL;
+  private static final String MEMBER_MODE = "644";
+  private static final byte[] BITCODE_MAGIC = {'B', 'C', (byte) 0xc0, (byte) 0xde};
+
+  // The ELF symbols that ar puts in the symbol table, when they are defined.
+  private static final int SHN_UNDEF = 0;
+  private static final int STB_GLOBAL = 1;
+  private static final int STB_WEAK = 2;
+  private static final int STB_GNU_UNIQUE = 10;
+
+  private GnuArchiveWriter() {}
+
+  /**
+   * Writes the given members to an archive at {@code output}, which is overwritten if it exists.
+   * Thin archives refer to their members by their path relative to the directory of the archive,
+   * normal archives store the file name and contents of their members.
+   */
+  public static void write(Path output, ImmutableList<Path> members, boolean thin)
+      throws IOException {
+    ImmutableList<MemberSymbols> symbols = readSymbols(members);
+    Path archiveDir = output.toAbsolutePath().getParent();
+
+    // Names which don't fit in a header go to the name table, thin archives put all names there.
+    ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+    String[] headerNames = new String[members.size()];
+    long[] sizes = new long[members.size()];
+    for (int i = 0; i < members.size(); i++) {
+      Path member = members.get(i);
+      String name =
+          thin
+              ? archiveDir.relativize(member.toAbsolutePath()).toString()
+              : member.getFileName().toString();
+      byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      if (thin || nameBytes.length > MAX_SHORT_NAME_LENGTH) {
+        headerNames[i] = "/" + nameTable.size();
+        nameTable.write(nameBytes);
+        nameTable.write('/');
+        nameTable.write('\n');
+      } else {
+        headerNames[i] = name + "/";
+      }
+      sizes[i] = Files.size(member);
+    }
+    // Unlike the other members, the name table includes its padding in its size.
+    if (nameTable.size() % 2 != 0) {
+      nameTable.write('\n');
+    }
+
+    boolean hasSymbolTable = false;
+    int symbolCount = 0;
+    int symbolNamesSize = 0;
+    for (MemberSymbols memberSymbols : symbols) {
+      hasSymbolTable |= memberSymbols.elf;
+      symbolCount += memberSymbols.count;
+      symbolNamesSize += memberSymbols.names.size();
+    }
+
+    // Archives past 4GB need the 64-bit symbol table, whose size moves all the members.
+    int offsetSize = 4;
+    long symbolTableSize = getSymbolTableSize(offsetSize, symbolCount, symbolNamesSize);
+    long[] offsets = getMemberOffsets(hasSymbolTable, symbolTableSize, nameTable, sizes, thin);
+    if (hasSymbolTable && offsets[offsets.length - 1] > MAX_32_BIT_OFFSET) {
+      offsetSize = 8;
+      symbolTableSize = getSymbolTableSize(offsetSize, symbolCount, symbolNamesSize);
+      offsets = getMemberOffsets(hasSymbolTable, symbolTableSize, nameTable, sizes, thin);
+    }
+
+    try (FileChannel out =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer buffer =
+          ByteBuffer.allocate(
+              (int) (offsets.length > 0 ? offsets[0] : ObjectFileScrubbers.GLOBAL_HEADER.length));
+      buffer.put(thin ? ObjectFileScrubbers.GLOBAL_THIN_HEADER : ObjectFileScrubbers.GLOBAL_HEADER);
+      if (hasSymbolTable) {
+        putHeader(buffer, offsetSize == 4 ? "/" : "/SYM64/", "0", "0", symbolTableSize);
+        putOffset(buffer, offsetSize, symbolCount);
+        for (int i = 0; i < members.size(); i++) {
+          for (int j = 0; j < symbols.get(i).count; j++) {
+            putOffset(buffer, offsetSize, offsets[i]);
+          }
+        }
+        for (MemberSymbols memberSymbols : symbols) {
+          memberSymbols.names.writeTo(buffer);
+        }
+        putPadding(buffer, symbolTableSize);
+      }
+      if (nameTable.size() > 0) {
+        putHeader(buffer, "//", "", "", nameTable.size());
+        buffer.put(nameTable.toByteArray());
+      }
+      buffer.flip();
+      writeFully(out, buffer);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 1);
+      for (int i = 0; i < members.size(); i++) {
+        header.clear();
+        putHeader(header, headerNames[i], "0", MEMBER_MODE, sizes[i]);
+        header.flip();
+        writeFully(out, header);
+        if (!thin) {
+          transferFully(members.get(i), sizes[i], out);
+          if (sizes[i] % 2 != 0) {
+            header.clear();
+            header.put((byte) '\n');
+            header.flip();
+            writeFully(out, header);
+          }
+        }
+      }
+    }
+  }
+
+  private static long getSymbolTableSize(int offsetSize, int symbolCount, int symbolNamesSize) {
+    return (long) offsetSize * (1 + symbolCount) + symbolNamesSize;
+  }
+
+  /** @return the offsets of the headers of the members, which is what the symbol table holds. */
+  private static long[] getMemberOffsets(
+      boolean hasSymbolTable,
+      long symbolTableSize,
+      ByteArrayOutputStream nameTable,
+      long[] sizes,
+      boolean thin) {
+    long[] offsets = new long[sizes.length];
+    long offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    if (hasSymbolTable) {
+      offset += HEADER_SIZE + pad(symbolTableSize);
+    }
+    if (nameTable.size() > 0) {
+      offset += HEADER_SIZE + nameTable.size();
+    }
+    for (int i = 0; i < sizes.length; i++) {
+      offsets[i] = offset;
+      // The contents of the members of thin archives stay in their own files.
+      offset += HEADER_SIZE + (thin ? 0 : pad(sizes[i]));
+    }
+    return offsets;
+  }
+
+  private static long pad(long size) {
+    return size + size % 2;
+  }
+
+  private static void putPadding(ByteBuffer buffer, long size) {
+    if (size % 2 != 0) {
+      buffer.put((byte) '\n');
+    }
+  }
+
+  private static void putOffset(ByteBuffer buffer, int offsetSize, long offset) {
+    // Symbol tables are big-endian, regardless of the byte order of the members.
+    if (offsetSize == 4) {
+      buffer.putInt((int) offset);
+    } else {
+      buffer.putLong(offset);
+    }
+  }
+
+  /** Puts a member header, whose date, owner and group are all {@code zero}. */
+  private static void putHeader(
+      ByteBuffer buffer, String name, String zero, String mode, long size) {
+    putField(buffer, name, 16);
+    putField(buffer, zero, 12);
+    putField(buffer, zero, 6);
+    putField(buffer, zero, 6);
+    putField(buffer, mode, 8);
+    putField(buffer, Long.toString(size), 10);
+    buffer.put(ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER);
+  }
+
+  private static void putField(ByteBuffer buffer, String value, int width) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    Preconditions.checkArgument(bytes.length <= width, "%s does not fit in an ar header", value);
+    buffer.put(bytes);
+    for (int i = bytes.length; i < width; i++) {
+      buffer.put((byte) ' ');
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static void transferFully(Path member, long size, FileChannel out) throws IOException {
+    try (FileChannel in = FileChannel.open(member, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < size) {
+        long transferred = in.transferTo(position, size - position, out);
+        if (transferred <= 0) {
+          throw new IOException(String.format("%s changed while it was archived", member));
+        }
+        position += transferred;
+      }
+    }
+  }
+
+  private static ImmutableList<MemberSymbols> readSymbols(ImmutableList<Path> members)
+      throws IOException {
+    try {
+      return members
+          .parallelStream()
+          .map(
+              member -> {
+                try {
+                  return readSymbols(member);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              })
+          .collect(ImmutableList.toImmutableList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static MemberSymbols readSymbols(Path member) throws IOException {
+    MemberSymbols symbols = new MemberSymbols();
+    try (FileChannel channel = FileChannel.open(member, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (Elf.isElf(buffer)) {
+        symbols.elf = true;
+        addDefinedSymbols(new Elf(buffer), symbols);
+      } else if (isBitcode(buffer)) {
+        throw new IOException(
+            String.format(
+                "%s: LLVM bitcode can only be indexed by an ar with a linker plugin", member));
+      }
+    }
+    return symbols;
+  }
+
+  private static boolean isBitcode(ByteBuffer buffer) {
+    if (buffer.limit() < BITCODE_MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < BITCODE_MAGIC.length; i++) {
+      if (buffer.get(i) != BITCODE_MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void addDefinedSymbols(Elf elf, MemberSymbols symbols) {
+    ElfHeader.EIClass eiClass = elf.header.ei_class;
+    for (int i = 0; i < elf.getNumberOfSections(); i++) {
+      ElfSection section = elf.getSectionByIndex(i);
+      if (section.header.sh_type != ElfSectionHeader.SHType.SHT_SYMTAB) {
+        continue;
+      }
+      ByteBuffer strings = elf.getSectionByIndex((int) section.header.sh_link).body;
+      int entries = ElfSymbolTable.getNumberOfEntries(eiClass, section.body);
+      // Local symbols come first, sh_info is the index of the first non-local one.
+      for (int j = (int) section.header.sh_info; j < entries; j++) {
+        int binding = ElfSymbolTable.getEntryBinding(eiClass, section.body, j);
+        if ((binding == STB_GLOBAL || binding == STB_WEAK || binding == STB_GNU_UNIQUE)
+            && ElfSymbolTable.getEntrySectionIndex(eiClass, section.body, j) != SHN_UNDEF) {
+          int name = (int) ElfSymbolTable.getEntryName(eiClass, section.body, j);
+          int end = name;
+          while (strings.get(end) != 0) {
+            end++;
+          }
+          for (int k = name; k <= end; k++) {
+            symbols.names.write(strings.get(k));
+          }
+          symbols.count++;
+        }
+      }
+    }
+  }
+
+  /** The NUL terminated names of the symbols a member defines, in symbol table order. */
+  private static class MemberSymbols {
+    private final SymbolNames names = new SymbolNames();
+    private int count;
+    private boolean elf;
+  }
+
+  private static class SymbolNames extends ByteArrayOutputStream {
+    void writeTo(ByteBuffer buffer) {
+      buffer.put(buf, 0, count);
+    }
+  }
+}
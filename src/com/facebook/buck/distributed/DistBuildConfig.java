@@ -225,6 +225,13 @@ public class DistBuildConfig {
   private static final String ENABLE_GREEDY_STACKING = "enable_greedy_stacking";
   private static final boolean DEFAULT_ENABLE_GREEDY_STACKING = false;
 
+  private static final String WORK_ALLOCATION_POLICY = "work_allocation_policy";
+  private static final DistBuildWorkAllocationPolicy DEFAULT_WORK_ALLOCATION_POLICY =
+      DistBuildWorkAllocationPolicy.REVERSE_DEPENDENCY;
+
+  // File with the durations of rules recorded by builds run with --output-rule-deps-to-file.
+  private static final String RULE_DURATIONS_FILE = "rule_durations_file";
+
   private final SlbBuckConfig frontendConfig;
   private final BuckConfig buckConfig;
 
@@ -648,4 +655,16 @@ public class DistBuildConfig {
     return buckConfig.getBooleanValue(
         STAMPEDE_SECTION, ENABLE_RELEASING_MINIONS_EARLY, DEFAULT_ENABLE_RELEASING_MINIONS_EARLY);
   }
+
+  /** @return How the coordinator orders and chains the work units it hands out to minions. */
+  public DistBuildWorkAllocationPolicy getWorkAllocationPolicy() {
+    return buckConfig
+        .getEnum(STAMPEDE_SECTION, WORK_ALLOCATION_POLICY, DistBuildWorkAllocationPolicy.class)
+        .orElse(DEFAULT_WORK_ALLOCATION_POLICY);
+  }
+
+  /** @return File with the recorded durations of rules, to find the critical path of a build. */
+  public Optional<Path> getRuleDurationsFile() {
+    return buckConfig.getPath(STAMPEDE_SECTION, RULE_DURATIONS_FILE);
+  }
 }
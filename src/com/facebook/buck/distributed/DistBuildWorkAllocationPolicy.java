@@ -0,0 +1,26 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+/** This defines how the coordinator of a distributed build hands out work units to minions. */
+public enum DistBuildWorkAllocationPolicy {
+  // Hand out the rules which are ready in any order, chaining a rule with its only dependent.
+  REVERSE_DEPENDENCY,
+  // Hand out the rules with the longest chain of dependents to build after them first, and chain
+  // each rule with the dependent on that chain. Durations are taken from rule_durations_file.
+  CRITICAL_PATH,
+}
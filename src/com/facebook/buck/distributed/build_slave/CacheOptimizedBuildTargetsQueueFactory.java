@@ -22,6 +22,7 @@ import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.distributed.ArtifactCacheByBuildRule;
 import com.facebook.buck.distributed.ClientStatsTracker;
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
 import com.facebook.buck.distributed.build_slave.DistributableBuildGraph.DistributableNode;
 import com.facebook.buck.util.RichStream;
 import com.google.common.collect.ImmutableList;
@@ -313,6 +314,28 @@ public class CacheOptimizedBuildTargetsQueueFactory {
       Iterable<BuildTarget> targetsToBuild,
       CoordinatorBuildRuleEventsPublisher coordinatorBuildRuleEventsPublisher,
       int mostBuildRulesFinishedPercentageThreshold) {
+    return createBuildTargetsQueue(
+        targetsToBuild,
+        coordinatorBuildRuleEventsPublisher,
+        mostBuildRulesFinishedPercentageThreshold,
+        DistBuildWorkAllocationPolicy.REVERSE_DEPENDENCY,
+        RuleDurationEstimates.empty());
+  }
+
+  /**
+   * Create {@link BuildTargetsQueue} which hands out work units as the given policy says.
+   *
+   * @param targetsToBuild top-level targets that need to be built.
+   * @param workAllocationPolicy how to order and chain the work units.
+   * @param ruleDurations how long rules take, to find the critical path of the build.
+   * @return an instance of {@link BuildTargetsQueue} with the top-level targets at the root.
+   */
+  public ReverseDepBuildTargetsQueue createBuildTargetsQueue(
+      Iterable<BuildTarget> targetsToBuild,
+      CoordinatorBuildRuleEventsPublisher coordinatorBuildRuleEventsPublisher,
+      int mostBuildRulesFinishedPercentageThreshold,
+      DistBuildWorkAllocationPolicy workAllocationPolicy,
+      RuleDurationEstimates ruleDurations) {
     LOG.info("Starting to create the %s.", BuildTargetsQueue.class.getName());
     GraphTraversalData results = traverseGraphFromTopLevelUsingAvailableCaches(targetsToBuild);
 
@@ -384,9 +407,17 @@ public class CacheOptimizedBuildTargetsQueueFactory {
       LOG.error(e, "Failed to upload artifacts from the local cache.");
     }
 
+    DistributableBuildGraph distributableBuildGraph =
+        new DistributableBuildGraph(allNodes.build(), zeroDependencyNodes.build());
+    if (workAllocationPolicy == DistBuildWorkAllocationPolicy.CRITICAL_PATH) {
+      LOG.info(
+          "Computing critical paths with [%d] recorded rule durations.",
+          ruleDurations.getNumberOfRecordedRules());
+      distributableBuildGraph.computeCriticalPaths(ruleDurations);
+    }
+
     return new ReverseDepBuildTargetsQueue(
-        new DistributableBuildGraph(allNodes.build(), zeroDependencyNodes.build()),
-        mostBuildRulesFinishedPercentageThreshold);
+        distributableBuildGraph, mostBuildRulesFinishedPercentageThreshold, workAllocationPolicy);
   }
 
   private static String ruleToTarget(BuildRule rule) {
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed.build_slave;
+
+import com.facebook.buck.distributed.BuildJobStateSerializer;
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
+import com.facebook.buck.distributed.build_slave.DistributableBuildGraph.DistributableNode;
+import com.facebook.buck.distributed.thrift.BuildJobState;
+import com.facebook.buck.distributed.thrift.BuildJobStateBuildTarget;
+import com.facebook.buck.distributed.thrift.BuildJobStateTargetNode;
+import com.facebook.buck.distributed.thrift.MinionType;
+import com.facebook.buck.distributed.thrift.StampedeId;
+import com.facebook.buck.distributed.thrift.WorkUnit;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Replays the graph of a distributed build offline, to compare how long building it takes with
+ * each {@link DistBuildWorkAllocationPolicy}. Work units are handed out by the same queue and
+ * allocator as the coordinator uses, to minions which build each unit one rule after the other.
+ * Every unit handed out costs a round trip: uploading the outputs it needs, the minion's poll of
+ * the coordinator, and downloading them again.
+ *
+ * <p>Dependencies are read from the raw target nodes of a serialized {@link BuildJobState}, so the
+ * replayed graph is the target graph rather than the action graph, with nothing in the cache.
+ */
+public class DistBuildSchedulingSimulator {
+  private static final long DEFAULT_ROUND_TRIP_MILLIS = 1000;
+  private static final long DEFAULT_MEDIAN_DURATION_MILLIS = 2000;
+  private static final int MOST_BUILD_RULES_FINISHED_PERCENTAGE_THRESHOLD = 100;
+
+  private final ImmutableMap<String, ImmutableSet<String>> dependencies;
+  private final RuleDurationEstimates durations;
+  private final long roundTripMillis;
+
+  /**
+   * @param dependencies the dependencies of every target in the build.
+   * @param durations how long building each target takes.
+   * @param roundTripMillis how long it takes before a minion starts a unit it was handed out.
+   */
+  public DistBuildSchedulingSimulator(
+      ImmutableMap<String, ImmutableSet<String>> dependencies,
+      RuleDurationEstimates durations,
+      long roundTripMillis) {
+    this.dependencies = dependencies;
+    this.durations = durations;
+    this.roundTripMillis = roundTripMillis;
+  }
+
+  /**
+   * Usage: build-state-file number-of-minions minion-capacity [rule-durations-file]
+   *
+   * <p>Without a file of recorded rule durations, durations are drawn from a log-normal
+   * distribution.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3 || args.length > 4) {
+      System.err.println(
+          "Usage: build-state-file number-of-minions minion-capacity [rule-durations-file]");
+      System.exit(1);
+    }
+
+    BuildJobState state;
+    try (InputStream stream = Files.newInputStream(Paths.get(args[0]))) {
+      state = BuildJobStateSerializer.deserialize(stream);
+    }
+    int numberOfMinions = Integer.parseInt(args[1]);
+    int minionCapacity = Integer.parseInt(args[2]);
+
+    ImmutableMap<String, ImmutableSet<String>> dependencies = readDependencies(state);
+    RuleDurationEstimates durations =
+        args.length == 4
+            ? RuleDurationEstimates.load(Paths.get(args[3]))
+            : createSyntheticDurations(
+                dependencies.keySet(), DEFAULT_MEDIAN_DURATION_MILLIS, new Random(0));
+
+    DistBuildSchedulingSimulator simulator =
+        new DistBuildSchedulingSimulator(dependencies, durations, DEFAULT_ROUND_TRIP_MILLIS);
+    System.out.println(
+        String.format(
+            "Simulating [%d] targets on [%d] minions with capacity [%d].",
+            dependencies.size(), numberOfMinions, minionCapacity));
+    for (DistBuildWorkAllocationPolicy policy : DistBuildWorkAllocationPolicy.values()) {
+      System.out.println(
+          String.format(
+              "%s: %d ms",
+              policy, simulator.simulateMakespanMillis(policy, numberOfMinions, minionCapacity)));
+    }
+  }
+
+  /** @return The dependencies of every target node, which are other nodes in the state. */
+  public static ImmutableMap<String, ImmutableSet<String>> readDependencies(BuildJobState state)
+      throws IOException {
+    Map<String, Map<String, Object>> rawNodes = new LinkedHashMap<>();
+    Map<String, String> baseNames = new HashMap<>();
+    for (BuildJobStateTargetNode node : state.getTargetGraph().getNodes()) {
+      String targetName = getTargetName(node.getBuildTarget());
+      @SuppressWarnings("unchecked")
+      Map<String, Object> rawNode = ObjectMappers.readValue(node.getRawNode(), Map.class);
+      rawNodes.put(targetName, rawNode);
+      baseNames.put(targetName, getBaseName(node.getBuildTarget()));
+    }
+
+    ImmutableMap.Builder<String, ImmutableSet<String>> dependencies = ImmutableMap.builder();
+    for (Map.Entry<String, Map<String, Object>> node : rawNodes.entrySet()) {
+      Set<String> nodeDependencies = new TreeSet<>();
+      collectDependencies(
+          node.getValue().values(),
+          Objects.requireNonNull(baseNames.get(node.getKey())),
+          rawNodes.keySet(),
+          nodeDependencies);
+      nodeDependencies.remove(node.getKey());
+      dependencies.put(node.getKey(), ImmutableSet.copyOf(nodeDependencies));
+    }
+    return dependencies.build();
+  }
+
+  private static String getBaseName(BuildJobStateBuildTarget target) {
+    return (target.isSetCellName() ? target.getCellName() : "") + target.getBaseName();
+  }
+
+  private static String getTargetName(BuildJobStateBuildTarget target) {
+    StringBuilder targetName = new StringBuilder(getBaseName(target));
+    targetName.append(':').append(target.getShortName());
+    if (target.isSetFlavors() && !target.getFlavors().isEmpty()) {
+      targetName.append('#').append(String.join(",", new TreeSet<>(target.getFlavors())));
+    }
+    return targetName.toString();
+  }
+
+  /** Finds every attribute value which names another node, in lists and maps too. */
+  private static void collectDependencies(
+      Iterable<?> values, String baseName, Set<String> targetNames, Set<String> dependencies) {
+    for (Object value : values) {
+      if (value instanceof String) {
+        String dependency = (String) value;
+        if (dependency.startsWith(":")) {
+          dependency = baseName + dependency;
+        }
+        if (targetNames.contains(dependency)) {
+          dependencies.add(dependency);
+        }
+      } else if (value instanceof Iterable) {
+        collectDependencies((Iterable<?>) value, baseName, targetNames, dependencies);
+      } else if (value instanceof Map) {
+        collectDependencies(((Map<?, ?>) value).values(), baseName, targetNames, dependencies);
+      }
+    }
+  }
+
+  /** @return Durations from a log-normal distribution, as rules tend to take. */
+  public static RuleDurationEstimates createSyntheticDurations(
+      Set<String> targetNames, long medianDurationMillis, Random random) {
+    ImmutableMap.Builder<String, Long> durationsMillis = ImmutableMap.builder();
+    for (String targetName : targetNames) {
+      durationsMillis.put(
+          targetName, Math.round(medianDurationMillis * Math.exp(random.nextGaussian())));
+    }
+    return new RuleDurationEstimates(durationsMillis.build());
+  }
+
+  /** @return How long after the first minion asks for work the last target finishes building. */
+  public long simulateMakespanMillis(
+      DistBuildWorkAllocationPolicy policy, int numberOfMinions, int minionCapacity) {
+    Preconditions.checkArgument(numberOfMinions > 0 && minionCapacity > 0);
+
+    DistributableBuildGraph graph = createGraph();
+    if (policy == DistBuildWorkAllocationPolicy.CRITICAL_PATH) {
+      graph.computeCriticalPaths(durations);
+    }
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            new ReverseDepBuildTargetsQueue(
+                graph, MOST_BUILD_RULES_FINISHED_PERCENTAGE_THRESHOLD, policy),
+            new DistBuildTraceTracker(new StampedeId().setId("simulation")),
+            Optional.empty(),
+            false);
+
+    Simulation simulation = new Simulation(allocator);
+    for (int i = 0; i < numberOfMinions; i++) {
+      simulation.freeCapacities.put("minion" + i, minionCapacity);
+    }
+    simulation.pollIdleMinions();
+    while (!simulation.targetsFinishing.isEmpty()) {
+      simulation.finishNextTarget();
+      simulation.pollIdleMinions();
+    }
+
+    Preconditions.checkState(
+        allocator.isBuildFinished(), "The simulated build stopped before all targets were built.");
+    return simulation.nowMillis;
+  }
+
+  private DistributableBuildGraph createGraph() {
+    Map<String, Set<String>> dependents = new HashMap<>();
+    for (Map.Entry<String, ImmutableSet<String>> node : dependencies.entrySet()) {
+      for (String dependency : node.getValue()) {
+        dependents.computeIfAbsent(dependency, k -> new HashSet<>()).add(node.getKey());
+      }
+    }
+
+    ImmutableMap.Builder<String, DistributableNode> allNodes = ImmutableMap.builder();
+    ImmutableSet.Builder<DistributableNode> leafNodes = ImmutableSet.builder();
+    for (Map.Entry<String, ImmutableSet<String>> node : dependencies.entrySet()) {
+      DistributableNode distributableNode =
+          new DistributableNode(
+              node.getKey(),
+              ImmutableSet.copyOf(dependents.getOrDefault(node.getKey(), ImmutableSet.of())),
+              node.getValue(),
+              false);
+      allNodes.put(node.getKey(), distributableNode);
+      if (node.getValue().isEmpty()) {
+        leafNodes.add(distributableNode);
+      }
+    }
+    return new DistributableBuildGraph(allNodes.build(), leafNodes.build());
+  }
+
+  /** The minions of one simulated build, and the targets they are building. */
+  private class Simulation {
+    private final MinionWorkloadAllocator allocator;
+    private final Map<String, Integer> freeCapacities = new LinkedHashMap<>();
+    private final PriorityQueue<TargetFinishing> targetsFinishing =
+        new PriorityQueue<>(
+            Comparator.<TargetFinishing>comparingLong(target -> target.timeMillis)
+                .thenComparingLong(target -> target.sequenceNumber));
+    private long nowMillis = 0;
+    private long nextSequenceNumber = 0;
+
+    private Simulation(MinionWorkloadAllocator allocator) {
+      this.allocator = allocator;
+    }
+
+    private void finishNextTarget() {
+      TargetFinishing finished = targetsFinishing.remove();
+      nowMillis = finished.timeMillis;
+      String target = finished.workUnit.remove();
+      if (finished.workUnit.isEmpty()) {
+        freeCapacities.merge(finished.minionId, 1, Integer::sum);
+      } else {
+        // The next target of the unit is built on the same minion, with no round trip.
+        startTarget(finished.minionId, finished.workUnit, nowMillis);
+      }
+      requestWork(finished.minionId, ImmutableList.of(target));
+    }
+
+    private void pollIdleMinions() {
+      for (Map.Entry<String, Integer> minion : freeCapacities.entrySet()) {
+        if (minion.getValue() > 0) {
+          requestWork(minion.getKey(), ImmutableList.of());
+        }
+      }
+    }
+
+    private void requestWork(String minionId, List<String> finishedTargets) {
+      int freeCapacity = Objects.requireNonNull(freeCapacities.get(minionId));
+      List<WorkUnit> workUnits =
+          allocator.updateMinionWorkloadAllocation(
+                  minionId, MinionType.STANDARD_SPEC, finishedTargets, freeCapacity)
+              .newWorkUnitsForMinion;
+      for (WorkUnit workUnit : workUnits) {
+        // The allocator removes finished targets from its work units, so build from a copy.
+        startTarget(
+            minionId, new ArrayDeque<>(workUnit.getBuildTargets()), nowMillis + roundTripMillis);
+      }
+      freeCapacities.put(minionId, freeCapacity - workUnits.size());
+    }
+
+    private void startTarget(String minionId, Deque<String> workUnit, long startMillis) {
+      targetsFinishing.add(
+          new TargetFinishing(
+              minionId,
+              workUnit,
+              startMillis + durations.getDurationMillis(workUnit.element()),
+              nextSequenceNumber++));
+    }
+  }
+
+  private static class TargetFinishing {
+    private final String minionId;
+    // The targets of the work unit left to build, starting with the one which is finishing.
+    private final Deque<String> workUnit;
+    private final long timeMillis;
+    private final long sequenceNumber;
+
+    private TargetFinishing(
+        String minionId, Deque<String> workUnit, long timeMillis, long sequenceNumber) {
+      this.minionId = minionId;
+      this.workUnit = workUnit;
+      this.timeMillis = timeMillis;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+}
@@ -20,9 +20,13 @@ import com.facebook.buck.core.util.log.Logger;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -56,6 +60,41 @@ public class DistributableBuildGraph {
     return Math.toIntExact(allNodes.values().stream().filter(t -> !t.isUncacheable()).count());
   }
 
+  /**
+   * Sets the critical path of every node: how long it takes to build the node and the longest
+   * chain of its dependents after it, with unlimited parallelism. Building the nodes with the
+   * longest critical paths first is what brings the end of the build closest.
+   */
+  public void computeCriticalPaths(RuleDurationEstimates durations) {
+    // Visit nodes after all their dependents, starting with the top-level ones.
+    Map<String, Integer> dependentsRemaining = new HashMap<>();
+    Queue<DistributableNode> nodesToVisit = new ArrayDeque<>();
+    for (DistributableNode node : allNodes.values()) {
+      dependentsRemaining.put(node.getTargetName(), node.dependentTargets.size());
+      if (node.dependentTargets.isEmpty()) {
+        nodesToVisit.add(node);
+      }
+    }
+
+    while (!nodesToVisit.isEmpty()) {
+      DistributableNode node = nodesToVisit.remove();
+      long longestDependentPath = 0;
+      for (String dependent : node.dependentTargets) {
+        longestDependentPath =
+            Math.max(longestDependentPath, getNode(dependent).getCriticalPathMillis());
+      }
+      node.criticalPathMillis =
+          durations.getDurationMillis(node.getTargetName()) + longestDependentPath;
+
+      for (String dependency : node.allDependencies) {
+        int remaining = dependentsRemaining.merge(dependency, -1, Integer::sum);
+        if (remaining == 0) {
+          nodesToVisit.add(getNode(dependency));
+        }
+      }
+    }
+  }
+
   /** Custom structure for nodes used by the {@link BuildTargetsQueue}. */
   static class DistributableNode {
     private final String targetName;
@@ -66,6 +105,7 @@ public class DistributableBuildGraph {
     private final Set<String> dependenciesRemaining;
     private int unsatisfiedDependencies;
     private Optional<ImmutableSet<String>> transitiveCacheableDependents = Optional.empty();
+    private long criticalPathMillis = 0;
 
     public DistributableNode(
         String targetName,
@@ -97,6 +137,14 @@ public class DistributableBuildGraph {
       return targetName;
     }
 
+    /**
+     * @return How long building this node and the longest chain of its dependents takes, or 0 if
+     *     {@link DistributableBuildGraph#computeCriticalPaths} was not called.
+     */
+    public long getCriticalPathMillis() {
+      return criticalPathMillis;
+    }
+
     public boolean isDependencyRemaining(String targetName) {
       return dependenciesRemaining.contains(targetName);
     }
@@ -251,7 +251,7 @@ public class MinionWorkloadAllocator {
     }
 
     while (workUnitsFromFailedMinions.size() > 0 && reallocatedWorkUnits.size() < maxWorkUnits) {
-      WorkUnit workUnitToReAssign = workUnitsFromFailedMinions.remove();
+      WorkUnit workUnitToReAssign = removeMostCriticalWorkUnitFromFailedMinions();
       Preconditions.checkArgument(workUnitToReAssign.getBuildTargets().size() > 0);
       reallocatedWorkUnits.add(workUnitToReAssign);
     }
@@ -265,6 +265,32 @@ public class MinionWorkloadAllocator {
     return reallocatedWorkUnits;
   }
 
+  /**
+   * @return The work unit which starts the longest critical path, or the one which failed first if
+   *     critical paths are not known.
+   */
+  private WorkUnit removeMostCriticalWorkUnitFromFailedMinions() {
+    WorkUnit mostCriticalWorkUnit = workUnitsFromFailedMinions.peek();
+    long longestCriticalPathMillis = getCriticalPathMillis(mostCriticalWorkUnit);
+    for (WorkUnit workUnit : workUnitsFromFailedMinions) {
+      long criticalPathMillis = getCriticalPathMillis(workUnit);
+      if (criticalPathMillis > longestCriticalPathMillis) {
+        mostCriticalWorkUnit = workUnit;
+        longestCriticalPathMillis = criticalPathMillis;
+      }
+    }
+    workUnitsFromFailedMinions.remove(mostCriticalWorkUnit);
+    return mostCriticalWorkUnit;
+  }
+
+  private long getCriticalPathMillis(WorkUnit workUnit) {
+    // Targets are in reverse dependency order, so the first one has the longest critical path.
+    return queue
+        .getDistributableBuildGraph()
+        .getNode(workUnit.getBuildTargets().get(0))
+        .getCriticalPathMillis();
+  }
+
   private List<String> allocateNewNodes(
       Set<WorkUnit> workUnitsForMinion, List<WorkUnit> newWorkUnitsForMinion) {
     List<String> nodesForMinion = new ArrayList<>();
@@ -43,6 +43,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -108,7 +109,9 @@ public class MultiSlaveBuildModeRunnerFactory {
                                 .createBuildTargetsQueue(
                                     topLevelTargetsToBuild,
                                     coordinatorBuildRuleEventsPublisher,
-                                    distBuildConfig.getMostBuildRulesFinishedPercentageThreshold());
+                                    distBuildConfig.getMostBuildRulesFinishedPercentageThreshold(),
+                                    distBuildConfig.getWorkAllocationPolicy(),
+                                    loadRuleDurations(distBuildConfig));
                       } catch (Exception e) {
                         LOG.error(e, "Failed to create BuildTargetsQueue.");
                         throw new RuntimeException(e);
@@ -273,6 +276,20 @@ public class MultiSlaveBuildModeRunnerFactory {
             eventBus));
   }
 
+  /** @return The recorded rule durations, or none if they are not configured or can't be read. */
+  private static RuleDurationEstimates loadRuleDurations(DistBuildConfig distBuildConfig) {
+    Optional<Path> ruleDurationsFile = distBuildConfig.getRuleDurationsFile();
+    if (!ruleDurationsFile.isPresent()) {
+      return RuleDurationEstimates.empty();
+    }
+    try {
+      return RuleDurationEstimates.load(ruleDurationsFile.get());
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read rule durations from [%s].", ruleDurationsFile.get());
+      return RuleDurationEstimates.empty();
+    }
+  }
+
   /** @return MinionQueueProvider populated with standard queue, and optionally low spec queue. */
   private static MinionQueueProvider createMinionQueueProvider(
       Optional<String> lowSpecMinionQueue, String standardSpecMinionQueue) {
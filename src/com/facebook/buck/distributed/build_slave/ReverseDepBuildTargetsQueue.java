@@ -16,6 +16,7 @@
 package com.facebook.buck.distributed.build_slave;
 
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
 import com.facebook.buck.distributed.build_slave.DistributableBuildGraph.DistributableNode;
 import com.facebook.buck.distributed.thrift.CoordinatorBuildProgress;
 import com.facebook.buck.distributed.thrift.WorkUnit;
@@ -25,10 +26,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -40,6 +44,7 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
   private final DistributableBuildGraph distributableBuildGraph;
   private final int totalCacheableNodes;
   private final int mostBuildRulesFinishedPercentageThreshold;
+  private final DistBuildWorkAllocationPolicy workAllocationPolicy;
 
   private final Set<String> seenWorkingCacheableNodes = new HashSet<>();
   private final Set<String> seenFinishedNodes = new HashSet<>();
@@ -52,8 +57,23 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
   ReverseDepBuildTargetsQueue(
       DistributableBuildGraph distributableBuildGraph,
       int mostBuildRulesFinishedPercentageThreshold) {
+    this(
+        distributableBuildGraph,
+        mostBuildRulesFinishedPercentageThreshold,
+        DistBuildWorkAllocationPolicy.REVERSE_DEPENDENCY);
+  }
+
+  /**
+   * @param workAllocationPolicy with {@link DistBuildWorkAllocationPolicy#CRITICAL_PATH}, the
+   *     critical paths of the graph must have been computed.
+   */
+  ReverseDepBuildTargetsQueue(
+      DistributableBuildGraph distributableBuildGraph,
+      int mostBuildRulesFinishedPercentageThreshold,
+      DistBuildWorkAllocationPolicy workAllocationPolicy) {
     this.distributableBuildGraph = distributableBuildGraph;
     this.mostBuildRulesFinishedPercentageThreshold = mostBuildRulesFinishedPercentageThreshold;
+    this.workAllocationPolicy = workAllocationPolicy;
 
     this.zeroDependencyTargets =
         distributableBuildGraph.leafNodes.stream()
@@ -123,7 +143,7 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
 
     List<WorkUnit> newUnitsOfWork = new ArrayList<>();
     createWorkUnitsStartingAtNodes(
-        new HashSet<>(zeroDependencyTargets), newUnitsOfWork, maxUnitsOfWork);
+        getZeroDependencyTargetsInOrder(), newUnitsOfWork, maxUnitsOfWork);
 
     if (newUnitsOfWork.size() > 0) {
       LOG.info(String.format("Returning [%s] work units", newUnitsOfWork.size()));
@@ -132,6 +152,19 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
     return Lists.newArrayList(newUnitsOfWork);
   }
 
+  private Set<String> getZeroDependencyTargetsInOrder() {
+    if (workAllocationPolicy != DistBuildWorkAllocationPolicy.CRITICAL_PATH) {
+      return new HashSet<>(zeroDependencyTargets);
+    }
+
+    // Start the longest chains first, as nothing else can shorten the build once they are late.
+    return zeroDependencyTargets.stream()
+        .map(distributableBuildGraph::getNode)
+        .sorted(Comparator.comparingLong(DistributableNode::getCriticalPathMillis).reversed())
+        .map(DistributableNode::getTargetName)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
   private void completeUncachableZeroDependencyNodes() {
     while (uncachableZeroDependencyTargets.size() > 0) {
       String targetName = uncachableZeroDependencyTargets.iterator().next();
@@ -263,16 +296,14 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
 
     while (nodesToCheck.size() == 1) {
       DistributableNode currentNode = nodesToCheck.remove();
-      // If a node has more than one parent, then it should be the last node in the chain.
-      if (currentNode.dependentTargets.size() != 1) {
+      Optional<DistributableNode> nextNode = getNextNodeInWorkUnit(currentNode);
+      if (!nextNode.isPresent()) {
         break;
       }
 
-      // If a node has a single parent, but that parent has multiple children and some of them
-      // are not finished yet, stop at the current node.
-      DistributableNode parent =
-          Objects.requireNonNull(
-              distributableBuildGraph.getNode(currentNode.dependentTargets.asList().get(0)));
+      // If the next node has multiple children and some of them are not finished yet, stop at the
+      // current node.
+      DistributableNode parent = nextNode.get();
       if (parent.getNumUnsatisfiedDependencies() != 1
           || seenWorkingCacheableNodes.contains(parent.getTargetName())) {
         break;
@@ -286,4 +317,22 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
 
     return workUnit;
   }
+
+  private Optional<DistributableNode> getNextNodeInWorkUnit(DistributableNode currentNode) {
+    if (currentNode.dependentTargets.size() == 1) {
+      return Optional.of(
+          distributableBuildGraph.getNode(currentNode.dependentTargets.asList().get(0)));
+    }
+    if (workAllocationPolicy != DistBuildWorkAllocationPolicy.CRITICAL_PATH) {
+      // If a node has more than one parent, then it should be the last node in the chain.
+      return Optional.empty();
+    }
+
+    // Keep building the critical path on the same minion, which saves the round trip through the
+    // coordinator and the cache to another minion. The other parents are handed out once the
+    // current node finishes.
+    return currentNode.dependentTargets.stream()
+        .map(distributableBuildGraph::getNode)
+        .max(Comparator.comparingLong(DistributableNode::getCriticalPathMillis));
+  }
 }
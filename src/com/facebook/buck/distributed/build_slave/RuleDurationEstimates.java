@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed.build_slave;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How long building each rule is expected to take. Durations are recorded by builds run with
+ * {@code --output-rule-deps-to-file}, one JSON object per line. Rules without a recorded duration
+ * are expected to take as long as the median rule with one.
+ */
+public class RuleDurationEstimates {
+  // Used for every rule when no durations were recorded, so that only the length of chains counts.
+  private static final long DEFAULT_DURATION_MILLIS = 1000;
+
+  private static final String TARGET_ID_FIELD = "targetId";
+  private static final String ELAPSED_TIME_MS_FIELD = "elapsedTimeMs";
+
+  private final ImmutableMap<String, Long> durationsMillis;
+  private final long defaultDurationMillis;
+
+  public RuleDurationEstimates(ImmutableMap<String, Long> durationsMillis) {
+    this.durationsMillis = durationsMillis;
+    this.defaultDurationMillis =
+        durationsMillis.isEmpty()
+            ? DEFAULT_DURATION_MILLIS
+            : durationsMillis.values().stream()
+                .sorted()
+                .skip(durationsMillis.size() / 2)
+                .findFirst()
+                .get();
+  }
+
+  public static RuleDurationEstimates empty() {
+    return new RuleDurationEstimates(ImmutableMap.of());
+  }
+
+  /**
+   * Reads durations in the format written by {@code --output-rule-deps-to-file}. When a rule was
+   * recorded more than once, its last duration is used.
+   */
+  public static RuleDurationEstimates load(Path path) throws IOException {
+    Map<String, Long> durationsMillis = new HashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        JsonNode entry = ObjectMappers.READER.readTree(line);
+        if (entry.hasNonNull(TARGET_ID_FIELD) && entry.hasNonNull(ELAPSED_TIME_MS_FIELD)) {
+          durationsMillis.put(
+              entry.get(TARGET_ID_FIELD).asText(), entry.get(ELAPSED_TIME_MS_FIELD).asLong());
+        }
+      }
+    }
+    return new RuleDurationEstimates(ImmutableMap.copyOf(durationsMillis));
+  }
+
+  public long getDurationMillis(String targetName) {
+    return durationsMillis.getOrDefault(targetName, defaultDurationMillis);
+  }
+
+  public int getNumberOfRecordedRules() {
+    return durationsMillis.size();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+/**
+ * Posted once per lookup in a cache which build steps consult themselves (rather than the build
+ * engine), so that builds can report how often each of them hit.
+ */
+public class CacheLookupEvent extends AbstractBuckEvent {
+
+  private final String cacheName;
+  private final boolean hit;
+
+  private CacheLookupEvent(String cacheName, boolean hit) {
+    super(EventKey.unique());
+    this.cacheName = cacheName;
+    this.hit = hit;
+  }
+
+  public static CacheLookupEvent hit(String cacheName) {
+    return new CacheLookupEvent(cacheName, true);
+  }
+
+  public static CacheLookupEvent miss(String cacheName) {
+    return new CacheLookupEvent(cacheName, false);
+  }
+
+  public String getCacheName() {
+    return cacheName;
+  }
+
+  public boolean isHit() {
+    return hit;
+  }
+
+  @Override
+  protected String getValueString() {
+    return cacheName + (hit ? " hit" : " miss");
+  }
+
+  @Override
+  public String getEventName() {
+    return "CacheLookup";
+  }
+}
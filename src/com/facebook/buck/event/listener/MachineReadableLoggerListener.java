@@ -24,6 +24,7 @@ import static com.facebook.buck.log.MachineReadableLogConfig.PREFIX_INVOCATION_I
 import static com.facebook.buck.log.MachineReadableLogConfig.PREFIX_PERFTIMES;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.ArtifactPrefetchEvent;
 import com.facebook.buck.artifact_cache.CacheCountersSummary;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
@@ -93,6 +94,8 @@ public class MachineReadableLoggerListener implements BuckEventListener {
   private AtomicInteger cacheMisses = new AtomicInteger(0);
   private AtomicInteger cacheIgnores = new AtomicInteger(0);
   private AtomicInteger localKeyUnchangedHits = new AtomicInteger(0);
+  private AtomicInteger memoryHits = new AtomicInteger(0);
+  private AtomicLong memoryBytes = new AtomicLong(0L);
 
   @Nullable private PerfTimesStats latestPerfTimesStats;
 
@@ -103,6 +106,10 @@ public class MachineReadableLoggerListener implements BuckEventListener {
   private AtomicInteger cacheUploadSuccessCount = new AtomicInteger();
   private AtomicInteger cacheUploadFailureCount = new AtomicInteger();
 
+  // Artifact prefetching statistics
+  private AtomicInteger prefetchHits = new AtomicInteger();
+  private AtomicInteger prefetchWastes = new AtomicInteger();
+
   public MachineReadableLoggerListener(
       InvocationInfo info,
       ProjectFilesystem filesystem,
@@ -164,6 +171,10 @@ public class MachineReadableLoggerListener implements BuckEventListener {
       if (cacheResult.getType() == CacheResultType.LOCAL_KEY_UNCHANGED_HIT) {
         localKeyUnchangedHits.incrementAndGet();
       } else if (cacheResult.getType() == CacheResultType.HIT) {
+        if (CacheResult.MEMORY_CACHE_SOURCE.equals(cacheResult.getCacheSource())) {
+          memoryHits.incrementAndGet();
+          memoryBytes.addAndGet(cacheResult.artifactSizeBytes().orElse(0L));
+        }
         if (cacheResult.cacheMode().isPresent()) {
           ArtifactCacheMode mode = cacheResult.cacheMode().get();
           AtomicInteger hits = cacheModeHits.get(mode);
@@ -238,6 +249,12 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     }
   }
 
+  @Subscribe
+  public void onArtifactPrefetchEvent(ArtifactPrefetchEvent event) {
+    prefetchHits.addAndGet(event.getHits());
+    prefetchWastes.addAndGet(event.getWastes());
+  }
+
   private Path getLogFilePath() {
     return filesystem
         .resolve(info.getLogDirectoryPath())
@@ -271,18 +288,26 @@ public class MachineReadableLoggerListener implements BuckEventListener {
             }
             writeToLogImpl(
                 PREFIX_CACHE_STATS,
-                CacheCountersSummary.of(
-                    cacheModeHits,
-                    cacheModeErrors,
-                    cacheModeBytes,
-                    cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum(),
-                    cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum(),
-                    cacheMisses.get(),
-                    cacheIgnores.get(),
-                    cacheModeBytes.values().stream().mapToLong(AtomicLong::get).sum(),
-                    localKeyUnchangedHits.get(),
-                    cacheUploadSuccessCount,
-                    cacheUploadFailureCount));
+                CacheCountersSummary.builder()
+                    .setCacheHitsPerMode(cacheModeHits)
+                    .setCacheErrorsPerMode(cacheModeErrors)
+                    .setCacheBytesPerMode(cacheModeBytes)
+                    .setTotalCacheHits(
+                        cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum())
+                    .setTotalCacheErrors(
+                        cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum())
+                    .setTotalCacheMisses(cacheMisses.get())
+                    .setTotalCacheIgnores(cacheIgnores.get())
+                    .setTotalCacheBytes(
+                        cacheModeBytes.values().stream().mapToLong(AtomicLong::get).sum())
+                    .setTotalCacheLocalKeyUnchangedHits(localKeyUnchangedHits.get())
+                    .setSuccessUploadCount(cacheUploadSuccessCount)
+                    .setFailureUploadCount(cacheUploadFailureCount)
+                    .setTotalPrefetchHits(prefetchHits.get())
+                    .setTotalPrefetchWastes(prefetchWastes.get())
+                    .setTotalMemoryCacheHits(memoryHits.get())
+                    .setTotalMemoryCacheBytes(memoryBytes.get())
+                    .build());
 
             outputStream.write(
                 String.format(
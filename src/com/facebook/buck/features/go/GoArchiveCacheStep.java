@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.go;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the steps which compile a package into its archive, unless the archive cache already has an
+ * archive compiled from the same inputs, in which case the archive is copied from there and none of
+ * the steps, {@code go list} included, runs.
+ *
+ * <p>Rule keys cover the target a package is compiled for, so the same package compiled for a
+ * {@code go_library} and for each {@code go_test} or platform variant depending on it has rule keys
+ * which never match. The cache is addressed by a hash of everything the compilation read instead,
+ * so that all of them share one compilation.
+ */
+public class GoArchiveCacheStep implements Step {
+
+  /** The name of the archive cache in the cache stats of the build report. */
+  static final String CACHE_NAME = "go_archive_cache";
+
+  private static final Logger LOG = Logger.get(GoArchiveCacheStep.class);
+
+  private final ProjectFilesystem filesystem;
+  private final ContentAddressedFileStore cache;
+  private final ImmutableList<String> keyStrings;
+  private final ImmutableList<Path> tools;
+  private final ImmutableList<Path> inputs;
+  private final Path dependencyRoot;
+  private final ImmutableList<Step> steps;
+  private final Path output;
+
+  /**
+   * @param keyStrings everything besides files which affects the archive, such as the import path,
+   *     the commands and flags, and the platform.
+   * @param tools the binaries of the tools the steps run.
+   * @param inputs the sources, and any other file the steps read.
+   * @param dependencyRoot the directory holding the archives of the dependencies of the package.
+   * @param steps the steps which write {@code output}.
+   */
+  public GoArchiveCacheStep(
+      ProjectFilesystem filesystem,
+      ContentAddressedFileStore cache,
+      ImmutableList<String> keyStrings,
+      ImmutableList<Path> tools,
+      ImmutableList<Path> inputs,
+      Path dependencyRoot,
+      ImmutableList<Step> steps,
+      Path output) {
+    this.filesystem = filesystem;
+    this.cache = cache;
+    this.keyStrings = keyStrings;
+    this.tools = tools;
+    this.inputs = inputs;
+    this.dependencyRoot = dependencyRoot;
+    this.steps = steps;
+    this.output = output;
+  }
+
+  /** @return the archive cache under the given directory. */
+  static ContentAddressedFileStore newCache(Path root) {
+    return new ContentAddressedFileStore(CACHE_NAME, "1", root);
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Optional<HashCode> key = computeKey();
+    if (key.isPresent()) {
+      boolean hit = cache.fetch(key.get(), "a", filesystem.resolve(output));
+      context
+          .getBuckEventBus()
+          .post(hit ? CacheLookupEvent.hit(CACHE_NAME) : CacheLookupEvent.miss(CACHE_NAME));
+      if (hit) {
+        return StepExecutionResults.SUCCESS;
+      }
+    }
+
+    for (Step step : steps) {
+      StepExecutionResult result = step.execute(context);
+      if (!result.isSuccess()) {
+        return result;
+      }
+    }
+
+    if (key.isPresent()) {
+      cache.store(key.get(), "a", filesystem.resolve(output));
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  /** @return the key of the archive, or empty if some input can't be read. */
+  private Optional<HashCode> computeKey() {
+    Hasher hasher = cache.newKeyHasher();
+    try {
+      ContentAddressedFileStore.putStrings(hasher, keyStrings);
+      for (Path tool : tools) {
+        ContentAddressedFileStore.putBinary(hasher, filesystem.resolve(tool));
+      }
+      for (Path input : inputs) {
+        Path file = filesystem.resolve(input);
+        ContentAddressedFileStore.putFile(hasher, filesystem.relativize(file), file);
+      }
+      // The archives of the dependencies are only covered by their import paths and contents, so
+      // that the variants of a package built against different symlink trees share entries.
+      Path root = filesystem.resolve(dependencyRoot);
+      if (Files.isDirectory(root)) {
+        for (Path archive : walk(root)) {
+          ContentAddressedFileStore.putFile(hasher, root.relativize(archive), archive);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to hash the inputs of %s, not using the archive cache", output);
+      return Optional.empty();
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  private static List<Path> walk(Path root) throws IOException {
+    try (Stream<Path> files = Files.walk(root, FileVisitOption.FOLLOW_LINKS)) {
+      return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return "go archive cache";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("go archive cache %s (%d steps on a miss)", output, steps.size());
+  }
+}
@@ -33,6 +33,7 @@ public class GoBuckConfig {
   private static final String DEFAULT_PLATFORM = "default_platform";
   private static final String PREFIX = "prefix";
   private static final String GENSYMABIS = "gensymabis";
+  private static final String ARCHIVE_CACHE_DIR = "archive_cache_dir";
 
   public GoBuckConfig(BuckConfig delegate) {
     this.delegate = delegate;
@@ -103,4 +104,16 @@ public class GoBuckConfig {
     }
     return false;
   }
+
+  /**
+   * Get "archive_cache_dir" location. When set, compiled package archives are stored there, keyed
+   * by their inputs, and reused by any compile rule with the same inputs.
+   *
+   * @return archive_cache_dir path
+   */
+  Optional<Path> getArchiveCacheDir() {
+    return delegate
+        .getValue(SECTION, ARCHIVE_CACHE_DIR)
+        .map(dir -> delegate.resolvePathThatMayBeOutsideTheProjectFilesystem(Paths.get(dir)));
+  }
 }
@@ -43,6 +43,7 @@ import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -74,6 +75,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
   private final SymlinkTree symlinkTree;
   private final Path output;
   private final List<ListType> goListTypes;
+  private final Optional<Path> archiveCacheDir;
 
   public GoCompile(
       BuildTarget buildTarget,
@@ -89,7 +91,8 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       GoPlatform platform,
       boolean gensymabis,
       ImmutableList<SourcePath> extraAsmOutputs,
-      List<ListType> goListTypes) {
+      List<ListType> goListTypes,
+      Optional<Path> archiveCacheDir) {
     super(buildTarget, projectFilesystem, params);
     this.importPathMap = importPathMap;
     this.srcs = srcs;
@@ -111,6 +114,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
             "%s/" + getBuildTarget().getShortName() + ".a");
     this.extraAsmOutputs = extraAsmOutputs;
     this.goListTypes = goListTypes;
+    this.archiveCacheDir = archiveCacheDir;
   }
 
   @Override
@@ -227,11 +231,10 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
               output));
     }
 
-    ImmutableList.Builder<Path> asmOutputs = ImmutableList.builder();
+    ImmutableMap<Path, Path> asmObjects =
+        GoParallelAssembleStep.getObjectPaths(getAsmSources(groupedSrcs), asmOutputDir);
 
     if (!getAsmSources(groupedSrcs).isEmpty()) {
-      Path asmOutputPath = asmOutputDir.resolve(getBuildTarget().getShortName() + ".o");
-
       if (!getHeaderSources(groupedSrcs).isEmpty()) {
         // TODO(mikekap): Allow header-map style input.
         for (Path header :
@@ -248,20 +251,20 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       }
 
       steps.add(
-          new GoAssembleStep(
+          new GoParallelAssembleStep(
               getProjectFilesystem().getRootPath(),
               assembler.getEnvironment(resolver),
               assembler.getCommandPrefix(resolver),
               assemblerFlags,
               filteredAsmSrcs,
+              asmObjects,
               ImmutableList.<Path>builder()
                   .addAll(assemblerIncludeDirs)
                   .add(asmHeaderPath.get().getParent())
                   .add(asmIncludeDir)
                   .build(),
               platform,
-              asmOutputPath));
-      asmOutputs.add(asmOutputPath);
+              asmOutputDir));
     }
 
     if (!getAsmSources(groupedSrcs).isEmpty() || !extraAsmOutputs.isEmpty()) {
@@ -271,16 +274,59 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
               packer.getEnvironment(resolver),
               packer.getCommandPrefix(resolver),
               GoPackStep.Operation.APPEND,
-              asmOutputs
-                  .addAll(extraAsmOutputs.stream().map(x -> resolver.getAbsolutePath(x)).iterator())
-                  .build(),
+              extraAsmOutputs.stream()
+                  .map(x -> resolver.getAbsolutePath(x))
+                  .collect(ImmutableList.toImmutableList()),
               filteredAsmSrcs,
+              asmObjects,
+              output));
+    }
+
+    if (archiveCacheDir.isPresent()) {
+      return ImmutableList.of(
+          new GoArchiveCacheStep(
+              getProjectFilesystem(),
+              GoArchiveCacheStep.newCache(archiveCacheDir.get()),
+              getArchiveCacheKeyStrings(resolver),
+              Stream.of(compiler, assembler, packer)
+                  .map(tool -> Paths.get(tool.getCommandPrefix(resolver).get(0)))
+                  .collect(ImmutableList.toImmutableList()),
+              ImmutableList.<Path>builder()
+                  .addAll(srcFiles)
+                  .addAll(getSourceFiles(generatedSrcs, context))
+                  .addAll(
+                      extraAsmOutputs.stream()
+                          .map(x -> resolver.getAbsolutePath(x))
+                          .iterator())
+                  .build(),
+              symlinkTree.getRoot(),
+              steps.build(),
               output));
     }
 
     return steps.build();
   }
 
+  /** Everything besides files which ends up in the archive, for the archive cache key. */
+  private ImmutableList<String> getArchiveCacheKeyStrings(SourcePathResolver resolver) {
+    ImmutableList.Builder<String> strings = ImmutableList.builder();
+    strings.add(packageName.toString());
+    for (Tool tool : ImmutableList.of(compiler, assembler, packer)) {
+      strings.addAll(tool.getCommandPrefix(resolver));
+      tool.getEnvironment(resolver).forEach((key, value) -> strings.add(key, value));
+    }
+    strings.addAll(compilerFlags).add("--").addAll(assemblerFlags).add("--");
+    strings.add(
+        platform.getGoOs().getEnvVarValue(),
+        platform.getGoArch().getEnvVarValue(),
+        platform.getGoArch().getEnvVarValueForArm(),
+        String.valueOf(gensymabis));
+    importPathMap.forEach((key, value) -> strings.add(key.toString(), value.toString()));
+    assemblerIncludeDirs.forEach(dir -> strings.add(dir.toString()));
+    // The location of the project isn't covered: -trimpath keeps it out of the archive.
+    return strings.build();
+  }
+
   static List<Path> getSourceFiles(ImmutableSet<SourcePath> srcPaths, BuildContext context) {
     List<Path> srcFiles = new ArrayList<>();
     for (SourcePath path : srcPaths) {
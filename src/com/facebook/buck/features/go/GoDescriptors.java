@@ -182,7 +182,8 @@ abstract class GoDescriptors {
         platform,
         goBuckConfig.getGensymabis(),
         extraAsmOutputsBuilder.build(),
-        goListTypes);
+        goListTypes,
+        goBuckConfig.getArchiveCacheDir());
   }
 
   @VisibleForTesting
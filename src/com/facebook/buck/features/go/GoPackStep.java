@@ -20,8 +20,11 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.shell.ShellStep;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
 
 public class GoPackStep extends ShellStep {
   public enum Operation {
@@ -46,7 +49,12 @@ public class GoPackStep extends ShellStep {
   private final ImmutableList<Path> srcs;
   private final Path output;
   private final Iterable<Path> filteredAsmSrcs;
+  private final ImmutableMap<Path, Path> asmObjects;
 
+  /**
+   * @param asmObjects the objects the assembly sources are assembled into, of which those of the
+   *     sources in {@code filteredAsmSrcs} are packed before {@code srcs}.
+   */
   public GoPackStep(
       Path workingDirectory,
       ImmutableMap<String, String> environment,
@@ -54,6 +62,7 @@ public class GoPackStep extends ShellStep {
       Operation op,
       ImmutableList<Path> srcs,
       Iterable<Path> filteredAsmSrcs,
+      ImmutableMap<Path, Path> asmObjects,
       Path output) {
     super(workingDirectory);
     this.environment = environment;
@@ -62,6 +71,7 @@ public class GoPackStep extends ShellStep {
     this.output = output;
     this.srcs = srcs;
     this.filteredAsmSrcs = filteredAsmSrcs;
+    this.asmObjects = asmObjects;
   }
 
   @Override
@@ -73,10 +83,19 @@ public class GoPackStep extends ShellStep {
         .addAll(packCommandPrefix)
         .add(op.getOpCode(context.getVerbosity().shouldUseVerbosityFlagIfAvailable()))
         .add(output.toString())
+        .addAll(getAsmObjects().stream().map(Object::toString).iterator())
         .addAll(srcs.stream().map(Object::toString).iterator())
         .build();
   }
 
+  private ImmutableList<Path> getAsmObjects() {
+    Set<Path> assembled = ImmutableSet.copyOf(filteredAsmSrcs);
+    return asmObjects.entrySet().stream()
+        .filter(entry -> assembled.contains(entry.getKey()))
+        .map(Map.Entry::getValue)
+        .collect(ImmutableList.toImmutableList());
+  }
+
   @Override
   public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
     return environment;
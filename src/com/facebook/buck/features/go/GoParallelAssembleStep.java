@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.go;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Assembles each source into its own object with a {@link GoAssembleStep}, running them
+ * concurrently, as {@code go build} does. The objects are then packed into the archive.
+ *
+ * <p>The sources are usually filtered by {@code go list} while the rule builds, so the object of
+ * each source the rule has is picked up front with {@link #getObjectPaths}, and only the objects
+ * of the sources left by the filter are assembled.
+ */
+public class GoParallelAssembleStep implements Step {
+
+  private final Path workingDirectory;
+  private final ImmutableMap<String, String> environment;
+  private final ImmutableList<String> asmCommandPrefix;
+  private final ImmutableList<String> flags;
+  private final Iterable<Path> srcs;
+  private final ImmutableMap<Path, Path> objects;
+  private final ImmutableList<Path> includeDirectories;
+  private final GoPlatform platform;
+  private final Path outputDirectory;
+
+  public GoParallelAssembleStep(
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      ImmutableList<String> asmCommandPrefix,
+      ImmutableList<String> flags,
+      Iterable<Path> srcs,
+      ImmutableMap<Path, Path> objects,
+      ImmutableList<Path> includeDirectories,
+      GoPlatform platform,
+      Path outputDirectory) {
+    this.workingDirectory = workingDirectory;
+    this.environment = environment;
+    this.asmCommandPrefix = asmCommandPrefix;
+    this.flags = flags;
+    this.srcs = srcs;
+    this.objects = objects;
+    this.includeDirectories = includeDirectories;
+    this.platform = platform;
+    this.outputDirectory = outputDirectory;
+  }
+
+  /** @return the object each of the given sources is assembled into, in source order. */
+  public static ImmutableMap<Path, Path> getObjectPaths(
+      Iterable<Path> srcs, Path outputDirectory) {
+    ImmutableMap.Builder<Path, Path> objects = ImmutableMap.builder();
+    Set<String> names = new HashSet<>();
+    for (Path src : srcs) {
+      String base = src.getFileName().toString().replaceFirst("\\.[sS]$", "");
+      String name = base;
+      // Sources from different directories may share a name.
+      for (int i = 1; !names.add(name); i++) {
+        name = base + "_" + i;
+      }
+      objects.put(src, outputDirectory.resolve(name + ".o"));
+    }
+    return objects.build();
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    List<GoAssembleStep> steps = createSteps();
+    if (steps.size() <= 1) {
+      for (GoAssembleStep step : steps) {
+        StepExecutionResult result = step.execute(context);
+        if (!result.isSuccess()) {
+          return result;
+        }
+      }
+      return StepExecutionResults.SUCCESS;
+    }
+
+    int threads = Math.max(1, Math.min(steps.size(), context.getConcurrencyLimit().threadLimit));
+    ExecutorService executor = MostExecutors.newMultiThreadExecutor("go_asm", threads);
+    try {
+      List<Future<StepExecutionResult>> results = new ArrayList<>(steps.size());
+      for (GoAssembleStep step : steps) {
+        results.add(executor.submit(() -> step.execute(context)));
+      }
+      // Report the first failure in source order, like a sequential run would.
+      for (Future<StepExecutionResult> result : results) {
+        if (!result.get().isSuccess()) {
+          return result.get();
+        }
+      }
+    } catch (ExecutionException e) {
+      context.logError(e.getCause(), "Error when assembling into %s.", outputDirectory);
+      return StepExecutionResults.ERROR;
+    } finally {
+      executor.shutdownNow();
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  private List<GoAssembleStep> createSteps() {
+    Set<Path> filteredSrcs = ImmutableSet.copyOf(srcs);
+    List<GoAssembleStep> steps = new ArrayList<>();
+    for (Map.Entry<Path, Path> object : objects.entrySet()) {
+      if (filteredSrcs.contains(object.getKey())) {
+        steps.add(
+            new GoAssembleStep(
+                workingDirectory,
+                environment,
+                asmCommandPrefix,
+                flags,
+                ImmutableList.of(object.getKey()),
+                includeDirectories,
+                platform,
+                object.getValue()));
+      }
+    }
+    return steps;
+  }
+
+  @Override
+  public String getShortName() {
+    return "go asm";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("go asm -o %s/*.o", outputDirectory);
+  }
+}
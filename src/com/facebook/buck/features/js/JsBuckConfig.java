@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import com.facebook.buck.core.config.BuckConfig;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/** JS specific buck config */
+public class JsBuckConfig {
+
+  private static final String SECTION = "js";
+  private static final String TRANSFORM_CACHE_DIR = "transform_cache_dir";
+
+  private final BuckConfig delegate;
+
+  public JsBuckConfig(BuckConfig delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @return the directory of the local cache of transformed files keyed by the contents of their
+   *     sources, if there should be one.
+   */
+  public Optional<Path> getTransformCacheDir() {
+    return delegate
+        .getValue(SECTION, TRANSFORM_CACHE_DIR)
+        .map(dir -> delegate.resolvePathThatMayBeOutsideTheProjectFilesystem(Paths.get(dir)));
+  }
+}
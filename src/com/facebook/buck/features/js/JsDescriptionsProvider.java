@@ -31,7 +31,7 @@ public class JsDescriptionsProvider implements DescriptionProvider {
   public Collection<Description<?>> getDescriptions(DescriptionCreationContext context) {
     ToolchainProvider toolchainProvider = context.getToolchainProvider();
     return Arrays.asList(
-        new JsLibraryDescription(),
+        new JsLibraryDescription(new JsBuckConfig(context.getBuckConfig())),
         new JsBundleGenruleDescription(toolchainProvider, context.getSandboxExecutionStrategy()),
         new JsBundleDescription(toolchainProvider));
   }
@@ -20,10 +20,15 @@ import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.DefaultFieldSerialization;
+import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
+import com.facebook.buck.core.rulekey.IgnoredFieldInputs;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.common.BuildableSupport;
 import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.features.js.JsFile.AbstractImpl;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
@@ -34,6 +39,7 @@ import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.OutputPath;
 import com.facebook.buck.rules.modern.OutputPathResolver;
 import com.facebook.buck.rules.modern.PublicOutputPath;
+import com.facebook.buck.shell.WorkerShellStep;
 import com.facebook.buck.shell.WorkerTool;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.json.JsonBuilder;
@@ -41,6 +47,8 @@ import com.facebook.buck.util.json.JsonBuilder.ObjectBuilder;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -64,17 +72,27 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
     @AddToRuleKey private final WorkerTool workerTool;
     @AddToRuleKey final OutputPath output;
 
+    @ExcludeFromRuleKey(
+        reason =
+            "Outputs are only reused from the cache when they were transformed from the same "
+                + "contents with the same job and worker, so it doesn't affect the output.",
+        serialization = DefaultFieldSerialization.class,
+        inputs = IgnoredFieldInputs.class)
+    private final Optional<String> transformCacheDir;
+
     AbstractImpl(
         BuildTarget buildTarget,
         Optional<Arg> extraJson,
         WorkerTool workerTool,
-        ProjectFilesystem projectFilesystem) {
+        ProjectFilesystem projectFilesystem,
+        Optional<Path> transformCacheDir) {
       this.buildTarget = buildTarget;
       this.extraJson = extraJson;
       this.workerTool = workerTool;
       this.output =
           new PublicOutputPath(
               BuildTargetPaths.getGenPath(projectFilesystem, buildTarget, "%s.jsfile"));
+      this.transformCacheDir = transformCacheDir.map(Path::toString);
     }
 
     @Override
@@ -85,20 +103,54 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
         BuildCellRelativePathFactory buildCellPathFactory) {
 
       SourcePathResolver sourcePathResolver = buildContext.getSourcePathResolver();
-      String outputPath = filesystem.resolve(outputPathResolver.resolvePath(output)).toString();
+      Path outputPath = filesystem.resolve(outputPathResolver.resolvePath(output));
 
-      return ImmutableList.of(
+      WorkerShellStep transform =
           JsUtil.jsonWorkerShellStepAddingFlavors(
               workerTool,
-              getJobArgs(sourcePathResolver, outputPath)
+              getJobArgs(sourcePathResolver, outputPath.toString())
                   .addRaw("extraData", getExtraJson(sourcePathResolver)),
               buildTarget,
               sourcePathResolver,
-              filesystem));
+              filesystem);
+      if (!transformCacheDir.isPresent()) {
+        return ImmutableList.of(transform);
+      }
+      return ImmutableList.of(
+          new JsTransformCacheStep(
+              JsTransformCacheStep.newCache(Paths.get(transformCacheDir.get())),
+              getTransformCacheKeyStrings(sourcePathResolver),
+              BuildableSupport.deriveInputs(workerTool)
+                  .map(sourcePathResolver::getAbsolutePath)
+                  .collect(ImmutableList.toImmutableList()),
+              getInputs(sourcePathResolver),
+              transform,
+              outputPath));
+    }
+
+    private ImmutableList<String> getTransformCacheKeyStrings(
+        SourcePathResolver sourcePathResolver) {
+      ImmutableList.Builder<String> keyStrings = ImmutableList.builder();
+      // Leave out the output path, so that all rules transforming the same file share entries.
+      keyStrings.add(
+          JsUtil.jobArgsAddingFlavors(
+              getJobArgs(sourcePathResolver, "")
+                  .addRaw("extraData", getExtraJson(sourcePathResolver)),
+              buildTarget));
+      Tool tool = workerTool.getTool();
+      keyStrings.addAll(tool.getCommandPrefix(sourcePathResolver));
+      for (Map.Entry<String, String> entry :
+          tool.getEnvironment(sourcePathResolver).entrySet()) {
+        keyStrings.add(entry.getKey(), entry.getValue());
+      }
+      return keyStrings.build();
     }
 
     abstract ObjectBuilder getJobArgs(SourcePathResolver sourcePathResolver, String outputPath);
 
+    /** @return the absolute paths of the files the job reads. */
+    abstract ImmutableList<Path> getInputs(SourcePathResolver sourcePathResolver);
+
     @Nullable
     abstract BuildTarget getSourceBuildTarget(SourcePathRuleFinder ruleFinder);
 
@@ -125,13 +177,21 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
       WorkerTool worker,
       SourcePath src,
       Optional<String> subPath,
-      Optional<Path> virtualPath) {
+      Optional<Path> virtualPath,
+      Optional<Path> transformCacheDir) {
     return new JsFile<>(
         buildTarget,
         projectFilesystem,
         ruleFinder,
         new JsFileDev(
-            buildTarget, projectFilesystem, extraJson, worker, src, subPath, virtualPath));
+            buildTarget,
+            projectFilesystem,
+            extraJson,
+            worker,
+            src,
+            subPath,
+            virtualPath,
+            transformCacheDir));
   }
 
   /** JS file dev rule implementation */
@@ -147,8 +207,9 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
         WorkerTool workerTool,
         SourcePath src,
         Optional<String> subPath,
-        Optional<Path> virtualPath) {
-      super(buildTarget, extraJson, workerTool, projectFilesystem);
+        Optional<Path> virtualPath,
+        Optional<Path> transformCacheDir) {
+      super(buildTarget, extraJson, workerTool, projectFilesystem, transformCacheDir);
       this.src = src;
       this.subPath = subPath;
       this.virtualPath = virtualPath.map(PathFormatter::pathWithUnixSeparators);
@@ -156,11 +217,10 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
 
     @Override
     ObjectBuilder getJobArgs(SourcePathResolver sourcePathResolver, String outputPath) {
-      Path srcPath = sourcePathResolver.getAbsolutePath(src);
       return JsonBuilder.object()
           .addString("command", "transform")
           .addString("outputFilePath", outputPath)
-          .addString("sourceJsFilePath", subPath.map(srcPath::resolve).orElse(srcPath).toString())
+          .addString("sourceJsFilePath", getSourcePath(sourcePathResolver).toString())
           .addString(
               "sourceJsFileName",
               virtualPath.orElseGet(
@@ -169,6 +229,16 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
                           sourcePathResolver.getRelativePath(src))));
     }
 
+    @Override
+    ImmutableList<Path> getInputs(SourcePathResolver sourcePathResolver) {
+      return ImmutableList.of(getSourcePath(sourcePathResolver));
+    }
+
+    private Path getSourcePath(SourcePathResolver sourcePathResolver) {
+      Path srcPath = sourcePathResolver.getAbsolutePath(src);
+      return subPath.map(srcPath::resolve).orElse(srcPath);
+    }
+
     @Nullable
     @Override
     BuildTarget getSourceBuildTarget(SourcePathRuleFinder ruleFinder) {
@@ -198,12 +268,14 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
       SourcePathRuleFinder ruleFinder,
       Optional<Arg> extraJson,
       WorkerTool worker,
-      BuildTargetSourcePath devFile) {
+      BuildTargetSourcePath devFile,
+      Optional<Path> transformCacheDir) {
     return new JsFile<>(
         buildTarget,
         projectFilesystem,
         ruleFinder,
-        new JsFileRelease(buildTarget, projectFilesystem, extraJson, worker, devFile));
+        new JsFileRelease(
+            buildTarget, projectFilesystem, extraJson, worker, devFile, transformCacheDir));
   }
 
   /** JS file release rule implementation */
@@ -216,8 +288,9 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
         ProjectFilesystem projectFilesystem,
         Optional<Arg> extraJson,
         WorkerTool workerTool,
-        BuildTargetSourcePath devFile) {
-      super(buildTarget, extraJson, workerTool, projectFilesystem);
+        BuildTargetSourcePath devFile,
+        Optional<Path> transformCacheDir) {
+      super(buildTarget, extraJson, workerTool, projectFilesystem, transformCacheDir);
       this.devFile = devFile;
     }
 
@@ -230,6 +303,11 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
               "transformedJsFilePath", sourcePathResolver.getAbsolutePath(devFile).toString());
     }
 
+    @Override
+    ImmutableList<Path> getInputs(SourcePathResolver sourcePathResolver) {
+      return ImmutableList.of(sourcePathResolver.getAbsolutePath(devFile));
+    }
+
     @Override
     @Nullable
     @SuppressWarnings("unchecked")
@@ -83,6 +83,11 @@ public class JsLibraryDescription
                   (Weigher<ImmutableSet<?>, ImmutableBiMap<?, ?>>)
                       (sources, flavors) -> sources.size())
               .build();
+  private final JsBuckConfig jsBuckConfig;
+
+  public JsLibraryDescription(JsBuckConfig jsBuckConfig) {
+    this.jsBuckConfig = jsBuckConfig;
+  }
 
   @Override
   public Class<JsLibraryDescriptionArg> getConstructorArgType() {
@@ -116,11 +121,25 @@ public class JsLibraryDescription
         graphBuilder.getRuleWithType(workerTarget, ProvidesWorkerTool.class).getWorkerTool();
 
     if (file.isPresent()) {
+      Optional<Path> transformCacheDir = jsBuckConfig.getTransformCacheDir();
       return buildTarget.getFlavors().contains(JsFlavors.RELEASE)
           ? createReleaseFileRule(
-              buildTarget, projectFilesystem, graphBuilder, cellRoots, args, worker)
+              buildTarget,
+              projectFilesystem,
+              graphBuilder,
+              cellRoots,
+              args,
+              worker,
+              transformCacheDir)
           : createDevFileRule(
-              buildTarget, projectFilesystem, graphBuilder, cellRoots, args, file.get(), worker);
+              buildTarget,
+              projectFilesystem,
+              graphBuilder,
+              cellRoots,
+              args,
+              file.get(),
+              worker,
+              transformCacheDir);
     } else if (buildTarget.getFlavors().contains(JsFlavors.LIBRARY_FILES)) {
       return new LibraryFilesBuilder(graphBuilder, buildTarget, sourcesToFlavors)
           .setSources(args.getSrcs())
@@ -299,7 +318,8 @@ public class JsLibraryDescription
       ActionGraphBuilder graphBuilder,
       CellPathResolver cellRoots,
       JsLibraryDescriptionArg args,
-      WorkerTool worker) {
+      WorkerTool worker,
+      Optional<Path> transformCacheDir) {
     BuildTarget devTarget = withFileFlavorOnly(buildTarget);
     graphBuilder.requireRule(devTarget);
     return JsFile.create(
@@ -308,7 +328,8 @@ public class JsLibraryDescription
         graphBuilder,
         JsUtil.getExtraJson(args, buildTarget, graphBuilder, cellRoots),
         worker,
-        graphBuilder.getRuleWithType(devTarget, JsFile.class).getSourcePathToOutput());
+        graphBuilder.getRuleWithType(devTarget, JsFile.class).getSourcePathToOutput(),
+        transformCacheDir);
   }
 
   private static <A extends AbstractJsLibraryDescriptionArg> BuildRule createDevFileRule(
@@ -318,7 +339,8 @@ public class JsLibraryDescription
       CellPathResolver cellRoots,
       A args,
       Either<SourcePath, Pair<SourcePath, String>> source,
-      WorkerTool worker) {
+      WorkerTool worker,
+      Optional<Path> transformCacheDir) {
     SourcePath sourcePath = source.transform(x -> x, Pair::getFirst);
     Optional<String> subPath = Optional.ofNullable(source.transform(x -> null, Pair::getSecond));
 
@@ -343,7 +365,8 @@ public class JsLibraryDescription
         worker,
         sourcePath,
         subPath,
-        virtualPath);
+        virtualPath,
+        transformCacheDir);
   }
 
   private static BuildTarget withFileFlavorOnly(BuildTarget target) {
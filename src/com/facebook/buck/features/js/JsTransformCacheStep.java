@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the worker job transforming a single file, unless the transform cache already has an output
+ * for the same job, worker and source contents, in which case the output is copied from there.
+ *
+ * <p>Rule keys of {@link JsFile} rules also cover their targets and the rules generating their
+ * sources, and only the output of the last build of each rule is kept in buck-out. The cache is
+ * addressed by what the worker read instead, so that files whose rule keys changed but whose
+ * contents didn't skip the worker, as well as files going back to contents they had before.
+ */
+public class JsTransformCacheStep implements Step {
+
+  /** The name of the transform cache in the cache stats of the build report. */
+  static final String CACHE_NAME = "js_transform_cache";
+
+  private static final Logger LOG = Logger.get(JsTransformCacheStep.class);
+
+  private final ContentAddressedFileStore cache;
+  private final ImmutableList<String> keyStrings;
+  private final ImmutableList<Path> workerInputs;
+  private final ImmutableList<Path> inputs;
+  private final Step transform;
+  private final Path output;
+
+  /**
+   * @param keyStrings the job sent to the worker, without the output path, and the command running
+   *     the worker.
+   * @param workerInputs the files and directories the worker is made of.
+   * @param inputs the files the job reads.
+   * @param transform the step running the job, which writes {@code output}.
+   */
+  public JsTransformCacheStep(
+      ContentAddressedFileStore cache,
+      ImmutableList<String> keyStrings,
+      ImmutableList<Path> workerInputs,
+      ImmutableList<Path> inputs,
+      Step transform,
+      Path output) {
+    this.cache = cache;
+    this.keyStrings = keyStrings;
+    this.workerInputs = workerInputs;
+    this.inputs = inputs;
+    this.transform = transform;
+    this.output = output;
+  }
+
+  /** @return the transform cache under the given directory. */
+  static ContentAddressedFileStore newCache(Path root) {
+    return new ContentAddressedFileStore(CACHE_NAME, "1", root);
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Optional<HashCode> key = computeKey(context);
+    if (key.isPresent()) {
+      boolean hit = cache.fetch(key.get(), "jsfile", output);
+      context
+          .getBuckEventBus()
+          .post(hit ? CacheLookupEvent.hit(CACHE_NAME) : CacheLookupEvent.miss(CACHE_NAME));
+      if (hit) {
+        return StepExecutionResults.SUCCESS;
+      }
+    }
+
+    StepExecutionResult result = transform.execute(context);
+    if (result.isSuccess() && key.isPresent()) {
+      cache.store(key.get(), "jsfile", output);
+    }
+    return result;
+  }
+
+  /** @return the key of the output, or empty if some input can't be read. */
+  private Optional<HashCode> computeKey(ExecutionContext context) {
+    Hasher hasher = cache.newKeyHasher();
+    try {
+      ContentAddressedFileStore.putStrings(hasher, keyStrings);
+      hasher.putBytes(
+          context
+              .getDaemonCaches()
+              .get(WorkerHashes.class, WorkerHashes::new)
+              .get(context.getBuildId(), workerInputs)
+              .asBytes());
+      for (Path input : inputs) {
+        ContentAddressedFileStore.putFile(hasher, input.getFileName(), input);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to hash the inputs of %s, not using the transform cache", output);
+      return Optional.empty();
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  @Override
+  public String getShortName() {
+    return "js transform cache";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("js transform cache %s (%s on a miss)", output, transform.getShortName());
+  }
+
+  /**
+   * Hashes of the contents of workers. Workers are usually scripts run by an interpreter, so keys
+   * cover their contents rather than only the commands running them. Each worker is hashed once
+   * per build, rather than once for each file it transforms.
+   */
+  private static class WorkerHashes {
+
+    // A build uses a handful of workers, and hashes of past builds are never looked up again.
+    private static final int MAXIMUM_SIZE = 64;
+
+    private final Cache<ImmutableList<Object>, HashCode> hashes =
+        CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+    HashCode get(BuildId buildId, ImmutableList<Path> workerInputs) throws IOException {
+      try {
+        return hashes.get(ImmutableList.of(buildId, workerInputs), () -> hash(workerInputs));
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    private static HashCode hash(ImmutableList<Path> workerInputs) throws IOException {
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (Path workerInput : workerInputs) {
+        for (Path file : walk(workerInput)) {
+          ContentAddressedFileStore.putFile(hasher, workerInput.relativize(file), file);
+        }
+      }
+      return hasher.hash();
+    }
+
+    private static List<Path> walk(Path root) throws IOException {
+      try (Stream<Path> files = Files.walk(root, FileVisitOption.FOLLOW_LINKS)) {
+        return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+      }
+    }
+  }
+}
@@ -94,30 +94,24 @@ public class JsUtil {
       BuildTarget buildTarget,
       SourcePathResolver pathResolver,
       ProjectFilesystem filesystem) {
-    String jobArgsString =
-        jobArgs
-            .addArray(
-                "flavors",
-                buildTarget.getFlavors().stream()
-                    .filter(JsFlavors::shouldBePassedToWorker)
-                    .map(Flavor::getName)
-                    .collect(JsonBuilder.toArrayOfStrings()))
-            .toString();
+    String jobArgsString = jobArgsAddingFlavors(jobArgs, buildTarget);
     Tool tool = worker.getTool();
     WorkerJobParams params =
         WorkerJobParams.of(
             jobArgsString,
             WorkerProcessParams.of(
-                worker.getTempDir(filesystem),
-                tool.getCommandPrefix(pathResolver),
-                tool.getEnvironment(pathResolver),
-                worker.getMaxWorkers(),
-                worker.isPersistent()
-                    ? Optional.of(
-                        WorkerProcessIdentity.of(
-                            buildTarget.getCellPath().toString() + buildTarget,
-                            worker.getInstanceKey()))
-                    : Optional.empty()));
+                    worker.getTempDir(filesystem),
+                    tool.getCommandPrefix(pathResolver),
+                    tool.getEnvironment(pathResolver),
+                    worker.getMaxWorkers(),
+                    worker.isPersistent()
+                        ? Optional.of(
+                            WorkerProcessIdentity.of(
+                                buildTarget.getCellPath().toString() + buildTarget,
+                                worker.getInstanceKey()))
+                        : Optional.empty())
+                .withMaxJobsPerWorker(worker.getMaxJobsPerWorker())
+                .withAdaptivePoolSizing(worker.getAdaptivePoolSizing()));
     return new WorkerShellStep(
         buildTarget,
         Optional.of(params),
@@ -126,6 +120,18 @@ public class JsUtil {
         new WorkerProcessPoolFactory(filesystem));
   }
 
+  /** @return the job for the worker, with the flavors of the target it builds added to it. */
+  static String jobArgsAddingFlavors(ObjectBuilder jobArgs, BuildTarget buildTarget) {
+    return jobArgs
+        .addArray(
+            "flavors",
+            buildTarget.getFlavors().stream()
+                .filter(JsFlavors::shouldBePassedToWorker)
+                .map(Flavor::getName)
+                .collect(JsonBuilder.toArrayOfStrings()))
+        .toString();
+  }
+
   static boolean isJsLibraryTarget(BuildTarget target, TargetGraph targetGraph) {
     return targetGraph.get(target).getDescription() instanceof JsLibraryDescription;
   }
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.pathformat.PathFormatter;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.zip.CustomZipEntry;
+import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.PreparedZipEntry;
+import com.facebook.buck.util.zip.RawZipFile;
+import com.facebook.buck.util.zip.ZipOutputStreams;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a standalone PEX the way the PEX builder does with bytecode compilation disabled, but
+ * reading modules, resources and native libraries from where they are instead of copying them into
+ * a staging directory first. Entries of source zips are copied without being inflated.
+ *
+ * <p>The PEX builder still generates the bootstrap (the {@code PEX-INFO} manifest, {@code
+ * __main__.py} and {@code .bootstrap}) in a directory, which is packaged along with everything
+ * else. Entries are deflated on a pool of threads. When the destination already holds a PEX
+ * written by this step, entries whose content did not change are copied from it instead of being
+ * deflated again, which gives the same bytes as writing them from scratch.
+ */
+public class NativePexStep implements Step {
+
+  @VisibleForTesting static final String PEX_INFO = "PEX-INFO";
+
+  private static final String SRC_ZIP = ".src.zip";
+  private static final String INIT_PY = "__init__.py";
+
+  /** What the PEX builder puts in the {@code __init__.py} files missing from packages. */
+  private static final byte[] NAMESPACE_INIT =
+      "__import__('pkg_resources').declare_namespace(__name__)".getBytes(StandardCharsets.UTF_8);
+
+  /** The compression level Python's zipfile uses. */
+  private static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+  /**
+   * Recorded in {@code PEX-INFO}, so that entries are only reused from PEXes deflated the same way.
+   * Change it whenever the way entries are written changes.
+   */
+  @VisibleForTesting static final String WRITER_VERSION_KEY = "buck_native_writer_version";
+
+  private static final int WRITER_VERSION = 1;
+
+  private final ProjectFilesystem filesystem;
+  private final Path bootstrapDirectory;
+  private final String shebang;
+  private final Path destination;
+  private final ImmutableMap<Path, Path> modules;
+  private final ImmutableMap<Path, Path> resources;
+  private final ImmutableMap<Path, Path> nativeLibraries;
+  private final ImmutableMultimap<Path, Path> moduleDirs;
+
+  /**
+   * @param bootstrapDirectory the directory the PEX builder froze an empty PEX into.
+   * @param shebang the first line of the PEX, without the line break.
+   * @param destination the PEX to write.
+   */
+  public NativePexStep(
+      ProjectFilesystem filesystem,
+      Path bootstrapDirectory,
+      String shebang,
+      Path destination,
+      ImmutableMap<Path, Path> modules,
+      ImmutableMap<Path, Path> resources,
+      ImmutableMap<Path, Path> nativeLibraries,
+      ImmutableMultimap<Path, Path> moduleDirs) {
+    this.filesystem = filesystem;
+    this.bootstrapDirectory = bootstrapDirectory;
+    this.shebang = shebang;
+    this.destination = destination;
+    this.modules = modules;
+    this.resources = resources;
+    this.nativeLibraries = nativeLibraries;
+    this.moduleDirs = moduleDirs;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    int threads = Math.max(1, context.getConcurrencyLimit().threadLimit);
+    ExecutorService executor = MostExecutors.newMultiThreadExecutor("pex_writer", threads);
+    try {
+      writePex(executor, 2 * threads);
+    } catch (ExecutionException e) {
+      context.logError(e.getCause(), "Error when creating PEX at: %s.", destination);
+      return StepExecutionResults.ERROR;
+    } finally {
+      executor.shutdownNow();
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @VisibleForTesting
+  void writePex(ExecutorService executor, int window)
+      throws IOException, InterruptedException, ExecutionException {
+    Path output = filesystem.resolve(destination);
+    Path tmp = output.resolveSibling(output.getFileName() + "~");
+    Files.deleteIfExists(tmp);
+    if (Files.isDirectory(output)) {
+      // Switching from a pex style which produces a directory.
+      MostFiles.deleteRecursively(output);
+    }
+
+    try (EntrySources sources = new EntrySources(openPreviousPex(output))) {
+      collectEntries(sources);
+      try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+        stream.write((shebang + "\n").getBytes(StandardCharsets.UTF_8));
+        try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(stream)) {
+          PreparedZipEntry.writeInOrder(out, sources.entries.values(), executor, window);
+          // The manifest records a hash of everything else, so it goes last.
+          preparePexInfo(sources.getCodeHash()).writeTo(out);
+        }
+      }
+    }
+
+    Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+    MostFiles.makeExecutable(output);
+  }
+
+  private void collectEntries(EntrySources sources) throws IOException {
+    Path bootstrap = bootstrap();
+    for (Path file : walk(bootstrap)) {
+      String name = PathFormatter.pathWithUnixSeparators(bootstrap.relativize(file));
+      if (!name.equals(PEX_INFO)) {
+        sources.addFile(name, file);
+      }
+    }
+
+    for (Map.Entry<Path, Path> module : modules.entrySet()) {
+      Path source = filesystem.resolve(module.getValue());
+      if (source.toString().endsWith(SRC_ZIP)) {
+        sources.addSourceZip(module.getKey(), source);
+      } else {
+        sources.addModule(PathFormatter.pathWithUnixSeparators(module.getKey()), source);
+      }
+    }
+    for (Map.Entry<Path, Path> moduleDir : moduleDirs.entries()) {
+      Path root = filesystem.resolve(moduleDir.getValue());
+      for (Path file : walk(root)) {
+        sources.addModule(
+            PathFormatter.pathWithUnixSeparators(moduleDir.getKey().resolve(root.relativize(file))),
+            file);
+      }
+    }
+    sources.addMissingInits();
+
+    for (Map.Entry<Path, Path> resource : resources.entrySet()) {
+      sources.addFile(
+          PathFormatter.pathWithUnixSeparators(resource.getKey()),
+          filesystem.resolve(resource.getValue()));
+    }
+    for (Map.Entry<Path, Path> nativeLibrary : nativeLibraries.entrySet()) {
+      sources.addFile(
+          PathFormatter.pathWithUnixSeparators(nativeLibrary.getKey()),
+          filesystem.resolve(nativeLibrary.getValue()));
+    }
+  }
+
+  private Path bootstrap() {
+    return filesystem.resolve(bootstrapDirectory);
+  }
+
+  private static List<Path> walk(Path root) throws IOException {
+    try (Stream<Path> files = Files.walk(root)) {
+      return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+  }
+
+  /** @return the PEX at {@code output}, if there is one whose entries can be reused. */
+  private static Optional<RawZipFile> openPreviousPex(Path output) throws IOException {
+    if (!Files.isRegularFile(output)) {
+      return Optional.empty();
+    }
+    RawZipFile previous;
+    try {
+      previous = new RawZipFile(output);
+    } catch (IOException e) {
+      // Not something we can reuse anything from, it is about to be overwritten anyway.
+      return Optional.empty();
+    }
+    try {
+      for (RawZipFile.Entry entry : previous.getEntries()) {
+        if (entry.getName().equals(PEX_INFO) && entry.getMethod() == ZipEntry.STORED) {
+          JsonNode info =
+              ObjectMappers.READER.readTree(new ByteArrayInputStream(previous.readRawData(entry)));
+          if (info.path(WRITER_VERSION_KEY).asInt() == WRITER_VERSION) {
+            return Optional.of(previous);
+          }
+        }
+      }
+    } catch (IOException e) {
+      // Fall through: the PEX is unreadable, so it is just rewritten from scratch.
+    }
+    previous.close();
+    return Optional.empty();
+  }
+
+  private PreparedZipEntry preparePexInfo(String codeHash) throws IOException {
+    ObjectNode info;
+    try (InputStream in = Files.newInputStream(bootstrap().resolve(PEX_INFO))) {
+      info = (ObjectNode) ObjectMappers.READER.readTree(in);
+    }
+    // The PEX builder leaves the code hash out when freezing into a directory, but PEXes which
+    // are not zip safe need it to pick the directory they are extracted into.
+    info.put("code_hash", codeHash);
+    info.put(WRITER_VERSION_KEY, WRITER_VERSION);
+    byte[] data = ObjectMappers.WRITER.writeValueAsBytes(info);
+    // Stored, so that the next build can read it back without inflating it.
+    return PreparedZipEntry.stored(PEX_INFO, data, PreparedZipEntry.crc(data));
+  }
+
+  @Override
+  public String getShortName() {
+    return "native_pex";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.join(
+        " ", "native_pex", "--bootstrap", bootstrapDirectory.toString(), destination.toString());
+  }
+
+  /** The entries of the PEX, sorted by name, along with where they come from. */
+  private static class EntrySources implements Closeable {
+    private final SortedMap<String, PreparedZipEntry.Source> entries = new TreeMap<>();
+    private final Map<String, Path> origins = new HashMap<>();
+    private final List<String> moduleNames = new ArrayList<>();
+    private final List<RawZipFile> openZips = new ArrayList<>();
+    private final Optional<RawZipFile> previous;
+    private final Map<String, RawZipFile.Entry> previousEntries = new HashMap<>();
+    private final SortedMap<String, CustomZipEntry> written = new ConcurrentSkipListMap<>();
+
+    EntrySources(Optional<RawZipFile> previous) {
+      this.previous = previous;
+      previous.ifPresent(
+          zip -> zip.getEntries().forEach(entry -> previousEntries.put(entry.getName(), entry)));
+    }
+
+    void addModule(String name, Path file) {
+      moduleNames.add(name);
+      addFile(name, file);
+    }
+
+    void addFile(String name, Path file) {
+      add(name, file, () -> prepareFile(name, Files.readAllBytes(file)));
+    }
+
+    void addSourceZip(Path prefix, Path path) throws IOException {
+      RawZipFile zip = new RawZipFile(path);
+      openZips.add(zip);
+      for (RawZipFile.Entry entry : zip.getEntries()) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        String name = PathFormatter.pathWithUnixSeparators(prefix.resolve(entry.getName()));
+        moduleNames.add(name);
+        add(name, path, () -> PreparedZipEntry.copied(name, entry, zip.readRawData(entry)));
+      }
+    }
+
+    /** Adds the {@code __init__.py} files the PEX builder adds to packages which have none. */
+    void addMissingInits() {
+      for (String module : moduleNames) {
+        int slash = module.indexOf('/');
+        while (slash >= 0) {
+          String init = module.substring(0, slash + 1) + INIT_PY;
+          if (!entries.containsKey(init)) {
+            add(init, null, () -> prepareFile(init, NAMESPACE_INIT));
+          }
+          slash = module.indexOf('/', slash + 1);
+        }
+      }
+    }
+
+    private PreparedZipEntry prepareFile(String name, byte[] data) throws IOException {
+      RawZipFile.Entry old = previousEntries.get(name);
+      if (old != null
+          && old.getSize() == data.length
+          && old.getCrc() == PreparedZipEntry.crc(data)) {
+        return PreparedZipEntry.copied(name, old, previous.get().readRawData(old));
+      }
+      return PreparedZipEntry.compressedOrStored(name, data, COMPRESSION_LEVEL);
+    }
+
+    private void add(String name, Path origin, PreparedZipEntry.Source source) {
+      Path previousOrigin = origins.put(name, origin);
+      if (entries.containsKey(name)) {
+        throw new HumanReadableException(
+            "Found duplicate file for PEX: %s\nOrigin 1: %s\nOrigin 2: %s",
+            name, previousOrigin, origin);
+      }
+      entries.put(
+          name,
+          () -> {
+            PreparedZipEntry prepared = source.prepare();
+            written.put(name, prepared.getEntry());
+            return prepared;
+          });
+    }
+
+    /**
+     * @return a hash of the names and contents of the entries, leaving out the bootstrap like the
+     *     PEX builder does.
+     */
+    String getCodeHash() {
+      Hasher hasher = Hashing.sha1().newHasher();
+      written.forEach(
+          (name, entry) -> {
+            if (!name.startsWith(".")) {
+              hasher.putString(name, StandardCharsets.UTF_8);
+              hasher.putLong(entry.getSize());
+              hasher.putLong(entry.getCrc());
+            }
+          });
+      return hasher.hash().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RawZipFile zip : openZips) {
+        zip.close();
+      }
+      if (previous.isPresent()) {
+        previous.get().close();
+      }
+    }
+  }
+}
@@ -241,7 +241,8 @@ public class PythonBinaryDescription
             components,
             preloadLibraries,
             pythonBuckConfig.shouldCacheBinaries(),
-            pythonBuckConfig.legacyOutputPath());
+            pythonBuckConfig.legacyOutputPath(),
+            pythonBuckConfig.useNativePexWriter());
 
       default:
         throw new IllegalStateException();
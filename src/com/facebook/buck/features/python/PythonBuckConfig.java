@@ -99,6 +99,14 @@ public class PythonBuckConfig {
     return delegate.getBooleanValue(SECTION, "legacy_output_path", false);
   }
 
+  /**
+   * @return whether standalone packages are written by Buck itself, without compiling bytecode,
+   *     instead of by the PEX builder.
+   */
+  public boolean useNativePexWriter() {
+    return delegate.getBooleanValue(SECTION, "native_pex_writer", false);
+  }
+
   public PackageStyle getPackageStyle() {
     return delegate
         .getEnum(SECTION, "package_style", PackageStyle.class)
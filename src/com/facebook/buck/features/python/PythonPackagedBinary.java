@@ -31,6 +31,7 @@ import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.toolchain.tool.impl.CommandTool;
 import com.facebook.buck.features.python.toolchain.PythonEnvironment;
 import com.facebook.buck.features.python.toolchain.PythonPlatform;
+import com.facebook.buck.features.python.toolchain.PythonVersion;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.SourcePathArg;
@@ -39,12 +40,15 @@ import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.step.fs.RmStep;
 import com.facebook.buck.util.RichStream;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.SortedSet;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -58,6 +62,7 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
   @AddToRuleKey private final PythonEnvironment pythonEnvironment;
   @AddToRuleKey private final ImmutableSet<String> preloadLibraries;
   private final boolean cache;
+  @AddToRuleKey private final boolean nativePexWriter;
   private final ImmutableSortedSet<BuildRule> buildDeps;
 
   PythonPackagedBinary(
@@ -75,7 +80,8 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
       PythonPackageComponents components,
       ImmutableSet<String> preloadLibraries,
       boolean cache,
-      boolean legacyOutputPath) {
+      boolean legacyOutputPath,
+      boolean nativePexWriter) {
     super(
         buildTarget,
         projectFilesystem,
@@ -93,6 +99,7 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
     this.mainModule = mainModule;
     this.preloadLibraries = preloadLibraries;
     this.cache = cache;
+    this.nativePexWriter = nativePexWriter;
     this.buildDeps =
         ImmutableSortedSet.<BuildRule>naturalOrder()
             .addAll(components.getDeps(ruleFinder))
@@ -120,12 +127,15 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
             BuildCellRelativePath.fromCellRelativePath(
                 context.getBuildCellRootPath(), getProjectFilesystem(), binPath.getParent())));
 
-    // Delete any other pex that was there (when switching between pex styles).
-    steps.add(
-        RmStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(), getProjectFilesystem(), binPath))
-            .withRecursive(true));
+    // Delete any other pex that was there (when switching between pex styles). The native writer
+    // does that itself, as it reuses what it can from the previous pex.
+    if (!nativePexWriter) {
+      steps.add(
+          RmStep.of(
+                  BuildCellRelativePath.fromCellRelativePath(
+                      context.getBuildCellRootPath(), getProjectFilesystem(), binPath))
+              .withRecursive(true));
+    }
 
     Path workingDirectory =
         BuildTargetPaths.getGenPath(
@@ -137,36 +147,107 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
                 context.getBuildCellRootPath(), getProjectFilesystem(), workingDirectory)));
 
     SourcePathResolver resolver = context.getSourcePathResolver();
+    ImmutableMap<Path, Path> modules = resolver.getMappedPaths(getComponents().getModules());
+    ImmutableMap<Path, Path> resources = resolver.getMappedPaths(getComponents().getResources());
+    ImmutableMap<Path, Path> nativeLibraries =
+        resolver.getMappedPaths(getComponents().getNativeLibraries());
+    ImmutableSetMultimap<Path, Path> moduleDirs =
+        getComponents().getModuleDirs().entries().stream()
+            .collect(
+                ImmutableSetMultimap.toImmutableSetMultimap(
+                    Entry::getKey, e -> resolver.getAbsolutePath(e.getValue())));
 
-    // Generate and return the PEX build step.
-    steps.add(
-        new PexStep(
-            getProjectFilesystem(),
-            builder.getEnvironment(resolver),
-            ImmutableList.<String>builder()
-                .addAll(builder.getCommandPrefix(resolver))
-                .addAll(buildArgs)
-                .build(),
-            pythonEnvironment.getPythonPath(),
-            pythonEnvironment.getPythonVersion(),
-            workingDirectory,
-            binPath,
-            mainModule,
-            resolver.getMappedPaths(getComponents().getModules()),
-            resolver.getMappedPaths(getComponents().getResources()),
-            resolver.getMappedPaths(getComponents().getNativeLibraries()),
-            getComponents().getModuleDirs().entries().stream()
-                .collect(
-                    ImmutableSetMultimap.toImmutableSetMultimap(
-                        Entry::getKey, e -> resolver.getAbsolutePath(e.getValue()))),
-            preloadLibraries,
-            getComponents().isZipSafe().orElse(true)));
+    ImmutableList<String> commandPrefix =
+        ImmutableList.<String>builder()
+            .addAll(builder.getCommandPrefix(resolver))
+            .addAll(buildArgs)
+            .build();
+
+    if (nativePexWriter) {
+      // Only have the PEX builder generate the bootstrap, and package everything ourselves.
+      Path bootstrapDirectory = workingDirectory.resolve("bootstrap");
+      steps.add(
+          new PexStep(
+              getProjectFilesystem(),
+              builder.getEnvironment(resolver),
+              ImmutableList.<String>builder().addAll(commandPrefix).add("--directory").build(),
+              pythonEnvironment.getPythonPath(),
+              pythonEnvironment.getPythonVersion(),
+              workingDirectory,
+              bootstrapDirectory,
+              mainModule,
+              ImmutableMap.of(),
+              ImmutableMap.of(),
+              ImmutableMap.of(),
+              ImmutableSetMultimap.of(),
+              preloadLibraries,
+              getComponents().isZipSafe().orElse(true)));
+      steps.add(
+          new NativePexStep(
+              getProjectFilesystem(),
+              bootstrapDirectory,
+              getShebang(commandPrefix, pythonEnvironment.getPythonVersion()),
+              binPath,
+              modules,
+              resources,
+              nativeLibraries,
+              moduleDirs));
+    } else {
+      // Generate and return the PEX build step.
+      steps.add(
+          new PexStep(
+              getProjectFilesystem(),
+              builder.getEnvironment(resolver),
+              commandPrefix,
+              pythonEnvironment.getPythonPath(),
+              pythonEnvironment.getPythonVersion(),
+              workingDirectory,
+              binPath,
+              mainModule,
+              modules,
+              resources,
+              nativeLibraries,
+              moduleDirs,
+              preloadLibraries,
+              getComponents().isZipSafe().orElse(true)));
+    }
 
     // Record the executable package for caching.
     buildableContext.recordArtifact(binPath);
 
     return steps.build();
   }
+  /**
+   * @return the first line of the PEX, which is the one the PEX builder would write: the one given
+   *     with {@code --python-shebang}, or else an {@code env} line for the interpreter the PEX is
+   *     built for.
+   */
+  @VisibleForTesting
+  static String getShebang(ImmutableList<String> commandPrefix, PythonVersion version) {
+    Optional<String> shebang = Optional.empty();
+    for (int i = 0; i < commandPrefix.size(); i++) {
+      String arg = commandPrefix.get(i);
+      if (i > 0 && commandPrefix.get(i - 1).equals("--python-shebang")) {
+        shebang = Optional.of(arg);
+      } else if (arg.startsWith("--python-shebang=")) {
+        shebang = Optional.of(arg.substring("--python-shebang=".length()));
+      }
+    }
+    return "#!" + shebang.orElseGet(() -> "/usr/bin/env " + getInterpreterCommand(version));
+  }
+
+  /** @return the command pex's {@code PythonIdentity.hashbang()} uses for the given version. */
+  private static String getInterpreterCommand(PythonVersion version) {
+    switch (version.getInterpreterName()) {
+      case "PyPy":
+        return "pypy";
+      case "Jython":
+        return "jython";
+      default:
+        return "python" + version.getVersionString();
+    }
+  }
+
 
   @Override
   public Stream<BuildTarget> getRuntimeDeps(BuildRuleResolver buildRuleResolver) {
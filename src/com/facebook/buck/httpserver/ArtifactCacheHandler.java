@@ -26,10 +26,13 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 import com.google.common.util.concurrent.Futures;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -84,6 +87,11 @@ public class ArtifactCacheHandler extends AbstractHandler {
       status = handleGet(baseRequest, response);
     } else if (method.equals("PUT")) {
       status = handlePut(baseRequest, response);
+    } else if (method.equals("POST")
+        && baseRequest.getHttpURI().getPath().endsWith("/multicontains")) {
+      status = handleMultiContains(baseRequest, response);
+    } else if (method.equals("POST")) {
+      status = handleMultiFetch(baseRequest, response);
     }
     return status;
   }
@@ -132,6 +140,91 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
   }
 
+  private int handleMultiFetch(Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    String path = baseRequest.getHttpURI().getPath();
+    String[] pathElements = path.split("/");
+    if (pathElements.length != 3 || !pathElements[2].equals("multifetch")) {
+      response.getWriter().write("Incorrect url format.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    ImmutableList<RuleKey> ruleKeys;
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readMultiFetchRequest(requestInputData);
+    }
+
+    // Each entry is written as soon as its artifact is fetched, so the status has to be set before
+    // the response starts streaming.
+    response.setStatus(HttpServletResponse.SC_OK);
+    projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
+    DataOutputStream output = new DataOutputStream(response.getOutputStream());
+    HttpArtifactCacheBinaryProtocol.writeMultiFetchResponseHeader(output, ruleKeys.size());
+    for (RuleKey ruleKey : ruleKeys) {
+      Path temp = null;
+      try {
+        temp =
+            projectFilesystem.createTempFile(
+                projectFilesystem.getBuckPaths().getScratchDir(), "outgoing_rulekey", ".tmp");
+        CacheResult fetchResult =
+            Futures.getUnchecked(
+                artifactCache.get().fetchAsync(null, ruleKey, LazyPath.ofInstance(temp)));
+        if (!fetchResult.getType().isSuccess()) {
+          HttpArtifactCacheBinaryProtocol.writeMultiFetchMiss(output);
+          continue;
+        }
+
+        Path tempFinal = temp;
+        HttpArtifactCacheBinaryProtocol.writeMultiFetchHit(
+            output,
+            new HttpArtifactCacheBinaryProtocol.FetchResponse(
+                ImmutableSet.of(ruleKey),
+                fetchResult.getMetadata(),
+                new ByteSource() {
+                  @Override
+                  public InputStream openStream() throws IOException {
+                    return projectFilesystem.newFileInputStream(tempFinal);
+                  }
+                }));
+      } finally {
+        if (temp != null) {
+          projectFilesystem.deleteFileAtPathIfExists(temp);
+        }
+      }
+    }
+    output.flush();
+    return HttpServletResponse.SC_OK;
+  }
+
+  private int handleMultiContains(Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    String path = baseRequest.getHttpURI().getPath();
+    String[] pathElements = path.split("/");
+    if (pathElements.length != 3 || !pathElements[2].equals("multicontains")) {
+      response.getWriter().write("Incorrect url format.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    ImmutableList<RuleKey> ruleKeys;
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readMultiContainsRequest(requestInputData);
+    }
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            artifactCache.get().multiContainsAsync(ImmutableSet.copyOf(ruleKeys)));
+
+    ImmutableList.Builder<Boolean> found = ImmutableList.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      CacheResult result = results.get(ruleKey);
+      found.add(result != null && result.getType().isSuccess());
+    }
+    response.setStatus(HttpServletResponse.SC_OK);
+    DataOutputStream output = new DataOutputStream(response.getOutputStream());
+    HttpArtifactCacheBinaryProtocol.writeMultiContainsResponse(output, found.build());
+    output.flush();
+    return HttpServletResponse.SC_OK;
+  }
+
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
     Path temp = null;
     try {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.core.util.log.Logger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * A standalone server for the http cache protocol, meant to be shared by many machines, unlike the
+ * cache served by {@link WebServer}, which serves the local cache of a single daemon.
+ */
+public class CacheServer implements AutoCloseable {
+  private static final Logger LOG = Logger.get(CacheServer.class);
+
+  private static final String ARTIFACTS_CONTEXT_PATH = "/artifacts";
+
+  private final Server server;
+  private final ServerConnector connector;
+  private final ShardedArtifactStore store;
+
+  /**
+   * @param port the port to listen on, or 0 for an ephemeral port; see {@link #getPort()}.
+   * @param threads the number of threads handling requests. Responses are sent without blocking
+   *     them, so this mostly bounds how many uploads are received at once.
+   */
+  public CacheServer(int port, int threads, ShardedArtifactStore store, Path tmpDirectory)
+      throws IOException {
+    this.store = store;
+    this.server = new Server(new QueuedThreadPool(threads, Math.min(threads, 8)));
+    this.connector = new ServerConnector(server);
+    connector.setPort(port);
+    server.addConnector(connector);
+
+    Files.createDirectories(tmpDirectory);
+    ContextHandler contextHandler = new ContextHandler(ARTIFACTS_CONTEXT_PATH);
+    contextHandler.setHandler(new CacheServerHandler(store, tmpDirectory));
+    server.setHandler(contextHandler);
+  }
+
+  public void start() throws Exception {
+    server.start();
+    LOG.info("Cache server is started on port %d.", getPort());
+  }
+
+  /** @return the port the server is listening on. */
+  public int getPort() {
+    return connector.getLocalPort();
+  }
+
+  public ShardedArtifactStore getStore() {
+    return store;
+  }
+
+  /** Blocks until the server is stopped. */
+  public void join() throws InterruptedException {
+    server.join();
+  }
+
+  @Override
+  public void close() throws Exception {
+    server.stop();
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
+import com.facebook.buck.artifact_cache.StoreResponseReadResult;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import javax.servlet.AsyncContext;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Serves a {@link ShardedArtifactStore} over the http cache protocol, including multi-fetches.
+ *
+ * <p>Entries are mapped into memory and handed to Jetty's non-blocking output, so the bytes of an
+ * artifact go from the page cache to the socket without being copied through the heap, and no
+ * request thread waits on slow clients while they are sent.
+ */
+public class CacheServerHandler extends AbstractHandler {
+  private static final Logger LOG = Logger.get(CacheServerHandler.class);
+
+  private final ShardedArtifactStore store;
+  private final Path tmpDirectory;
+
+  /** @param tmpDirectory the directory to receive uploads in. */
+  public CacheServerHandler(ShardedArtifactStore store, Path tmpDirectory) {
+    this.store = store;
+    this.tmpDirectory = tmpDirectory;
+  }
+
+  @Override
+  public void handle(
+      String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    baseRequest.setHandled(true);
+    String[] pathElements = baseRequest.getHttpURI().getPath().split("/");
+    String method = baseRequest.getMethod();
+    try {
+      if (method.equals("GET") && pathElements.length == 4 && pathElements[2].equals("key")) {
+        handleFetch(baseRequest, new RuleKey(pathElements[3]));
+      } else if (method.equals("PUT")
+          && pathElements.length == 3
+          && pathElements[2].equals("key")) {
+        handleStore(baseRequest);
+      } else if (method.equals("POST")
+          && pathElements.length == 3
+          && pathElements[2].equals("multifetch")) {
+        handleMultiFetch(baseRequest);
+      } else if (method.equals("POST")
+          && pathElements.length == 3
+          && pathElements[2].equals("multicontains")) {
+        handleMultiContains(baseRequest);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "Incorrect url format.");
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    } catch (IOException e) {
+      LOG.error(e, "Exception when handling request %s", target);
+      if (!response.isCommitted()) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+      }
+    }
+  }
+
+  private void handleFetch(Request baseRequest, RuleKey ruleKey) throws IOException {
+    Optional<ByteBuffer> entry = map(ruleKey);
+    if (!entry.isPresent()) {
+      baseRequest.getResponse().setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    baseRequest.getResponse().setStatus(HttpServletResponse.SC_OK);
+    baseRequest.getResponse().setContentLengthLong(entry.get().remaining());
+    send(baseRequest, new ArrayDeque<>(Collections.singleton(entry.get())));
+  }
+
+  private void handleMultiFetch(Request baseRequest) throws IOException {
+    List<RuleKey> ruleKeys;
+    try (DataInputStream input = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readMultiFetchRequest(input);
+    }
+
+    // The few bytes between entries are gathered into small buffers, while the entries themselves
+    // are sent from the mapped files.
+    Deque<ByteBuffer> buffers = new ArrayDeque<>();
+    ByteArrayOutputStream headers = new ByteArrayOutputStream();
+    DataOutputStream headersOutput = new DataOutputStream(headers);
+    HttpArtifactCacheBinaryProtocol.writeMultiFetchResponseHeader(headersOutput, ruleKeys.size());
+    for (RuleKey ruleKey : ruleKeys) {
+      Optional<ByteBuffer> entry = map(ruleKey);
+      if (entry.isPresent()) {
+        HttpArtifactCacheBinaryProtocol.writeMultiFetchHitHeader(
+            headersOutput, entry.get().remaining());
+        buffers.add(ByteBuffer.wrap(headers.toByteArray()));
+        buffers.add(entry.get());
+        headers.reset();
+      } else {
+        HttpArtifactCacheBinaryProtocol.writeMultiFetchMiss(headersOutput);
+      }
+    }
+    if (headers.size() > 0) {
+      buffers.add(ByteBuffer.wrap(headers.toByteArray()));
+    }
+
+    baseRequest.getResponse().setStatus(HttpServletResponse.SC_OK);
+    baseRequest
+        .getResponse()
+        .setContentLengthLong(buffers.stream().mapToLong(ByteBuffer::remaining).sum());
+    send(baseRequest, buffers);
+  }
+
+  private void handleMultiContains(Request baseRequest) throws IOException {
+    List<RuleKey> ruleKeys;
+    try (DataInputStream input = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readMultiContainsRequest(input);
+    }
+    List<Boolean> found = new ArrayList<>(ruleKeys.size());
+    for (RuleKey ruleKey : ruleKeys) {
+      found.add(store.contains(ruleKey));
+    }
+    baseRequest.getResponse().setStatus(HttpServletResponse.SC_OK);
+    DataOutputStream output = new DataOutputStream(baseRequest.getResponse().getOutputStream());
+    HttpArtifactCacheBinaryProtocol.writeMultiContainsResponse(output, found);
+    output.flush();
+  }
+
+  private void handleStore(Request baseRequest) throws IOException {
+    Path temp = Files.createTempFile(tmpDirectory, "incoming_upload", ".tmp");
+    try {
+      StoreResponseReadResult storeRequest;
+      try (DataInputStream input = new DataInputStream(baseRequest.getInputStream());
+          OutputStream output = Files.newOutputStream(temp)) {
+        storeRequest = HttpArtifactCacheBinaryProtocol.readStoreRequest(input, output);
+      }
+      if (!storeRequest.getActualHashCode().equals(storeRequest.getExpectedHashCode())) {
+        baseRequest
+            .getResponse()
+            .sendError(HttpServletResponse.SC_NOT_ACCEPTABLE, "Checksum mismatch.");
+        return;
+      }
+      store.put(storeRequest.getRuleKeys(), storeRequest.getMetadata(), temp);
+      baseRequest.getResponse().setStatus(HttpServletResponse.SC_ACCEPTED);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private Optional<ByteBuffer> map(RuleKey ruleKey) throws IOException {
+    Optional<FileChannel> channel = store.open(ruleKey);
+    if (!channel.isPresent()) {
+      return Optional.empty();
+    }
+    // The mapping stays valid once the channel is closed, and even once the entry is evicted.
+    try (FileChannel entry = channel.get()) {
+      return Optional.of(entry.map(FileChannel.MapMode.READ_ONLY, 0, entry.size()));
+    }
+  }
+
+  /** Sends the buffers one after the other, without blocking the calling thread. */
+  private static void send(Request baseRequest, Deque<ByteBuffer> buffers) {
+    AsyncContext asyncContext = baseRequest.startAsync();
+    HttpOutput output = baseRequest.getResponse().getHttpOutput();
+    output.setWriteListener(
+        new WriteListener() {
+          @Override
+          public void onWritePossible() throws IOException {
+            while (output.isReady()) {
+              ByteBuffer buffer = buffers.poll();
+              if (buffer == null) {
+                asyncContext.complete();
+                return;
+              }
+              output.write(buffer);
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            LOG.debug(t, "Failed to send a response to %s.", baseRequest.getRemoteAddr());
+            asyncContext.complete();
+          }
+        });
+  }
+}
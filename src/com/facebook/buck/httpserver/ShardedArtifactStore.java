@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol.FetchResponse;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.MostFiles;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The on-disk store of the cache server.
+ *
+ * <p>Artifacts are kept as the fetch responses of the http cache protocol, so that they can be sent
+ * as they are, straight from the page cache. Keys are spread over shards, each with its own
+ * directory, lock and share of the size limit, and each shard evicts its least recently used
+ * entries when it grows past its share. Recency isn't persisted, so after a restart entries are
+ * evicted in the order they were written in.
+ */
+public class ShardedArtifactStore {
+
+  private static final Logger LOG = Logger.get(ShardedArtifactStore.class);
+
+  private final Path tmpDirectory;
+  private final Shard[] shards;
+
+  /**
+   * @param root the directory to keep the entries in, which may already have entries written by a
+   *     previous server, possibly with a different number of shards.
+   * @param shardCount the number of shards, which bounds how many stores and fetches can update
+   *     recency at once.
+   * @param maxSizeBytes the size past which entries are evicted.
+   */
+  public ShardedArtifactStore(Path root, int shardCount, long maxSizeBytes) throws IOException {
+    Preconditions.checkArgument(shardCount > 0, "There must be at least one shard.");
+    this.tmpDirectory = root.resolve("tmp");
+    // Left over from stores which were interrupted.
+    MostFiles.deleteRecursivelyIfExists(tmpDirectory);
+    Files.createDirectories(tmpDirectory);
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] =
+          new Shard(
+              root.resolve(String.format("%03d", i)), tmpDirectory, maxSizeBytes / shardCount);
+      Files.createDirectories(shards[i].directory);
+    }
+    load(root);
+  }
+
+  /**
+   * Opens the fetch response stored for a key, and marks it as recently used. The entry may be
+   * evicted while the channel is open, without affecting what is read from it.
+   *
+   * @return the channel to read the fetch response from, or empty if there is no entry for the key.
+   */
+  public Optional<FileChannel> open(RuleKey ruleKey) throws IOException {
+    return getShard(ruleKey).open(ruleKey);
+  }
+
+  /**
+   * @return whether there is an entry for the key, which is then marked as recently used, since it
+   *     is about to be fetched or relied upon.
+   */
+  public boolean contains(RuleKey ruleKey) {
+    return getShard(ruleKey).contains(ruleKey);
+  }
+
+  /** Stores an artifact under each of its rule keys, evicting older entries if needed. */
+  public void put(ImmutableSet<RuleKey> ruleKeys, ImmutableMap<String, String> metadata, Path file)
+      throws IOException {
+    Path entry = Files.createTempFile(tmpDirectory, "entry", ".tmp");
+    try {
+      FetchResponse fetchResponse =
+          new FetchResponse(ruleKeys, metadata, MoreFiles.asByteSource(file));
+      try (OutputStream output = Files.newOutputStream(entry)) {
+        fetchResponse.write(output);
+      }
+      for (RuleKey ruleKey : ruleKeys) {
+        getShard(ruleKey).put(ruleKey, entry);
+      }
+    } finally {
+      Files.deleteIfExists(entry);
+    }
+  }
+
+  /** @return the total size of the entries, in bytes. */
+  public long getSizeBytes() {
+    long sizeBytes = 0;
+    for (Shard shard : shards) {
+      sizeBytes += shard.getSizeBytes();
+    }
+    return sizeBytes;
+  }
+
+  private Shard getShard(RuleKey ruleKey) {
+    return shards[Math.floorMod(ruleKey.getHashCode().hashCode(), shards.length)];
+  }
+
+  /** Indexes the entries already on disk, from the oldest to the newest. */
+  private void load(Path root) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> directories = Files.newDirectoryStream(root, Files::isDirectory)) {
+      for (Path directory : directories) {
+        if (directory.equals(tmpDirectory)) {
+          continue;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+          entries.forEach(files::add);
+        }
+      }
+    }
+
+    Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+    for (Path file : files) {
+      attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+    files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+
+    for (Path file : files) {
+      RuleKey ruleKey;
+      try {
+        ruleKey = new RuleKey(file.getFileName().toString());
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Deleting %s, which isn't an entry of the store.", file);
+        Files.delete(file);
+        continue;
+      }
+      getShard(ruleKey).load(ruleKey, file, attributes.get(file).size());
+    }
+    LOG.info("Loaded %d bytes of entries from %s.", getSizeBytes(), root);
+  }
+
+  private static class Shard {
+    private final Path directory;
+    private final Path tmpDirectory;
+    private final long maxSizeBytes;
+
+    // In access order, so the eldest entry is the least recently used one.
+    @GuardedBy("this")
+    private final LinkedHashMap<RuleKey, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+
+    @GuardedBy("this")
+    private long sizeBytes = 0;
+
+    Shard(Path directory, Path tmpDirectory, long maxSizeBytes) {
+      this.directory = directory;
+      this.tmpDirectory = tmpDirectory;
+      this.maxSizeBytes = maxSizeBytes;
+    }
+
+    synchronized long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    synchronized boolean contains(RuleKey ruleKey) {
+      return sizes.get(ruleKey) != null;
+    }
+
+    synchronized Optional<FileChannel> open(RuleKey ruleKey) throws IOException {
+      if (sizes.get(ruleKey) == null) {
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(FileChannel.open(getPath(ruleKey), StandardOpenOption.READ));
+      } catch (NoSuchFileException e) {
+        LOG.warn("The entry of %s was deleted from under the store.", ruleKey);
+        sizeBytes -= sizes.remove(ruleKey);
+        return Optional.empty();
+      }
+    }
+
+    void put(RuleKey ruleKey, Path entry) throws IOException {
+      // Copy outside of the lock, so that only the move into place blocks other keys of the shard.
+      Path tmp = Files.createTempFile(tmpDirectory, ruleKey.toString(), ".tmp");
+      try {
+        Files.copy(entry, tmp, StandardCopyOption.REPLACE_EXISTING);
+        long size = Files.size(tmp);
+        synchronized (this) {
+          Files.move(
+              tmp,
+              getPath(ruleKey),
+              StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+          add(ruleKey, size);
+          evict();
+        }
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+
+    void load(RuleKey ruleKey, Path file, long size) throws IOException {
+      Path path = getPath(ruleKey);
+      if (!file.equals(path)) {
+        // Written when the store had a different number of shards.
+        Files.move(file, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      synchronized (this) {
+        add(ruleKey, size);
+        evict();
+      }
+    }
+
+    @GuardedBy("this")
+    private void add(RuleKey ruleKey, long size) {
+      Long previous = sizes.put(ruleKey, size);
+      sizeBytes += size - (previous == null ? 0 : previous);
+    }
+
+    @GuardedBy("this")
+    private void evict() throws IOException {
+      Iterator<Map.Entry<RuleKey, Long>> iterator = sizes.entrySet().iterator();
+      // Keep the newest entry even if it is too large on its own, rather than dropping every store.
+      while (sizeBytes > maxSizeBytes && sizes.size() > 1) {
+        Map.Entry<RuleKey, Long> eldest = iterator.next();
+        Files.deleteIfExists(getPath(eldest.getKey()));
+        sizeBytes -= eldest.getValue();
+        iterator.remove();
+      }
+    }
+
+    private Path getPath(RuleKey ruleKey) {
+      return directory.resolve(ruleKey.toString());
+    }
+  }
+}
@@ -27,6 +27,7 @@ import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.ProxyArg;
 import com.facebook.buck.shell.ProvidesWorkerTool;
 import com.facebook.buck.shell.WorkerTool;
+import com.facebook.buck.worker.AdaptiveWorkerPoolSizing;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
@@ -116,6 +117,14 @@ public class WorkerMacroArg extends ProxyArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxJobsPerWorker() {
+    return workerTool.getMaxJobsPerWorker();
+  }
+
+  public Optional<AdaptiveWorkerPoolSizing> getAdaptivePoolSizing() {
+    return workerTool.getAdaptivePoolSizing();
+  }
+
   public String getJobArgs(SourcePathResolver pathResolver) {
     return Arg.stringify(arg, pathResolver).trim();
   }
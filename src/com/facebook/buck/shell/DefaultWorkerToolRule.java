@@ -34,8 +34,10 @@ import com.facebook.buck.core.toolchain.tool.DelegatingTool;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.file.WriteFile;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.worker.AdaptiveWorkerPoolSizing;
 import com.google.common.hash.HashCode;
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.SortedSet;
 import java.util.UUID;
 import java.util.function.Supplier;
@@ -59,6 +61,8 @@ public class DefaultWorkerToolRule extends WriteFile
       SourcePathRuleFinder ruleFinder,
       Tool tool,
       int maxWorkers,
+      int maxJobsPerWorker,
+      Optional<AdaptiveWorkerPoolSizing> adaptivePoolSizing,
       boolean isPersistent) {
     super(
         buildTarget,
@@ -71,6 +75,8 @@ public class DefaultWorkerToolRule extends WriteFile
         new DefaultWorkerTool(
             new DefaultWorkerToolDelegatingTool(tool, getSourcePathToOutput()),
             maxWorkers,
+            maxJobsPerWorker,
+            adaptivePoolSizing,
             isPersistent,
             buildTarget,
             generateNewUUID());
@@ -141,6 +147,13 @@ public class DefaultWorkerToolRule extends WriteFile
     @CustomFieldBehavior(DefaultFieldSerialization.class)
     private final Integer maxWorkers;
 
+    /** Like maxWorkers, this only controls how jobs are scheduled on the worker processes. */
+    @CustomFieldBehavior(DefaultFieldSerialization.class)
+    private final Integer maxJobsPerWorker;
+
+    @CustomFieldBehavior(DefaultFieldSerialization.class)
+    private final Optional<AdaptiveWorkerPoolSizing> adaptivePoolSizing;
+
     /**
      * Important : Do not add this field into RuleKey. Rule key should not change in case of
      * instance key modification (that is calculated during creation as random UUID).
@@ -149,9 +162,17 @@ public class DefaultWorkerToolRule extends WriteFile
     private HashCode instanceKey;
 
     DefaultWorkerTool(
-        Tool tool, int maxWorkers, boolean isPersistent, BuildTarget buildTarget, UUID uuid) {
+        Tool tool,
+        int maxWorkers,
+        int maxJobsPerWorker,
+        Optional<AdaptiveWorkerPoolSizing> adaptivePoolSizing,
+        boolean isPersistent,
+        BuildTarget buildTarget,
+        UUID uuid) {
       this.tool = tool;
       this.maxWorkers = maxWorkers;
+      this.maxJobsPerWorker = maxJobsPerWorker;
+      this.adaptivePoolSizing = adaptivePoolSizing;
       this.isPersistent = isPersistent;
       this.buildTarget = buildTarget;
       this.instanceKey = calculateInstanceKey(uuid);
@@ -180,6 +201,16 @@ public class DefaultWorkerToolRule extends WriteFile
       return maxWorkers;
     }
 
+    @Override
+    public int getMaxJobsPerWorker() {
+      return maxJobsPerWorker;
+    }
+
+    @Override
+    public Optional<AdaptiveWorkerPoolSizing> getAdaptivePoolSizing() {
+      return adaptivePoolSizing;
+    }
+
     @Override
     public boolean isPersistent() {
       return isPersistent;
@@ -415,16 +415,18 @@ public class Genrule extends AbstractBuildRuleWithDeclaredAndExtraDeps
           return WorkerJobParams.of(
               workerMacroArg.getJobArgs(resolver),
               WorkerProcessParams.of(
-                  workerMacroArg.getTempDir(filesystem),
-                  workerMacroArg.getStartupCommand(),
-                  workerMacroArg.getEnvironment(),
-                  workerMacroArg.getMaxWorkers(),
-                  workerMacroArg.getPersistentWorkerKey().isPresent()
-                      ? Optional.of(
-                          WorkerProcessIdentity.of(
-                              workerMacroArg.getPersistentWorkerKey().get(),
-                              workerMacroArg.getWorkerHash()))
-                      : Optional.empty()));
+                      workerMacroArg.getTempDir(filesystem),
+                      workerMacroArg.getStartupCommand(),
+                      workerMacroArg.getEnvironment(),
+                      workerMacroArg.getMaxWorkers(),
+                      workerMacroArg.getPersistentWorkerKey().isPresent()
+                          ? Optional.of(
+                              WorkerProcessIdentity.of(
+                                  workerMacroArg.getPersistentWorkerKey().get(),
+                                  workerMacroArg.getWorkerHash()))
+                          : Optional.empty())
+                  .withMaxJobsPerWorker(workerMacroArg.getMaxJobsPerWorker())
+                  .withAdaptivePoolSizing(workerMacroArg.getAdaptivePoolSizing()));
         });
   }
 
@@ -19,8 +19,10 @@ package com.facebook.buck.shell;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.worker.AdaptiveWorkerPoolSizing;
 import com.google.common.hash.HashCode;
 import java.nio.file.Path;
+import java.util.Optional;
 
 /** Worker tool definition */
 public interface WorkerTool extends AddsToRuleKey {
@@ -31,6 +33,12 @@ public interface WorkerTool extends AddsToRuleKey {
 
   int getMaxWorkers();
 
+  /** Maximum number of jobs that one worker process runs at the same time. */
+  int getMaxJobsPerWorker();
+
+  /** How the worker pool grows towards {@link #getMaxWorkers()}, if it is not started at once. */
+  Optional<AdaptiveWorkerPoolSizing> getAdaptivePoolSizing();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
@@ -39,6 +39,7 @@ import com.facebook.buck.rules.macros.MacroExpander;
 import com.facebook.buck.rules.macros.StringWithMacros;
 import com.facebook.buck.rules.macros.StringWithMacrosConverter;
 import com.facebook.buck.util.types.Either;
+import com.facebook.buck.worker.AdaptiveWorkerPoolSizing;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -52,6 +53,11 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
   private static final String CONFIG_SECTION = "worker";
   private static final String CONFIG_PERSISTENT_KEY = "persistent";
+  private static final String CONFIG_ADAPTIVE_QUEUE_LATENCY_MS_KEY = "adaptive_queue_latency_ms";
+  private static final String CONFIG_ADAPTIVE_MAX_RESIDENT_MEMORY_MB_KEY =
+      "adaptive_max_resident_memory_mb";
+  private static final long DEFAULT_ADAPTIVE_QUEUE_LATENCY_MS = 100;
+  private static final long DEFAULT_ADAPTIVE_MAX_RESIDENT_MEMORY_MB = 8192;
 
   public static final ImmutableList<MacroExpander<? extends Macro, ?>> MACRO_EXPANDERS =
       ImmutableList.of(
@@ -152,6 +158,25 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
               .orElse(1);
     }
 
+    int maxJobsPerWorker = args.getMaxJobsPerWorker().orElse(1);
+    Preconditions.checkArgument(
+        maxJobsPerWorker > 0, "max_jobs_per_worker must be greater than 0.");
+
+    Optional<AdaptiveWorkerPoolSizing> adaptivePoolSizing =
+        args.getInitialWorkers()
+            .map(
+                initialWorkers ->
+                    AdaptiveWorkerPoolSizing.of(
+                        initialWorkers,
+                        buckConfig
+                            .getLong(CONFIG_SECTION, CONFIG_ADAPTIVE_QUEUE_LATENCY_MS_KEY)
+                            .orElse(DEFAULT_ADAPTIVE_QUEUE_LATENCY_MS),
+                        buckConfig
+                                .getLong(CONFIG_SECTION, CONFIG_ADAPTIVE_MAX_RESIDENT_MEMORY_MB_KEY)
+                                .orElse(DEFAULT_ADAPTIVE_MAX_RESIDENT_MEMORY_MB)
+                            * 1024
+                            * 1024));
+
     CommandTool tool = builder.build();
     return new DefaultWorkerToolRule(
         buildTarget,
@@ -159,6 +184,8 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
         graphBuilder,
         tool,
         maxWorkers,
+        maxJobsPerWorker,
+        adaptivePoolSizing,
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -179,6 +206,10 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
     Optional<Integer> getMaxWorkersPerThreadPercent();
 
+    Optional<Integer> getMaxJobsPerWorker();
+
+    Optional<Integer> getInitialWorkers();
+
     Optional<Boolean> getPersistent();
   }
 }
@@ -42,6 +42,8 @@ abstract class AbstractClientSideSlbConfig {
 
   public static final int MIN_SAMPLES_TO_REPORT_ERROR_DEFAULT_VALUE = 1;
 
+  public static final int MAX_CONCURRENT_REQUESTS_PER_SERVER = 0;
+
   public abstract Clock getClock();
 
   public abstract ImmutableList<URI> getServerPool();
@@ -89,4 +91,16 @@ abstract class AbstractClientSideSlbConfig {
   public int getMinSamplesToReportError() {
     return MIN_SAMPLES_TO_REPORT_ERROR_DEFAULT_VALUE;
   }
+
+  /** Whether reads which take longer than usual are also sent to the next best server. */
+  @Value.Default
+  public boolean getHedgeReads() {
+    return false;
+  }
+
+  /** Zero means that any number of requests may be sent to a server at once. */
+  @Value.Default
+  public int getMaxConcurrentRequestsPerServer() {
+    return MAX_CONCURRENT_REQUESTS_PER_SERVER;
+  }
 }
@@ -32,6 +32,8 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -57,6 +59,7 @@ public class ClientSideSlb implements HttpLoadBalancer {
   private final ScheduledExecutorService schedulerService;
   private final ScheduledFuture<?> backgroundHealthChecker;
   private final BuckEventBus eventBus;
+  private final boolean hedgeReads;
 
   public static boolean isSafeToCreate(ClientSideSlbConfig config) {
     return config.getPingEndpoint() != null
@@ -95,6 +98,7 @@ public class ClientSideSlb implements HttpLoadBalancer {
     this.pingEndpoint = Objects.requireNonNull(config.getPingEndpoint());
     this.serverPool = Objects.requireNonNull(config.getServerPool());
     this.eventBus = Objects.requireNonNull(config.getEventBus());
+    this.hedgeReads = config.getHedgeReads();
     Preconditions.checkArgument(serverPool.size() > 0, "No server URLs passed.");
 
     this.healthManager =
@@ -106,6 +110,7 @@ public class ClientSideSlb implements HttpLoadBalancer {
             config.getLatencyCheckTimeRangeMillis(),
             config.getMaxAcceptableLatencyMillis(),
             config.getMinSamplesToReportError(),
+            config.getMaxConcurrentRequestsPerServer(),
             config.getEventBus(),
             this.clock);
     this.pingClient = pingClient;
@@ -133,6 +138,31 @@ public class ClientSideSlb implements HttpLoadBalancer {
     healthManager.reportRequestError(server);
   }
 
+  @Override
+  public Optional<URI> getHedgeServer(URI primary) {
+    return hedgeReads ? healthManager.getHedgeServer(primary) : Optional.empty();
+  }
+
+  @Override
+  public OptionalLong getHedgeDelayMillis(URI server) {
+    return hedgeReads ? healthManager.getHedgeDelayMillis(server) : OptionalLong.empty();
+  }
+
+  @Override
+  public void reportRequestStarted(URI server) {
+    healthManager.reportRequestStarted(server);
+  }
+
+  @Override
+  public void reportRequestFinished(URI server) {
+    healthManager.reportRequestFinished(server);
+  }
+
+  @Override
+  public void reportRequestLatency(URI server, long latencyMillis) {
+    healthManager.reportRequestLatency(server, latencyMillis);
+  }
+
   @Override
   public void close() {
     backgroundHealthChecker.cancel(true);
@@ -17,6 +17,8 @@
 package com.facebook.buck.slb;
 
 import java.net.URI;
+import java.util.Optional;
+import java.util.OptionalLong;
 
 public interface HttpLoadBalancer extends AutoCloseable {
   URI getBestServer() throws NoHealthyServersException;
@@ -25,6 +27,31 @@ public interface HttpLoadBalancer extends AutoCloseable {
 
   void reportRequestException(URI server);
 
+  /**
+   * @return a server other than the given one to send a duplicate of a slow request to, if the
+   *     load balancer hedges requests.
+   */
+  @SuppressWarnings("unused")
+  default Optional<URI> getHedgeServer(URI primary) {
+    return Optional.empty();
+  }
+
+  /** @return how long to wait for a request to the server before hedging it, if it should be. */
+  @SuppressWarnings("unused")
+  default OptionalLong getHedgeDelayMillis(URI server) {
+    return OptionalLong.empty();
+  }
+
+  @SuppressWarnings("unused")
+  default void reportRequestStarted(URI server) {}
+
+  @SuppressWarnings("unused")
+  default void reportRequestFinished(URI server) {}
+
+  /** Records how long the server took to start responding to a request. */
+  @SuppressWarnings("unused")
+  default void reportRequestLatency(URI server, long latencyMillis) {}
+
   @Override
   void close();
 }
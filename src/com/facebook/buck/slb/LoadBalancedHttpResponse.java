@@ -26,29 +26,67 @@ import okhttp3.Response;
 public class LoadBalancedHttpResponse extends OkHttpResponseWrapper {
   private final HttpLoadBalancer loadBalancer;
   private final URI server;
+  private final Runnable onClose;
   private boolean hasConnectionResultBeenReported;
+  private boolean hasCloseBeenReported;
 
   private static final boolean FIX_HTTP_BOTTLENECK =
       "true".equals(System.getProperty("buck.fix_http_bottleneck"));
 
   public static LoadBalancedHttpResponse createLoadBalancedResponse(
       URI server, HttpLoadBalancer loadBalancer, Call call) throws IOException {
+    loadBalancer.reportRequestStarted(server);
+    Response response;
     try {
-      return new LoadBalancedHttpResponse(server, loadBalancer, call.execute());
+      response = call.execute();
     } catch (IOException e) {
-      if (FIX_HTTP_BOTTLENECK) {
-        loadBalancer.reportRequestException(server);
-      }
+      reportRequestFailure(server, loadBalancer, call);
       throw e;
     }
+    return createLoadBalancedResponse(server, loadBalancer, response);
+  }
+
+  /**
+   * Wraps the response to a call which was reported as started to the load balancer, and reports
+   * the call as finished once the response is closed.
+   */
+  static LoadBalancedHttpResponse createLoadBalancedResponse(
+      URI server, HttpLoadBalancer loadBalancer, Response response) {
+    loadBalancer.reportRequestLatency(
+        server, response.receivedResponseAtMillis() - response.sentRequestAtMillis());
+    return new LoadBalancedHttpResponse(
+        server, loadBalancer, response, () -> loadBalancer.reportRequestFinished(server));
+  }
+
+  /**
+   * Reports a call which was reported as started to the load balancer, and failed before there
+   * was a response, as finished. Calls which were cancelled don't count as errors of the server.
+   */
+  static void reportRequestFailure(URI server, HttpLoadBalancer loadBalancer, Call call) {
+    loadBalancer.reportRequestFinished(server);
+    if (FIX_HTTP_BOTTLENECK && !call.isCanceled()) {
+      loadBalancer.reportRequestException(server);
+    }
   }
 
   @VisibleForTesting
   LoadBalancedHttpResponse(URI server, HttpLoadBalancer loadBalancer, Response response) {
+    this(server, loadBalancer, response, () -> {});
+  }
+
+  private LoadBalancedHttpResponse(
+      URI server, HttpLoadBalancer loadBalancer, Response response, Runnable onClose) {
     super(response);
     this.loadBalancer = loadBalancer;
     this.server = server;
+    this.onClose = onClose;
     this.hasConnectionResultBeenReported = false;
+    this.hasCloseBeenReported = false;
+  }
+
+  /** @return the server which responded. */
+  URI getServer() {
+    return server;
   }
 
   @Override
@@ -68,7 +106,14 @@ public class LoadBalancedHttpResponse extends OkHttpResponseWrapper {
 
   @Override
   public void close() throws IOException {
-    super.close();
+    try {
+      super.close();
+    } finally {
+      if (!hasCloseBeenReported) {
+        hasCloseBeenReported = true;
+        onClose.run();
+      }
+    }
 
     // We can only be sure a connection was successful after all data was read and the
     // connection successfully closed.
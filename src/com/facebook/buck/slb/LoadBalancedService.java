@@ -18,12 +18,25 @@ package com.facebook.buck.slb;
 
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.Response;
 
 public class LoadBalancedService implements HttpService {
   private static final Logger LOG = Logger.get(LoadBalancedService.class);
@@ -31,11 +44,23 @@ public class LoadBalancedService implements HttpService {
   private final HttpLoadBalancer slb;
   private final OkHttpClient client;
   private final BuckEventBus eventBus;
+  private final boolean hedgeRequests;
 
   public LoadBalancedService(HttpLoadBalancer slb, OkHttpClient client, BuckEventBus eventBus) {
+    this(slb, client, eventBus, false);
+  }
+
+  /**
+   * @param hedgeRequests whether requests which take longer than usual are also sent to another
+   *     server, as the load balancer decides. Only services whose requests are idempotent, and
+   *     whose request bodies can be sent twice, should hedge them.
+   */
+  public LoadBalancedService(
+      HttpLoadBalancer slb, OkHttpClient client, BuckEventBus eventBus, boolean hedgeRequests) {
     this.slb = slb;
     this.client = client;
     this.eventBus = eventBus;
+    this.hedgeRequests = hedgeRequests;
   }
 
   @Override
@@ -50,11 +75,19 @@ public class LoadBalancedService implements HttpService {
     if (request.body() != null && request.body().contentLength() != -1) {
       data.setRequestSizeBytes(request.body().contentLength());
     }
-    LOG.verbose("Making call to %s", fullUrl);
-    Call call = client.newCall(request);
+    OptionalLong hedgeDelayMillis =
+        hedgeRequests ? slb.getHedgeDelayMillis(server) : OptionalLong.empty();
     try {
-      HttpResponse response =
-          LoadBalancedHttpResponse.createLoadBalancedResponse(server, slb, call);
+      HttpResponse response;
+      if (hedgeDelayMillis.isPresent()) {
+        response =
+            makeHedgedRequest(
+                server, request, hedgeDelayMillis.getAsLong(), path, requestBuilder, data);
+      } else {
+        LOG.verbose("Making call to %s", fullUrl);
+        Call call = client.newCall(request);
+        response = LoadBalancedHttpResponse.createLoadBalancedResponse(server, slb, call);
+      }
       if (response.contentLength() != -1) {
         data.setResponseSizeBytes(response.contentLength());
       }
@@ -68,6 +101,127 @@ public class LoadBalancedService implements HttpService {
     }
   }
 
+  /**
+   * Sends the request to the server and, if it has not responded after the delay, sends it to the
+   * next best server too. The first response is returned, and the other call is cancelled.
+   */
+  private HttpResponse makeHedgedRequest(
+      URI server,
+      Request request,
+      long hedgeDelayMillis,
+      String path,
+      Request.Builder requestBuilder,
+      LoadBalancedServiceEventData.Builder data)
+      throws IOException {
+    HedgedCalls calls = new HedgedCalls();
+    LOG.verbose("Making call to %s", request.url());
+    calls.start(server, request);
+    try {
+      try {
+        return calls.getFirstResponse().get(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // The server is slower than it usually is, so try another one as well.
+      }
+      Optional<URI> hedgeServer = slb.getHedgeServer(server);
+      if (hedgeServer.isPresent()) {
+        URL hedgeUrl = SingleUriService.getFullUrl(hedgeServer.get(), path);
+        LOG.verbose("Hedging call to %s after %d ms with %s", server, hedgeDelayMillis, hedgeUrl);
+        if (!calls.start(hedgeServer.get(), requestBuilder.url(hedgeUrl).build())) {
+          hedgeServer = Optional.empty();
+        }
+      }
+      LoadBalancedHttpResponse response = calls.getFirstResponse().get();
+      if (hedgeServer.isPresent()) {
+        data.setHedgeServer(hedgeServer.get())
+            .setHedgeWon(response.getServer().equals(hedgeServer.get()));
+      }
+      return response;
+    } catch (InterruptedException e) {
+      calls.abandon();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Calls racing to respond to the same request. */
+  private class HedgedCalls {
+    private final SettableFuture<LoadBalancedHttpResponse> firstResponse = SettableFuture.create();
+    private final List<Call> calls = new ArrayList<>();
+    private int failedCalls = 0;
+
+    public SettableFuture<LoadBalancedHttpResponse> getFirstResponse() {
+      return firstResponse;
+    }
+
+    /** @return whether the call was started, which it isn't once the race is over. */
+    public synchronized boolean start(URI server, Request request) {
+      if (firstResponse.isDone()) {
+        return false;
+      }
+      Call call = client.newCall(request);
+      calls.add(call);
+      long startMillis = System.currentTimeMillis();
+      slb.reportRequestStarted(server);
+      call.enqueue(
+          new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+              LoadBalancedHttpResponse loadBalancedResponse =
+                  LoadBalancedHttpResponse.createLoadBalancedResponse(server, slb, response);
+              if (firstResponse.set(loadBalancedResponse)) {
+                cancelOthers(call);
+              } else {
+                loadBalancedResponse.close();
+              }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+              if (call.isCanceled()) {
+                // The server took at least this long, which keeps a server which is always
+                // hedged from staying the best one just because it never responds first.
+                slb.reportRequestLatency(server, System.currentTimeMillis() - startMillis);
+              }
+              LoadBalancedHttpResponse.reportRequestFailure(server, slb, call);
+              onCallFailed(e);
+            }
+          });
+      return true;
+    }
+
+    /** Gives up on the request, cancelling its calls and closing any response they get. */
+    public void abandon() throws IOException {
+      if (!firstResponse.cancel(false)) {
+        try {
+          Futures.getDone(firstResponse).close();
+        } catch (ExecutionException e) {
+          // All calls failed, so there is nothing to close.
+        }
+      }
+      cancelOthers(null);
+    }
+
+    private synchronized void onCallFailed(IOException e) {
+      failedCalls++;
+      if (failedCalls == calls.size()) {
+        firstResponse.setException(e);
+      }
+    }
+
+    private synchronized void cancelOthers(@Nullable Call winner) {
+      for (Call call : calls) {
+        if (call != winner) {
+          call.cancel();
+        }
+      }
+    }
+  }
+
   @Override
   public void close() {
     slb.close();
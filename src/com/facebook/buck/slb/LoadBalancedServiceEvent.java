@@ -57,5 +57,11 @@ public class LoadBalancedServiceEvent extends AbstractBuckEvent {
     Optional<Long> getLatencyMicros();
 
     Optional<Long> getResponseSizeBytes();
+
+    /** The server a duplicate of the request was sent to, because the first one was slow. */
+    Optional<URI> getHedgeServer();
+
+    /** Whether the duplicate of the request was answered first. */
+    Optional<Boolean> getHedgeWon();
   }
 }
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +42,12 @@ import java.util.stream.Collectors;
 public class ServerHealthManager {
   public static final int CACHE_TIME_MS = 1000;
 
+  /** Requests are hedged after the time the server took to answer this fraction of requests. */
+  public static final float HEDGE_PERCENTILE = 0.95f;
+
+  /** How many request latencies a server needs before its percentile is trusted for hedging. */
+  public static final int MIN_SAMPLES_TO_HEDGE = 20;
+
   private static final Comparator<Pair<URI, Long>> LATENCY_COMPARATOR =
       (o1, o2) -> (int) (o1.getSecond() - o2.getSecond());
 
@@ -50,8 +57,10 @@ public class ServerHealthManager {
   private final int latencyCheckTimeRangeMillis;
   private final float maxErrorPercentage;
   private final int errorCheckTimeRangeMillis;
+  private final int maxConcurrentRequestsPerServer;
   private final BuckEventBus eventBus;
-  private final LoadingCache<Object, Optional<URI>> getBestServerCache;
+  // Healthy servers, from the fastest to the slowest.
+  private final LoadingCache<Object, ImmutableList<URI>> rankedServersCache;
   private final String serverPoolName;
 
   private final Clock clock;
@@ -66,25 +75,54 @@ public class ServerHealthManager {
       int minSamplesToReportError,
       BuckEventBus eventBus,
       Clock clock) {
+    this(
+        serverPoolName,
+        servers,
+        errorCheckTimeRangeMillis,
+        maxErrorPercentage,
+        latencyCheckTimeRangeMillis,
+        maxAcceptableLatencyMillis,
+        minSamplesToReportError,
+        0,
+        eventBus,
+        clock);
+  }
+
+  /**
+   * @param maxConcurrentRequestsPerServer how many requests may be in flight to a server before
+   *     the next best one is used instead. Zero means there is no limit.
+   */
+  public ServerHealthManager(
+      String serverPoolName,
+      ImmutableList<URI> servers,
+      int errorCheckTimeRangeMillis,
+      float maxErrorPercentage,
+      int latencyCheckTimeRangeMillis,
+      int maxAcceptableLatencyMillis,
+      int minSamplesToReportError,
+      int maxConcurrentRequestsPerServer,
+      BuckEventBus eventBus,
+      Clock clock) {
     this.serverPoolName = serverPoolName;
     this.errorCheckTimeRangeMillis = errorCheckTimeRangeMillis;
     this.maxErrorPercentage = maxErrorPercentage;
     this.latencyCheckTimeRangeMillis = latencyCheckTimeRangeMillis;
     this.maxAcceptableLatencyMillis = maxAcceptableLatencyMillis;
+    this.maxConcurrentRequestsPerServer = maxConcurrentRequestsPerServer;
     this.clock = clock;
     this.servers = new ConcurrentHashMap<>();
     for (URI server : servers) {
       this.servers.put(server, new ServerHealthState(server, minSamplesToReportError));
     }
     this.eventBus = eventBus;
-    this.getBestServerCache =
+    this.rankedServersCache =
         CacheBuilder.newBuilder()
             .expireAfterWrite(CACHE_TIME_MS, TimeUnit.MILLISECONDS)
             .build(
-                new CacheLoader<Object, Optional<URI>>() {
+                new CacheLoader<Object, ImmutableList<URI>>() {
                   @Override
-                  public Optional<URI> load(Object key) {
-                    return calculateBestServer();
+                  public ImmutableList<URI> load(Object key) {
+                    return calculateRankedServers();
                   }
                 });
   }
@@ -93,7 +131,7 @@ public class ServerHealthManager {
     Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
     servers.get(server).reportPingLatency(clock.currentTimeMillis(), latencyMillis);
     if (latencyMillis > maxAcceptableLatencyMillis) {
-      getBestServerCache.refresh(this);
+      rankedServersCache.refresh(this);
     }
   }
 
@@ -101,7 +139,7 @@ public class ServerHealthManager {
     Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
     // Invalidate the best server on any error.
     servers.get(server).reportRequestError(clock.currentTimeMillis());
-    getBestServerCache.refresh(this);
+    rankedServersCache.refresh(this);
   }
 
   public void reportRequestSuccess(URI server) {
@@ -109,35 +147,104 @@ public class ServerHealthManager {
     servers.get(server).reportRequestSuccess(clock.currentTimeMillis());
   }
 
+  /** Records how long the server took to start responding to a request. */
+  public void reportRequestLatency(URI server, long latencyMillis) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    servers.get(server).reportRequestLatency(clock.currentTimeMillis(), latencyMillis);
+  }
+
+  public void reportRequestStarted(URI server) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    servers.get(server).reportRequestStarted();
+  }
+
+  public void reportRequestFinished(URI server) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    servers.get(server).reportRequestFinished();
+  }
+
+  /**
+   * @return the fastest healthy server which has room for another request, or the least busy
+   *     healthy server if none has.
+   */
   public URI getBestServer() throws NoHealthyServersException {
-    try {
-      Optional<URI> server = getBestServerCache.get(this);
+    ImmutableList<URI> rankedServers = getRankedServers();
+    if (!rankedServers.isEmpty()) {
+      Optional<URI> server = getFastestServerWithCapacity(rankedServers, Optional.empty());
       if (server.isPresent()) {
         return server.get();
       }
-      throw new NoHealthyServersException(
-          String.format(
-              "No servers available. High latency/errors reported: [%s]",
-              Joiner.on(", ")
-                  .join(
-                      servers.entrySet().stream()
-                          .map(
-                              e ->
-                                  String.format(
-                                      "%s (%d ms limit: %dms, error %.2f in last %d requests",
-                                      e.getKey().toString(),
-                                      e.getValue().getLastReportedLatency(),
-                                      maxAcceptableLatencyMillis,
-                                      e.getValue().getLastReportedErrorPercentage(),
-                                      e.getValue().getLastReportedSamples()))
-                          .sorted()
-                          .collect(Collectors.toList()))));
+      return rankedServers.stream()
+          .min(Comparator.comparingInt(uri -> servers.get(uri).getRequestsInFlight()))
+          .get();
+    }
+    throw new NoHealthyServersException(
+        String.format(
+            "No servers available. High latency/errors reported: [%s]",
+            Joiner.on(", ")
+                .join(
+                    servers.entrySet().stream()
+                        .map(
+                            e ->
+                                String.format(
+                                    "%s (%d ms limit: %dms, error %.2f in last %d requests",
+                                    e.getKey().toString(),
+                                    e.getValue().getLastReportedLatency(),
+                                    maxAcceptableLatencyMillis,
+                                    e.getValue().getLastReportedErrorPercentage(),
+                                    e.getValue().getLastReportedSamples()))
+                        .sorted()
+                        .collect(Collectors.toList()))));
+  }
+
+  /**
+   * @return the fastest healthy server, other than the given one, which has room for another
+   *     request. A duplicate of a slow request to the given server can be sent there.
+   */
+  public Optional<URI> getHedgeServer(URI primary) {
+    return getFastestServerWithCapacity(getRankedServers(), Optional.of(primary));
+  }
+
+  /**
+   * @return how long a request to the server may take before a duplicate is sent to another one,
+   *     or nothing if too few requests to the server completed recently to tell.
+   */
+  public OptionalLong getHedgeDelayMillis(URI server) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    long delayMillis =
+        servers
+            .get(server)
+            .getRequestLatencyPercentileMillis(
+                clock.currentTimeMillis(),
+                latencyCheckTimeRangeMillis,
+                HEDGE_PERCENTILE,
+                MIN_SAMPLES_TO_HEDGE);
+    return delayMillis < 0 ? OptionalLong.empty() : OptionalLong.of(delayMillis);
+  }
+
+  private Optional<URI> getFastestServerWithCapacity(
+      ImmutableList<URI> rankedServers, Optional<URI> excludedServer) {
+    for (URI server : rankedServers) {
+      if (excludedServer.isPresent() && excludedServer.get().equals(server)) {
+        continue;
+      }
+      if (maxConcurrentRequestsPerServer <= 0
+          || servers.get(server).getRequestsInFlight() < maxConcurrentRequestsPerServer) {
+        return Optional.of(server);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private ImmutableList<URI> getRankedServers() {
+    try {
+      return rankedServersCache.get(this);
     } catch (ExecutionException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private Optional<URI> calculateBestServer() {
+  private ImmutableList<URI> calculateRankedServers() {
     ServerHealthManagerEventData.Builder data =
         ServerHealthManagerEventData.builder().setServerPoolName(serverPoolName);
     Map<URI, PerServerData.Builder> allPerServerData = new HashMap<>();
@@ -152,7 +259,13 @@ public class ServerHealthManager {
         float errorPercentage = state.getErrorPercentage(epochMillis, errorCheckTimeRangeMillis);
         long latencyMillis = state.getPingLatencyMillis(epochMillis, latencyCheckTimeRangeMillis);
         if (errorPercentage <= maxErrorPercentage && latencyMillis <= maxAcceptableLatencyMillis) {
-          serverLatencies.add(new Pair<>(state.getServer(), latencyMillis));
+          // Requests tell how fast a server is under load better than pings do, so once there
+          // are some, servers are ranked by them.
+          long requestLatencyMillis = state.getRequestLatencyEwmaMillis();
+          serverLatencies.add(
+              new Pair<>(
+                  state.getServer(),
+                  requestLatencyMillis >= 0 ? requestLatencyMillis : latencyMillis));
         } else {
           perServerData.setServerUnhealthy(true);
         }
@@ -160,13 +273,13 @@ public class ServerHealthManager {
 
       if (serverLatencies.isEmpty()) {
         data.setNoHealthyServersAvailable(true);
-        return Optional.empty();
+        return ImmutableList.of();
       }
 
       serverLatencies.sort(LATENCY_COMPARATOR);
       URI bestServer = serverLatencies.get(0).getFirst();
       Objects.requireNonNull(allPerServerData.get(bestServer)).setBestServer(true);
-      return Optional.of(bestServer);
+      return serverLatencies.stream().map(Pair::getFirst).collect(ImmutableList.toImmutableList());
     } finally {
       for (PerServerData.Builder builder : allPerServerData.values()) {
         data.addPerServerData(builder.build());
@@ -20,12 +20,17 @@ import static com.facebook.buck.slb.AbstractClientSideSlbConfig.MIN_SAMPLES_TO_R
 
 import com.google.common.base.Preconditions;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerHealthState {
   private static final int MAX_STORED_SAMPLES = 100;
+  // How much each request latency moves the moving average towards it.
+  private static final float EWMA_WEIGHT = 0.2f;
 
   private final int maxSamplesStored;
   // This value sets how many samples we must in the sliding window before we determine the server
@@ -34,6 +39,9 @@ public class ServerHealthState {
   private final URI server;
   private final List<LatencySample> pingLatencies;
   private final List<RequestSample> requests;
+  private final List<LatencySample> requestLatencies;
+  private final AtomicInteger requestsInFlight;
+  private float requestLatencyEwmaMillis;
   private float lastReportedErrorPercentage;
   private int lastReportedSamples;
   private long lastReportedLatency;
@@ -56,6 +64,9 @@ public class ServerHealthState {
     this.server = server;
     this.pingLatencies = new LinkedList<>();
     this.requests = new LinkedList<>();
+    this.requestLatencies = new LinkedList<>();
+    this.requestsInFlight = new AtomicInteger();
+    this.requestLatencyEwmaMillis = -1;
     this.lastReportedLatency = 0;
     this.lastReportedErrorPercentage = 0;
   }
@@ -98,6 +109,72 @@ public class ServerHealthState {
     }
   }
 
+  /**
+   * NOTE: Assumes nowMillis is roughly non-decreasing in consecutive calls.
+   *
+   * @param nowMillis
+   * @param latencyMillis how long the server took to respond to a request.
+   */
+  public void reportRequestLatency(long nowMillis, long latencyMillis) {
+    synchronized (requestLatencies) {
+      requestLatencies.add(new LatencySample(nowMillis, latencyMillis));
+      keepWithinSizeLimit(requestLatencies);
+      requestLatencyEwmaMillis =
+          requestLatencyEwmaMillis < 0
+              ? latencyMillis
+              : requestLatencyEwmaMillis + EWMA_WEIGHT * (latencyMillis - requestLatencyEwmaMillis);
+    }
+  }
+
+  public void reportRequestStarted() {
+    requestsInFlight.incrementAndGet();
+  }
+
+  public void reportRequestFinished() {
+    requestsInFlight.decrementAndGet();
+  }
+
+  public int getRequestsInFlight() {
+    return requestsInFlight.get();
+  }
+
+  /**
+   * @return an average of the latencies of requests to the server which favours the recent ones,
+   *     or -1 if no latencies were reported.
+   */
+  public long getRequestLatencyEwmaMillis() {
+    synchronized (requestLatencies) {
+      return (long) requestLatencyEwmaMillis;
+    }
+  }
+
+  /**
+   * @param nowMillis Current timestamp.
+   * @param timeRangeMillis Time range for 'nowMillis' to take request latencies from.
+   * @param percentile Value in the interval [0.0, 1.0].
+   * @param minSamples How many latencies there must be in the time range.
+   * @return The latency which that fraction of the requests in the time range took at most, or -1
+   *     if there were fewer than minSamples of them.
+   */
+  public long getRequestLatencyPercentileMillis(
+      long nowMillis, int timeRangeMillis, float percentile, int minSamples) {
+    List<Long> latencies = new ArrayList<>();
+    long initialMillis = nowMillis - timeRangeMillis;
+    synchronized (requestLatencies) {
+      for (LatencySample sample : requestLatencies) {
+        if (sample.getEpochMillis() >= initialMillis && sample.getEpochMillis() <= nowMillis) {
+          latencies.add(sample.getLatencyMillis());
+        }
+      }
+    }
+    if (latencies.isEmpty() || latencies.size() < minSamples) {
+      return -1;
+    }
+    Collections.sort(latencies);
+    int index = (int) Math.ceil(percentile * latencies.size()) - 1;
+    return latencies.get(Math.max(0, Math.min(index, latencies.size() - 1)));
+  }
+
   public int getPingLatencySampleCount() {
     synchronized (pingLatencies) {
       return pingLatencies.size();
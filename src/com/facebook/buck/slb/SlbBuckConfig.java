@@ -46,6 +46,9 @@ public class SlbBuckConfig {
       "slb_latency_check_time_range_millis";
   private static final String MAX_ACCEPTABLE_LATENCY_MILLIS = "slb_max_acceptable_latency_millis";
   private static final String MIN_SAMPLES_TO_REPORT_ERROR = "slb_min_samples_to_report_error";
+  private static final String HEDGE_READS = "slb_hedge_reads";
+  private static final String MAX_CONCURRENT_REQUESTS_PER_SERVER =
+      "slb_max_concurrent_requests_per_server";
 
   private final String parentSection;
   private final BuckConfig buckConfig;
@@ -181,6 +184,13 @@ public class SlbBuckConfig {
       configBuilder.setMinSamplesToReportError(
           buckConfig.getInteger(parentSection, MIN_SAMPLES_TO_REPORT_ERROR).getAsInt());
     }
+
+    configBuilder.setHedgeReads(buckConfig.getBooleanValue(parentSection, HEDGE_READS, false));
+
+    if (buckConfig.getValue(parentSection, MAX_CONCURRENT_REQUESTS_PER_SERVER).isPresent()) {
+      configBuilder.setMaxConcurrentRequestsPerServer(
+          buckConfig.getInteger(parentSection, MAX_CONCURRENT_REQUESTS_PER_SERVER).getAsInt());
+    }
     return configBuilder.build();
   }
 }
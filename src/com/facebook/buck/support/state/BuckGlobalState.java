@@ -16,6 +16,7 @@
 
 package com.facebook.buck.support.state;
 
+import com.facebook.buck.artifact_cache.InMemoryArtifactStore;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
@@ -32,6 +33,7 @@ import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.util.cache.DaemonCaches;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.timing.Clock;
@@ -76,6 +78,8 @@ public final class BuckGlobalState implements Closeable {
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
   private final KnownRuleTypesProvider knownRuleTypesProvider;
+  private final Optional<InMemoryArtifactStore> inMemoryArtifactStore;
+  private final DaemonCaches daemonCaches;
   private final Clock clock;
   private final long startTime;
   private final boolean usesWatchman;
@@ -95,6 +99,8 @@ public final class BuckGlobalState implements Closeable {
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
       ImmutableMap<Path, WatchmanCursor> cursor,
       KnownRuleTypesProvider knownRuleTypesProvider,
+      Optional<InMemoryArtifactStore> inMemoryArtifactStore,
+      DaemonCaches daemonCaches,
       Clock clock,
       boolean usesWatchman) {
     this.rootCell = rootCell;
@@ -111,6 +117,8 @@ public final class BuckGlobalState implements Closeable {
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
     this.cursor = cursor;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
+    this.inMemoryArtifactStore = inMemoryArtifactStore;
+    this.daemonCaches = daemonCaches;
     this.clock = clock;
     this.usesWatchman = usesWatchman;
 
@@ -162,6 +170,16 @@ public final class BuckGlobalState implements Closeable {
     return knownRuleTypesProvider;
   }
 
+  /** @return where small artifacts fetched from the caches are kept for the following commands. */
+  public Optional<InMemoryArtifactStore> getInMemoryArtifactStore() {
+    return inMemoryArtifactStore;
+  }
+
+  /** @return the caches which build rules keep for the following commands. */
+  public DaemonCaches getDaemonCaches() {
+    return daemonCaches;
+  }
+
   public ConcurrentMap<String, WorkerProcessPool> getPersistentWorkerPools() {
     return persistentWorkerPools;
   }
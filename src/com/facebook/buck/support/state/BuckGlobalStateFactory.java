@@ -17,6 +17,7 @@ package com.facebook.buck.support.state;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.InMemoryArtifactStore;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.cell.Cell;
@@ -42,6 +43,7 @@ import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.DaemonCaches;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
@@ -145,6 +147,16 @@ public class BuckGlobalStateFactory {
     LOG.debug("Using Watchman Cursor: %s", cursor);
     ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools = new ConcurrentHashMap<>();
 
+    ArtifactCacheBuckConfig artifactCacheBuckConfig =
+        new ArtifactCacheBuckConfig(rootCell.getBuckConfig());
+    Optional<InMemoryArtifactStore> inMemoryArtifactStore =
+        artifactCacheBuckConfig.getInMemoryCacheSize() > 0
+            ? Optional.of(
+                new InMemoryArtifactStore(
+                    artifactCacheBuckConfig.getInMemoryCacheSize(),
+                    artifactCacheBuckConfig.getInMemoryCacheMaxArtifactSize()))
+            : Optional.empty();
+
     return new BuckGlobalState(
         rootCell,
         typeCoercerFactory,
@@ -160,6 +172,8 @@ public class BuckGlobalStateFactory {
         defaultRuleKeyFactoryCacheRecycler,
         cursor,
         knownRuleTypesProvider,
+        inMemoryArtifactStore,
+        new DaemonCaches(),
         clock,
         watchman != WatchmanFactory.NULL_WATCHMAN);
   }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * A local store of build outputs, addressed by a hash of everything the step producing them read,
+ * which lets steps reuse outputs across rules and rule keys that produce the same files.
+ *
+ * <p>Each entry is made of one or more files, told apart by an extension. Files are moved into
+ * place atomically, so concurrent builds sharing a store never see partial files. The store is
+ * only an optimization: failing to read or write it is logged and treated as a miss.
+ */
+public class ContentAddressedFileStore {
+
+  private static final Logger LOG = Logger.get(ContentAddressedFileStore.class);
+
+  private final String name;
+  private final String version;
+  private final Path root;
+
+  /**
+   * @param name the name of the store, as shown in the cache stats of the build report.
+   * @param version the version of the keys and entries of the store, to be changed whenever the
+   *     way either of them is computed changes.
+   */
+  public ContentAddressedFileStore(String name, String version, Path root) {
+    this.name = name;
+    this.version = version;
+    this.root = root;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @return a hasher to compute keys with, which already covers the name and version. */
+  public Hasher newKeyHasher() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    putStrings(hasher, name, version);
+    return hasher;
+  }
+
+  /** Adds the given strings to a key, separated so that moving characters between them counts. */
+  public static void putStrings(Hasher hasher, Iterable<String> strings) {
+    for (String string : strings) {
+      hasher.putInt(string.length()).putString(string, StandardCharsets.UTF_8);
+    }
+  }
+
+  /** @see #putStrings(Hasher, Iterable) */
+  public static void putStrings(Hasher hasher, String... strings) {
+    putStrings(hasher, Arrays.asList(strings));
+  }
+
+  /** Adds the name and the contents of the given file to a key. */
+  public static void putFile(Hasher hasher, Path name, Path file) throws IOException {
+    putStrings(hasher, name.toString());
+    hasher.putBytes(Hashing.sha1().hashBytes(Files.readAllBytes(file)).asBytes());
+  }
+
+  /**
+   * Adds the size and modification time of the given tool binary to a key, if it's a file.
+   * Toolchain upgrades usually keep the paths of the tools, so commands alone don't cover them.
+   */
+  public static void putBinary(Hasher hasher, Path binary) throws IOException {
+    if (Files.isRegularFile(binary)) {
+      hasher.putLong(Files.size(binary));
+      hasher.putLong(Files.getLastModifiedTime(binary).toMillis());
+    }
+  }
+
+  /**
+   * Copies the file with the given extension of the entry for the given key to {@code output}.
+   *
+   * @return whether the entry had such a file.
+   */
+  public boolean fetch(HashCode key, String extension, Path output) {
+    try {
+      Files.createDirectories(output.getParent());
+      Files.copy(getPath(key, extension), output, StandardCopyOption.REPLACE_EXISTING);
+      LOG.debug("Fetched %s from %s", output, name);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to fetch %s from %s", output, name);
+      return false;
+    }
+  }
+
+  /** @return the contents of the file with the given extension of the entry, if there is one. */
+  public Optional<String> read(HashCode key, String extension) {
+    try {
+      return Optional.of(
+          new String(Files.readAllBytes(getPath(key, extension)), StandardCharsets.UTF_8));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read %s of %s from %s", extension, key, name);
+      return Optional.empty();
+    }
+  }
+
+  /** Stores a copy of {@code file} as the file with the given extension of the entry. */
+  public void store(HashCode key, String extension, Path file) {
+    try {
+      put(key, extension, tmp -> Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store %s in %s", file, name);
+    }
+  }
+
+  /** Stores the given contents as the file with the given extension of the entry. */
+  public void write(HashCode key, String extension, String contents) {
+    try {
+      put(key, extension, tmp -> Files.write(tmp, contents.getBytes(StandardCharsets.UTF_8)));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store %s of %s in %s", extension, key, name);
+    }
+  }
+
+  private void put(HashCode key, String extension, TempFileWriter writer) throws IOException {
+    Path destination = getPath(key, extension);
+    Files.createDirectories(destination.getParent());
+    Path tmp = Files.createTempFile(destination.getParent(), key.toString(), ".tmp");
+    try {
+      writer.write(tmp);
+      Files.move(
+          tmp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private Path getPath(HashCode key, String extension) {
+    // Spread the entries over directories, so that none of them gets too large.
+    String entry = key.toString();
+    return root.resolve(entry.substring(0, 2)).resolve(entry + "." + extension);
+  }
+
+  private interface TempFileWriter {
+    void write(Path tmp) throws IOException;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Caches which build rules keep in the daemon state, so that they are reused by later commands and
+ * dropped together with the rest of the state. Without a daemon they live for a single command.
+ *
+ * <p>Each cache is identified by its type and created on first use. Its owner is responsible for
+ * bounding it.
+ */
+public final class DaemonCaches {
+
+  private final ConcurrentMap<Class<?>, Object> caches = new ConcurrentHashMap<>();
+
+  /** @return the cache of the given type, created with {@code supplier} if there is none yet. */
+  public <T> T get(Class<T> type, Supplier<T> supplier) {
+    return type.cast(caches.computeIfAbsent(type, ignored -> supplier.get()));
+  }
+
+  /**
+   * @return the caches created so far which implement the given type, which lets caches be found
+   *     through an interface by code which can't depend on their owners.
+   */
+  public <T> ImmutableList<T> getAll(Class<T> type) {
+    return caches.values().stream()
+        .filter(type::isInstance)
+        .map(type::cast)
+        .collect(ImmutableList.toImmutableList());
+  }
+}
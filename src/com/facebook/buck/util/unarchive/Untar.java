@@ -21,6 +21,7 @@ import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.PatternsMatcher;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.zstd.ParallelZstdInputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
@@ -171,7 +172,10 @@ public class Untar extends Unarchiver {
   private TarArchiveInputStream getArchiveInputStream(Path tarFile)
       throws IOException, CompressorException {
     BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
-    if (compressorType.isPresent()) {
+    if (compressorType.equals(Optional.of(CompressorStreamFactory.ZSTANDARD))) {
+      // Decompresses artifacts written in parallel frames ahead of the files being written out.
+      return new TarArchiveInputStream(new ParallelZstdInputStream(inputStream));
+    } else if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
               .createCompressorInputStream(compressorType.get(), inputStream));
@@ -29,6 +29,8 @@ public class CustomZipEntry extends ZipEntry {
 
   private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
   private long externalAttributes = 0;
+  private int alignment = 1;
+  private boolean precompressed = false;
 
   public CustomZipEntry(ZipEntry other) {
     super(other);
@@ -86,4 +88,30 @@ public class CustomZipEntry extends ZipEntry {
   public void setExternalAttributes(long externalAttributes) {
     this.externalAttributes = externalAttributes;
   }
+
+  public int getAlignment() {
+    return alignment;
+  }
+
+  /**
+   * Pads the local file header of a STORED entry so that its data starts at a multiple of {@code
+   * alignment} bytes from the start of the zip, as {@code zipalign} does. Ignored for DEFLATED
+   * entries.
+   */
+  public void setAlignment(int alignment) {
+    Preconditions.checkArgument(alignment > 0);
+    this.alignment = alignment;
+  }
+
+  public boolean isPrecompressed() {
+    return precompressed;
+  }
+
+  /**
+   * Marks the data written for this DEFLATED entry as already deflated, so that it is copied to the
+   * zip as-is. The size, compressed size and CRC of the entry must be set before it is added.
+   */
+  public void setPrecompressed(boolean precompressed) {
+    this.precompressed = precompressed;
+  }
 }
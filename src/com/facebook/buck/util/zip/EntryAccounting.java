@@ -53,6 +53,8 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  private final boolean precompressed;
+  private final int alignment;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long length = 0;
@@ -76,6 +78,14 @@ class EntryAccounting {
     this.entry = entry;
     this.method = Method.detect(entry.getMethod());
     this.offset = currentOffset;
+    this.precompressed =
+        method == Method.DEFLATE
+            && entry instanceof CustomZipEntry
+            && ((CustomZipEntry) entry).isPrecompressed();
+    this.alignment =
+        method == Method.STORE && entry instanceof CustomZipEntry
+            ? ((CustomZipEntry) entry).getAlignment()
+            : 1;
 
     if (entry.getTime() == -1) {
       entry.setTime(clock.currentTimeMillis());
@@ -202,14 +212,18 @@ class EntryAccounting {
         ByteIo.writeInt(stream, 0);
       } else {
         ByteIo.writeInt(stream, entry.getCrc());
-        ByteIo.writeInt(stream, entry.getSize());
+        ByteIo.writeInt(stream, entry.getCompressedSize());
         ByteIo.writeInt(stream, entry.getSize());
       }
 
       byte[] nameBytes = entry.getName().getBytes(Charsets.UTF_8);
+      // Pad the extra field so that the entry's data starts at the requested alignment.
+      int headerLength = stream.size() + 4 + nameBytes.length;
+      int padding = (int) ((alignment - (offset + headerLength) % alignment) % alignment);
       ByteIo.writeShort(stream, nameBytes.length);
-      ByteIo.writeShort(stream, 0);
+      ByteIo.writeShort(stream, padding);
       stream.write(nameBytes);
+      stream.write(new byte[padding]);
 
       byte[] bytes = stream.toByteArray();
       out.write(bytes);
@@ -243,6 +257,11 @@ class EntryAccounting {
     if (len == 0) {
       return;
     }
+    if (precompressed) {
+      out.write(b, off, len);
+      length += len;
+      return;
+    }
     updateCrc(b, off, len);
 
     if (method == Method.STORE) {
@@ -262,7 +281,11 @@ class EntryAccounting {
    * local file header, but counting the data descriptor if present). Must be called exactly once.
    */
   public long finish(OutputStream out) throws IOException {
-    if (method == Method.STORE) {
+    if (precompressed) {
+      Preconditions.checkState(
+          entry.getCompressedSize() == length,
+          "Number of bytes written differs from what is specified in the entry.");
+    } else if (method == Method.STORE) {
       Preconditions.checkState(
           entry.getSize() == length && entry.getCompressedSize() == length,
           "Number of bytes written differs from what is specified in the entry.");
@@ -290,7 +313,7 @@ class EntryAccounting {
   }
 
   private boolean requiresDataDescriptor() {
-    return method == Method.DEFLATE;
+    return method == Method.DEFLATE && !precompressed;
   }
 
   private void updateCrc(byte[] b, int off, int len) {
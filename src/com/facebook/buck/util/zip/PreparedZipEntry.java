@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry whose data is already compressed (or stored) and ready to be written as is, so that
+ * the expensive part of writing an entry can happen on another thread than the one writing the
+ * zip.
+ */
+public class PreparedZipEntry {
+
+  private final CustomZipEntry entry;
+  private final byte[] data;
+
+  private PreparedZipEntry(CustomZipEntry entry, byte[] data) {
+    Preconditions.checkState(entry.getCompressedSize() == data.length);
+    this.entry = entry;
+    this.data = data;
+  }
+
+  /** @return an entry which stores {@code data} uncompressed. */
+  public static PreparedZipEntry stored(String name, byte[] data, long crc) {
+    CustomZipEntry entry = new CustomZipEntry(name);
+    entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+    entry.setSize(data.length);
+    entry.setCompressedSize(data.length);
+    entry.setCrc(crc);
+    return new PreparedZipEntry(entry, data);
+  }
+
+  /** @return an entry which stores {@code compressed}, the deflated data of {@code size} bytes. */
+  public static PreparedZipEntry deflated(String name, byte[] compressed, long size, long crc) {
+    CustomZipEntry entry = new CustomZipEntry(name);
+    entry.setPrecompressed(true);
+    entry.setSize(size);
+    entry.setCompressedSize(compressed.length);
+    entry.setCrc(crc);
+    return new PreparedZipEntry(entry, compressed);
+  }
+
+  /**
+   * @return an entry which stores {@code data} as it is stored in another zip, where it was either
+   *     {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+   */
+  public static PreparedZipEntry copied(String name, RawZipFile.Entry entry, byte[] rawData) {
+    if (entry.getMethod() == ZipEntry.STORED) {
+      return stored(name, rawData, entry.getCrc());
+    }
+    return deflated(name, rawData, entry.getSize(), entry.getCrc());
+  }
+
+  /** @return an entry with {@code data} deflated, unless that does not make it any smaller. */
+  public static PreparedZipEntry compressedOrStored(String name, byte[] data, int level) {
+    long crc = crc(data);
+    byte[] compressed = deflate(data, level);
+    if (compressed.length >= data.length) {
+      return stored(name, data, crc);
+    }
+    return deflated(name, compressed, data.length, crc);
+  }
+
+  public static long crc(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return crc.getValue();
+  }
+
+  private static byte[] deflate(byte[] data, int level) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        int written = deflater.deflate(buffer);
+        out.write(buffer, 0, written);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** @return the entry which will be written, which may still be customized (e.g. aligned). */
+  public CustomZipEntry getEntry() {
+    return entry;
+  }
+
+  public void writeTo(CustomZipOutputStream out) throws IOException {
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  /**
+   * Prepares the given entries on {@code executor}, keeping at most {@code window} of them in
+   * memory, and writes them to {@code out} in the given order.
+   */
+  public static void writeInOrder(
+      CustomZipOutputStream out,
+      Iterable<? extends Source> sources,
+      ExecutorService executor,
+      int window)
+      throws IOException, InterruptedException, ExecutionException {
+    Deque<Future<PreparedZipEntry>> inFlight = new ArrayDeque<>();
+    for (Source source : sources) {
+      inFlight.add(executor.submit(source::prepare));
+      if (inFlight.size() >= window) {
+        inFlight.remove().get().writeTo(out);
+      }
+    }
+    while (!inFlight.isEmpty()) {
+      inFlight.remove().get().writeTo(out);
+    }
+  }
+
+  /** An entry which is read and compressed when it is about to be written. */
+  public interface Source {
+    PreparedZipEntry prepare() throws IOException;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a zip file which returns the data of each entry exactly as it is stored, so
+ * that entries can be copied into another zip without inflating and deflating them again. Zip64
+ * archives are not supported.
+ *
+ * <p>Data prepended to the zip, like the shebang line of an executable zip, is skipped: offsets are
+ * resolved relative to where the central directory actually is, as {@code zipfile} does.
+ */
+public class RawZipFile implements Closeable {
+
+  private static final int LOCAL_FILE_HEADER_SIZE = 30;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ImmutableList<Entry> entries;
+
+  public RawZipFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** @return the entries of the zip, in the order of its central directory. */
+  public ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /** @return the data of {@code entry} as stored in the zip, which is deflated if the entry is. */
+  public byte[] readRawData(Entry entry) throws IOException {
+    ByteBuffer header = read(entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+    if (Integer.toUnsignedLong(header.getInt(0)) != ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("Bad local file header for %s in %s", entry.getName(), path));
+    }
+    long dataOffset =
+        entry.localHeaderOffset
+            + LOCAL_FILE_HEADER_SIZE
+            + Short.toUnsignedInt(header.getShort(26))
+            + Short.toUnsignedInt(header.getShort(28));
+    if (entry.getCompressedSize() > Integer.MAX_VALUE) {
+      throw new ZipException(String.format("%s in %s is too large", entry.getName(), path));
+    }
+    return read(dataOffset, (int) entry.getCompressedSize()).array();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<Entry> readCentralDirectory() throws IOException {
+    long size = channel.size();
+    int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(size - tailSize, tailSize);
+
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (Integer.toUnsignedLong(tail.getInt(i)) == ZipEntry.ENDSIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new ZipException(String.format("%s is not a zip file", path));
+    }
+
+    int entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+    long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+    long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+    if (entryCount == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+      throw new ZipException(String.format("%s is a zip64 file, which is not supported", path));
+    }
+
+    // Offsets in the zip are relative to its start, which comes after any prepended data.
+    long archiveOffset = size - tailSize + end - centralDirectorySize - centralDirectoryOffset;
+    if (archiveOffset < 0) {
+      throw new ZipException(String.format("Bad end of central directory in %s", path));
+    }
+
+    ByteBuffer centralDirectory =
+        read(archiveOffset + centralDirectoryOffset, (int) centralDirectorySize);
+    ImmutableList.Builder<Entry> entries = ImmutableList.builderWithExpectedSize(entryCount);
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (Integer.toUnsignedLong(centralDirectory.getInt(position)) != ZipEntry.CENSIG) {
+        throw new ZipException(String.format("Bad central directory in %s", path));
+      }
+      int nameLength = Short.toUnsignedInt(centralDirectory.getShort(position + 28));
+      int extraLength = Short.toUnsignedInt(centralDirectory.getShort(position + 30));
+      int commentLength = Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+      byte[] name = new byte[nameLength];
+      centralDirectory.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+      centralDirectory.get(name);
+
+      entries.add(
+          new Entry(
+              new String(name, Charsets.UTF_8),
+              Short.toUnsignedInt(centralDirectory.getShort(position + 10)),
+              Integer.toUnsignedLong(centralDirectory.getInt(position + 16)),
+              Integer.toUnsignedLong(centralDirectory.getInt(position + 20)),
+              Integer.toUnsignedLong(centralDirectory.getInt(position + 24)),
+              archiveOffset + Integer.toUnsignedLong(centralDirectory.getInt(position + 42))));
+
+      position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return entries.build();
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException(String.format("Unexpected end of %s", path));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** An entry of a {@link RawZipFile}, as described by the zip's central directory. */
+  public static class Entry {
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    private Entry(
+        String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /** @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}. */
+    public int getMethod() {
+      return method;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The framing shared by {@link ParallelZstdOutputStream} and {@link ParallelZstdInputStream}.
+ *
+ * <p>Data is split into blocks which are compressed into independent zstd frames. Each frame is
+ * preceded by a skippable frame holding its compressed and decompressed sizes, which lets a reader
+ * hand whole frames to other threads. Zstd decoders ignore skippable frames and decode
+ * concatenated frames one after the other, so the result is still a regular zstd stream.
+ */
+final class ParallelZstd {
+
+  /** The magic number of the skippable frames holding the sizes of the next frame. */
+  static final int HEADER_MAGIC = 0x184D2A5B;
+
+  /** The size of the skippable frame payload: the compressed and decompressed sizes. */
+  static final int HEADER_PAYLOAD_SIZE = 8;
+
+  /** The magic number, the payload size, and the payload. */
+  static final int HEADER_SIZE = 8 + HEADER_PAYLOAD_SIZE;
+
+  static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  static final int DEFAULT_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  /** Shared by all streams, since artifacts are compressed from many build threads at once. */
+  static final ListeningExecutorService EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          MostExecutors.newMultiThreadExecutor(
+              new ThreadFactoryBuilder().setNameFormat("zstd-%d").setDaemon(true).build(),
+              DEFAULT_PARALLELISM));
+
+  /**
+   * The bytes held by the blocks all streams have in flight, counting both their compressed and
+   * decompressed copies. Enough for a single stream to keep all its threads busy; streams used at
+   * once share it, and each of them falls back to one block at a time on its own thread once it
+   * runs out, so that the memory they use doesn't grow with how many there are.
+   */
+  static final Semaphore BYTES_IN_FLIGHT =
+      new Semaphore(
+          (int) Math.min(Integer.MAX_VALUE, 4L * DEFAULT_PARALLELISM * DEFAULT_BLOCK_SIZE));
+
+  private ParallelZstd() {}
+
+  /** A block handed to the executor, and how many bytes it holds in flight. */
+  static class PendingBlock {
+    final ListenableFuture<byte[]> future;
+    final int bytes;
+
+    PendingBlock(ListenableFuture<byte[]> future, int bytes) {
+      this.future = future;
+      this.bytes = bytes;
+    }
+  }
+
+  static void writeIntLittleEndian(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) value;
+    buffer[offset + 1] = (byte) (value >>> 8);
+    buffer[offset + 2] = (byte) (value >>> 16);
+    buffer[offset + 3] = (byte) (value >>> 24);
+  }
+
+  static int readIntLittleEndian(byte[] buffer, int offset) {
+    return (buffer[offset] & 0xff)
+        | (buffer[offset + 1] & 0xff) << 8
+        | (buffer[offset + 2] & 0xff) << 16
+        | (buffer[offset + 3] & 0xff) << 24;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.facebook.buck.util.zstd.ParallelZstd.PendingBlock;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+/**
+ * An {@link InputStream} which decompresses a zstd stream. Streams written by {@link
+ * ParallelZstdOutputStream} are decompressed several frames at a time on other threads, ahead of
+ * what has been read, so that decompressing overlaps with whatever is done with the data. Other
+ * zstd streams are decompressed as they are read.
+ *
+ * <p>The sizes of frames come from the stream, which may be corrupt, so frames larger than a block
+ * are rejected before anything is allocated for them.
+ */
+public class ParallelZstdInputStream extends InputStream {
+
+  private final int maxBlockSize;
+  private final int maxCompressedSize;
+  private final ListeningExecutorService executor;
+  private final int maxPendingBlocks;
+  private final Semaphore bytesInFlight;
+  private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+  private final byte[] header = new byte[ParallelZstd.HEADER_SIZE];
+
+  private InputStream in;
+  @Nullable private InputStream sequential;
+  private boolean started = false;
+  private boolean sourceExhausted = false;
+  @Nullable private byte[] block;
+  private int blockPosition = 0;
+
+  // A frame read from the stream, but not decompressed yet for lack of bytes in flight.
+  @Nullable private byte[] nextFrame;
+  private int nextFrameSize;
+
+  public ParallelZstdInputStream(InputStream in) {
+    this(
+        in,
+        ParallelZstd.DEFAULT_BLOCK_SIZE,
+        ParallelZstd.EXECUTOR,
+        ParallelZstd.DEFAULT_PARALLELISM,
+        ParallelZstd.BYTES_IN_FLIGHT);
+  }
+
+  /**
+   * @param maxBlockSize the block size of the writer, which no frame decompresses to more than.
+   * @param parallelism how many frames are decompressed at once. Twice as many are read ahead, so
+   *     that threads don't wait for blocks to be read.
+   * @param bytesInFlight the bytes the read ahead blocks may hold, shared with other streams.
+   */
+  public ParallelZstdInputStream(
+      InputStream in,
+      int maxBlockSize,
+      ListeningExecutorService executor,
+      int parallelism,
+      Semaphore bytesInFlight) {
+    Preconditions.checkArgument(maxBlockSize > 0 && parallelism > 0);
+    this.in = in;
+    this.maxBlockSize = maxBlockSize;
+    this.maxCompressedSize = (int) Zstd.compressBound(maxBlockSize);
+    this.executor = executor;
+    this.maxPendingBlocks = 2 * parallelism;
+    this.bytesInFlight = bytesInFlight;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read == -1 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (!started) {
+      start();
+    }
+    if (sequential != null) {
+      return sequential.read(b, off, len);
+    }
+    if (len == 0) {
+      return 0;
+    }
+    while (block == null || blockPosition == block.length) {
+      if (!nextBlock()) {
+        return -1;
+      }
+    }
+    int count = Math.min(len, block.length - blockPosition);
+    System.arraycopy(block, blockPosition, b, off, count);
+    blockPosition += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (PendingBlock pending : pendingBlocks) {
+      pending.future.cancel(true);
+      bytesInFlight.release(pending.bytes);
+    }
+    pendingBlocks.clear();
+    if (sequential != null) {
+      sequential.close();
+    } else {
+      in.close();
+    }
+  }
+
+  /** Decides how the stream is read, from whether it starts with the sizes of a frame. */
+  private void start() throws IOException {
+    started = true;
+    PushbackInputStream pushback = new PushbackInputStream(in, ParallelZstd.HEADER_SIZE);
+    in = pushback;
+    int read = ByteStreams.read(pushback, header, 0, header.length);
+    pushback.unread(header, 0, read);
+    if (read < header.length || !isHeader()) {
+      sequential = new ZstdCompressorInputStream(pushback);
+    }
+  }
+
+  private boolean nextBlock() throws IOException {
+    while (pendingBlocks.size() < maxPendingBlocks && readNextFrame()) {
+      byte[] compressed = nextFrame;
+      int size = nextFrameSize;
+      int bytes = compressed.length + size;
+      if (!bytesInFlight.tryAcquire(bytes)) {
+        if (!pendingBlocks.isEmpty()) {
+          break;
+        }
+        // Other streams hold all the bytes in flight, so go on one block at a time.
+        nextFrame = null;
+        block = decompress(compressed, size);
+        blockPosition = 0;
+        return true;
+      }
+      nextFrame = null;
+      pendingBlocks.add(
+          new PendingBlock(executor.submit(() -> decompress(compressed, size)), bytes));
+    }
+    if (pendingBlocks.isEmpty()) {
+      return false;
+    }
+    PendingBlock pending = pendingBlocks.remove();
+    try {
+      block = pending.future.get();
+      blockPosition = 0;
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to decompress a block.", e.getCause());
+    } finally {
+      bytesInFlight.release(pending.bytes);
+    }
+  }
+
+  /** @return whether there is a next frame, after reading it into {@link #nextFrame} if needed. */
+  private boolean readNextFrame() throws IOException {
+    if (nextFrame != null) {
+      return true;
+    }
+    if (sourceExhausted) {
+      return false;
+    }
+    int read = ByteStreams.read(in, header, 0, header.length);
+    if (read == 0) {
+      sourceExhausted = true;
+      return false;
+    }
+    if (read < header.length) {
+      throw new EOFException("Truncated zstd stream.");
+    }
+    if (!isHeader()) {
+      throw new IOException("Expected the sizes of the next zstd frame.");
+    }
+    int compressedSize = ParallelZstd.readIntLittleEndian(header, 8);
+    int size = ParallelZstd.readIntLittleEndian(header, 12);
+    if (compressedSize <= 0
+        || compressedSize > maxCompressedSize
+        || size < 0
+        || size > maxBlockSize) {
+      throw new IOException(
+          String.format(
+              "Invalid zstd frame sizes: %d bytes compressed to %d, with blocks of %d bytes.",
+              size, compressedSize, maxBlockSize));
+    }
+    byte[] compressed = new byte[compressedSize];
+    ByteStreams.readFully(in, compressed);
+    nextFrame = compressed;
+    nextFrameSize = size;
+    return true;
+  }
+
+  private boolean isHeader() {
+    return ParallelZstd.readIntLittleEndian(header, 0) == ParallelZstd.HEADER_MAGIC
+        && ParallelZstd.readIntLittleEndian(header, 4) == ParallelZstd.HEADER_PAYLOAD_SIZE;
+  }
+
+  private static byte[] decompress(byte[] compressed, int size) throws IOException {
+    byte[] data = new byte[size];
+    long decompressed = Zstd.decompressByteArray(data, 0, size, compressed, 0, compressed.length);
+    if (Zstd.isError(decompressed)) {
+      throw new IOException("Failed to decompress a block: " + Zstd.getErrorName(decompressed));
+    }
+    if (decompressed != size) {
+      throw new IOException(
+          String.format("Expected %d bytes in a block, but found %d.", size, decompressed));
+    }
+    return data;
+  }
+}
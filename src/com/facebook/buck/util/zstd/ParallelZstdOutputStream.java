@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.base.Preconditions;
+import com.facebook.buck.util.zstd.ParallelZstd.PendingBlock;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An {@link OutputStream} which compresses blocks of what is written to it on several threads at
+ * once, and writes them out in order as a zstd stream which any zstd decoder can read. See {@link
+ * ParallelZstd} for the framing.
+ */
+public class ParallelZstdOutputStream extends OutputStream {
+
+  /** The level {@code zstd} uses by default, which favours speed. */
+  public static final int DEFAULT_LEVEL = 3;
+
+  private final OutputStream out;
+  private final int level;
+  private final ListeningExecutorService executor;
+  private final int maxPendingBlocks;
+  private final Semaphore bytesInFlight;
+  private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+
+  private byte[] block;
+  private int blockCount = 0;
+  private boolean wroteBlock = false;
+  private boolean closed = false;
+
+  public ParallelZstdOutputStream(OutputStream out) {
+    this(
+        out,
+        DEFAULT_LEVEL,
+        ParallelZstd.DEFAULT_BLOCK_SIZE,
+        ParallelZstd.EXECUTOR,
+        ParallelZstd.DEFAULT_PARALLELISM,
+        ParallelZstd.BYTES_IN_FLIGHT);
+  }
+
+  /**
+   * @param parallelism how many blocks are compressed at once. Twice as many are kept in memory, so
+   *     that threads don't wait for blocks to be written out.
+   * @param bytesInFlight the bytes the blocks kept in memory may hold, shared with other streams.
+   */
+  public ParallelZstdOutputStream(
+      OutputStream out,
+      int level,
+      int blockSize,
+      ListeningExecutorService executor,
+      int parallelism,
+      Semaphore bytesInFlight) {
+    Preconditions.checkArgument(blockSize > 0 && parallelism > 0);
+    this.out = out;
+    this.level = level;
+    this.executor = executor;
+    this.maxPendingBlocks = 2 * parallelism;
+    this.bytesInFlight = bytesInFlight;
+    this.block = new byte[blockSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    block[blockCount++] = (byte) b;
+    if (blockCount == block.length) {
+      submitBlock();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int count = Math.min(len, block.length - blockCount);
+      System.arraycopy(b, off, block, blockCount, count);
+      blockCount += count;
+      off += count;
+      len -= count;
+      if (blockCount == block.length) {
+        submitBlock();
+      }
+    }
+  }
+
+  /** Compresses what was written so far, and writes it out. */
+  @Override
+  public void flush() throws IOException {
+    if (blockCount > 0) {
+      submitBlock();
+    }
+    while (!pendingBlocks.isEmpty()) {
+      writeNextBlock();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try (OutputStream ignored = out) {
+      // A zstd stream holds at least one frame, even when it is empty.
+      if (blockCount > 0 || !wroteBlock) {
+        submitBlock();
+      }
+      flush();
+    } finally {
+      for (PendingBlock pending : pendingBlocks) {
+        pending.future.cancel(true);
+        bytesInFlight.release(pending.bytes);
+      }
+      pendingBlocks.clear();
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    byte[] data = blockCount == block.length ? block : Arrays.copyOf(block, blockCount);
+    int level = this.level;
+    int bytes = data.length + (int) Zstd.compressBound(data.length);
+    block = new byte[block.length];
+    blockCount = 0;
+    wroteBlock = true;
+    while (!bytesInFlight.tryAcquire(bytes)) {
+      if (pendingBlocks.isEmpty()) {
+        // Other streams hold all the bytes in flight, so go on one block at a time.
+        out.write(frame(data, level));
+        return;
+      }
+      writeNextBlock();
+    }
+    pendingBlocks.add(new PendingBlock(executor.submit(() -> frame(data, level)), bytes));
+    while (pendingBlocks.size() > maxPendingBlocks) {
+      writeNextBlock();
+    }
+  }
+
+  private void writeNextBlock() throws IOException {
+    PendingBlock pending = pendingBlocks.remove();
+    try {
+      out.write(pending.future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compress a block.", e.getCause());
+    } finally {
+      bytesInFlight.release(pending.bytes);
+    }
+  }
+
+  /** @return the zstd frame of the data, preceded by its sizes. */
+  private static byte[] frame(byte[] data, int level) throws IOException {
+    byte[] compressed = new byte[(int) Zstd.compressBound(data.length)];
+    long size =
+        Zstd.compressByteArray(compressed, 0, compressed.length, data, 0, data.length, level);
+    if (Zstd.isError(size)) {
+      throw new IOException("Failed to compress a block: " + Zstd.getErrorName(size));
+    }
+    byte[] frame = new byte[ParallelZstd.HEADER_SIZE + (int) size];
+    ParallelZstd.writeIntLittleEndian(frame, 0, ParallelZstd.HEADER_MAGIC);
+    ParallelZstd.writeIntLittleEndian(frame, 4, ParallelZstd.HEADER_PAYLOAD_SIZE);
+    ParallelZstd.writeIntLittleEndian(frame, 8, (int) size);
+    ParallelZstd.writeIntLittleEndian(frame, 12, data.length);
+    System.arraycopy(compressed, 0, frame, ParallelZstd.HEADER_SIZE, (int) size);
+    return frame;
+  }
+}
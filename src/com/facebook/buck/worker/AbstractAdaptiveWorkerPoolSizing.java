@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.google.common.base.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * Lets a worker process pool start with a few processes and grow towards its maximum size only
+ * when jobs have to wait for a free worker, as long as the workers do not use too much memory.
+ */
+@Value.Immutable
+@BuckStyleTuple
+interface AbstractAdaptiveWorkerPoolSizing extends AddsToRuleKey {
+
+  /** Number of worker processes the pool may use before it starts adapting. */
+  @AddToRuleKey
+  int getInitialWorkers();
+
+  /**
+   * A job that waits longer than this for a free worker makes the pool start another worker
+   * process.
+   */
+  @AddToRuleKey
+  long getQueueLatencyThresholdMillis();
+
+  /**
+   * Once the worker processes of a pool use more resident memory than this in total, the pool
+   * stops growing and shuts down workers that become idle.
+   */
+  @AddToRuleKey
+  long getMaxTotalResidentMemoryBytes();
+
+  @Value.Check
+  default void check() {
+    Preconditions.checkArgument(getInitialWorkers() > 0, "initialWorkers must be positive.");
+  }
+}
@@ -46,6 +46,23 @@ interface AbstractWorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs that a single tool runs at the same time. Tools that accept more than
+   * one job must speak {@link WorkerProcessProtocolOne}.
+   */
+  @Value.Default
+  @Value.Parameter(false)
+  default int getMaxJobsPerWorker() {
+    return 1;
+  }
+
+  /**
+   * If present, the pool starts with fewer tools than {@link #getMaxWorkers()} and only grows when
+   * jobs have to wait for a free tool.
+   */
+  @Value.Parameter(false)
+  Optional<AdaptiveWorkerPoolSizing> getAdaptivePoolSizing();
+
   /**
    * Identifies the instance of the persisted worker process pool. Defines when worker process pool
    * should be invalidated.
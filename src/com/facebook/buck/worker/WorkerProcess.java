@@ -21,16 +21,22 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ProcessHelper;
+import com.facebook.buck.util.ProcessResourceConsumption;
 import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
@@ -43,10 +49,12 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int maxJobsInFlight;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
   @Nullable private WorkerProcessProtocol.CommandSender protocol;
-  @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
+  @Nullable private volatile WorkerProcessProtocol.MultiplexedCommandSender multiplexedProtocol;
+  @Nullable private volatile ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
@@ -67,7 +75,24 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path stdErr,
       Path tmpPath) {
+    this(executor, processParams, filesystem, stdErr, tmpPath, 1);
+  }
+
+  /**
+   * Same as above, but lets the process run up to {@code maxJobsInFlight} jobs at the same time.
+   * Values greater than one make Buck talk to the process using {@link WorkerProcessProtocolOne},
+   * in which case submitted jobs only block their own calling thread.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path stdErr,
+      Path tmpPath,
+      int maxJobsInFlight) {
+    Preconditions.checkArgument(maxJobsInFlight > 0, "maxJobsInFlight must be positive.");
     this.executor = executor;
+    this.maxJobsInFlight = maxJobsInFlight;
     this.stdErr = stdErr;
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
@@ -87,24 +112,77 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
-    protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getOutputStream(),
-            launchedProcess.getInputStream(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            },
-            () -> launchedProcess != null && launchedProcess.isAlive());
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    if (maxJobsInFlight > 1) {
+      multiplexedProtocol =
+          new WorkerProcessProtocolOne.CommandSender(
+              launchedProcess.getOutputStream(),
+              launchedProcess.getInputStream(),
+              stdErr,
+              onClose,
+              () -> launchedProcess != null && launchedProcess.isAlive());
+    } else {
+      protocol =
+          new WorkerProcessProtocolZero.CommandSender(
+              launchedProcess.getOutputStream(),
+              launchedProcess.getInputStream(),
+              stdErr,
+              onClose,
+              () -> launchedProcess != null && launchedProcess.isAlive());
+    }
 
     LOG.debug("Handshaking with process %d", this.hashCode());
-    protocol.handshake(currentMessageID.getAndIncrement());
+    if (multiplexedProtocol != null) {
+      multiplexedProtocol.handshake(currentMessageID.getAndIncrement());
+    } else {
+      Objects.requireNonNull(protocol).handshake(currentMessageID.getAndIncrement());
+    }
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /** Returns the maximum number of jobs this process may run at the same time. */
+  public int getMaxJobsInFlight() {
+    return maxJobsInFlight;
+  }
+
+  /**
+   * Returns the resident memory used by the process and its children, or empty if the process is
+   * not running or its memory usage cannot be determined on this platform.
+   */
+  public Optional<Long> getResidentMemoryBytes() {
+    ProcessExecutor.LaunchedProcess process = launchedProcess;
+    if (!(process instanceof ProcessExecutor.LaunchedProcessImpl) || !process.isAlive()) {
+      return Optional.empty();
+    }
+    ProcessHelper processHelper = ProcessHelper.getInstance();
+    Long pid = processHelper.getPid(((ProcessExecutor.LaunchedProcessImpl) process).process);
+    if (pid == null) {
+      return Optional.empty();
+    }
+    ProcessResourceConsumption consumption = processHelper.getTotalResourceConsumption(pid);
+    return consumption == null ? Optional.empty() : Optional.of(consumption.getMemResident());
+  }
+
+  /**
+   * Submits a job and blocks until it finishes. Worker processes that run one job at a time
+   * serialize callers; multiplexed processes only block the calling thread. If the calling thread
+   * is interrupted, a multiplexed job is cancelled on the worker.
+   */
+  public WorkerJobResult submitAndWaitForJob(String jobArgs)
+      throws IOException, InterruptedException {
+    if (multiplexedProtocol != null) {
+      return submitAndWaitForMultiplexedJob(multiplexedProtocol, jobArgs);
+    }
+    return submitAndWaitForSequentialJob(jobArgs);
+  }
+
+  private synchronized WorkerJobResult submitAndWaitForSequentialJob(String jobArgs)
+      throws IOException {
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -113,9 +191,7 @@ public class WorkerProcess implements Closeable {
     Path argsPath = Paths.get(tmpPath.toString(), String.format("%d.args", messageID));
     Path stdoutPath = Paths.get(tmpPath.toString(), String.format("%d.out", messageID));
     Path stderrPath = Paths.get(tmpPath.toString(), String.format("%d.err", messageID));
-    filesystem.deleteFileAtPathIfExists(stdoutPath);
-    filesystem.deleteFileAtPathIfExists(stderrPath);
-    filesystem.writeContentsToPath(jobArgs, argsPath);
+    prepareJobFiles(jobArgs, argsPath, stdoutPath, stderrPath);
 
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
@@ -135,6 +211,71 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  private WorkerJobResult submitAndWaitForMultiplexedJob(
+      WorkerProcessProtocol.MultiplexedCommandSender multiplexedProtocol, String jobArgs)
+      throws IOException, InterruptedException {
+    int messageID = currentMessageID.getAndAdd(1);
+    Path argsPath = Paths.get(tmpPath.toString(), String.format("%d.args", messageID));
+    Path stdoutPath = Paths.get(tmpPath.toString(), String.format("%d.out", messageID));
+    Path stderrPath = Paths.get(tmpPath.toString(), String.format("%d.err", messageID));
+    prepareJobFiles(jobArgs, argsPath, stdoutPath, stderrPath);
+
+    StringBuffer streamedStdout = new StringBuffer();
+    StringBuffer streamedStderr = new StringBuffer();
+    LOG.debug(
+        "Sending job %d to multiplexed process %d \n" + " job arguments: \'%s\'",
+        messageID, this.hashCode(), jobArgs);
+    Future<Integer> response =
+        multiplexedProtocol.send(
+            messageID,
+            WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath),
+            new WorkerProcessProtocol.JobOutputListener() {
+              @Override
+              public void onStdout(String data) {
+                streamedStdout.append(data);
+              }
+
+              @Override
+              public void onStderr(String data) {
+                streamedStderr.append(data);
+              }
+            });
+
+    int exitCode;
+    try {
+      exitCode = response.get();
+    } catch (InterruptedException e) {
+      LOG.debug("Cancelling job %d on process %d", messageID, this.hashCode());
+      multiplexedProtocol.cancel(messageID);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+
+    Optional<String> stdout =
+        streamedStdout.length() > 0
+            ? Optional.of(streamedStdout.toString())
+            : filesystem.readFileIfItExists(stdoutPath);
+    Optional<String> stderr =
+        streamedStderr.length() > 0
+            ? Optional.of(streamedStderr.toString())
+            : filesystem.readFileIfItExists(stderrPath);
+    LOG.debug(
+        "Job %d for multiplexed process %d finished \n  exit code: %d",
+        messageID, this.hashCode(), exitCode);
+
+    return WorkerJobResult.of(exitCode, stdout, stderr);
+  }
+
+  private void prepareJobFiles(String jobArgs, Path argsPath, Path stdoutPath, Path stderrPath)
+      throws IOException {
+    filesystem.deleteFileAtPathIfExists(stdoutPath);
+    filesystem.deleteFileAtPathIfExists(stderrPath);
+    filesystem.writeContentsToPath(jobArgs, argsPath);
+  }
+
   @Override
   public synchronized void close() {
     LOG.debug("Closing process %d", this.hashCode());
@@ -142,6 +283,9 @@ public class WorkerProcess implements Closeable {
       if (protocol != null) {
         protocol.close();
       }
+      if (multiplexedProtocol != null) {
+        multiplexedProtocol.close();
+      }
       Files.deleteIfExists(stdErr);
     } catch (Exception e) {
       LOG.debug(e, "Error closing worker process %s.", processParams.getCommand());
@@ -173,4 +317,9 @@ public class WorkerProcess implements Closeable {
   void setProtocol(WorkerProcessProtocol.CommandSender protocolMock) {
     this.protocol = protocolMock;
   }
+
+  @VisibleForTesting
+  void setProtocol(WorkerProcessProtocol.MultiplexedCommandSender protocolMock) {
+    this.multiplexedProtocol = protocolMock;
+  }
 }
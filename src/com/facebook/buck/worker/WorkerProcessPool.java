@@ -21,12 +21,15 @@ import com.facebook.buck.util.concurrent.LinkedBlockingStack;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.hash.HashCode;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
@@ -40,29 +43,68 @@ import javax.annotation.concurrent.ThreadSafe;
  *
  * <p>This pool supports acquisition and release of worker processes on different threads. Workers
  * are acquired with {@link #borrowWorkerProcess()}, which returns
+ *
+ * <p>Worker processes that accept several jobs at once are handed out to up to {@code
+ * maxJobsPerWorker} borrowers at the same time. With {@link AdaptiveWorkerPoolSizing}, the pool
+ * starts with a few worker processes and starts more of them only while borrowers have to wait,
+ * and retires idle workers while the pool uses too much memory.
  */
 @ThreadSafe
 public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
+  private static final long RESIDENT_MEMORY_CHECK_INTERVAL_MILLIS = 1000;
+
   private final int capacity;
+  private final int maxJobsPerWorker;
+  private final Optional<AdaptiveWorkerPoolSizing> adaptiveSizing;
+  // Contains every worker once per job it can still accept.
   private final BlockingQueue<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
+  // Workers that the adaptive sizing has not started yet or has retired. Guarded by this.
+  private final Deque<WorkerLifecycle> reserveWorkers = new ArrayDeque<>();
+  private final Supplier<Long> totalResidentMemoryBytes;
   private final HashCode poolHash;
 
   public WorkerProcessPool(
       int maxWorkers,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(maxWorkers, 1, Optional.empty(), poolHash, startWorkerProcess);
+  }
+
+  public WorkerProcessPool(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      Optional<AdaptiveWorkerPoolSizing> adaptiveSizing,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(maxJobsPerWorker > 0, "maxJobsPerWorker must be positive.");
     capacity = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
+    this.adaptiveSizing = adaptiveSizing;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
+    this.totalResidentMemoryBytes =
+        Suppliers.memoizeWithExpiration(
+            this::computeTotalResidentMemoryBytes,
+            RESIDENT_MEMORY_CHECK_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
 
     Arrays.setAll(
-        workerLifecycles,
-        ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
-    Collections.addAll(availableWorkers, workerLifecycles);
+        workerLifecycles, ignored -> new WorkerLifecycle(startWorkerProcess, this::returnWorker));
+    int initialWorkers =
+        adaptiveSizing
+            .map(sizing -> Math.min(sizing.getInitialWorkers(), maxWorkers))
+            .orElse(maxWorkers);
+    for (int i = 0; i < maxWorkers; i++) {
+      if (i < initialWorkers) {
+        offerWorker(workerLifecycles[i]);
+      } else {
+        reserveWorkers.add(workerLifecycles[i]);
+      }
+    }
   }
 
   /**
@@ -71,7 +113,17 @@ public class WorkerProcessPool implements Closeable {
    * BorrowedWorkerProcess#close()} after using them.
    */
   public BorrowedWorkerProcess borrowWorkerProcess() throws InterruptedException {
-    return new BorrowedWorkerProcess(availableWorkers.take());
+    if (!adaptiveSizing.isPresent()) {
+      return new BorrowedWorkerProcess(availableWorkers.take());
+    }
+    WorkerLifecycle lifecycle =
+        availableWorkers.poll(
+            adaptiveSizing.get().getQueueLatencyThresholdMillis(), TimeUnit.MILLISECONDS);
+    if (lifecycle == null) {
+      maybeStartReserveWorker();
+      lifecycle = availableWorkers.take();
+    }
+    return new BorrowedWorkerProcess(lifecycle);
   }
 
   @VisibleForTesting
@@ -86,7 +138,9 @@ public class WorkerProcessPool implements Closeable {
     Throwable caughtWhileClosing = null;
 
     // remove all available workers
-    int numAvailableWorkers = availableWorkers.drainTo(new ArrayList<>(capacity));
+    int numAvailableWorkers =
+        availableWorkers.drainTo(new ArrayList<>(capacity * maxJobsPerWorker))
+            + reserveWorkers.size() * maxJobsPerWorker;
     for (WorkerLifecycle lifecycle : this.workerLifecycles) {
       try {
         lifecycle.close();
@@ -96,7 +150,7 @@ public class WorkerProcessPool implements Closeable {
     }
 
     Preconditions.checkState(
-        numAvailableWorkers == capacity,
+        numAvailableWorkers == capacity * maxJobsPerWorker,
         "WorkerProcessPool was still running when shutdown was called.");
     if (caughtWhileClosing != null) {
       throw new RuntimeException(caughtWhileClosing);
@@ -107,10 +161,80 @@ public class WorkerProcessPool implements Closeable {
     return capacity;
   }
 
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
+  /** Returns the number of workers that borrowers may currently use. */
+  public synchronized int getActiveWorkerCount() {
+    return capacity - reserveWorkers.size();
+  }
+
   HashCode getPoolHash() {
     return poolHash;
   }
 
+  private void offerWorker(WorkerLifecycle lifecycle) {
+    for (int i = 0; i < maxJobsPerWorker; i++) {
+      availableWorkers.add(lifecycle);
+    }
+  }
+
+  private synchronized void maybeStartReserveWorker() {
+    if (reserveWorkers.isEmpty() || !availableWorkers.isEmpty()) {
+      return;
+    }
+    long residentMemoryBytes = totalResidentMemoryBytes.get();
+    if (residentMemoryBytes >= adaptiveSizing.get().getMaxTotalResidentMemoryBytes()) {
+      LOG.debug(
+          "Not starting another worker, pool already uses %d bytes of memory.",
+          residentMemoryBytes);
+      return;
+    }
+    LOG.debug("Borrower waited too long for a worker, starting another one.");
+    offerWorker(reserveWorkers.pop());
+  }
+
+  private void returnWorker(WorkerLifecycle lifecycle) {
+    if (!adaptiveSizing.isPresent() || !maybeRetireWorker(lifecycle)) {
+      availableWorkers.add(lifecycle);
+    }
+  }
+
+  /**
+   * Retires an idle worker while the pool uses more memory than allowed. The returned job slot
+   * belongs to the caller, so the worker is idle exactly when all its other slots are available.
+   */
+  private synchronized boolean maybeRetireWorker(WorkerLifecycle lifecycle) {
+    if (getActiveWorkerCount() <= 1
+        || totalResidentMemoryBytes.get()
+            <= adaptiveSizing.get().getMaxTotalResidentMemoryBytes()) {
+      return false;
+    }
+    int removedSlots = 0;
+    while (removedSlots < maxJobsPerWorker - 1 && availableWorkers.remove(lifecycle)) {
+      removedSlots++;
+    }
+    if (removedSlots < maxJobsPerWorker - 1) {
+      for (int i = 0; i < removedSlots; i++) {
+        availableWorkers.add(lifecycle);
+      }
+      return false;
+    }
+    LOG.debug("Retiring idle worker, pool uses too much memory.");
+    lifecycle.retire();
+    reserveWorkers.push(lifecycle);
+    return true;
+  }
+
+  private long computeTotalResidentMemoryBytes() {
+    long total = 0;
+    for (WorkerLifecycle lifecycle : workerLifecycles) {
+      total += lifecycle.getResidentMemoryBytes();
+    }
+    return total;
+  }
+
   /**
    * Represents the lifecycle of one specific worker in a {@link WorkerProcessPool}.
    *
@@ -163,6 +287,18 @@ public class WorkerProcessPool implements Closeable {
       onWorkerProcessReturn.accept(this);
     }
 
+    /** Shuts down the worker process, which is started again the next time it is needed. */
+    public synchronized void retire() {
+      if (workerProcess != null) {
+        workerProcess.close();
+        workerProcess = null;
+      }
+    }
+
+    public synchronized long getResidentMemoryBytes() {
+      return workerProcess == null ? 0 : workerProcess.getResidentMemoryBytes().orElse(0L);
+    }
+
     @Override
     public synchronized void close() {
       isClosed = true;
@@ -206,8 +342,10 @@ public class WorkerProcessPool implements Closeable {
      * Submits a job to the worker, and returns the result.
      *
      * @throws IOException
+     * @throws InterruptedException
      */
-    public WorkerJobResult submitAndWaitForJob(String expandedJobArgs) throws IOException {
+    public WorkerJobResult submitAndWaitForJob(String expandedJobArgs)
+        throws IOException, InterruptedException {
       return get().submitAndWaitForJob(expandedJobArgs);
     }
 
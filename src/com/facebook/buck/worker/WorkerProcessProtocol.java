@@ -15,6 +15,7 @@
  */
 package com.facebook.buck.worker;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.Closeable;
 import java.io.IOException;
 
@@ -31,4 +32,38 @@ public interface WorkerProcessProtocol {
     @Override
     void close() throws IOException;
   }
+
+  /**
+   * Sends commands to a worker process that can run several jobs at the same time. Responses may
+   * arrive in any order and are matched to their jobs by message id.
+   */
+  interface MultiplexedCommandSender extends Closeable {
+    void handshake(int messageId) throws IOException;
+
+    /**
+     * Sends a job to the worker process without waiting for it to finish.
+     *
+     * @return future that is completed with the exit code of the job.
+     */
+    ListenableFuture<Integer> send(
+        int messageId, WorkerProcessCommand command, JobOutputListener outputListener)
+        throws IOException;
+
+    /** Asks the worker process to stop the job and cancels the future returned by send. */
+    void cancel(int messageId) throws IOException;
+
+    /** Returns the number of jobs that were sent but did not finish yet. */
+    int getJobsInFlight();
+
+    /** Instructs the CommandReceiver to shut itself down. */
+    @Override
+    void close() throws IOException;
+  }
+
+  /** Receives output that a worker process streams back while a job is running. */
+  interface JobOutputListener {
+    void onStdout(String data);
+
+    void onStderr(String data);
+  }
 }
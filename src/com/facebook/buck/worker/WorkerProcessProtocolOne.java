@@ -0,0 +1,395 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Version 1 of the worker process protocol.
+ *
+ * <p>Unlike {@link WorkerProcessProtocolZero}, several jobs may be in flight on the same worker
+ * process. Every message carries the id of the job it belongs to, so the worker is free to answer
+ * in any order. While a job runs, the worker may stream its output back with 'output' messages,
+ * and Buck may ask it to stop a job with a 'cancel' message.
+ */
+public class WorkerProcessProtocolOne {
+
+  private static final Logger LOG = Logger.get(WorkerProcessProtocolOne.class);
+
+  private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  public static class CommandSender implements WorkerProcessProtocol.MultiplexedCommandSender {
+    private final JsonWriter processStdinWriter;
+    private final JsonReader processStdoutReader;
+    private final Path stdErr;
+    private final Runnable onClose;
+    private final Supplier<Boolean> isAlive;
+    private final ConcurrentMap<Integer, PendingJob> pendingJobs = new ConcurrentHashMap<>();
+    @Nullable private Thread responseReader;
+    private boolean isClosed = false;
+
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive) {
+      this.processStdinWriter =
+          new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdin)));
+      this.processStdoutReader =
+          new JsonReader(new BufferedReader(new InputStreamReader(processStdout)));
+      this.stdErr = stdErr;
+      this.onClose = onClose;
+      this.isAlive = isAlive;
+    }
+
+    /*
+     Sends a message that looks like this:
+       [
+         {
+           id: 0,
+           type: 'handshake',
+           protocol_version: '1',
+           capabilities: ['multiplexing', 'streaming_output', 'cancellation']
+         }
+
+     and expects a response with the same id, type and protocol version. Once the handshake is
+     done, responses are read on a separate thread for the lifetime of the process.
+    */
+    @Override
+    public synchronized void handshake(int messageId) throws IOException {
+      Preconditions.checkState(responseReader == null, "Handshake was already performed.");
+      synchronized (processStdinWriter) {
+        processStdinWriter.beginArray();
+        processStdinWriter.beginObject();
+        processStdinWriter.name("id").value(messageId);
+        processStdinWriter.name("type").value(TYPE_HANDSHAKE);
+        processStdinWriter.name("protocol_version").value(PROTOCOL_VERSION);
+        processStdinWriter.name("capabilities").beginArray();
+        for (String capability : CAPABILITIES) {
+          processStdinWriter.value(capability);
+        }
+        processStdinWriter.endArray();
+        processStdinWriter.endObject();
+        processStdinWriter.flush();
+      }
+      receiveHandshake(messageId);
+
+      responseReader = new Thread(this::readResponses, "WorkerProcessProtocolOne response reader");
+      responseReader.setDaemon(true);
+      responseReader.start();
+    }
+
+    /*
+     Sends a message that looks like this:
+       ,{
+         id: <id>,
+         type: 'command',
+         args_path: <argsPath>,
+         stdout_path: <stdoutPath>,
+         stderr_path: <stderrPath>,
+       }
+    */
+    @Override
+    public ListenableFuture<Integer> send(
+        int messageId,
+        WorkerProcessCommand command,
+        WorkerProcessProtocol.JobOutputListener outputListener)
+        throws IOException {
+      Preconditions.checkState(
+          responseReader != null,
+          "Tried to send a command to the worker process before the handshake was performed.");
+      PendingJob job = new PendingJob(outputListener);
+      Preconditions.checkState(
+          pendingJobs.putIfAbsent(messageId, job) == null,
+          "Job %s is already running on this worker process.",
+          messageId);
+      try {
+        synchronized (processStdinWriter) {
+          processStdinWriter.beginObject();
+          processStdinWriter.name("id").value(messageId);
+          processStdinWriter.name("type").value(TYPE_COMMAND);
+          processStdinWriter.name("args_path").value(command.getArgsPath().toString());
+          processStdinWriter.name("stdout_path").value(command.getStdOutPath().toString());
+          processStdinWriter.name("stderr_path").value(command.getStdErrPath().toString());
+          processStdinWriter.endObject();
+          processStdinWriter.flush();
+        }
+      } catch (IOException e) {
+        pendingJobs.remove(messageId, job);
+        throw e;
+      }
+      return job.result;
+    }
+
+    /*
+     Sends a message that looks like this:
+       ,{
+         id: <id>,
+         type: 'cancel'
+       }
+
+     The worker may still answer with a result for that id, which is then ignored.
+    */
+    @Override
+    public void cancel(int messageId) throws IOException {
+      PendingJob job = pendingJobs.remove(messageId);
+      if (job == null) {
+        return;
+      }
+      job.result.cancel(false);
+      synchronized (processStdinWriter) {
+        processStdinWriter.beginObject();
+        processStdinWriter.name("id").value(messageId);
+        processStdinWriter.name("type").value(TYPE_CANCEL);
+        processStdinWriter.endObject();
+        processStdinWriter.flush();
+      }
+    }
+
+    @Override
+    public int getJobsInFlight() {
+      return pendingJobs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      try {
+        synchronized (processStdinWriter) {
+          processStdinWriter.endArray();
+          processStdinWriter.close();
+        }
+        if (responseReader != null) {
+          responseReader.join(CLOSE_TIMEOUT_MILLIS);
+        }
+        processStdoutReader.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (IOException e) {
+        if (!isAlive.get()) {
+          LOG.warn(
+              e,
+              "Streams already closed when closing protocol. Process is alive %s",
+              isAlive.get());
+        } else {
+          throw e;
+        }
+      } finally {
+        failPendingJobs(new HumanReadableException("Worker process was shut down."));
+        onClose.run();
+        isClosed = true;
+      }
+    }
+
+    private void receiveHandshake(int messageId) throws IOException {
+      int id = -1;
+      String type = "";
+      String protocolVersion = "";
+
+      try {
+        processStdoutReader.beginArray();
+        processStdoutReader.beginObject();
+        while (processStdoutReader.hasNext()) {
+          String property = processStdoutReader.nextName();
+          if (property.equals("id")) {
+            id = processStdoutReader.nextInt();
+          } else if (property.equals("type")) {
+            type = processStdoutReader.nextString();
+          } else if (property.equals("protocol_version")) {
+            protocolVersion = processStdoutReader.nextString();
+          } else {
+            processStdoutReader.skipValue();
+          }
+        }
+        processStdoutReader.endObject();
+      } catch (IOException e) {
+        throw new HumanReadableException(
+            e,
+            "Error receiving handshake response from external process.\n"
+                + "Stderr from external process:\n%s",
+            WorkerProcessProtocolZero.getStdErrorOutput(stdErr));
+      }
+
+      if (id != messageId) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected handshake response's \"id\" value to be \"%d\", got \"%d\" instead.",
+                messageId, id));
+      }
+      if (!type.equals(TYPE_HANDSHAKE)) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected handshake response's \"type\" to be \"%s\", got \"%s\" instead.",
+                TYPE_HANDSHAKE, type));
+      }
+      if (!protocolVersion.equals(PROTOCOL_VERSION)) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected handshake response's "
+                    + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
+                PROTOCOL_VERSION, protocolVersion));
+      }
+    }
+
+    /*
+      Reads messages that look like one of these until the worker closes the array:
+        ,{
+          id: <messageID>,
+          type: 'output',
+          stream: 'stdout' | 'stderr',
+          data: <text>
+        }
+        ,{
+          id: <messageID>,
+          type: 'result' | 'error',
+          exit_code: <exitCode>
+        }
+    */
+    private void readResponses() {
+      try {
+        while (processStdoutReader.hasNext()) {
+          readResponse();
+        }
+        processStdoutReader.endArray();
+        failPendingJobs(
+            new HumanReadableException("Worker process closed its output with jobs in flight."));
+      } catch (IOException | IllegalStateException | HumanReadableException e) {
+        String stdErrOutput;
+        try {
+          stdErrOutput = WorkerProcessProtocolZero.getStdErrorOutput(stdErr);
+        } catch (IOException stdErrException) {
+          stdErrOutput = "<unavailable>";
+        }
+        failPendingJobs(
+            new HumanReadableException(
+                e,
+                "Error receiving command response from external process.\n"
+                    + "Stderr from external process:\n%s",
+                stdErrOutput));
+      }
+    }
+
+    private void readResponse() throws IOException {
+      int id = -1;
+      int exitCode = -1;
+      String type = "";
+      String stream = "";
+      String data = "";
+
+      processStdoutReader.beginObject();
+      while (processStdoutReader.hasNext()) {
+        String property = processStdoutReader.nextName();
+        if (property.equals("id")) {
+          id = processStdoutReader.nextInt();
+        } else if (property.equals("type")) {
+          type = processStdoutReader.nextString();
+        } else if (property.equals("exit_code")) {
+          exitCode = processStdoutReader.nextInt();
+        } else if (property.equals("stream")) {
+          stream = processStdoutReader.nextString();
+        } else if (property.equals("data")) {
+          data = processStdoutReader.nextString();
+        } else {
+          processStdoutReader.skipValue();
+        }
+      }
+      processStdoutReader.endObject();
+
+      if (type.equals(TYPE_OUTPUT)) {
+        PendingJob job = pendingJobs.get(id);
+        if (job == null) {
+          return;
+        }
+        if (stream.equals(STREAM_STDOUT)) {
+          job.outputListener.onStdout(data);
+        } else if (stream.equals(STREAM_STDERR)) {
+          job.outputListener.onStderr(data);
+        } else {
+          throw new HumanReadableException(
+              "Expected output's \"stream\" to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
+              STREAM_STDOUT, STREAM_STDERR, stream);
+        }
+      } else if (type.equals(TYPE_RESULT) || type.equals(TYPE_ERROR)) {
+        PendingJob job = pendingJobs.remove(id);
+        if (job == null) {
+          LOG.debug("Ignoring response for unknown or cancelled job %d.", id);
+          return;
+        }
+        job.result.set(exitCode);
+      } else {
+        throw new HumanReadableException(
+            "Expected response's \"type\" to be one of [\"%s\",\"%s\",\"%s\"], got \"%s\" instead.",
+            TYPE_OUTPUT, TYPE_RESULT, TYPE_ERROR, type);
+      }
+    }
+
+    private void failPendingJobs(Throwable cause) {
+      List<Integer> ids = new ArrayList<>(pendingJobs.keySet());
+      for (Integer id : ids) {
+        PendingJob job = pendingJobs.remove(id);
+        if (job != null) {
+          job.result.setException(cause);
+        }
+      }
+    }
+  }
+
+  private static class PendingJob {
+    private final SettableFuture<Integer> result = SettableFuture.create();
+    private final WorkerProcessProtocol.JobOutputListener outputListener;
+
+    private PendingJob(WorkerProcessProtocol.JobOutputListener outputListener) {
+      this.outputListener = outputListener;
+    }
+  }
+
+  private static final String TYPE_HANDSHAKE = "handshake";
+  private static final String TYPE_COMMAND = "command";
+  private static final String TYPE_CANCEL = "cancel";
+  private static final String TYPE_OUTPUT = "output";
+  private static final String TYPE_RESULT = "result";
+  private static final String TYPE_ERROR = "error";
+  private static final String STREAM_STDOUT = "stdout";
+  private static final String STREAM_STDERR = "stderr";
+  private static final String PROTOCOL_VERSION = "1";
+  private static final ImmutableList<String> CAPABILITIES =
+      ImmutableList.of("multiplexing", "streaming_output", "cancellation");
+}
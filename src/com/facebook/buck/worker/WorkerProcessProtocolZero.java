@@ -294,7 +294,7 @@ public class WorkerProcessProtocolZero {
     }
   }
 
-  private static String getStdErrorOutput(Path stdErr) throws IOException {
+  static String getStdErrorOutput(Path stdErr) throws IOException {
     StringBuilder sb = new StringBuilder();
     try (InputStream inputStream = Files.newInputStream(stdErr);
         BufferedReader errorReader = new BufferedReader(new InputStreamReader(inputStream))) {
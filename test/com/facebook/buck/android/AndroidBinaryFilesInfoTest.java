@@ -124,7 +124,8 @@ public class AndroidBinaryFilesInfoTest {
           MoreExecutors.newDirectExecutorService(),
           XzStep.DEFAULT_COMPRESSION_LEVEL,
           Optional.empty(),
-          "dx");
+          "dx",
+          /* incrementalMerge */ false);
     }
 
     @Override
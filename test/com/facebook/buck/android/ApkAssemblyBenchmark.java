@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.android.common.sdklib.build.ApkBuilder;
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.zip.CustomZipEntry;
+import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.ZipOutputStreams;
+import com.facebook.buck.zip.RepackZipEntriesStep;
+import com.facebook.buck.zip.ZipScrubberStep;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares assembling an APK with {@link ApkBuilder} followed by the scrubbing and resource
+ * compression passes with {@link StreamingApkBuilderStep}. Signing is the same for both and is not
+ * measured. The zipalign pass needs the Android SDK and is not measured either, so the numbers for
+ * the existing pipeline are a lower bound.
+ */
+public class ApkAssemblyBenchmark {
+
+  @Param({"150"})
+  private int megabytes = 2;
+
+  private static final Path RESOURCE_APK = Paths.get("resources.apk");
+  private static final Path DEX_FILE = Paths.get("classes.dex");
+  private static final Path ASSETS = Paths.get("assets");
+  private static final Path NATIVE_LIBS = Paths.get("native");
+  private static final Path BUILT_APK = Paths.get("app.built.apk");
+  private static final Path SCRUBBED_APK = Paths.get("app.compressed.apk");
+  private static final Path STREAMED_APK = Paths.get("app.streamed.apk");
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("apk-assembly-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstance();
+
+    // Roughly the shape of a large app: a tenth resources, a quarter dex code, a quarter native
+    // code, and the rest assets.
+    long bytes = megabytes * 1024L * 1024L;
+    Random random = new Random(0);
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(filesystem.resolve(RESOURCE_APK))) {
+      writeStored(out, "AndroidManifest.xml", content(random, 4 * 1024));
+      writeStored(out, "resources.arsc", content(random, (int) (bytes / 10)));
+    }
+    Files.write(filesystem.resolve(DEX_FILE), content(random, (int) (bytes / 4)));
+    for (int i = 0; i < 8; i++) {
+      writeFile(
+          NATIVE_LIBS.resolve(i % 2 == 0 ? "armeabi-v7a" : "x86").resolve("lib" + i + ".so"),
+          content(random, (int) (bytes / 32)));
+    }
+    int assetSize = 256 * 1024;
+    for (int i = 0; i < bytes * 2 / 5 / assetSize; i++) {
+      writeFile(
+          ASSETS.resolve("assets").resolve("dir" + i % 16).resolve("asset" + i),
+          content(random, assetSize));
+    }
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void streamingWritesTheSameEntriesAsApkBuilder() throws Exception {
+    assembleWithApkBuilder();
+    assembleWithStreamingApkBuilder();
+
+    try (ZipFile expected = new ZipFile(filesystem.resolve(SCRUBBED_APK).toFile());
+        ZipFile actual = new ZipFile(filesystem.resolve(STREAMED_APK).toFile())) {
+      assertEquals(expected.size(), actual.size());
+      for (ZipEntry entry : Collections.list(expected.entries())) {
+        ZipEntry actualEntry = actual.getEntry(entry.getName());
+        assertEquals(entry.getName(), entry.getMethod(), actualEntry.getMethod());
+        assertArrayEquals(
+            entry.getName(),
+            ByteStreams.toByteArray(expected.getInputStream(entry)),
+            ByteStreams.toByteArray(actual.getInputStream(actualEntry)));
+      }
+    }
+  }
+
+  @Benchmark
+  public void assembleWithApkBuilder() throws Exception {
+    new ApkBuilderWithoutSigning().execute();
+    ZipScrubberStep.of(filesystem.resolve(BUILT_APK)).execute(context);
+    new RepackZipEntriesStep(
+            filesystem, BUILT_APK, SCRUBBED_APK, ImmutableSet.of("resources.arsc"))
+        .execute(context);
+  }
+
+  @Benchmark
+  public void assembleWithStreamingApkBuilder() throws Exception {
+    new StreamingApkBuilderStep(
+            filesystem,
+            RESOURCE_APK,
+            STREAMED_APK,
+            DEX_FILE,
+            ImmutableSet.of(ASSETS),
+            ImmutableSet.of(NATIVE_LIBS),
+            ImmutableSet.of(),
+            ImmutableSet.of(),
+            true)
+        .execute(context);
+  }
+
+  /** What {@link ApkBuilderStep} does, without loading a keystore and signing the APK. */
+  private class ApkBuilderWithoutSigning {
+    void execute() throws Exception {
+      ApkBuilder builder =
+          new ApkBuilder(
+              filesystem.resolve(BUILT_APK).toFile(),
+              filesystem.resolve(RESOURCE_APK).toFile(),
+              filesystem.resolve(DEX_FILE).toFile(),
+              null,
+              null,
+              null);
+      builder.addNativeLibraries(filesystem.resolve(NATIVE_LIBS).toFile());
+      builder.addSourceFolder(filesystem.resolve(ASSETS).toFile());
+      builder.sealApk();
+    }
+  }
+
+  /** Bytes which deflate to about half their size, like typical APK contents. */
+  private static byte[] content(Random random, int size) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) (random.nextInt(16) + (i % 64 == 0 ? random.nextInt(240) : 0));
+    }
+    return bytes;
+  }
+
+  private void writeFile(Path path, byte[] content) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    try (OutputStream out = Files.newOutputStream(file)) {
+      out.write(content);
+    }
+  }
+
+  private static void writeStored(CustomZipOutputStream out, String name, byte[] content)
+      throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    CustomZipEntry entry = new CustomZipEntry(name);
+    entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+    entry.setSize(content.length);
+    entry.setCompressedSize(content.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+}
@@ -69,6 +69,11 @@ public class DelegatingAndroidDevice implements AndroidDevice {
     delegate.rmFiles(dirPath, filesToDelete);
   }
 
+  @Override
+  public Optional<String> readFile(Path path) throws Exception {
+    return delegate.readFile(path);
+  }
+
   @Override
   public AutoCloseable createForward() throws Exception {
     return delegate.createForward();
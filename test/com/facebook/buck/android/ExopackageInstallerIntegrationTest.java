@@ -40,6 +40,7 @@ import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.facebook.buck.zip.ZipScrubberStep;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMap;
@@ -56,6 +57,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.junit.Before;
@@ -86,6 +88,7 @@ public class ExopackageInstallerIntegrationTest {
   private TestAndroidDevice testDevice;
   private InstallLimitingAndroidDevice device;
   private String apkVersionCode;
+  private boolean deltaInstall;
 
   @Before
   public void setUp() throws Exception {
@@ -98,6 +101,7 @@ public class ExopackageInstallerIntegrationTest {
     filesystem.mkdirs(resourcesDirectory);
     filesystem.mkdirs(modulesDirectory);
     apkVersionCode = "1";
+    deltaInstall = false;
     setupDeviceWithAbi(SdkConstants.ABI_ARMEABI_V7A);
   }
 
@@ -222,6 +226,60 @@ public class ExopackageInstallerIntegrationTest {
     checkExoInstall(0, 0, 0, 0, 0);
   }
 
+  @Test
+  public void testExoDeltaNoopReinstall() throws Exception {
+    deltaInstall = true;
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+    assertEquals(1, device.getInstallFilesCalls());
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertEquals(0, device.getInstallFilesCalls());
+    assertEquals(0, device.getListDirCalls());
+  }
+
+  @Test
+  public void testExoDeltaReinstallWithChanges() throws Exception {
+    deltaInstall = true;
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+
+    currentBuildState =
+        new ExoState(
+            currentBuildState.apkContent,
+            currentBuildState.manifestContent,
+            ImmutableList.of("new-secondary-dex0\n"),
+            currentBuildState.nativeLibsContents,
+            ImmutableList.of("exo-resources.apk\n", "exo-assets0\n", "new-exo-assets1\n"),
+            currentBuildState.modularDexesContents);
+
+    checkExoInstall(0, 1, 0, 1, 0);
+    // Everything, including the metadata and the manifest, is pushed together.
+    assertEquals(1, device.getInstallFilesCalls());
+    assertEquals(0, device.getListDirCalls());
+  }
+
+  @Test
+  public void testExoDeltaInstallAfterRegularInstall() throws Exception {
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+
+    // Without a manifest on the device, the files which are present are reused.
+    deltaInstall = true;
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertEquals(1, device.getListDirCalls());
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertEquals(0, device.getListDirCalls());
+    assertEquals(0, device.getInstallFilesCalls());
+
+    // The regular install removes the manifest, so it can't go stale.
+    deltaInstall = false;
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertFalse(devicePathExists(ExopackageInstaller.HASH_MANIFEST.toString()));
+  }
+
   private void setDefaultFullBuildState() {
     currentBuildState =
         new ExoState(
@@ -681,14 +739,18 @@ public class ExopackageInstallerIntegrationTest {
         expectedResourcesInstalled,
         expectedModulesInstalled);
     try {
-      assertTrue(
+      ExopackageInstaller installer =
           new ExopackageInstaller(
-                  new TestActionGraphBuilder().getSourcePathResolver(),
-                  executionContext,
-                  filesystem,
-                  FAKE_PACKAGE_NAME,
-                  device)
-              .doInstall(apkInfo, null));
+              new TestActionGraphBuilder().getSourcePathResolver(),
+              executionContext,
+              filesystem,
+              FAKE_PACKAGE_NAME,
+              device);
+      if (deltaInstall) {
+        installer.doDeltaInstall(apkInfo, null);
+      } else {
+        assertTrue(installer.doInstall(apkInfo, null));
+      }
     } catch (InterruptedException e) {
       throw new RuntimeException(e);
     }
@@ -722,6 +784,17 @@ public class ExopackageInstallerIntegrationTest {
                         throw new RuntimeException(e);
                       }
                     }));
+    if (deltaInstall) {
+      // The hash manifest lists every other file.
+      String manifestPath = INSTALL_ROOT.resolve(ExopackageInstaller.HASH_MANIFEST).toString();
+      assertEquals(
+          expectedState.expectedFilesState.keySet(),
+          Splitter.on('\n').omitEmptyStrings().splitToList(installedFiles.get(manifestPath))
+              .stream()
+              .map(line -> INSTALL_ROOT.resolve(line.split(" ")[0]).toString())
+              .collect(Collectors.toSet()));
+      installedFiles = Maps.filterKeys(installedFiles, path -> !path.equals(manifestPath));
+    }
     assertEquals(expectedState.expectedFilesState, installedFiles);
   }
 
@@ -21,11 +21,13 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.android.exopackage.DexExoHelper;
+import com.facebook.buck.android.exopackage.ExopackageInstaller;
 import com.facebook.buck.android.exopackage.ModuleExoHelper;
 import com.facebook.buck.android.exopackage.NativeExoHelper;
 import com.facebook.buck.android.exopackage.ResourcesExoHelper;
 import com.facebook.buck.android.exopackage.TestAndroidDevice;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedSet;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -48,6 +50,9 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
   private List<Path> installedResources;
   private List<Path> installedModules;
 
+  private int installFilesCalls;
+  private int listDirCalls;
+
   private final Path apkPath;
   private final Path agentApkPath;
   private final Path installRoot;
@@ -98,7 +103,9 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
 
     Path relativePath = installRoot.relativize(targetDevicePath);
 
-    if (relativePath.startsWith(DexExoHelper.SECONDARY_DEX_DIR)) {
+    if (relativePath.equals(ExopackageInstaller.HASH_MANIFEST)) {
+      return;
+    } else if (relativePath.startsWith(DexExoHelper.SECONDARY_DEX_DIR)) {
       installedDexes.add(source);
       if (!relativePath.getFileName().equals(Paths.get("metadata.txt"))) {
         allowedInstalledDexes--;
@@ -139,12 +146,19 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
 
   @Override
   public void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception {
+    installFilesCalls++;
     for (Map.Entry<Path, Path> entry : installPaths.entrySet()) {
       validateInstallFile(entry.getKey(), entry.getValue());
     }
     super.installFiles(filesType, installPaths);
   }
 
+  @Override
+  public ImmutableSortedSet<Path> listDirRecursive(Path dirPath) throws Exception {
+    listDirCalls++;
+    return super.listDirRecursive(dirPath);
+  }
+
   public void setAllowedInstallCounts(
       int expectedApksInstalled,
       int expectedDexesInstalled,
@@ -162,6 +176,16 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
     installedLibs.clear();
     installedResources.clear();
     installedModules.clear();
+    installFilesCalls = 0;
+    listDirCalls = 0;
+  }
+
+  public int getInstallFilesCalls() {
+    return installFilesCalls;
+  }
+
+  public int getListDirCalls() {
+    return listDirCalls;
   }
 
   public void assertExpectedInstallsAreConsumed() {
@@ -38,6 +38,10 @@ import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -187,6 +191,83 @@ public class PreDexedFilesSorterTest {
     }
   }
 
+  @Test
+  public void testSecondaryDexAssignmentIsReported() throws IOException {
+    ImmutableMap<String, PreDexedFilesSorter.Result> sortResults =
+        generatePreDexSorterResults(0, 15, 0);
+    PreDexedFilesSorter.Result rootResult = sortResults.get(APKModuleGraph.ROOT_APKMODULE_NAME);
+
+    assertThat(rootResult.secondaryDexAssignment.size(), is(15));
+    assertThat(
+        ImmutableSet.copyOf(rootResult.secondaryDexAssignment.values()), is(ImmutableSet.of(0, 1)));
+  }
+
+  @Test
+  public void testIncrementalAssignmentKeepsUnchangedDexes() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<DexWithClasses> dexes = new ArrayList<>();
+    Map<SourcePath, Integer> previousAssignment = new HashMap<>();
+    for (int i = 0; i < 25; i++) {
+      DexWithClasses dex = createFakeSecondaryDex(filesystem, i, STANDARD_DEX_FILE_ESTIMATE);
+      dexes.add(dex);
+      previousAssignment.put(dex.getSourcePathToDexFile(), i / 10);
+    }
+    // A fresh split would move the first library of every following dex forward.
+    dexes.remove(3);
+
+    List<List<DexWithClasses>> split =
+        PreDexedFilesSorter.assignSecondaryDexes(dexes, previousAssignment, DEX_WEIGHT_LIMIT);
+
+    assertThat(split.size(), is(3));
+    assertThat(split.get(0), is(dexes.subList(0, 9)));
+    assertThat(split.get(1), is(dexes.subList(9, 19)));
+    assertThat(split.get(2), is(dexes.subList(19, 24)));
+  }
+
+  @Test
+  public void testIncrementalAssignmentMovesOnlyLibrariesThatNoLongerFit() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<DexWithClasses> dexes = new ArrayList<>();
+    Map<SourcePath, Integer> previousAssignment = new HashMap<>();
+    for (int i = 0; i < 25; i++) {
+      DexWithClasses dex = createFakeSecondaryDex(filesystem, i, STANDARD_DEX_FILE_ESTIMATE);
+      dexes.add(dex);
+      previousAssignment.put(dex.getSourcePathToDexFile(), i / 10);
+    }
+    DexWithClasses grown = createFakeSecondaryDex(filesystem, 9, 3 * STANDARD_DEX_FILE_ESTIMATE);
+    dexes.set(9, grown);
+
+    List<List<DexWithClasses>> split =
+        PreDexedFilesSorter.assignSecondaryDexes(dexes, previousAssignment, DEX_WEIGHT_LIMIT);
+
+    // A fresh split would shift every library after the grown one into a different dex.
+    assertThat(split.size(), is(3));
+    assertThat(split.get(0), is(dexes.subList(0, 9)));
+    assertThat(split.get(1), is(dexes.subList(10, 20)));
+    List<DexWithClasses> lastDex = new ArrayList<>(dexes.subList(20, 25));
+    lastDex.add(grown);
+    assertThat(split.get(2), is(lastDex));
+  }
+
+  @Test
+  public void testIncrementalAssignmentFallsBackToFreshSplitWhenFragmented() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<DexWithClasses> dexes = new ArrayList<>();
+    Map<SourcePath, Integer> previousAssignment = new HashMap<>();
+    for (int i = 0; i < 10; i++) {
+      DexWithClasses dex = createFakeSecondaryDex(filesystem, i, STANDARD_DEX_FILE_ESTIMATE);
+      dexes.add(dex);
+      // Every library used to be alone in its dex.
+      previousAssignment.put(dex.getSourcePathToDexFile(), i);
+    }
+
+    List<List<DexWithClasses>> split =
+        PreDexedFilesSorter.assignSecondaryDexes(dexes, previousAssignment, DEX_WEIGHT_LIMIT);
+
+    List<List<DexWithClasses>> freshSplit = ImmutableList.of(dexes);
+    assertThat(split, is(freshSplit));
+  }
+
   private ImmutableMap<String, PreDexedFilesSorter.Result> generatePreDexSorterResults(
       int numberOfPrimaryDexes, int numberOfSecondaryDexes, int numberOfExtraDexes)
       throws IOException {
@@ -261,4 +342,13 @@ public class PreDexedFilesSorterTest {
       }
     };
   }
+
+  private DexWithClasses createFakeSecondaryDex(
+      ProjectFilesystem filesystem, int index, int weightEstimate) {
+    return createFakeDexWithClasses(
+        filesystem,
+        Paths.get("secondary").resolve(String.format("secondary%d.dex", index)),
+        ImmutableSet.of(String.format("secondary.secondary%d.class", index)),
+        weightEstimate);
+  }
 }
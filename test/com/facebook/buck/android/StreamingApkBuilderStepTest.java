@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.zip.CustomZipEntry;
+import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.ZipOutputStreams;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class StreamingApkBuilderStepTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+
+    writeZip(
+        "resources.apk",
+        ImmutableMap.of(
+            "AndroidManifest.xml", "<manifest/>",
+            "resources.arsc", Strings.repeat("resources ", 100),
+            "res/layout/main.xml", "<layout/>"),
+        true);
+    write("classes.dex", Strings.repeat("dex ", 1000));
+    write("assets/assets/a.txt", "a");
+    write("assets/assets/.hidden", "hidden");
+    write("assets/assets/_ignored/b.txt", "b");
+    write("native/armeabi-v7a/libfoo.so", Strings.repeat("foo ", 1000));
+    write("native/armeabi-v7a/README", "not a library");
+    writeZip(
+        "prebuilt.zip",
+        ImmutableMap.of("lib/x86/libbar.so", "bar", "META-INF/MANIFEST.MF", "Manifest"),
+        false);
+    writeZip(
+        "resources.jar",
+        ImmutableMap.of(
+            "com/example/Foo.class", "class",
+            "com/example/strings.properties", "hello=world",
+            "META-INF/services/Foo", "Bar"),
+        false);
+  }
+
+  @Test
+  public void writesEntriesInApkBuilderOrder() throws Exception {
+    Path apk = build(ImmutableSet.of(Paths.get("resources.jar")), false);
+
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      List<String> names =
+          Collections.list(zip.getEntries()).stream()
+              .map(ZipArchiveEntry::getName)
+              .collect(Collectors.toList());
+      assertEquals(
+          ImmutableList.of(
+              "AndroidManifest.xml",
+              "resources.arsc",
+              "res/layout/main.xml",
+              "classes.dex",
+              "lib/armeabi-v7a/libfoo.so",
+              "assets/a.txt",
+              "lib/x86/libbar.so",
+              "com/example/strings.properties"),
+          names);
+
+      assertEquals(Strings.repeat("dex ", 1000), read(zip, "classes.dex"));
+      assertEquals(Strings.repeat("resources ", 100), read(zip, "resources.arsc"));
+      assertEquals("hello=world", read(zip, "com/example/strings.properties"));
+    }
+  }
+
+  @Test
+  public void alignsStoredEntries() throws Exception {
+    Path apk = build(ImmutableSet.of(Paths.get("resources.jar")), false);
+
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+        if (entry.getMethod() == ZipEntry.STORED) {
+          assertEquals(
+              entry.getName(), 0, entry.getDataOffset() % StreamingApkBuilderStep.ALIGNMENT);
+        }
+      }
+      assertEquals(ZipEntry.STORED, zip.getEntry("resources.arsc").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("classes.dex").getMethod());
+    }
+  }
+
+  @Test
+  public void compressesResourcesTableWhenRequested() throws Exception {
+    Path apk = build(ImmutableSet.of(), true);
+
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("resources.arsc").getMethod());
+      assertEquals(ZipEntry.STORED, zip.getEntry("AndroidManifest.xml").getMethod());
+      assertEquals(Strings.repeat("resources ", 100), read(zip, "resources.arsc"));
+    }
+  }
+
+  @Test
+  public void outputIsDeterministic() throws Exception {
+    Path first = build(ImmutableSet.of(Paths.get("resources.jar")), false);
+    byte[] firstBytes = Files.readAllBytes(first);
+    Path second = build(ImmutableSet.of(Paths.get("resources.jar")), false);
+
+    assertEquals(
+        Hashing.sha1().hashBytes(firstBytes), Hashing.sha1().hashBytes(Files.readAllBytes(second)));
+  }
+
+  @Test
+  public void duplicateEntriesAreAnError() throws Exception {
+    writeZip("duplicate.jar", ImmutableMap.of("classes.dex", "another dex"), false);
+    try {
+      build(ImmutableSet.of(Paths.get("duplicate.jar")), false);
+      fail("Expected duplicate entries to be rejected");
+    } catch (HumanReadableException e) {
+      assertThat(
+          e.getMessage(), Matchers.startsWith("Found duplicate file for APK: classes.dex\n"));
+    }
+  }
+
+  private Path build(ImmutableSet<Path> jars, boolean compressResources) throws Exception {
+    Path output = Paths.get("app.apk");
+    StreamingApkBuilderStep step =
+        new StreamingApkBuilderStep(
+            filesystem,
+            Paths.get("resources.apk"),
+            output,
+            Paths.get("classes.dex"),
+            ImmutableSet.of(Paths.get("assets")),
+            ImmutableSet.of(Paths.get("native")),
+            ImmutableSet.of(Paths.get("prebuilt.zip"), Paths.get("missing.zip")),
+            jars,
+            compressResources);
+    assertEquals(0, step.execute(TestExecutionContext.newInstance()).getExitCode());
+    return filesystem.resolve(output);
+  }
+
+  private void write(String path, String content) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+
+  private void writeZip(String path, Map<String, String> entries, boolean stored)
+      throws IOException {
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(filesystem.resolve(path))) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        byte[] content = entry.getValue().getBytes(UTF_8);
+        CustomZipEntry zipEntry = new CustomZipEntry(entry.getKey());
+        if (stored) {
+          zipEntry.setCompressionLevel(Deflater.NO_COMPRESSION);
+          zipEntry.setSize(content.length);
+          zipEntry.setCompressedSize(content.length);
+          zipEntry.setCrc(Hashing.crc32().hashBytes(content).padToLong());
+        }
+        out.putNextEntry(zipEntry);
+        out.write(content);
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static String read(ZipFile zip, String name) throws IOException {
+    return new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry(name))), UTF_8);
+  }
+}
@@ -32,8 +32,12 @@ import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemView;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.timing.FakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -70,6 +74,7 @@ public class MiniAaptTest {
   private final SourcePathResolver resolver = new TestActionGraphBuilder().getSourcePathResolver();
 
   @Rule public ExpectedException thrown = ExpectedException.none();
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
 
   private static Set<RDotTxtEntry> createTestingFakes(
       Set<RDotTxtEntry> entries, Function<RDotTxtEntry, RDotTxtEntry> converter) {
@@ -864,4 +869,50 @@ public class MiniAaptTest {
 
     aapt.processValuesFile(filesystem, Paths.get("non-public.xml"));
   }
+
+  @Test
+  public void testExecuteParsesXmlFilesAhead() throws Exception {
+    ProjectFilesystem realFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    realFilesystem.mkdirs(Paths.get("res/values"));
+    realFilesystem.mkdirs(Paths.get("res/layout"));
+    realFilesystem.mkdirs(Paths.get("res/drawable"));
+    realFilesystem.writeLinesToPath(
+        ImmutableList.of("<resources><string name=\"hello\">Hello</string></resources>"),
+        Paths.get("res/values/strings.xml"));
+    // Hidden files are skipped, so failing to parse this one must not be reported.
+    realFilesystem.writeContentsToPath("<resources", Paths.get("res/values/.hidden.xml"));
+    realFilesystem.writeLinesToPath(
+        ImmutableList.of(
+            "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">",
+            "<Button android:id=\"@+id/button\" android:text=\"@string/hello\"",
+            "style=\"@style/Buck.Theme\" android:background=\"@drawable/some_image\" />",
+            "</LinearLayout>"),
+        Paths.get("res/layout/main.xml"));
+    realFilesystem.writeContentsToPath("<app-custom/>", Paths.get("res/drawable/custom.xml"));
+    realFilesystem.writeContentsToPath("<shape/>", Paths.get("res/drawable/some_image.xml"));
+    realFilesystem.writeContentsToPath(
+        "<resources><style name=\"Buck.Theme\"/></resources>",
+        Paths.get("res/values/more.xml"));
+
+    MiniAapt aapt =
+        new MiniAapt(
+            resolver,
+            realFilesystem,
+            FakeSourcePath.of(realFilesystem, "res"),
+            Paths.get("R.txt"),
+            ImmutableSet.of());
+    assertEquals(0, aapt.execute(TestExecutionContext.newInstance()).getExitCode());
+
+    assertEquals(
+        ImmutableList.of(
+            "int drawable custom 0x7f010001 #",
+            "int drawable some_image 0x7f010002",
+            "int id button 0x7f050001",
+            "int layout main 0x7f020001",
+            "int string hello 0x7f040001",
+            "int style Buck_Theme 0x7f030001"),
+        realFilesystem.readLines(Paths.get("R.txt")));
+  }
+
 }
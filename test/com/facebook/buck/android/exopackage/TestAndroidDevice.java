@@ -28,6 +28,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -192,6 +193,15 @@ public class TestAndroidDevice implements AndroidDevice {
     }
   }
 
+  @Override
+  public Optional<String> readFile(Path path) throws IOException {
+    Path file = resolve(path);
+    if (!file.toFile().isFile()) {
+      return Optional.empty();
+    }
+    return Optional.of(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+  }
+
   @Override
   public AutoCloseable createForward() {
     // TODO(cjhopman): track correct forwarding usage
@@ -208,7 +218,7 @@ public class TestAndroidDevice implements AndroidDevice {
       assertTrue(source.isAbsolute());
       Path targetPath = resolve(targetDevicePath);
       assertTrue(targetPath.getParent().toFile().exists());
-      Files.copy(source, targetPath);
+      Files.copy(source, targetPath, StandardCopyOption.REPLACE_EXISTING);
     }
   }
 
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures rewriting, slicing and finding the used resources of a large resources.arsc, both with
+ * the default parallelism and restricted to a single thread. The table is generated to have the
+ * shape of a large app: many types, tens of thousands of entries per type, a default configuration
+ * with a value for every entry and many partial configurations (e.g. translations).
+ */
+public class ResourceTableBenchmark {
+  private static final ImmutableList<String> TYPES =
+      ImmutableList.of("attr", "drawable", "layout", "string", "style", "id", "dimen", "color");
+  private static final int ATTR_TYPE = TYPES.indexOf("attr") + 1;
+  private static final int CONFIG_SIZE = 64;
+  private static final int ATTRIBUTES_PER_STYLE = 4;
+
+  @Param({"20000"})
+  private int entries = 500;
+
+  @Param({"30"})
+  private int configs = 4;
+
+  private byte[] arsc;
+  private ResourceTable resourceTable;
+  private ImmutableMap<Integer, Integer> sliceCounts;
+  private ReferenceMapper mapper;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    arsc = createResourceTable(new Random(0));
+    resourceTable = ResourceTable.get(ResChunk.wrap(arsc));
+    UsedResourcesFinder.ResourceClosure closure = computeClosure();
+    sliceCounts = ImmutableMap.copyOf(Maps.transformValues(closure.idsByType, Set::size));
+    mapper = BringToFrontMapper.construct(ResTablePackage.APP_PACKAGE_ID, closure.idsByType);
+  }
+
+  @Test
+  public void parallelAndSingleThreadedProcessingAgree() throws Exception {
+    UsedResourcesFinder.ResourceClosure closure = computeClosure();
+    UsedResourcesFinder.ResourceClosure singleThreadedClosure = onOneThread(this::computeClosure);
+    assertEquals(singleThreadedClosure.files, closure.files);
+    assertEquals(singleThreadedClosure.idsByType, closure.idsByType);
+
+    assertArrayEquals(onOneThread(this::slice).serialize(), slice().serialize());
+    assertArrayEquals(onOneThread(this::reassignIds).serialize(), reassignIds().serialize());
+  }
+
+  @Benchmark
+  public ResourceTable reassignIds() {
+    ResourceTable table = ResourceTable.get(ResChunk.wrap(arsc.clone()));
+    table.reassignIds(mapper);
+    return table;
+  }
+
+  @Benchmark
+  public ResourceTable reassignIdsOnOneThread() throws Exception {
+    return onOneThread(this::reassignIds);
+  }
+
+  @Benchmark
+  public ResourceTable slice() {
+    return ResourceTable.slice(resourceTable, sliceCounts);
+  }
+
+  @Benchmark
+  public ResourceTable sliceOnOneThread() throws Exception {
+    return onOneThread(this::slice);
+  }
+
+  @Benchmark
+  public UsedResourcesFinder.ResourceClosure computeClosure() {
+    // Start from a few styles and layouts, which reach most of the table through their references.
+    ImmutableList.Builder<Integer> rootIds = ImmutableList.builder();
+    for (String type : ImmutableList.of("style", "layout")) {
+      for (int i = 0; i < 16; i++) {
+        rootIds.add(resourceId(TYPES.indexOf(type) + 1, i));
+      }
+    }
+    return UsedResourcesFinder.computeClosure(
+        new UsedResourcesFinder.ApkContentProvider() {
+          @Override
+          public ResourceTable getResourceTable() {
+            return resourceTable;
+          }
+
+          @Override
+          public ResourcesXml getXml(String path) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public boolean hasFile(String path) {
+            return false;
+          }
+        },
+        ImmutableList.of(),
+        rootIds.build());
+  }
+
+  @Benchmark
+  public UsedResourcesFinder.ResourceClosure computeClosureOnOneThread() throws Exception {
+    return onOneThread(this::computeClosure);
+  }
+
+  /** Parallel streams started from within a ForkJoinPool run on that pool. */
+  private static <T> T onOneThread(Callable<T> callable) throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      return pool.submit(callable).get();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static int resourceId(int type, int entry) {
+    return (ResTablePackage.APP_PACKAGE_ID << 24) | (type << 16) | entry;
+  }
+
+  private byte[] createResourceTable(Random random) {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < entries; i++) {
+      strings.add("res/drawable/image_" + i + ".png");
+      strings.add("Some string value " + i);
+    }
+    StringPool stringPool = StringPool.create(strings);
+    StringPool typePool = StringPool.create(TYPES);
+    StringPool keyPool =
+        StringPool.create(IntStream.range(0, entries).mapToObj(i -> "entry_" + i)::iterator);
+
+    List<ByteBuffer> specs = new ArrayList<>();
+    int specsSize = 0;
+    for (int type = 1; type <= TYPES.size(); type++) {
+      ByteBuffer spec = createTypeSpec(random, type);
+      specs.add(spec);
+      specsSize += spec.limit();
+    }
+
+    int packageSize =
+        ResTablePackage.HEADER_SIZE + typePool.getChunkSize() + keyPool.getChunkSize() + specsSize;
+    ByteBuffer buf =
+        ResChunk.wrap(
+            new byte[ResourceTable.HEADER_SIZE + stringPool.getChunkSize() + packageSize]);
+    buf.putShort(ResChunk.CHUNK_RESOURCE_TABLE);
+    buf.putShort((short) ResourceTable.HEADER_SIZE);
+    buf.putInt(buf.limit());
+    buf.putInt(1);
+    stringPool.put(buf);
+
+    buf.putShort(ResChunk.CHUNK_RES_TABLE_PACKAGE);
+    buf.putShort((short) ResTablePackage.HEADER_SIZE);
+    buf.putInt(packageSize);
+    buf.putInt(ResTablePackage.APP_PACKAGE_ID);
+    buf.put(new byte[ResTablePackage.NAME_DATA_LENGTH]);
+    buf.putInt(ResTablePackage.HEADER_SIZE);
+    buf.putInt(typePool.getStringCount());
+    buf.putInt(ResTablePackage.HEADER_SIZE + typePool.getChunkSize());
+    buf.putInt(keyPool.getStringCount());
+    buf.putInt(0);
+    typePool.put(buf);
+    keyPool.put(buf);
+    specs.forEach(buf::put);
+    return buf.array();
+  }
+
+  private ByteBuffer createTypeSpec(Random random, int type) {
+    List<ByteBuffer> types = new ArrayList<>();
+    int size = 16 + 4 * entries;
+    for (int config = 0; config < configs; config++) {
+      ByteBuffer configBuf = createType(random, type, config);
+      types.add(configBuf);
+      size += configBuf.limit();
+    }
+    ByteBuffer buf = ResChunk.wrap(new byte[size]);
+    buf.putShort(ResChunk.CHUNK_RES_TABLE_TYPE_SPEC);
+    buf.putShort((short) 16);
+    buf.putInt(16 + 4 * entries);
+    buf.put((byte) type);
+    buf.put((byte) 0);
+    buf.putShort((short) 0);
+    buf.putInt(entries);
+    buf.put(new byte[4 * entries]);
+    types.forEach(buf::put);
+    buf.position(0);
+    return buf;
+  }
+
+  private ByteBuffer createType(Random random, int type, int config) {
+    boolean isStyle = TYPES.get(type - 1).equals("style");
+    int entrySize = isStyle ? 16 + 12 * ATTRIBUTES_PER_STYLE : 16;
+    // The default configuration has every entry, the others only have some of them.
+    int[] offsets = new int[entries];
+    int entryDataSize = 0;
+    for (int i = 0; i < entries; i++) {
+      if (config == 0 || random.nextInt(4) == 0) {
+        offsets[i] = entryDataSize;
+        entryDataSize += entrySize;
+      } else {
+        offsets[i] = -1;
+      }
+    }
+
+    int headerSize = 20 + CONFIG_SIZE;
+    ByteBuffer buf = ResChunk.wrap(new byte[headerSize + 4 * entries + entryDataSize]);
+    buf.putShort(ResChunk.CHUNK_RES_TABLE_TYPE);
+    buf.putShort((short) headerSize);
+    buf.putInt(buf.limit());
+    buf.put((byte) type);
+    buf.put((byte) 0);
+    buf.putShort((short) 0);
+    buf.putInt(entries);
+    buf.putInt(headerSize + 4 * entries);
+    buf.putInt(CONFIG_SIZE);
+    buf.putInt(config);
+    buf.put(new byte[CONFIG_SIZE - 8]);
+    Arrays.stream(offsets).forEach(buf::putInt);
+    for (int i = 0; i < entries; i++) {
+      if (offsets[i] == -1) {
+        continue;
+      }
+      if (isStyle) {
+        buf.putShort((short) 16);
+        buf.putShort((short) 1);
+        buf.putInt(i);
+        buf.putInt(0);
+        buf.putInt(ATTRIBUTES_PER_STYLE);
+        int[] attrs = random.ints(ATTRIBUTES_PER_STYLE, 0, entries).distinct().sorted().toArray();
+        for (int j = 0; j < ATTRIBUTES_PER_STYLE; j++) {
+          // Attributes are sorted by name, pad with the last attribute if there were duplicates.
+          int attr = attrs[Math.min(j, attrs.length - 1)];
+          buf.putInt(resourceId(ATTR_TYPE, attr));
+          putReference(buf, random);
+        }
+      } else {
+        buf.putShort((short) 8);
+        buf.putShort((short) 0);
+        buf.putInt(i);
+        String typeName = TYPES.get(type - 1);
+        if (typeName.equals("drawable")) {
+          putValue(buf, ResChunk.RES_STRING, 2 * i);
+        } else if (typeName.equals("string")) {
+          putValue(buf, ResChunk.RES_STRING, 2 * i + 1);
+        } else {
+          putReference(buf, random);
+        }
+      }
+    }
+    buf.position(0);
+    return buf;
+  }
+
+  private void putReference(ByteBuffer buf, Random random) {
+    putValue(
+        buf,
+        ResChunk.RES_REFERENCE,
+        resourceId(1 + random.nextInt(TYPES.size()), random.nextInt(entries)));
+  }
+
+  private static void putValue(ByteBuffer buf, int dataType, int data) {
+    buf.putShort((short) 8);
+    buf.put((byte) 0);
+    buf.put((byte) dataType);
+    buf.putInt(data);
+  }
+}
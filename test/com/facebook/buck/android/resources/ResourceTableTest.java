@@ -31,6 +31,7 @@ import com.google.common.io.ByteStreams;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -218,6 +219,33 @@ public class ResourceTableTest {
     }
   }
 
+  @Test
+  public void testSliceResourceTableFromDirectBuffer() throws Exception {
+    try (ZipFile apkZip = new ZipFile(apkPath.toFile())) {
+      byte[] data =
+          ByteStreams.toByteArray(apkZip.getInputStream(apkZip.getEntry("resources.arsc")));
+      ByteBuffer buf = ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN);
+      buf.put(data);
+      buf.position(0);
+      ResourceTable resourceTable = ResourceTable.get(buf);
+      assertArrayEquals(data, resourceTable.serialize());
+
+      Map<Integer, Integer> counts = new HashMap<>();
+      for (ResTableTypeSpec spec : resourceTable.getPackage().getTypeSpecs()) {
+        counts.put(spec.getResourceType(), Math.min(spec.getEntryCount(), 1));
+      }
+      resourceTable = ResourceTable.slice(resourceTable, counts);
+      Path resourcesOutput = filesystem.resolve(filesystem.getPath(APK_NAME + ".resources.sliced"));
+      String expected = filesystem.readFileIfItExists(resourcesOutput).get();
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      resourceTable.dump(new PrintStream(baos));
+      String content = new String(baos.toByteArray(), Charsets.UTF_8);
+
+      MoreAsserts.assertLargeStringsEqual(expected, content);
+    }
+  }
+
   @Test
   public void testSliceResourceTableStringsAreOptimized() throws Exception {
     try (ZipFile apkZip = new ZipFile(apkPath.toFile())) {
@@ -29,10 +29,13 @@ import com.google.common.io.ByteStreams;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.zip.ZipFile;
 import org.junit.Before;
 import org.junit.Rule;
@@ -79,6 +82,25 @@ public class StringPoolTest {
     assertArrayEquals(serialized, reserialized);
   }
 
+  @Test
+  public void testGetFromDirectBufferOnManyThreads() {
+    List<String> strings =
+        IntStream.range(0, 1000).mapToObj(i -> "string" + i).collect(Collectors.toList());
+    byte[] serialized = StringPool.create(strings).serialize();
+    ByteBuffer buf = ByteBuffer.allocateDirect(serialized.length).order(ByteOrder.LITTLE_ENDIAN);
+    buf.put(serialized);
+    buf.position(0);
+    StringPool pool = StringPool.get(buf);
+
+    List<String> decoded =
+        IntStream.range(0, strings.size())
+            .parallel()
+            .mapToObj(pool::getString)
+            .collect(Collectors.toList());
+    assertEquals(strings, decoded);
+    assertArrayEquals(serialized, pool.serialize());
+  }
+
   @Test
   public void testArscPoolGetAndSerialize() throws Exception {
     try (ZipFile apkZip = new ZipFile(apkPath.toFile())) {
@@ -36,12 +36,17 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import org.junit.Test;
@@ -216,6 +221,71 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testFetchesOfAKeyInFlightAreDeduplicated() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<ImmutableList<RuleKey>> requestedRuleKeys = new ArrayList<>();
+
+    try (AbstractAsynchronousCache cache =
+        new ContentsWritingCache(service, filesystem, requestedRuleKeys, 0, 0)) {
+      RuleKey key = new RuleKey(HashCode.fromInt(1));
+      RuleKey otherKey = new RuleKey(HashCode.fromInt(2));
+      ListenableFuture<CacheResult> first =
+          cache.fetchAsync(null, key, LazyPath.ofInstance(filesystem.getPath("first")));
+      ListenableFuture<CacheResult> second =
+          cache.fetchAsync(null, key, LazyPath.ofInstance(filesystem.getPath("second")));
+      ListenableFuture<CacheResult> other =
+          cache.fetchAsync(null, otherKey, LazyPath.ofInstance(filesystem.getPath("other")));
+
+      service.run();
+
+      assertEquals(CacheResultType.HIT, first.get().getType());
+      assertEquals(CacheResultType.HIT, second.get().getType());
+      assertEquals(CacheResultType.HIT, other.get().getType());
+      assertEquals(
+          ImmutableList.of(ImmutableList.of(key), ImmutableList.of(otherKey)), requestedRuleKeys);
+      assertEquals(
+          Optional.of(key.toString()), filesystem.readFileIfItExists(filesystem.getPath("second")));
+
+      // Once the fetch is done with, the key is fetched again.
+      ListenableFuture<CacheResult> third =
+          cache.fetchAsync(null, key, LazyPath.ofInstance(filesystem.getPath("third")));
+      service.run();
+      assertEquals(CacheResultType.HIT, third.get().getType());
+      assertEquals(3, requestedRuleKeys.size());
+    }
+  }
+
+  @Test
+  public void testMultiFetchWaitsForMoreRequestsToFillBatches() throws Exception {
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<ImmutableList<RuleKey>> requestedRuleKeys =
+        Collections.synchronizedList(new ArrayList<>());
+
+    // The delay is long enough for the batch to only be sent once it is full.
+    try (AbstractAsynchronousCache cache =
+        new ContentsWritingCache(service, filesystem, requestedRuleKeys, 3, 60_000)) {
+      List<ListenableFuture<CacheResult>> results = new ArrayList<>();
+      List<RuleKey> keys = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        RuleKey key = new RuleKey(HashCode.fromInt(i));
+        keys.add(key);
+        results.add(
+            cache.fetchAsync(null, key, LazyPath.ofInstance(filesystem.getPath("path" + i))));
+      }
+
+      for (ListenableFuture<CacheResult> result : results) {
+        assertEquals(CacheResultType.HIT, result.get(30, TimeUnit.SECONDS).getType());
+      }
+      assertEquals(ImmutableList.of(ImmutableList.copyOf(keys)), requestedRuleKeys);
+    } finally {
+      service.shutdownNow();
+    }
+  }
+
   private static class NoOpEventListener implements AbstractAsynchronousCache.CacheEventListener {
     @Override
     public AbstractAsynchronousCache.StoreEvents storeScheduled(
@@ -368,4 +438,89 @@ public class AbstractAsynchronousCacheTest {
       return isMultiCheckEnabled;
     }
   }
+
+  /** Writes the key of each artifact it fetches, and deduplicates fetches. */
+  private static class ContentsWritingCache extends AbstractAsynchronousCache {
+    private final List<ImmutableList<RuleKey>> requestedRuleKeys;
+    private final int multiFetchLimit;
+    private final long multiFetchMaxDelayMillis;
+
+    public ContentsWritingCache(
+        ListeningExecutorService service,
+        ProjectFilesystem filesystem,
+        List<ImmutableList<RuleKey>> requestedRuleKeys,
+        int multiFetchLimit,
+        long multiFetchMaxDelayMillis) {
+      super(
+          "fake",
+          ArtifactCacheMode.dir,
+          CacheReadMode.READWRITE,
+          service,
+          service,
+          new NoOpEventListener(),
+          Optional.empty(),
+          filesystem);
+      this.requestedRuleKeys = requestedRuleKeys;
+      this.multiFetchLimit = multiFetchLimit;
+      this.multiFetchMaxDelayMillis = multiFetchMaxDelayMillis;
+    }
+
+    @Override
+    protected FetchResult fetchImpl(@Nullable BuildTarget target, RuleKey ruleKey, LazyPath output)
+        throws IOException {
+      requestedRuleKeys.add(ImmutableList.of(ruleKey));
+      return write(ruleKey, output);
+    }
+
+    @Override
+    protected MultiFetchResult multiFetchImpl(Iterable<FetchRequest> requests) throws IOException {
+      requestedRuleKeys.add(
+          RichStream.from(requests)
+              .map(FetchRequest::getRuleKey)
+              .collect(ImmutableList.toImmutableList()));
+      ImmutableList.Builder<FetchResult> results = ImmutableList.builder();
+      for (FetchRequest request : requests) {
+        results.add(write(request.getRuleKey(), request.getOutput()));
+      }
+      return MultiFetchResult.of(results.build());
+    }
+
+    private FetchResult write(RuleKey ruleKey, LazyPath output) throws IOException {
+      getProjectFilesystem().writeContentsToPath(ruleKey.toString(), output.get());
+      return FetchResult.builder().setCacheResult(CacheResult.hit(getName(), getMode())).build();
+    }
+
+    @Override
+    protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected StoreResult storeImpl(ArtifactInfo info, Path file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected CacheDeleteResult deleteImpl(List<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected int getMultiFetchBatchSize(int pendingRequestsSize) {
+      return multiFetchLimit;
+    }
+
+    @Override
+    protected long getMultiFetchMaxDelayMillis() {
+      return multiFetchMaxDelayMillis;
+    }
+
+    @Override
+    protected boolean isFetchDeduplicationEnabled() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.slb.SingleUriService;
+import com.facebook.buck.testutil.integration.HttpdForTests;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import okhttp3.OkHttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+  private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private SettableFakeClock clock;
+  private BuckEventBus eventBus;
+
+  @Before
+  public void setUp() {
+    clock = new SettableFakeClock(1000, 0);
+    eventBus = BuckEventBusForTests.newInstance();
+  }
+
+  @Test
+  public void testFailureHalvesTheLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(8, 16);
+    makeRequest(limiter, false);
+    assertEquals(4, limiter.getLimit());
+    makeRequest(limiter, false);
+    assertEquals(2, limiter.getLimit());
+    makeRequest(limiter, false);
+    makeRequest(limiter, false);
+    assertEquals(1, limiter.getLimit());
+  }
+
+  @Test
+  public void testBurstOfFailuresDecreasesTheLimitOnce() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(8, 16);
+    List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      permits.add(limiter.acquire());
+    }
+    clock.advanceTimeNanos(LATENCY_NANOS);
+    for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+      permit.close();
+    }
+    assertEquals(4, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testSuccessesAtTheLimitGrowIt() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(2, 4);
+    for (int i = 0; i < 20; i++) {
+      List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+      for (int j = limiter.getLimit(); j > 0; j--) {
+        permits.add(limiter.acquire());
+      }
+      clock.advanceTimeNanos(LATENCY_NANOS);
+      for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+        permit.succeeded();
+        permit.close();
+      }
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testSuccessesBelowTheLimitDoNotGrowIt() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(4, 16);
+    for (int i = 0; i < 20; i++) {
+      makeRequest(limiter, true);
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testSlowRequestsShrinkTheLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(10, 16);
+    for (int i = 0; i < 20; i++) {
+      makeRequest(limiter, true);
+    }
+    assertEquals(10, limiter.getLimit());
+
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+    clock.advanceTimeNanos(10 * LATENCY_NANOS);
+    permit.succeeded();
+    permit.close();
+    assertEquals(9, limiter.getLimit());
+  }
+
+  @Test
+  public void testAcquireWaitsForRoomUnderTheLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(1, 1);
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+    AtomicInteger acquired = new AtomicInteger();
+    Thread waiter =
+        new Thread(
+            () -> {
+              try (AdaptiveConcurrencyLimiter.Permit second = limiter.acquire()) {
+                acquired.incrementAndGet();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waiter.start();
+    waiter.join(100);
+    assertEquals(0, acquired.get());
+
+    permit.close();
+    waiter.join();
+    assertEquals(1, acquired.get());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testPermitIsReleasedOnce() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = newLimiter(2, 2);
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+    limiter.acquire();
+    permit.succeeded();
+    permit.close();
+    permit.close();
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  @Test
+  public void testFetchesBackOffFromAThrottlingServer() throws Exception {
+    int fetches = 200;
+    int threads = 16;
+    ThrottlingHandler handler = new ThrottlingHandler(4);
+    ListeningExecutorService fetchExecutor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+    try (HttpdForTests httpd = HttpdForTests.httpdForOkHttpTests()) {
+      httpd.addHandler(handler);
+      httpd.start();
+
+      AdaptiveConcurrencyLimiter limiter =
+          new AdaptiveConcurrencyLimiter(
+              "fetch", threads, 1, threads, new DefaultClock(), eventBus);
+      ProjectFilesystem filesystem = new FakeProjectFilesystem();
+      CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+      SingleUriService service = new SingleUriService(httpd.getRootUri(), new OkHttpClient());
+      HttpArtifactCache cache =
+          new HttpArtifactCache(
+              NetworkCacheArgs.builder()
+                  .setCacheName("http")
+                  .setCacheMode(ArtifactCacheMode.http)
+                  .setRepository("some_repository")
+                  .setScheduleType("some_schedule")
+                  .setFetchClient(service)
+                  .setStoreClient(service)
+                  .setCacheReadMode(CacheReadMode.READWRITE)
+                  .setTargetConfigurationSerializer(
+                      TargetConfigurationSerializerForTests.create(cellPathResolver))
+                  .setUnconfiguredBuildTargetFactory(
+                      target ->
+                          new ParsingUnconfiguredBuildTargetViewFactory()
+                              .create(cellPathResolver, target))
+                  .setProjectFilesystem(filesystem)
+                  .setBuckEventBus(eventBus)
+                  .setHttpWriteExecutorService(MoreExecutors.newDirectExecutorService())
+                  .setHttpFetchExecutorService(fetchExecutor)
+                  .setErrorTextTemplate("{cache_name} {error_message}")
+                  .setErrorTextLimit(100)
+                  .setFetchConcurrencyLimiter(limiter)
+                  .build());
+
+      List<ListenableFuture<CacheResult>> results = new ArrayList<>();
+      for (int i = 0; i < fetches; i++) {
+        results.add(
+            cache.fetchAsync(
+                null,
+                new RuleKey(String.format("%040x", i)),
+                LazyPath.ofInstance(Paths.get("output", Integer.toString(i)))));
+      }
+      int errors = 0;
+      for (ListenableFuture<CacheResult> result : results) {
+        if (Futures.getUnchecked(result).getType() == CacheResultType.ERROR) {
+          errors++;
+        }
+      }
+
+      // Without the limiter, three in four fetches would be throttled.
+      assertThat(errors, Matchers.lessThan(fetches / 4));
+      assertThat(limiter.getLimit(), Matchers.lessThan(threads));
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+  }
+
+  private AdaptiveConcurrencyLimiter newLimiter(int initialLimit, int maxLimit) {
+    return new AdaptiveConcurrencyLimiter("fetch", initialLimit, 1, maxLimit, clock, eventBus);
+  }
+
+  private void makeRequest(AdaptiveConcurrencyLimiter limiter, boolean succeeded)
+      throws InterruptedException {
+    try (AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire()) {
+      clock.advanceTimeNanos(LATENCY_NANOS);
+      if (succeeded) {
+        permit.succeeded();
+      }
+    }
+  }
+
+  /** Misses slowly, and throttles requests beyond the ones it can handle at once. */
+  private static class ThrottlingHandler extends AbstractHandler {
+    private final int maxConcurrentRequests;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    ThrottlingHandler(int maxConcurrentRequests) {
+      this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    @Override
+    public void handle(
+        String target,
+        Request request,
+        HttpServletRequest httpServletRequest,
+        HttpServletResponse httpServletResponse)
+        throws IOException {
+      try {
+        if (inFlight.incrementAndGet() > maxConcurrentRequests) {
+          httpServletResponse.setStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+          return;
+        }
+        Thread.sleep(20);
+        httpServletResponse.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+        request.setHandled(true);
+      }
+    }
+  }
+}
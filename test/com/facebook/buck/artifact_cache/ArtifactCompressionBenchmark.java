@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.util.unarchive.ArchiveFormat;
+import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.zip.ZipConstants;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares compressing artifacts into a single zstd stream, as {@link ArtifactUploader} used to,
+ * with compressing them in parallel frames, and extracting either kind of archive.
+ */
+public class ArtifactCompressionBenchmark {
+
+  @Param({"200"})
+  private int files = 20;
+
+  @Param({"1048576"})
+  private int fileSize = 64 * 1024;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private List<Path> paths;
+  private Path singleStreamArchive;
+  private Path parallelArchive;
+  private int extractions = 0;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("artifact-compression-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    Random random = new Random(0);
+    paths = new ArrayList<>(files);
+    for (int i = 0; i < files; i++) {
+      Path path = Paths.get("lib" + i, "output.jar");
+      filesystem.mkdirs(path.getParent());
+      byte[] bytes = new byte[fileSize];
+      // Letters from alphabets of random sizes compress about as well as build outputs do.
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+      }
+      filesystem.writeBytesToPath(bytes, path);
+      paths.add(path);
+    }
+    singleStreamArchive = compressInOneStream();
+    parallelArchive = compressInParallel();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws Exception {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void bothArchivesExtractToTheArtifact() throws Exception {
+    for (Path archive : new Path[] {singleStreamArchive, parallelArchive}) {
+      Path extracted = extract(archive);
+      for (Path path : paths) {
+        assertArrayEquals(
+            Files.readAllBytes(root.resolve(path)), Files.readAllBytes(extracted.resolve(path)));
+      }
+    }
+  }
+
+  @Test
+  public void parallelFramesCompressAboutAsWell() throws Exception {
+    assertThat(
+        (double) Files.size(parallelArchive),
+        Matchers.lessThan(1.1 * Files.size(singleStreamArchive)));
+  }
+
+  @Benchmark
+  public Path compressInOneStream() throws IOException {
+    Path out = Files.createTempFile(root, "single", ".tar.zst");
+    try (OutputStream o = new BufferedOutputStream(Files.newOutputStream(out));
+        OutputStream z = new ZstdCompressorOutputStream(o);
+        TarArchiveOutputStream archive = new TarArchiveOutputStream(z)) {
+      archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      for (Path path : paths) {
+        TarArchiveEntry e = new TarArchiveEntry(path.toString());
+        e.setMode((int) filesystem.getPosixFileMode(path));
+        e.setModTime(ZipConstants.getFakeTime());
+        e.setSize(filesystem.getFileSize(path));
+        archive.putArchiveEntry(e);
+        filesystem.copyToOutputStream(path, archive);
+        archive.closeArchiveEntry();
+      }
+      archive.finish();
+    }
+    return out;
+  }
+
+  @Benchmark
+  public Path compressInParallel() throws IOException {
+    Path out = Files.createTempFile(root, "parallel", ".tar.zst");
+    ArtifactUploader.compress(filesystem, paths, out);
+    return out;
+  }
+
+  @Benchmark
+  public Path extractSingleStream() throws IOException {
+    return extract(singleStreamArchive);
+  }
+
+  @Benchmark
+  public Path extractParallelFrames() throws IOException {
+    return extract(parallelArchive);
+  }
+
+  private Path extract(Path archive) throws IOException {
+    Path destination = Files.createDirectories(root.resolve("extracted" + extractions++));
+    ArchiveFormat.TAR_ZSTD
+        .getUnarchiver()
+        .extractArchive(
+            archive,
+            TestProjectFilesystems.createProjectFilesystem(destination),
+            ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    return destination;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ChunkedArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey RULE_KEY_2 = new RuleKey("1111111111111111111111111111111111111111");
+  private static final int AVERAGE_CHUNK_SIZE = 4096;
+
+  private InMemoryArtifactCache inMemoryArtifactCache;
+  private ChunkedArtifactCacheDecorator chunkedCache;
+
+  @Before
+  public void setUp() throws IOException {
+    inMemoryArtifactCache = new InMemoryArtifactCache();
+    chunkedCache =
+        new ChunkedArtifactCacheDecorator(
+            inMemoryArtifactCache,
+            ImmutableList.of(inMemoryArtifactCache),
+            TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+            BuckEventBusForTests.newInstance(),
+            /* performChunkedStores */ true,
+            /* minimumChunkedStoredArtifactSize */ 64 * 1024L,
+            AVERAGE_CHUNK_SIZE);
+  }
+
+  @Test
+  public void largeArtifactsAreStoredAsChunksAndJoinedWhenFetched() throws IOException {
+    byte[] data = randomBytes(512 * 1024, 0);
+    store(RULE_KEY, ImmutableMap.of("key", "value"), data);
+    assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.greaterThan(32));
+
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result =
+        Futures.getUnchecked(chunkedCache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("key", "value"), result.getMetadata());
+    assertArrayEquals(data, Files.readAllBytes(output));
+  }
+
+  @Test
+  public void smallArtifactsAreStoredWhole() throws IOException {
+    byte[] data = randomBytes(1024, 0);
+    store(RULE_KEY, ImmutableMap.of(), data);
+    assertEquals(1, inMemoryArtifactCache.getArtifactCount());
+
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result =
+        Futures.getUnchecked(chunkedCache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(data, Files.readAllBytes(output));
+  }
+
+  @Test
+  public void onlyTheChunksWhichChangedAreStoredAgain() throws IOException {
+    byte[] data = randomBytes(512 * 1024, 0);
+    store(RULE_KEY, ImmutableMap.of(), data);
+    int firstCount = inMemoryArtifactCache.getArtifactCount();
+
+    byte[] edited = data.clone();
+    System.arraycopy(randomBytes(100, 1), 0, edited, data.length / 2, 100);
+    store(RULE_KEY_2, ImmutableMap.of(), edited);
+    // A new manifest, and the one or two chunks the edit touched.
+    assertThat(
+        inMemoryArtifactCache.getArtifactCount() - firstCount,
+        Matchers.both(Matchers.greaterThan(1)).and(Matchers.lessThanOrEqualTo(3)));
+
+    Path output = tmp.getRoot().resolve("output");
+    Futures.getUnchecked(chunkedCache.fetchAsync(null, RULE_KEY_2, LazyPath.ofInstance(output)));
+    assertArrayEquals(edited, Files.readAllBytes(output));
+  }
+
+  @Test
+  public void aMissingChunkIsAMiss() throws IOException {
+    store(RULE_KEY, ImmutableMap.of(), randomBytes(512 * 1024, 0));
+
+    Path manifest = tmp.getRoot().resolve("manifest");
+    Futures.getUnchecked(
+        inMemoryArtifactCache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(manifest)));
+    String firstChunkKey =
+        Splitter.on(' ').split(Files.readAllLines(manifest, StandardCharsets.UTF_8).get(0))
+            .iterator()
+            .next();
+    inMemoryArtifactCache.deleteAsync(ImmutableList.of(new RuleKey(firstChunkKey)));
+
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result =
+        Futures.getUnchecked(chunkedCache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)));
+    assertFalse(result.getType().isSuccess());
+  }
+
+  private void store(RuleKey ruleKey, ImmutableMap<String, String> metadata, byte[] data)
+      throws IOException {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, data);
+    Futures.getUnchecked(
+        chunkedCache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(metadata).build(),
+            BorrowablePath.notBorrowablePath(artifact)));
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
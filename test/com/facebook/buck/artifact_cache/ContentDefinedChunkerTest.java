@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.ContentDefinedChunker.Chunk;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class ContentDefinedChunkerTest {
+
+  private static final int AVERAGE_SIZE = 4096;
+
+  private final ContentDefinedChunker chunker = new ContentDefinedChunker(AVERAGE_SIZE);
+
+  @Test
+  public void chunksCoverTheInputAndHaveBoundedSizes() throws IOException {
+    byte[] data = randomBytes(1024 * 1024, 0);
+    ImmutableList<Chunk> chunks = chunker.chunk(new ByteArrayInputStream(data));
+
+    long offset = 0;
+    for (Chunk chunk : chunks) {
+      assertEquals(offset, chunk.getOffset());
+      assertThat(chunk.getSize(), Matchers.lessThanOrEqualTo(8 * AVERAGE_SIZE));
+      HashCode expected =
+          Hashing.sha1()
+              .hashBytes(Arrays.copyOfRange(data, (int) offset, (int) offset + chunk.getSize()));
+      assertEquals(expected, chunk.getHashCode());
+      offset += chunk.getSize();
+    }
+    assertEquals(data.length, offset);
+    // All but the last chunk are at least a quarter of the average size.
+    for (Chunk chunk : chunks.subList(0, chunks.size() - 1)) {
+      assertThat(chunk.getSize(), Matchers.greaterThan(AVERAGE_SIZE / 4));
+    }
+    assertThat(chunks.size(), Matchers.both(Matchers.greaterThan(128)).and(Matchers.lessThan(512)));
+  }
+
+  @Test
+  public void insertingBytesOnlyChangesTheChunksAroundThem() throws IOException {
+    byte[] data = randomBytes(1024 * 1024, 0);
+    byte[] edited = new byte[data.length + 100];
+    System.arraycopy(data, 0, edited, 0, data.length / 2);
+    System.arraycopy(randomBytes(100, 1), 0, edited, data.length / 2, 100);
+    System.arraycopy(data, data.length / 2, edited, data.length / 2 + 100, data.length / 2);
+
+    Set<HashCode> before = hashes(chunker.chunk(new ByteArrayInputStream(data)));
+    ImmutableList<Chunk> after = chunker.chunk(new ByteArrayInputStream(edited));
+    long changed = after.stream().filter(chunk -> !before.contains(chunk.getHashCode())).count();
+    assertTrue(
+        String.format("%d of %d chunks changed", changed, after.size()),
+        changed >= 1 && changed <= 2);
+  }
+
+  private static Set<HashCode> hashes(ImmutableList<Chunk> chunks) {
+    return chunks.stream().map(Chunk::getHashCode).collect(Collectors.toSet());
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
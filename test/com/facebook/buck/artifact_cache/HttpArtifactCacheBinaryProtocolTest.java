@@ -17,9 +17,11 @@
 package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -32,6 +34,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -136,6 +139,124 @@ public class HttpArtifactCacheBinaryProtocolTest {
     }
   }
 
+  @Test
+  public void testMultiFetchRequest() throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    RuleKey ruleKey2 = new RuleKey("90000000000000000000008000000005");
+    byte[] request =
+        HttpArtifactCacheBinaryProtocol.createMultiFetchRequest(ImmutableSet.of(ruleKey, ruleKey2));
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readMultiFetchRequest(
+            new DataInputStream(new ByteArrayInputStream(request))),
+        Matchers.contains(ruleKey, ruleKey2));
+  }
+
+  @Test
+  public void testMultiFetchResponse() throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    RuleKey ruleKey2 = new RuleKey("90000000000000000000008000000005");
+    ImmutableMap<String, String> metadata = ImmutableMap.of("metaKey", "metaValue");
+
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(response)) {
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchResponseHeader(output, 3);
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchHit(
+          output,
+          new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(ruleKey),
+              metadata,
+              ByteSource.wrap("data".getBytes(Charsets.UTF_8))));
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchMiss(output);
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchHit(
+          output,
+          new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(ruleKey2),
+              ImmutableMap.of(),
+              ByteSource.wrap("other data".getBytes(Charsets.UTF_8))));
+    }
+
+    try (DataInputStream input =
+        new DataInputStream(new ByteArrayInputStream(response.toByteArray()))) {
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiFetchResponseHeader(input), Matchers.is(3));
+
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input), Matchers.is(true));
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      FetchResponseReadResult result =
+          HttpArtifactCacheBinaryProtocol.readMultiFetchHit(input, payload);
+      assertThat(result.getRuleKeys(), Matchers.contains(ruleKey));
+      assertThat(result.getMetadata(), Matchers.equalTo(metadata));
+      assertThat(result.getActualHashCode(), Matchers.equalTo(result.getExpectedHashCode()));
+      assertThat(payload.toByteArray(), Matchers.equalTo("data".getBytes(Charsets.UTF_8)));
+
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input), Matchers.is(false));
+
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input), Matchers.is(true));
+      payload = new ByteArrayOutputStream();
+      result = HttpArtifactCacheBinaryProtocol.readMultiFetchHit(input, payload);
+      assertThat(result.getRuleKeys(), Matchers.contains(ruleKey2));
+      assertThat(payload.toByteArray(), Matchers.equalTo("other data".getBytes(Charsets.UTF_8)));
+      assertThat(input.read(), Matchers.is(-1));
+    }
+  }
+
+  @Test
+  public void testMultiContainsResponse() throws IOException {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(response)) {
+      HttpArtifactCacheBinaryProtocol.writeMultiContainsResponse(
+          output, ImmutableList.of(true, false, true));
+    }
+
+    try (DataInputStream input =
+        new DataInputStream(new ByteArrayInputStream(response.toByteArray()))) {
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiContainsResponse(input),
+          Matchers.contains(true, false, true));
+      assertThat(input.read(), Matchers.is(-1));
+    }
+  }
+
+  @Test
+  public void testMultiFetchResponseEntryIsSkippedWhenReadingItFails() throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(response)) {
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchResponseHeader(output, 2);
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchHit(
+          output,
+          new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(ruleKey),
+              ImmutableMap.of(),
+              ByteSource.wrap("data".getBytes(Charsets.UTF_8))));
+      HttpArtifactCacheBinaryProtocol.writeMultiFetchMiss(output);
+    }
+
+    try (DataInputStream input =
+        new DataInputStream(new ByteArrayInputStream(response.toByteArray()))) {
+      HttpArtifactCacheBinaryProtocol.readMultiFetchResponseHeader(input);
+      HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input);
+      try {
+        HttpArtifactCacheBinaryProtocol.readMultiFetchHit(
+            input,
+            new OutputStream() {
+              @Override
+              public void write(int b) throws IOException {
+                throw new IOException("disk full");
+              }
+            });
+        fail("Writing the payload should have failed.");
+      } catch (IOException e) {
+        assertThat(e.getMessage(), Matchers.is("disk full"));
+      }
+      assertThat(
+          HttpArtifactCacheBinaryProtocol.readMultiFetchEntryFound(input), Matchers.is(false));
+    }
+  }
+
   @Test
   public void testMassiveMetadataHeaderWrite() throws IOException {
     ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
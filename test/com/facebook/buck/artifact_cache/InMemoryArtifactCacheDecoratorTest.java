@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class InMemoryArtifactCacheDecoratorTest {
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final int MAX_ARTIFACT_SIZE = 1024;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private InMemoryArtifactCache delegate;
+  private InMemoryArtifactStore store;
+  private InMemoryArtifactCacheDecorator cache;
+
+  @Before
+  public void setUp() throws IOException {
+    delegate = new InMemoryArtifactCache();
+    store = new InMemoryArtifactStore(100 * MAX_ARTIFACT_SIZE, MAX_ARTIFACT_SIZE);
+    cache =
+        new InMemoryArtifactCacheDecorator(
+            delegate,
+            store,
+            TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+            BuckEventBusForTests.newInstance());
+  }
+
+  @Test
+  public void testFetchedArtifactsAreServedFromMemory() throws IOException {
+    byte[] data = new byte[MAX_ARTIFACT_SIZE];
+    data[0] = 42;
+    delegate.store(
+        ArtifactInfo.builder().addRuleKeys(RULE_KEY).setMetadata(ImmutableMap.of("a", "b")).build(),
+        data);
+
+    Path output = tmp.getRoot().resolve("first/output");
+    Files.createDirectories(output.getParent());
+    CacheResult result = fetch(output);
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals("in-memory", result.getCacheSource());
+
+    // Once it's in memory, the artifact is served even though the delegate lost it.
+    delegate.deleteAsync(ImmutableList.of(RULE_KEY));
+    Path secondOutput = tmp.getRoot().resolve("second/output");
+    result = fetch(secondOutput);
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(CacheResult.MEMORY_CACHE_SOURCE, result.getCacheSource());
+    assertEquals(ArtifactCacheMode.dir, result.cacheMode().get());
+    assertEquals(ImmutableMap.of("a", "b"), result.getMetadata());
+    assertEquals(MAX_ARTIFACT_SIZE, result.getArtifactSizeBytes());
+    assertArrayEquals(data, Files.readAllBytes(secondOutput));
+  }
+
+  @Test
+  public void testLargeArtifactsAreNotKept() throws IOException {
+    delegate.store(
+        ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), new byte[MAX_ARTIFACT_SIZE + 1]);
+    assertEquals(CacheResultType.HIT, fetch(tmp.getRoot().resolve("output")).getType());
+    assertEquals(0, store.getArtifactCount());
+  }
+
+  @Test
+  public void testDeletedArtifactsAreDroppedFromMemory() throws IOException {
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), new byte[10]);
+    fetch(tmp.getRoot().resolve("output"));
+    assertEquals(1, store.getArtifactCount());
+
+    Futures.getUnchecked(cache.deleteAsync(ImmutableList.of(RULE_KEY)));
+    assertEquals(0, store.getArtifactCount());
+    assertEquals(CacheResultType.MISS, fetch(tmp.getRoot().resolve("output")).getType());
+  }
+
+  private CacheResult fetch(Path output) {
+    return Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)));
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class InMemoryArtifactStoreTest {
+  private static final int ARTIFACT_SIZE = 4 * 1024;
+  private static final CacheResult RESULT =
+      CacheResult.hit("dir", ArtifactCacheMode.dir, ImmutableMap.of(), ARTIFACT_SIZE);
+
+  @Test
+  public void testArtifactsAreKept() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    assertFalse(store.get(key(0)).isPresent());
+    store.put(key(0), RESULT, artifact(ARTIFACT_SIZE, (byte) 42));
+
+    Optional<InMemoryArtifactStore.Entry> entry = store.get(key(0));
+    assertTrue(entry.isPresent());
+    assertEquals(RESULT, entry.get().getCacheResult());
+    ByteBuffer data = entry.get().getData();
+    assertEquals(ARTIFACT_SIZE, data.remaining());
+    assertEquals(42, data.get(ARTIFACT_SIZE - 1));
+    assertEquals(ARTIFACT_SIZE, store.getSizeBytes());
+  }
+
+  @Test
+  public void testLargeArtifactsAreNotKept() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    store.put(key(0), RESULT, artifact(ARTIFACT_SIZE + 1, (byte) 0));
+    assertFalse(store.get(key(0)).isPresent());
+    assertEquals(0, store.getSizeBytes());
+  }
+
+  @Test
+  public void testInvalidatedArtifactsAreDropped() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    for (int i = 0; i < 10; i++) {
+      store.get(key(i));
+      store.put(key(i), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+    }
+    store.invalidate(key(3));
+    assertFalse(store.get(key(3)).isPresent());
+    assertEquals(9, store.getArtifactCount());
+    assertEquals(9 * ARTIFACT_SIZE, store.getSizeBytes());
+  }
+
+  @Test
+  public void testSizeStaysWithinCapacity() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    for (int i = 0; i < 1000; i++) {
+      store.get(key(i % 300));
+      store.put(key(i % 300), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+      assertThat(store.getSizeBytes(), Matchers.lessThanOrEqualTo(100L * ARTIFACT_SIZE));
+    }
+  }
+
+  @Test
+  public void testFrequentlyUsedArtifactsSurviveAScan() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    int hotArtifacts = 50;
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < hotArtifacts; i++) {
+        if (!store.get(key(i)).isPresent()) {
+          store.put(key(i), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+        }
+      }
+    }
+
+    // A build which fetches many artifacts once, which would flush an LRU cache.
+    for (int i = 1000; i < 2000; i++) {
+      store.get(key(i));
+      store.put(key(i), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+    }
+
+    // The last one was only ever used from the window, so it may have lost to a colliding key.
+    for (int i = 0; i < hotArtifacts - 1; i++) {
+      assertTrue("Artifact " + i + " was dropped.", store.get(key(i)).isPresent());
+    }
+  }
+
+  @Test
+  public void testArtifactsUsedAgainReplaceOnesUsedOnce() {
+    InMemoryArtifactStore store = new InMemoryArtifactStore(100 * ARTIFACT_SIZE, ARTIFACT_SIZE);
+    for (int i = 0; i < 200; i++) {
+      store.get(key(i));
+      store.put(key(i), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+    }
+    // These were dropped the first time, as they were used no more than what they would replace.
+    for (int i = 150; i < 200; i++) {
+      if (!store.get(key(i)).isPresent()) {
+        store.put(key(i), RESULT, artifact(ARTIFACT_SIZE, (byte) i));
+      }
+    }
+    for (int i = 150; i < 200; i++) {
+      assertTrue("Artifact " + i + " was dropped.", store.get(key(i)).isPresent());
+    }
+  }
+
+  @Test
+  public void testFrequencySketchCountsAndAges() {
+    FrequencySketch sketch = new FrequencySketch(1024);
+    assertEquals(0, sketch.frequency(key(0)));
+    for (int i = 0; i < 5; i++) {
+      sketch.increment(key(0));
+    }
+    assertThat(sketch.frequency(key(0)), Matchers.greaterThanOrEqualTo(5));
+    for (int i = 0; i < 100; i++) {
+      sketch.increment(key(1));
+    }
+    assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(key(1)));
+
+    // Seeing as many other keys as ten times the sketch's size halves every count.
+    for (int i = 2; i < 20000; i++) {
+      sketch.increment(key(i));
+    }
+    assertThat(sketch.frequency(key(1)), Matchers.lessThan(FrequencySketch.MAX_FREQUENCY));
+  }
+
+  private static RuleKey key(int i) {
+    return new RuleKey(String.format("%016x%024x", i * 0x9e3779b97f4a7c15L, i));
+  }
+
+  private static ByteBuffer artifact(int size, byte value) {
+    ByteBuffer data = ByteBuffer.allocateDirect(size);
+    while (data.hasRemaining()) {
+      data.put(value);
+    }
+    data.flip();
+    return data;
+  }
+}
@@ -20,6 +20,7 @@ import static com.facebook.buck.core.build.engine.BuildRuleSuccessType.BUILT_LOC
 import static com.facebook.buck.core.build.engine.BuildRuleSuccessType.FETCHED_FROM_CACHE;
 import static com.facebook.buck.util.string.MoreStrings.linesToText;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
@@ -40,6 +41,7 @@ import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.CapturingPrintStream;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.cache.CacheStats;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
@@ -171,4 +173,27 @@ public class BuildCommandTest {
         new BuildReport(buildExecutionResult, resolver, rootCell).generateJsonBuildReport();
     assertEquals(expectedReport, observedReport);
   }
+
+  @Test
+  public void testJsonBuildReportIncludesCacheStats() throws IOException {
+    BuildExecutionResult result =
+        BuildExecutionResult.builder()
+            .from(buildExecutionResult)
+            .putCacheStats(
+                "cxx_object_cache", CacheStats.builder().setHitCount(3L).setMissCount(1L).build())
+            .build();
+    String expectedCacheStats =
+        String.join(
+            System.lineSeparator(),
+            "  \"cache_stats\" : {",
+            "    \"cxx_object_cache\" : {",
+            "      \"hits\" : 3,",
+            "      \"misses\" : 1,",
+            "      \"hit_rate\" : 0.75",
+            "    }",
+            "  }",
+            "}");
+    String observedReport = new BuildReport(result, resolver, rootCell).generateJsonBuildReport();
+    assertTrue(observedReport, observedReport.endsWith(expectedCacheStats));
+  }
 }
@@ -62,6 +62,7 @@ public class CachingBuildEngineFactory {
   private BuildInfoStoreManager buildInfoStoreManager;
   private final RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter;
   private Optional<BuildRuleStrategy> customBuildRuleStrategy = Optional.empty();
+  private int artifactPrefetchBatchSize = 0;
 
   public CachingBuildEngineFactory(
       BuildRuleResolver buildRuleResolver,
@@ -136,6 +137,11 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setArtifactPrefetchBatchSize(int artifactPrefetchBatchSize) {
+    this.artifactPrefetchBatchSize = artifactPrefetchBatchSize;
+    return this;
+  }
+
   public CachingBuildEngine build() {
     TargetConfigurationSerializer targetConfigurationSerializer =
         TargetConfigurationSerializerForTests.create(
@@ -158,7 +164,8 @@ public class CachingBuildEngineFactory {
           resourceAwareSchedulingInfo,
           RuleKeyDiagnostics.nop(),
           logBuildRuleFailuresInline,
-          Optional.empty());
+          Optional.empty(),
+          artifactPrefetchBatchSize);
     }
 
     return new CachingBuildEngine(
@@ -182,7 +189,8 @@ public class CachingBuildEngineFactory {
             inputFileSizeLimit,
             new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), new NoOpCacheStatsTracker())),
         remoteBuildRuleCompletionWaiter,
-        Optional.empty());
+        Optional.empty(),
+        artifactPrefetchBatchSize);
   }
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
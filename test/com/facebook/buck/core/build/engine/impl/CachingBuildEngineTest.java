@@ -30,6 +30,7 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -37,6 +38,7 @@ import static org.junit.Assert.fail;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactPrefetchEvent;
 import com.facebook.buck.artifact_cache.CacheDeleteResult;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
@@ -166,6 +168,7 @@ import com.facebook.buck.util.zip.ZipConstants;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -1688,6 +1691,137 @@ public class CachingBuildEngineTest {
         assertTrue(fakeFileHashCache.contains(filesystem.resolve(output)));
       }
     }
+
+    @Test
+    public void prefetchedArtifactsAreHandedOverToTheEngine() throws Exception {
+      assertPrefetchedArtifactsAreHandedOverToTheEngine(buildContext);
+    }
+
+    @Test
+    public void artifactsArePrefetchedFromCachesWhichCannotLookThemUp() throws Exception {
+      InMemoryArtifactCache cacheWithoutLookUp =
+          new InMemoryArtifactCache() {
+            @Override
+            public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+                ImmutableSet<RuleKey> ruleKeys) {
+              throw new UnsupportedOperationException("multiContains is not supported");
+            }
+          };
+      assertPrefetchedArtifactsAreHandedOverToTheEngine(
+          buildContext.withArtifactCache(cacheWithoutLookUp));
+    }
+
+    @Test
+    public void prefetchedMissesAreNotFetchedAgain() throws Exception {
+      ConcurrentHashMultiset<RuleKey> fetches = ConcurrentHashMultiset.create();
+      InMemoryArtifactCache cacheWithoutLookUp =
+          new InMemoryArtifactCache() {
+            @Override
+            public ListenableFuture<CacheResult> fetchAsync(
+                @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+              fetches.add(ruleKey);
+              return super.fetchAsync(target, ruleKey, output);
+            }
+
+            @Override
+            public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+                ImmutableSet<RuleKey> ruleKeys) {
+              throw new UnsupportedOperationException("multiContains is not supported");
+            }
+          };
+      BuildRule dep =
+          new WriteFile(
+              BuildTargetFactory.newInstance("//:dep"),
+              filesystem,
+              "dep",
+              filesystem.getPath("output/dep"),
+              /* executable */ false);
+      graphBuilder.addToIndex(dep);
+      BuildRule rule =
+          createRule(
+              filesystem,
+              graphBuilder,
+              ImmutableSortedSet.of(dep),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setArtifactPrefetchBatchSize(10).build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(
+                    buildContext.withArtifactCache(cacheWithoutLookUp),
+                    TestExecutionContext.newInstance(),
+                    rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+      }
+
+      // Whether the engine or the prefetcher fetched first, each artifact missed only once.
+      assertFalse(fetches.isEmpty());
+      for (RuleKey ruleKey : fetches.elementSet()) {
+        assertEquals(1, fetches.count(ruleKey));
+      }
+    }
+
+    private void assertPrefetchedArtifactsAreHandedOverToTheEngine(
+        BuildEngineBuildContext buildContext) throws Exception {
+      BuildTarget depTarget = BuildTargetFactory.newInstance("//:dep");
+      BuildRule dep =
+          new WriteFile(
+              depTarget,
+              filesystem,
+              "dep",
+              filesystem.getPath("output/dep"),
+              /* executable */ false);
+      graphBuilder.addToIndex(dep);
+      BuildRule rule =
+          createRule(
+              filesystem,
+              graphBuilder,
+              ImmutableSortedSet.of(dep),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      // Run an initial build to seed the cache.
+      try (CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory().build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+      }
+      filesystem.deleteRecursivelyIfExists(Paths.get(""));
+      buildInfoStore.deleteMetadata(rule.getBuildTarget());
+      buildInfoStore.deleteMetadata(depTarget);
+
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setArtifactPrefetchBatchSize(10).build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+        // The engine doesn't need the dep of a hit, so it isn't prefetched either.
+        assertNull(cachingBuildEngine.getBuildRuleResult(depTarget));
+      }
+
+      List<ArtifactPrefetchEvent> events =
+          listener.getEvents().stream()
+              .filter(ArtifactPrefetchEvent.class::isInstance)
+              .map(ArtifactPrefetchEvent.class::cast)
+              .collect(Collectors.toList());
+      assertEquals(1, events.size());
+      assertEquals(1, events.get(0).getHits());
+      assertEquals(0, events.get(0).getWastes());
+    }
   }
 
   public static class InputBasedRuleKeyTests extends CommonFixture {
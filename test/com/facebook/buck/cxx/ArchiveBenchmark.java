@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.toolchain.tool.impl.HashedFileTool;
+import com.facebook.buck.cxx.toolchain.Archiver;
+import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.environment.EnvVariablesProvider;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares creating a static library with {@link InProcessArchiveStep} with the steps of the {@link
+ * GnuArchiver} path: running ar, then ranlib, then scrubbing the archive.
+ */
+public class ArchiveBenchmark {
+
+  @Param({"2000"})
+  private int objects = 20;
+
+  private static final ImmutableList<String> SAMPLES =
+      ImmutableList.of("foo.o", "an_object_with_a_long_name.o");
+  private static final Path IN_PROCESS_OUTPUT = Paths.get("libin-process.a");
+  private static final Path GNU_OUTPUT = Paths.get("libgnu.a");
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private ImmutableList<Path> inputs;
+  private Optional<Path> ar;
+  private Optional<Path> ranlib;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("archive-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstanceWithRealProcessExecutor();
+    ImmutableMap<String, String> env = EnvVariablesProvider.getSystemEnv();
+    ar = new ExecutableFinder().getOptionalExecutable(Paths.get("ar"), env);
+    ranlib = new ExecutableFinder().getOptionalExecutable(Paths.get("ranlib"), env);
+
+    Path samples = TestDataHelper.getTestDataScenario(this, "in_process_archive");
+    ImmutableList.Builder<Path> inputs = ImmutableList.builder();
+    for (int i = 0; i < objects; i++) {
+      // Spread the objects over directories, like the outputs of the compile rules are.
+      Path input = Paths.get("obj" + i % 100).resolve("object" + i + ".o");
+      filesystem.mkdirs(input.getParent());
+      Files.copy(samples.resolve(SAMPLES.get(i % SAMPLES.size())), filesystem.resolve(input));
+      inputs.add(input);
+    }
+    this.inputs = inputs.build();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void bothPathsWriteTheSameSymbolTable() throws Exception {
+    assumeTrue(ar.isPresent() && ranlib.isPresent());
+    archiveInProcess();
+    archiveWithGnuAr();
+
+    byte[] inProcess = Files.readAllBytes(filesystem.resolve(IN_PROCESS_OUTPUT));
+    byte[] gnu = Files.readAllBytes(filesystem.resolve(GNU_OUTPUT));
+    // The members only differ by the modes in their headers, which ar doesn't normalize.
+    assertEquals(gnu.length, inProcess.length);
+    assertArrayEquals(getSymbolTable(gnu), getSymbolTable(inProcess));
+  }
+
+  @Benchmark
+  public void archiveInProcess() throws Exception {
+    new InProcessArchiveStep(filesystem, IN_PROCESS_OUTPUT, inputs, false).execute(context);
+  }
+
+  @Benchmark
+  public void archiveWithGnuAr() throws Exception {
+    Files.deleteIfExists(filesystem.resolve(GNU_OUTPUT));
+    Archiver archiver =
+        new GnuArchiver(new HashedFileTool(PathSourcePath.of(filesystem, ar.get())));
+    assertEquals(
+        0,
+        new ArchiveStep(
+                filesystem,
+                ImmutableMap.of(),
+                ImmutableList.of(ar.get().toString()),
+                ImmutableList.of(),
+                archiver.getArchiveOptions(false),
+                GNU_OUTPUT,
+                inputs,
+                archiver,
+                Paths.get("scratch"))
+            .execute(context)
+            .getExitCode());
+    assertEquals(
+        0,
+        new RanlibStep(
+                filesystem,
+                ImmutableMap.of(),
+                ImmutableList.of(ranlib.get().toString()),
+                ImmutableList.of(),
+                GNU_OUTPUT)
+            .execute(context)
+            .getExitCode());
+    new FileScrubberStep(filesystem, GNU_OUTPUT, archiver.getScrubbers()).execute(context);
+  }
+
+  private static byte[] getSymbolTable(byte[] archive) {
+    // The symbol table is the first member, right after the global header.
+    int start = 8 + 60;
+    int size = Integer.parseInt(new String(archive, 8 + 48, 10, StandardCharsets.US_ASCII).trim());
+    return Arrays.copyOfRange(archive, start, start + size);
+  }
+}
@@ -17,7 +17,9 @@
 package com.facebook.buck.cxx;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 
@@ -41,6 +43,7 @@ import com.facebook.buck.cxx.toolchain.ArchiveContents;
 import com.facebook.buck.cxx.toolchain.Archiver;
 import com.facebook.buck.cxx.toolchain.BsdArchiver;
 import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.cxx.toolchain.InProcessGnuArchiver;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.keys.TestDefaultRuleKeyFactory;
@@ -215,6 +218,70 @@ public class ArchiveTest {
         ranlibStep.getDescription(TestExecutionContext.newInstance()), containsString("-bar"));
   }
 
+  @Test
+  public void inProcessArchiversOnlyWriteTheArchive() {
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    Archive archive =
+        new Archive(
+            BuildTargetFactory.newInstance("//foo:bar"),
+            new FakeProjectFilesystem(),
+            resolver,
+            new InProcessGnuArchiver(new HashedFileTool(PathSourcePath.of(projectFilesystem, AR))),
+            ImmutableList.of(),
+            Optional.empty(),
+            ImmutableList.of(),
+            ArchiveContents.THIN,
+            DEFAULT_OUTPUT_FILE_NAME,
+            ImmutableList.of(FakeSourcePath.of("simple.o")),
+            /* cacheable */ true);
+
+    BuildContext buildContext =
+        BuildContext.builder()
+            .from(FakeBuildContext.NOOP_CONTEXT)
+            .setSourcePathResolver(resolver.getSourcePathResolver())
+            .build();
+
+    ImmutableList<Step> steps = archive.getBuildSteps(buildContext, new FakeBuildableContext());
+    assertThat(steps.get(steps.size() - 1), instanceOf(InProcessArchiveStep.class));
+    assertThat(
+        steps.get(steps.size() - 1).getDescription(TestExecutionContext.newInstance()),
+        containsString("thin"));
+    assertFalse(FluentIterable.from(steps).anyMatch(step -> step instanceof ArchiveStep));
+    assertFalse(FluentIterable.from(steps).anyMatch(step -> step instanceof RanlibStep));
+  }
+
+  @Test
+  public void inProcessArchiversRunTheArchiverForArchiverFlags() {
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    Archive archive =
+        new Archive(
+            BuildTargetFactory.newInstance("//foo:bar"),
+            new FakeProjectFilesystem(),
+            resolver,
+            new InProcessGnuArchiver(new HashedFileTool(PathSourcePath.of(projectFilesystem, AR))),
+            ImmutableList.of("--plugin", "liblto_plugin.so"),
+            Optional.empty(),
+            ImmutableList.of(),
+            ArchiveContents.NORMAL,
+            DEFAULT_OUTPUT_FILE_NAME,
+            ImmutableList.of(FakeSourcePath.of("simple.o")),
+            /* cacheable */ true);
+
+    BuildContext buildContext =
+        BuildContext.builder()
+            .from(FakeBuildContext.NOOP_CONTEXT)
+            .setSourcePathResolver(resolver.getSourcePathResolver())
+            .build();
+
+    ImmutableList<Step> steps = archive.getBuildSteps(buildContext, new FakeBuildableContext());
+    Step archiveStep = FluentIterable.from(steps).filter(ArchiveStep.class).first().get();
+    String description = archiveStep.getDescription(TestExecutionContext.newInstance());
+    assertThat(description, containsString("liblto_plugin.so"));
+    assertThat(description, containsString("qcsD"));
+    assertFalse(FluentIterable.from(steps).anyMatch(step -> step instanceof InProcessArchiveStep));
+    assertFalse(FluentIterable.from(steps).anyMatch(step -> step instanceof RanlibStep));
+  }
+
   @Test
   public void testThatBuildTargetSourcePathDepsAndPathsArePropagated() {
     ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
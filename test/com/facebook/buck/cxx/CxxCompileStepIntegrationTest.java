@@ -19,9 +19,12 @@ package com.facebook.buck.cxx;
 import static com.facebook.buck.file.ProjectFilesystemMatchers.pathExists;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.config.FakeBuckConfig;
@@ -34,18 +37,24 @@ import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
 import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.PrefixMapDebugPathSanitizer;
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -95,6 +104,7 @@ public class CxxCompileStepIntegrationTest {
             true,
             ImmutableList.of(),
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
@@ -163,6 +173,7 @@ public class CxxCompileStepIntegrationTest {
             true,
             ImmutableList.of(),
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
@@ -179,4 +190,84 @@ public class CxxCompileStepIntegrationTest {
     Files.delete(input);
     Files.deleteIfExists(output);
   }
+
+  @Test
+  public void reusesObjectsCompiledFromTheSamePreprocessedSource() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    CxxPlatform platform =
+        CxxPlatformUtils.build(new CxxBuckConfig(FakeBuckConfig.builder().build()));
+
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    Compiler compiler = platform.getCc().resolve(resolver, EmptyTargetConfiguration.INSTANCE);
+    ImmutableList<String> compilerCommandPrefix =
+        compiler.getCommandPrefix(resolver.getSourcePathResolver());
+    Path output = filesystem.resolve(Paths.get("output.o"));
+    Path depFile = filesystem.resolve(Paths.get("output.dep"));
+    Path relativeInput = Paths.get("input.c");
+    Path scratchDir = filesystem.getPath("scratchDir");
+    filesystem.mkdirs(scratchDir);
+    ContentAddressedFileStore objectCache =
+        new ContentAddressedFileStore(
+            CompilerDelegate.OBJECT_CACHE_NAME, "1", tmp.newFolder("object-cache"));
+
+    CxxPreprocessAndCompileStep step =
+        new CxxPreprocessAndCompileStep(
+            filesystem,
+            CxxPreprocessAndCompileStep.Operation.PREPROCESS_AND_COMPILE,
+            output,
+            Optional.of(depFile),
+            relativeInput,
+            CxxSource.Type.C,
+            new CxxPreprocessAndCompileStep.ToolCommand(
+                compilerCommandPrefix, ImmutableList.of("-g"), ImmutableMap.of()),
+            HeaderPathNormalizer.empty(resolver.getSourcePathResolver()),
+            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+            scratchDir,
+            false,
+            ImmutableList.of(),
+            compiler,
+            Optional.empty(),
+            Optional.of(objectCache));
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+    List<CacheLookupEvent> lookups = new ArrayList<>();
+    List<ConsoleEvent> diagnostics = new ArrayList<>();
+    executionContext
+        .getBuckEventBus()
+        .register(
+            new Object() {
+              @Subscribe
+              public void cacheLookup(CacheLookupEvent event) {
+                lookups.add(event);
+              }
+
+              @Subscribe
+              public void console(ConsoleEvent event) {
+                diagnostics.add(event);
+              }
+            });
+
+    filesystem.writeContentsToPath(
+        "#warning from the compilation\nint main() { return 0; }\n", relativeInput);
+    assertEquals(0, step.execute(executionContext).getExitCode());
+    byte[] compiled = Files.readAllBytes(output);
+    assertThat(filesystem, pathExists(depFile));
+
+    // Comments don't survive preprocessing, so this compiles to the same object.
+    filesystem.writeContentsToPath(
+        "#warning from the compilation\nint main() { return 0; } /* unused */\n", relativeInput);
+    Files.delete(output);
+    Files.delete(depFile);
+    assertEquals(0, step.execute(executionContext).getExitCode());
+    assertArrayEquals(compiled, Files.readAllBytes(output));
+    assertThat(filesystem, pathExists(depFile));
+
+    assertEquals(2, lookups.size());
+    assertFalse(lookups.get(0).isHit());
+    assertTrue(lookups.get(1).isHit());
+    // The warning of the compilation is shown again when the object is reused.
+    assertEquals(2, diagnostics.size());
+    assertEquals(diagnostics.get(0).getMessage(), diagnostics.get(1).getMessage());
+    assertThat(diagnostics.get(1).getMessage(), Matchers.containsString("from the compilation"));
+  }
 }
@@ -20,10 +20,13 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.EmptyTargetConfiguration;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleParams;
@@ -32,7 +35,14 @@ import com.facebook.buck.core.rules.impl.FakeBuildRule;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.toolchain.tool.impl.CommandTool;
+import com.facebook.buck.core.toolchain.toolprovider.impl.ConstantToolProvider;
+import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
+import com.facebook.buck.cxx.toolchain.CxxToolProvider;
+import com.facebook.buck.cxx.toolchain.HeaderMode;
+import com.facebook.buck.cxx.toolchain.PreprocessorProvider;
+import com.facebook.buck.cxx.toolchain.ToolType;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
@@ -239,6 +249,88 @@ public class CxxDescriptionEnhancerTest {
     assertThat(soname("libfoo.$(ext 2.3)", "bad", "windows"), equalTo("libfoo.windows"));
   }
 
+  @Test
+  public void testHeaderMapsArePreferredOnlyWhenThePreprocessorsSupportThem() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    CxxPlatform clangPlatform =
+        CxxPlatform.builder()
+            .from(CxxPlatformUtils.DEFAULT_PLATFORM)
+            .setCpp(clangPreprocessorProvider(ToolType.CPP))
+            .setCxxpp(clangPreprocessorProvider(ToolType.CXXPP))
+            .build();
+    assertThat(
+        getHeaderMode(graphBuilder, clangPlatform, true),
+        equalTo(HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP));
+    assertThat(
+        getHeaderMode(graphBuilder, clangPlatform, false), equalTo(HeaderMode.HEADER_MAP_ONLY));
+
+    CxxPlatform preferHeaderMaps =
+        CxxPlatform.builder().from(clangPlatform).setPreferHeaderMaps(true).build();
+    assertThat(
+        getHeaderMode(graphBuilder, preferHeaderMaps, true), equalTo(HeaderMode.HEADER_MAP_ONLY));
+
+    // Symlink trees are still needed by preprocessors which don't support header maps.
+    CxxPlatform gccPlatform =
+        CxxPlatform.builder()
+            .from(CxxPlatformUtils.DEFAULT_PLATFORM)
+            .setPreferHeaderMaps(true)
+            .build();
+    assertThat(
+        getHeaderMode(graphBuilder, gccPlatform, true), equalTo(HeaderMode.SYMLINK_TREE_ONLY));
+  }
+
+  @Test
+  public void testHeaderMapsReplaceSymlinkTreesOnlyWhenPreferred() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    CxxPlatform clangPlatform =
+        CxxPlatform.builder()
+            .from(CxxPlatformUtils.DEFAULT_PLATFORM)
+            .setCpp(clangPreprocessorProvider(ToolType.CPP))
+            .setCxxpp(clangPreprocessorProvider(ToolType.CXXPP))
+            .build();
+    CxxPlatform preferHeaderMaps =
+        CxxPlatform.builder().from(clangPlatform).setPreferHeaderMaps(true).build();
+    assertTrue(isHeaderMapPreferred(graphBuilder, preferHeaderMaps, true));
+
+    // Without symlinks the header map is used regardless of the preference.
+    assertFalse(isHeaderMapPreferred(graphBuilder, preferHeaderMaps, false));
+    assertFalse(isHeaderMapPreferred(graphBuilder, clangPlatform, true));
+
+    // An explicit header mode isn't a preference.
+    CxxPlatform explicitHeaderMapOnly =
+        CxxPlatform.builder()
+            .from(preferHeaderMaps)
+            .setHeaderMode(HeaderMode.HEADER_MAP_ONLY)
+            .build();
+    assertFalse(isHeaderMapPreferred(graphBuilder, explicitHeaderMapOnly, true));
+
+    CxxPlatform gccPlatform =
+        CxxPlatform.builder()
+            .from(CxxPlatformUtils.DEFAULT_PLATFORM)
+            .setPreferHeaderMaps(true)
+            .build();
+    assertFalse(isHeaderMapPreferred(graphBuilder, gccPlatform, true));
+  }
+
+  private static PreprocessorProvider clangPreprocessorProvider(ToolType toolType) {
+    return new PreprocessorProvider(
+        new ConstantToolProvider(new CommandTool.Builder().build()),
+        CxxToolProvider.Type.CLANG,
+        toolType);
+  }
+
+  private static HeaderMode getHeaderMode(
+      ActionGraphBuilder graphBuilder, CxxPlatform cxxPlatform, boolean symlinksEnabled) {
+    return CxxDescriptionEnhancer.getHeaderModeForPlatform(
+        graphBuilder, EmptyTargetConfiguration.INSTANCE, cxxPlatform, symlinksEnabled);
+  }
+
+  private static boolean isHeaderMapPreferred(
+      ActionGraphBuilder graphBuilder, CxxPlatform cxxPlatform, boolean symlinksEnabled) {
+    return CxxDescriptionEnhancer.isHeaderMapPreferredOverSymlinkTree(
+        graphBuilder, EmptyTargetConfiguration.INSTANCE, cxxPlatform, symlinksEnabled);
+  }
+
   /** Just a helper to make this shorter to write. */
   private static String soname(String declared, String extension, String versionedFormat) {
     return CxxDescriptionEnhancer.getNonDefaultSharedLibrarySoname(
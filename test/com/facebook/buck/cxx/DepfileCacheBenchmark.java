@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
+import com.facebook.buck.cxx.toolchain.HeaderVerification;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures processing the dep files of a tree of translation units, each of which includes a random
+ * selection of a shared pool of headers, with an empty {@link DepfileCache}, with a cache filled by
+ * an earlier build with another action graph and with a cache filled by an earlier build with the
+ * same action graph.
+ */
+public class DepfileCacheBenchmark {
+
+  @Param({"50000"})
+  private int translationUnits = 200;
+
+  @Param({"5000"})
+  private int headers = 100;
+
+  @Param({"64"})
+  private int headersPerTranslationUnit = 16;
+
+  private static final Path INCLUDE_DIR = Paths.get("include");
+
+  private final BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+  private final HeaderVerification headerVerification =
+      HeaderVerification.of(HeaderVerification.Mode.ERROR);
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private List<BuildTarget> targets;
+  private DepfileCache warmCache;
+  private HeaderPathNormalizer warmNormalizer;
+  private Path indexedHeader;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("depfile-cache-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    Random random = new Random(0);
+    targets = new ArrayList<>(translationUnits);
+    for (int i = 0; i < translationUnits; i++) {
+      StringBuilder depfile = new StringBuilder();
+      depfile.append("tu").append(i).append(".o: tu").append(i).append(".cpp");
+      for (int j = 0; j < headersPerTranslationUnit; j++) {
+        Path header = INCLUDE_DIR.resolve("h" + random.nextInt(headers) + ".h");
+        depfile.append(" \\\n  ").append(header);
+      }
+      depfile.append('\n');
+      filesystem.createParentDirs(getDepfile(i));
+      filesystem.writeContentsToPath(depfile.toString(), getDepfile(i));
+      targets.add(BuildTargetFactory.newInstance("//tu:tu" + i));
+    }
+
+    warmCache = new DepfileCache(translationUnits);
+    warmNormalizer = createNormalizer();
+    indexedHeader = processDepfiles(warmCache, warmNormalizer).get(0).get(0);
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void cachedResultsMatchParsedResults() throws Exception {
+    List<ImmutableList<Path>> parsed = processDepfilesWithEmptyCache();
+    assertEquals(parsed, processDepfilesWithCacheFromOtherActionGraph());
+    assertEquals(parsed, processDepfilesWithCacheFromSameActionGraph());
+
+    ImmutableSet<BuildTarget> rules = findRulesIncludingHeader();
+    assertTrue(rules.contains(targets.get(0)));
+    for (int i = 0; i < translationUnits; i++) {
+      assertEquals(parsed.get(i).contains(indexedHeader), rules.contains(targets.get(i)));
+    }
+  }
+
+  @Benchmark
+  public List<ImmutableList<Path>> processDepfilesWithEmptyCache() throws Exception {
+    return processDepfiles(new DepfileCache(translationUnits), createNormalizer());
+  }
+
+  @Benchmark
+  public List<ImmutableList<Path>> processDepfilesWithCacheFromOtherActionGraph()
+      throws Exception {
+    return processDepfiles(warmCache, createNormalizer());
+  }
+
+  @Benchmark
+  public List<ImmutableList<Path>> processDepfilesWithCacheFromSameActionGraph()
+      throws Exception {
+    return processDepfiles(warmCache, warmNormalizer);
+  }
+
+  @Benchmark
+  public ImmutableSet<BuildTarget> findRulesIncludingHeader() {
+    return warmCache.getRulesIncludingInput(indexedHeader);
+  }
+
+  private HeaderPathNormalizer createNormalizer() {
+    return new HeaderPathNormalizer.Builder(new TestActionGraphBuilder().getSourcePathResolver())
+        .addHeaderDir(PathSourcePath.of(filesystem, INCLUDE_DIR))
+        .build();
+  }
+
+  private List<ImmutableList<Path>> processDepfiles(
+      DepfileCache cache, HeaderPathNormalizer normalizer) throws Exception {
+    List<ImmutableList<Path>> results = new ArrayList<>(translationUnits);
+    for (int i = 0; i < translationUnits; i++) {
+      results.add(
+          Depfiles.parseAndVerifyDependencies(
+              cache,
+              eventBus,
+              filesystem,
+              targets.get(i),
+              normalizer,
+              headerVerification,
+              getDepfile(i),
+              Paths.get("tu" + i + ".cpp"),
+              Paths.get("tu" + i + ".o"),
+              DependencyTrackingMode.MAKEFILE,
+              false));
+    }
+    return results;
+  }
+
+  private static Path getDepfile(int translationUnit) {
+    return Paths.get("tu" + translationUnit % 100).resolve("tu" + translationUnit + ".d");
+  }
+}
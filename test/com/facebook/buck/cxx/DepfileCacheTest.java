@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.engine.cache.manager.DependencyFileRuleKeyManager;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
+import com.facebook.buck.cxx.toolchain.HeaderVerification;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.DaemonCaches;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DepfileCacheTest {
+  private static final BuildTarget FOO = BuildTargetFactory.newInstance("//foo:foo");
+  private static final BuildTarget BAR = BuildTargetFactory.newInstance("//bar:bar");
+
+  private final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private final List<Object> cacheResults = new ArrayList<>();
+  private final List<CounterRegistry.AsyncCounterRegistrationEvent> counterRegistrations =
+      new ArrayList<>();
+  private SourcePathResolver pathResolver;
+  private BuckEventBus eventBus;
+  private DepfileCache cache;
+
+  @Before
+  public void setUp() {
+    pathResolver = new TestActionGraphBuilder().getSourcePathResolver();
+    eventBus = BuckEventBusForTests.newInstance();
+    eventBus.register(this);
+    cache = new DepfileCache(100);
+  }
+
+  @Subscribe
+  public void recordCacheResult(SimplePerfEvent event) {
+    if (event.getEventType() == SimplePerfEvent.Type.FINISHED) {
+      cacheResults.add(event.getEventInfo().get("cache"));
+    }
+  }
+
+  @Subscribe
+  public void recordCounterRegistration(CounterRegistry.AsyncCounterRegistrationEvent event) {
+    counterRegistrations.add(event);
+  }
+
+  @Test
+  public void depfilesWithTheSameContentsAreOnlyParsedOnce() throws Exception {
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h b.h\n", Paths.get("foo.d"));
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h b.h\n", Paths.get("other/foo.d"));
+
+    ImmutableList<Path> headers = parse(normalizer(), Paths.get("foo.d"));
+    assertEquals(ImmutableList.of(filesystem.resolve("a.h"), filesystem.resolve("b.h")), headers);
+
+    // A new action graph has a new normalizer, the headers only need to be normalized again.
+    assertEquals(headers, parse(normalizer(), Paths.get("other/foo.d")));
+    assertEquals(ImmutableList.of("miss", "parsed"), cacheResults);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0, cache.getNormalizedHitCount());
+  }
+
+  @Test
+  public void normalizedHeadersAreReusedWithTheSameNormalizer() throws Exception {
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h b.h\n", Paths.get("foo.d"));
+    HeaderPathNormalizer normalizer = normalizer();
+
+    ImmutableList<Path> headers = parse(normalizer, Paths.get("foo.d"));
+    assertEquals(headers, parse(normalizer, Paths.get("foo.d")));
+    assertEquals(ImmutableList.of("miss", "normalized"), cacheResults);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getNormalizedHitCount());
+  }
+
+  @Test
+  public void changedDepfilesAreParsedAgain() throws Exception {
+    HeaderPathNormalizer normalizer = normalizer();
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h\n", Paths.get("foo.d"));
+    assertEquals(
+        ImmutableList.of(filesystem.resolve("a.h")), parse(normalizer, Paths.get("foo.d")));
+
+    filesystem.writeContentsToPath("foo.o: foo.cpp b.h\n", Paths.get("foo.d"));
+    assertEquals(
+        ImmutableList.of(filesystem.resolve("b.h")), parse(normalizer, Paths.get("foo.d")));
+    assertEquals(ImmutableList.of("miss", "miss"), cacheResults);
+  }
+
+  @Test
+  public void parsedDepfilesAreEvictedBeyondTheMaximumSize() throws Exception {
+    cache = new DepfileCache(1);
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h\n", Paths.get("foo.d"));
+    filesystem.writeContentsToPath("foo.o: foo.cpp b.h\n", Paths.get("bar.d"));
+
+    parse(normalizer(), Paths.get("foo.d"));
+    parse(normalizer(), Paths.get("bar.d"));
+    parse(normalizer(), Paths.get("foo.d"));
+    assertEquals(ImmutableList.of("miss", "miss", "miss"), cacheResults);
+  }
+
+  @Test
+  public void findsTheRulesIncludingAHeader() throws Exception {
+    HeaderPathNormalizer normalizer = normalizer();
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h b.h\n", Paths.get("foo.d"));
+    filesystem.writeContentsToPath("bar.o: bar.cpp b.h\n", Paths.get("bar.d"));
+    parse(FOO, normalizer, Paths.get("foo.d"), Paths.get("foo.cpp"));
+    parse(BAR, normalizer, Paths.get("bar.d"), Paths.get("bar.cpp"));
+
+    assertEquals(ImmutableSet.of(FOO), cache.getRulesIncludingInput(filesystem.resolve("a.h")));
+    assertEquals(
+        ImmutableSet.of(FOO, BAR), cache.getRulesIncludingInput(filesystem.resolve("b.h")));
+    assertEquals(ImmutableSet.of(), cache.getRulesIncludingInput(filesystem.resolve("c.h")));
+
+    // The index follows the last dep file of each rule.
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h\n", Paths.get("foo.d"));
+    parse(FOO, normalizer, Paths.get("foo.d"), Paths.get("foo.cpp"));
+    assertEquals(ImmutableSet.of(BAR), cache.getRulesIncludingInput(filesystem.resolve("b.h")));
+  }
+
+  @Test
+  public void theIndexIsFoundInTheDaemonCaches() throws Exception {
+    DaemonCaches daemonCaches = new DaemonCaches();
+    Path header = filesystem.resolve("a.h");
+    assertEquals(
+        ImmutableSet.of(),
+        DependencyFileRuleKeyManager.getRulesIncludingInput(daemonCaches, header));
+
+    cache = DepfileCache.of(daemonCaches);
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h\n", Paths.get("foo.d"));
+    parse(normalizer(), Paths.get("foo.d"));
+    assertEquals(
+        ImmutableSet.of(FOO),
+        DependencyFileRuleKeyManager.getRulesIncludingInput(daemonCaches, header));
+  }
+
+  @Test
+  public void theLeastRecentlyBuiltRulesAreDroppedFromTheIndex() throws Exception {
+    cache = new DepfileCache(1);
+    HeaderPathNormalizer normalizer = normalizer();
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h b.h\n", Paths.get("foo.d"));
+    filesystem.writeContentsToPath("bar.o: bar.cpp b.h\n", Paths.get("bar.d"));
+    parse(FOO, normalizer, Paths.get("foo.d"), Paths.get("foo.cpp"));
+    parse(BAR, normalizer, Paths.get("bar.d"), Paths.get("bar.cpp"));
+
+    assertEquals(ImmutableSet.of(), cache.getRulesIncludingInput(filesystem.resolve("a.h")));
+    assertEquals(ImmutableSet.of(BAR), cache.getRulesIncludingInput(filesystem.resolve("b.h")));
+  }
+
+  @Test
+  public void countersAreRegisteredOncePerCommand() throws Exception {
+    filesystem.writeContentsToPath("foo.o: foo.cpp a.h\n", Paths.get("foo.d"));
+    parse(normalizer(), Paths.get("foo.d"));
+    parse(normalizer(), Paths.get("foo.d"));
+    assertEquals(1, counterRegistrations.size());
+
+    eventBus = BuckEventBusForTests.newInstance();
+    eventBus.register(this);
+    parse(normalizer(), Paths.get("foo.d"));
+    assertEquals(2, counterRegistrations.size());
+  }
+
+  private HeaderPathNormalizer normalizer() {
+    return new HeaderPathNormalizer.Builder(pathResolver)
+        .addHeader(PathSourcePath.of(filesystem, Paths.get("a.h")))
+        .addHeader(PathSourcePath.of(filesystem, Paths.get("b.h")))
+        .build();
+  }
+
+  private ImmutableList<Path> parse(HeaderPathNormalizer normalizer, Path depfile)
+      throws Exception {
+    return parse(FOO, normalizer, depfile, Paths.get("foo.cpp"));
+  }
+
+  private ImmutableList<Path> parse(
+      BuildTarget target, HeaderPathNormalizer normalizer, Path depfile, Path input)
+      throws Exception {
+    return Depfiles.parseAndVerifyDependencies(
+        cache,
+        eventBus,
+        filesystem,
+        target,
+        normalizer,
+        HeaderVerification.of(HeaderVerification.Mode.ERROR),
+        depfile,
+        input,
+        Paths.get("foo.o"),
+        DependencyTrackingMode.MAKEFILE,
+        false);
+  }
+}
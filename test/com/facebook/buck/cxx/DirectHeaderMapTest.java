@@ -149,6 +149,27 @@ public class DirectHeaderMapTest {
     assertEquals(expectedBuildSteps, actualBuildSteps.subList(1, actualBuildSteps.size()));
   }
 
+  @Test
+  public void testHeaderMapsPreferredOverSymlinkTreesCountTheAvoidedSymlinks() {
+    BuildContext buildContext = FakeBuildContext.withSourcePathResolver(pathResolver);
+    DirectHeaderMap preferredBuildRule =
+        new DirectHeaderMap(
+            buildTarget, projectFilesystem, symlinkTreeRoot, links, graphBuilder, true);
+
+    Path includeRoot = projectFilesystem.resolve(preferredBuildRule.getIncludeRoot());
+    ImmutableList<Step> steps =
+        preferredBuildRule.getBuildSteps(buildContext, new FakeBuildableContext());
+    assertEquals(
+        new HeaderMapStep(
+            projectFilesystem,
+            headerMapPath,
+            ImmutableMap.of(
+                Paths.get("file"), includeRoot.relativize(file1),
+                Paths.get("directory/then/file"), includeRoot.relativize(file2)),
+            true),
+        steps.get(steps.size() - 1));
+  }
+
   @Test
   public void testSymlinkTreeRuleKeysChangeIfLinkMapChanges() throws Exception {
     Path aFile = tmpDir.newFile();
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.elf.ElfHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionLookupResult;
+import com.facebook.buck.cxx.toolchain.elf.ElfSymbolTable;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares scrubbing the dynamic symbol table of a large shared library with {@link
+ * ElfSymbolTableScrubberStep}, which patches the mapped symbol table in place one entry at a time,
+ * with parsing the whole symbol table into objects and writing it back out, which is what the step
+ * used to do. Both scrub a fresh copy of the same library, so the copy is part of both numbers.
+ */
+public class ElfSymbolTableScrubberBenchmark {
+
+  @Param({"8000000"})
+  private int symbols = 2000;
+
+  private static final String DYNSYM = ".dynsym";
+  private static final String VERSYM = ".gnu.version";
+  private static final Path LIBRARY = Paths.get("libbig.so");
+  private static final Path SCRUBBED_IN_PLACE = Paths.get("libbig.in-place.so");
+  private static final Path SCRUBBED_BY_PARSING = Paths.get("libbig.parsed.so");
+
+  private static final int HEADER_SIZE = 64;
+  private static final int SECTION_HEADER_SIZE = 64;
+  private static final ElfHeader.EIClass CLASS = ElfHeader.EIClass.ELFCLASS64;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("elf-scrubber-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstance();
+    writeLibrary(filesystem.resolve(LIBRARY), new Random(0));
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void scrubbingInPlaceMatchesScrubbingByParsing() throws Exception {
+    scrubInPlace();
+    scrubByParsing();
+    assertArrayEquals(
+        Files.readAllBytes(filesystem.resolve(SCRUBBED_BY_PARSING)),
+        Files.readAllBytes(filesystem.resolve(SCRUBBED_IN_PLACE)));
+  }
+
+  @Benchmark
+  public void scrubInPlace() throws Exception {
+    Files.copy(
+        filesystem.resolve(LIBRARY),
+        filesystem.resolve(SCRUBBED_IN_PLACE),
+        StandardCopyOption.REPLACE_EXISTING);
+    ElfSymbolTableScrubberStep.of(
+            filesystem,
+            SCRUBBED_IN_PLACE,
+            DYNSYM,
+            Optional.of(VERSYM),
+            /* allowMissing */ false,
+            /* scrubUndefinedSymbols */ true)
+        .execute(context);
+  }
+
+  @Benchmark
+  public void scrubByParsing() throws Exception {
+    Files.copy(
+        filesystem.resolve(LIBRARY),
+        filesystem.resolve(SCRUBBED_BY_PARSING),
+        StandardCopyOption.REPLACE_EXISTING);
+    try (FileChannel channel =
+        FileChannel.open(
+            filesystem.resolve(SCRUBBED_BY_PARSING),
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(READ_WRITE, 0, channel.size());
+      Elf elf = new Elf(buffer);
+      ElfSectionLookupResult dynsym = elf.getMandatorySectionByName(LIBRARY, DYNSYM);
+      ElfSectionLookupResult versym = elf.getMandatorySectionByName(LIBRARY, VERSYM);
+
+      ElfSymbolTable table = ElfSymbolTable.parse(CLASS, dynsym.getSection().body);
+      ImmutableList.Builder<Integer> versions = ImmutableList.builder();
+      while (versym.getSection().body.hasRemaining()) {
+        versions.add(Elf.Elf64.getElf64Half(versym.getSection().body));
+      }
+      ImmutableList<Integer> allVersions = versions.build();
+
+      ImmutableList.Builder<ElfSymbolTable.Entry> entries = ImmutableList.builder();
+      ImmutableList.Builder<Integer> fixedVersions = ImmutableList.builder();
+      entries.add(table.entries.get(0));
+      fixedVersions.add(allVersions.get(0));
+      int address = 0;
+      for (int index = 1; index < table.entries.size(); index++) {
+        ElfSymbolTable.Entry entry = table.entries.get(index);
+        if (entry.st_shndx == 0) {
+          continue;
+        }
+        entries.add(
+            new ElfSymbolTable.Entry(
+                entry.st_name,
+                entry.st_info,
+                entry.st_other,
+                ElfSymbolTableScrubberStep.STABLE_SECTION,
+                entry.st_value == 0 ? 0 : ++address,
+                entry.st_info.st_type == ElfSymbolTable.Entry.Info.Type.STT_FUNC
+                    ? 0
+                    : entry.st_size));
+        fixedVersions.add(allVersions.get(index));
+      }
+
+      ElfSymbolTable fixedTable = new ElfSymbolTable(entries.build());
+      dynsym.getSection().body.rewind();
+      fixedTable.write(CLASS, dynsym.getSection().body);
+      writeSectionHeader(elf, buffer, dynsym, dynsym.getSection().body.position());
+
+      versym.getSection().body.rewind();
+      for (int version : fixedVersions.build()) {
+        Elf.Elf64.putElf64Half(versym.getSection().body, (short) version);
+      }
+      writeSectionHeader(elf, buffer, versym, versym.getSection().body.position());
+    }
+  }
+
+  private static void writeSectionHeader(
+      Elf elf, ByteBuffer buffer, ElfSectionLookupResult section, long size) {
+    buffer.position((int) (elf.header.e_shoff + section.getIndex() * elf.header.e_shentsize));
+    section.getSection().header.withSize(size).write(CLASS, buffer);
+  }
+
+  /**
+   * Writes a 64-bit shared library with only a dynamic symbol table, its string table and its
+   * version table, a quarter of whose symbols are undefined.
+   */
+  private void writeLibrary(Path path, Random random) throws IOException {
+    byte[] sectionNames =
+        ("\0.shstrtab\0" + DYNSYM + "\0.dynstr\0" + VERSYM + "\0")
+            .getBytes(StandardCharsets.US_ASCII);
+    int dynstrSize = 1;
+    for (int i = 1; i < symbols; i++) {
+      dynstrSize += symbolName(i).length + 1;
+    }
+    long shstrtabOffset = HEADER_SIZE;
+    long dynsymOffset = align(shstrtabOffset + sectionNames.length);
+    long dynsymSize = (long) symbols * ElfSymbolTable.getEntrySize(CLASS);
+    long dynstrOffset = dynsymOffset + dynsymSize;
+    long versymOffset = align(dynstrOffset + dynstrSize);
+    long versymSize = 2L * symbols;
+    long sectionHeadersOffset = align(versymOffset + versymSize);
+    int sections = 5;
+
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer =
+          channel.map(READ_WRITE, 0, sectionHeadersOffset + sections * SECTION_HEADER_SIZE);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      buffer.put(new byte[] {ElfHeader.ELFMAG0, ElfHeader.ELFMAG1, ElfHeader.ELFMAG2});
+      buffer.put(ElfHeader.ELFMAG3);
+      buffer.put((byte) 2); // ELFCLASS64
+      buffer.put((byte) 1); // ELFDATA2LSB
+      buffer.put((byte) 1); // EV_CURRENT
+      buffer.put(new byte[ElfHeader.EI_NIDENT - 7]);
+      buffer.putShort((short) 3); // ET_DYN
+      buffer.putShort((short) 62); // EM_X86_64
+      buffer.putInt(1);
+      buffer.putLong(0); // e_entry
+      buffer.putLong(0); // e_phoff
+      buffer.putLong(sectionHeadersOffset);
+      buffer.putInt(0); // e_flags
+      buffer.putShort((short) HEADER_SIZE);
+      buffer.putShort((short) 56); // e_phentsize
+      buffer.putShort((short) 0); // e_phnum
+      buffer.putShort((short) SECTION_HEADER_SIZE);
+      buffer.putShort((short) sections);
+      buffer.putShort((short) 1); // e_shstrndx
+
+      buffer.position((int) shstrtabOffset);
+      buffer.put(sectionNames);
+
+      ElfSymbolTable.Entry.Info.Type[] types = {
+        ElfSymbolTable.Entry.Info.Type.STT_FUNC,
+        ElfSymbolTable.Entry.Info.Type.STT_OBJECT,
+        ElfSymbolTable.Entry.Info.Type.STT_NOTYPE,
+      };
+      ByteBuffer dynsym = slice(buffer, dynsymOffset, dynsymSize);
+      ByteBuffer dynstr = slice(buffer, dynstrOffset, dynstrSize);
+      ByteBuffer versym = slice(buffer, versymOffset, versymSize);
+      ElfSymbolTable.putEntry(
+          CLASS,
+          dynsym,
+          0,
+          new ElfSymbolTable.Entry(
+              0,
+              new ElfSymbolTable.Entry.Info(
+                  ElfSymbolTable.Entry.Info.Bind.STB_LOCAL,
+                  ElfSymbolTable.Entry.Info.Type.STT_NOTYPE),
+              0,
+              0,
+              0,
+              0));
+      dynstr.put((byte) 0);
+      versym.putShort((short) 0);
+      for (int i = 1; i < symbols; i++) {
+        boolean undefined = random.nextInt(4) == 0;
+        ElfSymbolTable.putEntry(
+            CLASS,
+            dynsym,
+            i,
+            new ElfSymbolTable.Entry(
+                dynstr.position(),
+                new ElfSymbolTable.Entry.Info(
+                    ElfSymbolTable.Entry.Info.Bind.STB_GLOBAL, types[random.nextInt(3)]),
+                0,
+                undefined ? 0 : 1 + random.nextInt(20),
+                undefined ? 0 : 0x1000 + 16L * i,
+                random.nextInt(256)));
+        dynstr.put(symbolName(i)).put((byte) 0);
+        versym.putShort((short) (1 + random.nextInt(3)));
+      }
+
+      buffer.position((int) sectionHeadersOffset);
+      new ElfSectionHeader(0, ElfSectionHeader.SHType.SHT_NULL, 0, 0, 0, 0, 0, 0, 0, 0)
+          .write(CLASS, buffer);
+      writeSectionHeader(
+          buffer,
+          sectionNames,
+          ".shstrtab",
+          ElfSectionHeader.SHType.SHT_STRTAB,
+          shstrtabOffset,
+          sectionNames.length,
+          0,
+          0);
+      writeSectionHeader(
+          buffer,
+          sectionNames,
+          DYNSYM,
+          ElfSectionHeader.SHType.SHT_DYNSYM,
+          dynsymOffset,
+          dynsymSize,
+          3,
+          ElfSymbolTable.getEntrySize(CLASS));
+      writeSectionHeader(
+          buffer,
+          sectionNames,
+          ".dynstr",
+          ElfSectionHeader.SHType.SHT_STRTAB,
+          dynstrOffset,
+          dynstrSize,
+          0,
+          0);
+      writeSectionHeader(
+          buffer,
+          sectionNames,
+          VERSYM,
+          ElfSectionHeader.SHType.SHT_GNU_VERSYM,
+          versymOffset,
+          versymSize,
+          2,
+          2);
+    }
+  }
+
+  private static void writeSectionHeader(
+      ByteBuffer buffer,
+      byte[] sectionNames,
+      String name,
+      ElfSectionHeader.SHType type,
+      long offset,
+      long size,
+      long link,
+      long entrySize) {
+    int nameOffset =
+        new String(sectionNames, StandardCharsets.US_ASCII).indexOf("\0" + name + "\0") + 1;
+    new ElfSectionHeader(nameOffset, type, 0, 0, offset, size, link, 0, 8, entrySize)
+        .write(CLASS, buffer);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, long offset, long size) {
+    buffer.position((int) offset);
+    ByteBuffer slice = buffer.slice();
+    slice.limit((int) size);
+    slice.order(buffer.order());
+    return slice;
+  }
+
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  private static byte[] symbolName(int index) {
+    return ("_ZN6symbol" + index + "Ev").getBytes(StandardCharsets.US_ASCII);
+  }
+}
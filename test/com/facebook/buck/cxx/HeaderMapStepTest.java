@@ -69,4 +69,23 @@ public class HeaderMapStepTest {
       assertThat(headerMap.lookup(entry.getKey().toString()), equalTo(entry.getValue().toString()));
     }
   }
+
+  @Test
+  public void testSymlinksAvoidedAreCountedOnlyWhenReplacingASymlinkTree() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newInstance();
+    ImmutableMap<Path, Path> entries =
+        ImmutableMap.of(
+            Paths.get("file1.h"), Paths.get("/some/absolute/path.h"),
+            Paths.get("file2.h"), Paths.get("/other/absolute/path.h"));
+
+    long before = HeaderMapStep.getSymlinksAvoided();
+    new HeaderMapStep(projectFilesystem, Paths.get("plain.hmap"), entries).execute(context);
+    assertThat(HeaderMapStep.getSymlinksAvoided(), equalTo(before));
+
+    new HeaderMapStep(projectFilesystem, Paths.get("direct.hmap"), entries, true)
+        .execute(context);
+    assertThat(HeaderMapStep.getSymlinksAvoided(), equalTo(before + entries.size()));
+  }
 }
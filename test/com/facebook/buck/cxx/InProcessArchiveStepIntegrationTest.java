@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.integration.ProjectWorkspace;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.environment.EnvVariablesProvider;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class InProcessArchiveStepIntegrationTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ImmutableList<Path> inputs;
+
+  @Before
+  public void setUp() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "in_process_archive", tmp);
+    workspace.setUp();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    inputs =
+        ImmutableList.of(
+            Paths.get("foo.o"), Paths.get("an_object_with_a_long_name.o"), Paths.get("data.txt"));
+  }
+
+  @Test
+  public void symbolTableListsTheDefinedGlobalSymbols() throws Exception {
+    Path output = Paths.get("libfoo.a");
+    execute(new InProcessArchiveStep(filesystem, output, inputs, false));
+
+    assertThat(
+        readSymbolNames(ByteBuffer.wrap(readBytes(output))),
+        Matchers.containsInAnyOrder(
+            "foo", "common_var", "w", "bar", "a_very_long_symbol_name_for_the_test"));
+  }
+
+  @Test
+  public void normalArchivesMatchDeterministicGnuAr() throws Exception {
+    Path output = Paths.get("libfoo.a");
+    execute(new InProcessArchiveStep(filesystem, output, inputs, false));
+    assertArrayEquals(runGnuAr("rcsD", Paths.get("libfoo-ar.a")), readBytes(output));
+  }
+
+  @Test
+  public void thinArchivesMatchDeterministicGnuAr() throws Exception {
+    Path output = Paths.get("lib/libfoo.a");
+    filesystem.mkdirs(output.getParent());
+    execute(new InProcessArchiveStep(filesystem, output, inputs, true));
+    assertArrayEquals(runGnuAr("rcsDT", Paths.get("lib/libfoo-ar.a")), readBytes(output));
+  }
+
+  @Test
+  public void archivesWithoutElfMembersHaveNoSymbolTable() throws Exception {
+    inputs = ImmutableList.of(Paths.get("data.txt"), Paths.get("an_unusually_long_data_file.txt"));
+    filesystem.copyFile(Paths.get("data.txt"), inputs.get(1));
+    Path output = Paths.get("libdata.a");
+    execute(new InProcessArchiveStep(filesystem, output, inputs, false));
+    assertArrayEquals(runGnuAr("rcsD", Paths.get("libdata-ar.a")), readBytes(output));
+  }
+
+  @Test
+  public void inputDirsAreArchivedInSortedOrder() throws Exception {
+    Path dir = Paths.get("objects");
+    filesystem.mkdirs(dir);
+    filesystem.copyFile(Paths.get("foo.o"), dir.resolve("b.o"));
+    filesystem.copyFile(Paths.get("an_object_with_a_long_name.o"), dir.resolve("a.o"));
+    Path output = Paths.get("libfoo.a");
+    execute(new InProcessArchiveStep(filesystem, output, ImmutableList.of(dir), false));
+
+    String archive = new String(readBytes(output), StandardCharsets.ISO_8859_1);
+    assertThat(archive.indexOf("a.o/ "), Matchers.lessThan(archive.indexOf("b.o/ ")));
+  }
+
+  @Test
+  public void emptyArchives() throws Exception {
+    Path output = Paths.get("libempty.a");
+    execute(new InProcessArchiveStep(filesystem, output, ImmutableList.of(), false));
+    assertEquals(Optional.of("!<arch>\n"), filesystem.readFileIfItExists(output));
+  }
+
+  private void execute(InProcessArchiveStep step) throws Exception {
+    ExecutionContext context = TestExecutionContext.newInstance();
+    assertEquals(0, step.execute(context).getExitCode());
+  }
+
+  private byte[] readBytes(Path path) throws IOException {
+    return Files.readAllBytes(filesystem.resolve(path));
+  }
+
+  private byte[] runGnuAr(String options, Path output) throws Exception {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    Optional<Path> ar =
+        new ExecutableFinder()
+            .getOptionalExecutable(Paths.get("ar"), EnvVariablesProvider.getSystemEnv());
+    assumeTrue(ar.isPresent());
+    ExecutionContext context = TestExecutionContext.newInstanceWithRealProcessExecutor();
+    ImmutableList.Builder<String> command = ImmutableList.builder();
+    command.add(ar.get().toString(), options, output.toString());
+    inputs.forEach(input -> command.add(input.toString()));
+    ProcessExecutor.Result result =
+        context
+            .getProcessExecutor()
+            .launchAndExecute(
+                ProcessExecutorParams.builder()
+                    .setDirectory(filesystem.getRootPath())
+                    .setCommand(command.build())
+                    .build());
+    assumeTrue(result.getExitCode() == 0);
+    return readBytes(output);
+  }
+
+  private static List<String> readSymbolNames(ByteBuffer archive) {
+    // Skip the global header and the header of the symbol table.
+    archive.position(8 + 60);
+    int count = archive.getInt();
+    archive.position(archive.position() + 4 * count);
+    List<String> names = new ArrayList<>();
+    StringBuilder name = new StringBuilder();
+    while (names.size() < count) {
+      char c = (char) archive.get();
+      if (c == '\0') {
+        names.add(name.toString());
+        name.setLength(0);
+      } else {
+        name.append(c);
+      }
+    }
+    return names;
+  }
+}
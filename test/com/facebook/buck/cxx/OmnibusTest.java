@@ -421,6 +421,54 @@ public class OmnibusTest {
     assertThat(libs.keySet(), Matchers.hasItem(excludedRoot.getBuildTarget().toString()));
   }
 
+  @Test
+  public void specsOfBinariesSharingSubgraphs() throws NoSuchBuildTargetException {
+    NativeLinkable a = new OmnibusNode("//:a");
+    NativeLinkable b = new OmnibusNode("//:b");
+    NativeLinkable c = new OmnibusExcludedNode("//:c", ImmutableList.of(b));
+    NativeLinkable d = new OmnibusNode("//:d", ImmutableList.of(a));
+    NativeLinkable e = new OmnibusNode("//:e", ImmutableList.of(c));
+    NativeLinkTarget first = new OmnibusRootNode("//:first", ImmutableList.of(d));
+    NativeLinkTarget second = new OmnibusRootNode("//:second", ImmutableList.of(d, e));
+
+    // The first spec caches what it finds out about the subgraph of `d`, which the second spec
+    // shares, while the second spec still needs to find the excluded nodes under `e`.
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    Omnibus.OmnibusSpec firstSpec =
+        Omnibus.buildSpec(ImmutableList.of(first), ImmutableList.of(), graphBuilder);
+    assertThat(
+        firstSpec.getBody().keySet(),
+        Matchers.containsInAnyOrder(a.getBuildTarget(), d.getBuildTarget()));
+    assertThat(firstSpec.getExcluded().keySet(), Matchers.empty());
+
+    Omnibus.OmnibusSpec secondSpec =
+        Omnibus.buildSpec(ImmutableList.of(second), ImmutableList.of(), graphBuilder);
+    assertThat(
+        secondSpec.getBody().keySet(),
+        Matchers.containsInAnyOrder(a.getBuildTarget(), d.getBuildTarget(), e.getBuildTarget()));
+    assertThat(
+        secondSpec.getExcluded().keySet(),
+        Matchers.containsInAnyOrder(b.getBuildTarget(), c.getBuildTarget()));
+    assertThat(secondSpec.getDeps().keySet(), Matchers.containsInAnyOrder(c.getBuildTarget()));
+
+    // Building a spec again gives the same result.
+    assertThat(
+        Omnibus.buildSpec(ImmutableList.of(second), ImmutableList.of(), graphBuilder),
+        Matchers.equalTo(secondSpec));
+  }
+
+  @Test
+  public void deepGraphsOfNodesToExclude() throws NoSuchBuildTargetException {
+    NativeLinkable node = new OmnibusExcludedNode("//:excluded");
+    for (int i = 0; i < 100_000; i++) {
+      node = new OmnibusNode("//:node" + i, ImmutableList.of(node));
+    }
+    assertThat(Omnibus.hasExcludedNodes(node, new TestActionGraphBuilder()), Matchers.is(true));
+    assertThat(
+        Omnibus.hasExcludedNodes(new OmnibusNode("//:a"), new TestActionGraphBuilder()),
+        Matchers.is(false));
+  }
+
   @Test
   public void extraLdFlags() throws NoSuchBuildTargetException {
     NativeLinkable a = new OmnibusNode("//:a");
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.cxx.toolchain.CxxPlatform;
+import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares computing the transitive preprocessor inputs of every library of a layered graph, the
+ * way action graph construction does, with a {@link TransitiveCxxPreprocessorInputCache} and with a
+ * full map cached per library. Each library depends on two neighbouring libraries of the layer
+ * below, so the transitive inputs of a library grow quadratically with its depth.
+ */
+public class TransitiveCxxPreprocessorInputsBenchmark {
+
+  @Param({"20000"})
+  private int libraries = 500;
+
+  @Param({"40"})
+  private int layers = 10;
+
+  private final CxxPlatform cxxPlatform = CxxPlatformUtils.DEFAULT_PLATFORM;
+  private ActionGraphBuilder graphBuilder;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    graphBuilder = new TestActionGraphBuilder();
+  }
+
+  @Test
+  public void bothCachesComputeTheSameInputs() {
+    ImmutableList<Library> shared = createGraph();
+    ImmutableList<Library> flat = createGraph();
+    long sharedEntries = 0;
+    long flatEntries = 0;
+    for (int i = 0; i < shared.size(); i++) {
+      ImmutableMap<BuildTarget, CxxPreprocessorInput> expected =
+          flat.get(i).getFlatTransitiveCxxPreprocessorInput();
+      assertEquals(
+          expected, shared.get(i).getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+      // Each library only keeps its own input and one reference per dep with the shared cache.
+      sharedEntries += 1 + shared.get(i).deps.size();
+      flatEntries += expected.size();
+    }
+    assertTrue(flatEntries > 2 * sharedEntries);
+  }
+
+  @Benchmark
+  public void computeWithSharedInputs() {
+    for (Library library : createGraph()) {
+      library.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder);
+    }
+  }
+
+  @Benchmark
+  public void computeWithFlatMaps() {
+    for (Library library : createGraph()) {
+      library.getFlatTransitiveCxxPreprocessorInput();
+    }
+  }
+
+  private ImmutableList<Library> createGraph() {
+    int width = Math.max(1, libraries / layers);
+    ImmutableList.Builder<Library> graph = ImmutableList.builder();
+    ImmutableList<Library> previous = ImmutableList.of();
+    for (int layer = 0; layer * width < libraries; layer++) {
+      ImmutableList.Builder<Library> current = ImmutableList.builder();
+      for (int i = 0; i < width && layer * width + i < libraries; i++) {
+        ImmutableList<Library> deps =
+            previous.isEmpty()
+                ? ImmutableList.of()
+                : ImmutableList.of(
+                    previous.get(i % previous.size()), previous.get((i + 1) % previous.size()));
+        current.add(new Library(BuildTargetFactory.newInstance("//lib" + layer + ":" + i), deps));
+      }
+      previous = current.build();
+      graph.addAll(previous);
+    }
+    return graph.build();
+  }
+
+  private class Library implements CxxPreprocessorDep {
+
+    private final BuildTarget target;
+    private final ImmutableList<Library> deps;
+    private final CxxPreprocessorInput input;
+    private final TransitiveCxxPreprocessorInputCache cache =
+        new TransitiveCxxPreprocessorInputCache(this);
+    @Nullable private ImmutableMap<BuildTarget, CxxPreprocessorInput> flat;
+
+    private Library(BuildTarget target, ImmutableList<Library> deps) {
+      this.target = target;
+      this.deps = deps;
+      this.input =
+          CxxPreprocessorInput.builder()
+              .putPreprocessorFlags(CxxSource.Type.CXX, StringArg.of("-I" + target.getBasePath()))
+              .build();
+    }
+
+    @Override
+    public BuildTarget getBuildTarget() {
+      return target;
+    }
+
+    @Override
+    public Iterable<CxxPreprocessorDep> getCxxPreprocessorDeps(
+        CxxPlatform cxxPlatform, BuildRuleResolver ruleResolver) {
+      return ImmutableList.copyOf(deps);
+    }
+
+    @Override
+    public CxxPreprocessorInput getCxxPreprocessorInput(
+        CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return input;
+    }
+
+    @Override
+    public ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
+        CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return cache.getUnchecked(cxxPlatform, graphBuilder);
+    }
+
+    @Override
+    public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+        CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return cache.getInputsUnchecked(cxxPlatform, graphBuilder);
+    }
+
+    /** Computes and keeps a full map, like every library used to. */
+    private ImmutableMap<BuildTarget, CxxPreprocessorInput>
+        getFlatTransitiveCxxPreprocessorInput() {
+      if (flat == null) {
+        Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
+        builder.put(target, input);
+        deps.forEach(dep -> builder.putAll(dep.getFlatTransitiveCxxPreprocessorInput()));
+        flat = ImmutableSortedMap.copyOf(builder);
+      }
+      return flat;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TransitiveCxxPreprocessorInputsTest {
+
+  private static final BuildTarget A = BuildTargetFactory.newInstance("//:a");
+  private static final BuildTarget B = BuildTargetFactory.newInstance("//:b");
+  private static final BuildTarget C = BuildTargetFactory.newInstance("//:c");
+  private static final BuildTarget D = BuildTargetFactory.newInstance("//:d");
+
+  private static CxxPreprocessorInput input(String define) {
+    return CxxPreprocessorInput.builder()
+        .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-D" + define))
+        .build();
+  }
+
+  private static TransitiveCxxPreprocessorInputs node(
+      BuildTarget target, TransitiveCxxPreprocessorInputs... deps) {
+    return TransitiveCxxPreprocessorInputs.of(
+        ImmutableMap.of(target, input(target.getShortName())), ImmutableList.copyOf(deps));
+  }
+
+  @Test
+  public void toMapIncludesAllTransitiveInputsSortedByTarget() {
+    TransitiveCxxPreprocessorInputs d = node(D);
+    TransitiveCxxPreprocessorInputs inputs = node(C, node(B, d), node(A, d));
+
+    assertEquals(ImmutableList.of(A, B, C, D), ImmutableList.copyOf(inputs.toMap().keySet()));
+    assertEquals(input("a"), inputs.toMap().get(A));
+  }
+
+  @Test
+  public void sharedDepsAreOnlyVisitedOnce() {
+    TransitiveCxxPreprocessorInputs d = node(D);
+    TransitiveCxxPreprocessorInputs inputs = node(C, node(B, d), node(A, d), d);
+
+    List<BuildTarget> visited = new ArrayList<>();
+    inputs.forEach((target, input) -> visited.add(target));
+    assertEquals(4, visited.size());
+  }
+
+  @Test
+  public void mergedMapsKeepTheOrderOfEachMap() {
+    TransitiveCxxPreprocessorInputs d = node(D);
+    TransitiveCxxPreprocessorInputs flat =
+        TransitiveCxxPreprocessorInputs.copyOf(ImmutableMap.of(B, input("b"), A, input("a")));
+
+    assertEquals(
+        ImmutableList.of(C, D, B, A),
+        ImmutableList.copyOf(
+            TransitiveCxxPreprocessorInputs.toMap(ImmutableList.of(node(C, d), flat, d))
+                .keySet()));
+  }
+
+  @Test
+  public void depsWithNothingToAddAreShared() {
+    TransitiveCxxPreprocessorInputs a = node(A);
+    assertSame(a, TransitiveCxxPreprocessorInputs.of(ImmutableMap.of(), ImmutableList.of(a)));
+    assertSame(
+        a,
+        TransitiveCxxPreprocessorInputs.of(
+            ImmutableMap.of(),
+            ImmutableList.of(a, TransitiveCxxPreprocessorInputs.copyOf(ImmutableMap.of()))));
+    assertEquals(
+        ImmutableMap.of(),
+        TransitiveCxxPreprocessorInputs.of(ImmutableMap.of(), ImmutableList.of()).toMap());
+  }
+
+  @Test
+  public void deepChainsDoNotOverflowTheStack() {
+    int depth = 100_000;
+    TransitiveCxxPreprocessorInputs inputs =
+        TransitiveCxxPreprocessorInputs.copyOf(ImmutableMap.of());
+    for (int i = 0; i < depth; i++) {
+      inputs =
+          TransitiveCxxPreprocessorInputs.of(
+              ImmutableMap.of(BuildTargetFactory.newInstance("//:lib" + i), input("x")),
+              ImmutableList.of(inputs));
+    }
+    assertEquals(depth, inputs.toMap().size());
+  }
+}
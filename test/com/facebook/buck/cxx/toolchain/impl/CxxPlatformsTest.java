@@ -43,6 +43,7 @@ import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
 import com.facebook.buck.cxx.toolchain.CxxToolProvider.Type;
 import com.facebook.buck.cxx.toolchain.CxxToolTypeInferer;
 import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.cxx.toolchain.InProcessGnuArchiver;
 import com.facebook.buck.cxx.toolchain.PosixNmSymbolNameTool;
 import com.facebook.buck.cxx.toolchain.PreprocessorProvider;
 import com.facebook.buck.cxx.toolchain.ToolType;
@@ -240,6 +241,36 @@ public class CxxPlatformsTest {
         instanceOf(WindowsArchiver.class));
   }
 
+  @Test
+  public void inProcessArchiverSelectedByConfigForLinuxOnly() {
+    ImmutableMap<String, ImmutableMap<String, String>> sections =
+        ImmutableMap.of(
+            "cxx",
+            ImmutableMap.of(
+                "ar", Paths.get("fake_path").toString(),
+                "archiver_in_process", "true"));
+    CxxBuckConfig buckConfig =
+        new CxxBuckConfig(
+            FakeBuckConfig.builder()
+                .setSections(sections)
+                .setFilesystem(new FakeProjectFilesystem(ImmutableSet.of(Paths.get("fake_path"))))
+                .build());
+
+    BuildRuleResolver ruleResolver = new TestActionGraphBuilder();
+    assertThat(
+        buckConfig
+            .getArchiverProvider(Platform.LINUX)
+            .get()
+            .resolve(ruleResolver, EmptyTargetConfiguration.INSTANCE),
+        instanceOf(InProcessGnuArchiver.class));
+    assertThat(
+        buckConfig
+            .getArchiverProvider(Platform.MACOS)
+            .get()
+            .resolve(ruleResolver, EmptyTargetConfiguration.INSTANCE),
+        instanceOf(BsdArchiver.class));
+  }
+
   @Test
   public void sharedLibraryExtensionOverride() {
     Flavor flavor = InternalFlavor.of("custom");
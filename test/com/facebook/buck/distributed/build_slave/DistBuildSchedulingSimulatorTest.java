@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed.build_slave;
+
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
+import com.facebook.buck.distributed.thrift.BuildJobState;
+import com.facebook.buck.distributed.thrift.BuildJobStateBuildTarget;
+import com.facebook.buck.distributed.thrift.BuildJobStateTargetGraph;
+import com.facebook.buck.distributed.thrift.BuildJobStateTargetNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistBuildSchedulingSimulatorTest {
+  private static final long ROUND_TRIP_MILLIS = 1000;
+
+  /* Graph:
+   *    a3
+   *    |
+   *    a2
+   *    |
+   *    a    b
+   *    |    |
+   *    +-+--+
+   *      |
+   *    leaf
+   */
+  private static final ImmutableMap<String, ImmutableSet<String>> DEPENDENCIES =
+      ImmutableMap.<String, ImmutableSet<String>>builder()
+          .put("leaf", ImmutableSet.of())
+          .put("a", ImmutableSet.of("leaf"))
+          .put("a2", ImmutableSet.of("a"))
+          .put("a3", ImmutableSet.of("a2"))
+          .put("b", ImmutableSet.of("leaf"))
+          .build();
+
+  @Test
+  public void testCriticalPathSavesRoundTrips() {
+    DistBuildSchedulingSimulator simulator =
+        new DistBuildSchedulingSimulator(
+            DEPENDENCIES, RuleDurationEstimates.empty(), ROUND_TRIP_MILLIS);
+
+    // The chain from leaf to a3 is handed out in two units, and b alongside the second one.
+    Assert.assertEquals(
+        6000,
+        simulator.simulateMakespanMillis(DistBuildWorkAllocationPolicy.REVERSE_DEPENDENCY, 2, 1));
+    // The chain from leaf to a3 is handed out in one unit, and b while it is being built.
+    Assert.assertEquals(
+        5000, simulator.simulateMakespanMillis(DistBuildWorkAllocationPolicy.CRITICAL_PATH, 2, 1));
+  }
+
+  @Test
+  public void testEveryTargetIsBuilt() {
+    DistBuildSchedulingSimulator simulator =
+        new DistBuildSchedulingSimulator(
+            DEPENDENCIES,
+            DistBuildSchedulingSimulator.createSyntheticDurations(
+                DEPENDENCIES.keySet(), 1000, new Random(0)),
+            ROUND_TRIP_MILLIS);
+
+    for (DistBuildWorkAllocationPolicy policy : DistBuildWorkAllocationPolicy.values()) {
+      // A single slot builds every target one after the other.
+      long makespanMillis = simulator.simulateMakespanMillis(policy, 1, 1);
+      Assert.assertTrue(makespanMillis > 2 * ROUND_TRIP_MILLIS);
+      Assert.assertTrue(makespanMillis >= simulator.simulateMakespanMillis(policy, 3, 2));
+    }
+  }
+
+  @Test
+  public void testDependenciesAreReadFromRawNodes() throws IOException {
+    BuildJobState state =
+        new BuildJobState()
+            .setTargetGraph(
+                new BuildJobStateTargetGraph()
+                    .setNodes(
+                        ImmutableList.of(
+                            createNode(
+                                "//foo",
+                                "bar",
+                                "{\"name\":\"bar\",\"deps\":[\":baz\",\"//qux:quux\",\"//a:b\"],"
+                                    + "\"srcs\":{\"x.c\":\":baz\"}}"),
+                            createNode("//foo", "baz", "{\"name\":\"baz\"}"),
+                            createNode("//qux", "quux", "{\"name\":\"quux\",\"deps\":[]}"))));
+
+    Assert.assertEquals(
+        ImmutableMap.of(
+            "//foo:bar",
+            ImmutableSet.of("//foo:baz", "//qux:quux"),
+            "//foo:baz",
+            ImmutableSet.of(),
+            "//qux:quux",
+            ImmutableSet.of()),
+        DistBuildSchedulingSimulator.readDependencies(state));
+  }
+
+  private static BuildJobStateTargetNode createNode(
+      String baseName, String shortName, String rawNode) {
+    return new BuildJobStateTargetNode()
+        .setBuildTarget(
+            new BuildJobStateBuildTarget().setBaseName(baseName).setShortName(shortName))
+        .setRawNode(rawNode);
+  }
+}
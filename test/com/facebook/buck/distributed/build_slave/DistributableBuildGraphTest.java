@@ -133,6 +133,23 @@ public class DistributableBuildGraphTest {
         graph.getNode("g").getTransitiveCacheableDependents(graph), ImmutableSet.of("a"));
   }
 
+  @Test
+  public void testCriticalPaths() {
+    graph.computeCriticalPaths(RuleDurationEstimates.empty());
+    // Every node takes the same time when no durations are recorded.
+    Assert.assertEquals(1000, graph.getNode("a").getCriticalPathMillis());
+    Assert.assertEquals(3000, graph.getNode("e").getCriticalPathMillis());
+    Assert.assertEquals(4000, graph.getNode("l").getCriticalPathMillis());
+    Assert.assertEquals(4000, graph.getNode("h").getCriticalPathMillis());
+
+    graph.computeCriticalPaths(
+        new RuleDurationEstimates(ImmutableMap.of("a", 1000L, "c", 1000L, "g", 9000L)));
+    Assert.assertEquals(11000, graph.getNode("g").getCriticalPathMillis());
+    Assert.assertEquals(12000, graph.getNode("h").getCriticalPathMillis());
+    Assert.assertEquals(3000, graph.getNode("f").getCriticalPathMillis());
+    Assert.assertEquals(4000, graph.getNode("l").getCriticalPathMillis());
+  }
+
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private static void assertThrows(Runnable f) {
     try {
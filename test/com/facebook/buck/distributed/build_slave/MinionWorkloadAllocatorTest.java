@@ -27,6 +27,7 @@ import com.facebook.buck.core.build.engine.impl.DefaultRuleDepsCache;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
 import com.facebook.buck.distributed.NoopArtifactCacheByBuildRule;
 import com.facebook.buck.distributed.build_slave.MinionWorkloadAllocator.WorkloadAllocationResult;
 import com.facebook.buck.distributed.testutil.CustomActionGraphBuilderFactory;
@@ -34,7 +35,9 @@ import com.facebook.buck.distributed.thrift.MinionType;
 import com.facebook.buck.distributed.thrift.StampedeId;
 import com.facebook.buck.distributed.thrift.WorkUnit;
 import com.facebook.buck.event.listener.NoOpCoordinatorBuildRuleEventsPublisher;
+import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -290,6 +293,45 @@ public class MinionWorkloadAllocatorTest {
     Assert.assertTrue(allocator.isBuildFinished());
   }
 
+  @Test
+  public void testWorkOfFailedMinionsOnTheCriticalPathIsReallocatedFirst() {
+    DistributableBuildGraph graph =
+        DistributableBuildGraphTest.createGraph(
+            ImmutableList.of(
+                new Pair<>("long_top", "long_middle"),
+                new Pair<>("long_middle", "long_leaf"),
+                new Pair<>("short_top", "short_leaf")),
+            ImmutableSet.of());
+    graph.computeCriticalPaths(RuleDurationEstimates.empty());
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            new ReverseDepBuildTargetsQueue(
+                graph,
+                MOST_BUILD_RULES_FINISHED_PERCENTAGE,
+                DistBuildWorkAllocationPolicy.CRITICAL_PATH),
+            tracker,
+            Optional.empty(),
+            false);
+
+    allocateWorkWithNoReleaseAndAssert(
+        allocator,
+        MINION_ONE,
+        STANDARD_SPEC,
+        ImmutableList.of(),
+        ImmutableList.of(
+            ImmutableList.of("long_leaf", "long_middle", "long_top"),
+            ImmutableList.of("short_leaf", "short_top")));
+    simulateAndAssertMinionFailure(allocator, MINION_ONE);
+
+    List<WorkUnit> workUnits =
+        allocator.updateMinionWorkloadAllocation(MINION_TWO, STANDARD_SPEC, ImmutableList.of(), 1)
+            .newWorkUnitsForMinion;
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(
+        ImmutableList.of("long_leaf", "long_middle", "long_top"),
+        workUnits.get(0).getBuildTargets());
+  }
+
   @Test
   public void testInstantReleaseApartFromCoordinatorMinion() {
     BuildTargetsQueue queue = EasyMock.createNiceMock(BuildTargetsQueue.class);
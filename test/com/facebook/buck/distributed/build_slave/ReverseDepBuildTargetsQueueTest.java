@@ -35,6 +35,7 @@ import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.distributed.ArtifactCacheByBuildRule;
+import com.facebook.buck.distributed.DistBuildWorkAllocationPolicy;
 import com.facebook.buck.distributed.NoopArtifactCacheByBuildRule;
 import com.facebook.buck.distributed.testutil.CustomActionGraphBuilderFactory;
 import com.facebook.buck.distributed.thrift.CoordinatorBuildProgress;
@@ -42,7 +43,9 @@ import com.facebook.buck.distributed.thrift.WorkUnit;
 import com.facebook.buck.event.listener.NoOpCoordinatorBuildRuleEventsPublisher;
 import com.facebook.buck.parser.exceptions.NoSuchBuildTargetException;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.List;
 import org.easymock.EasyMock;
@@ -84,6 +87,56 @@ public class ReverseDepBuildTargetsQueueTest {
         queue.getBuildProgress());
   }
 
+  private static ReverseDepBuildTargetsQueue createCriticalPathQueue(
+      List<Pair<String, String>> edges) {
+    DistributableBuildGraph graph =
+        DistributableBuildGraphTest.createGraph(edges, ImmutableSet.of());
+    graph.computeCriticalPaths(RuleDurationEstimates.empty());
+    return new ReverseDepBuildTargetsQueue(
+        graph, MOST_BUILD_RULES_FINISHED_PERCENTAGE, DistBuildWorkAllocationPolicy.CRITICAL_PATH);
+  }
+
+  @Test
+  public void testCriticalPathIsHandedOutFirst() {
+    // top depends on a chain from long_leaf, and directly on short_leaf.
+    ReverseDepBuildTargetsQueue queue =
+        createCriticalPathQueue(
+            ImmutableList.of(
+                new Pair<>("top", "middle"),
+                new Pair<>("middle", "long_leaf"),
+                new Pair<>("top", "short_leaf")));
+
+    List<WorkUnit> workUnits = queue.dequeueZeroDependencyNodes(ImmutableList.of(), 1);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(
+        ImmutableList.of("long_leaf", "middle"), workUnits.get(0).getBuildTargets());
+
+    workUnits = queue.dequeueZeroDependencyNodes(ImmutableList.of(), 1);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(ImmutableList.of("short_leaf"), workUnits.get(0).getBuildTargets());
+  }
+
+  @Test
+  public void testWorkUnitFollowsCriticalPathPastNodesWithManyDependents() {
+    // leaf has two dependents, and only one of them is on the critical path.
+    ReverseDepBuildTargetsQueue queue =
+        createCriticalPathQueue(
+            ImmutableList.of(
+                new Pair<>("top", "critical"),
+                new Pair<>("critical", "leaf"),
+                new Pair<>("other", "leaf")));
+
+    List<WorkUnit> workUnits = dequeueNoFinishedTargets(queue);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(
+        ImmutableList.of("leaf", "critical", "top"), workUnits.get(0).getBuildTargets());
+
+    // The other dependent is handed out as soon as the leaf is built.
+    workUnits = queue.dequeueZeroDependencyNodes(ImmutableList.of("leaf"), MAX_UNITS_OF_WORK);
+    Assert.assertEquals(1, workUnits.size());
+    Assert.assertEquals(ImmutableList.of("other"), workUnits.get(0).getBuildTargets());
+  }
+
   public static List<WorkUnit> dequeueNoFinishedTargets(BuildTargetsQueue queue) {
     return queue.dequeueZeroDependencyNodes(ImmutableList.of(), MAX_UNITS_OF_WORK);
   }
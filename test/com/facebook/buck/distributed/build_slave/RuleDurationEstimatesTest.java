@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed.build_slave;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RuleDurationEstimatesTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void testDurationsAreReadFromRecordedRuleExecutionTimes() throws IOException {
+    Path file = tmp.newFile("rule_exec_time.json");
+    Files.write(
+        file,
+        Arrays.asList(
+            "{\"targetId\":\"//foo:a\",\"elapsedTimeMs\":100}",
+            "{\"targetId\":\"//foo:b\",\"elapsedTimeMs\":300}",
+            "",
+            "{\"targetId\":\"//foo:c\",\"elapsedTimeMs\":5000}",
+            "{\"targetId\":\"//foo:a\",\"elapsedTimeMs\":200}"),
+        StandardCharsets.UTF_8);
+
+    RuleDurationEstimates durations = RuleDurationEstimates.load(file);
+    Assert.assertEquals(3, durations.getNumberOfRecordedRules());
+    // The last recorded duration of a rule is used.
+    Assert.assertEquals(200, durations.getDurationMillis("//foo:a"));
+    Assert.assertEquals(5000, durations.getDurationMillis("//foo:c"));
+    // Other rules take the median duration.
+    Assert.assertEquals(300, durations.getDurationMillis("//foo:d"));
+  }
+
+  @Test
+  public void testRulesTakeTheSameTimeWithoutRecordedDurations() {
+    RuleDurationEstimates durations = RuleDurationEstimates.empty();
+    Assert.assertEquals(0, durations.getNumberOfRecordedRules());
+    Assert.assertEquals(
+        durations.getDurationMillis("//foo:a"), durations.getDurationMillis("//foo:b"));
+  }
+}
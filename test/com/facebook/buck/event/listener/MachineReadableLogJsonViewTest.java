@@ -234,7 +234,9 @@ public class MachineReadableLogJsonViewTest {
             + "\"totalCacheHits\":3,\"totalCacheErrors\":3,"
             + "\"totalCacheMisses\":0,\"totalCacheIgnores\":5,\"totalCacheBytes\":3,\""
             + "totalCacheLocalKeyUnchangedHits\":0,"
-            + "\"successUploadCount\":2,\"failureUploadCount\":0}");
+            + "\"successUploadCount\":2,\"failureUploadCount\":0,"
+            + "\"totalPrefetchHits\":0,\"totalPrefetchWastes\":0,"
+            + "\"totalMemoryCacheHits\":0,\"totalMemoryCacheBytes\":0}");
   }
 
   private void assertJsonEquals(String expected, String actual) {
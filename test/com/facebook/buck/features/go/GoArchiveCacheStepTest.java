@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.go;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GoArchiveCacheStepTest {
+
+  private static final Path SOURCE = Paths.get("src/foo.go");
+  private static final Path DEPENDENCY_ROOT = Paths.get("deps");
+  private static final Path OUTPUT = Paths.get("out/foo.a");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ContentAddressedFileStore cache;
+  private ExecutionContext context;
+  private List<CacheLookupEvent> lookups;
+  private int compilations;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    cache = GoArchiveCacheStep.newCache(tmp.getRoot().resolve("cache"));
+    context = TestExecutionContext.newInstance();
+    lookups = new ArrayList<>();
+    context
+        .getBuckEventBus()
+        .register(
+            new Object() {
+              @Subscribe
+              public void cacheLookup(CacheLookupEvent event) {
+                lookups.add(event);
+              }
+            });
+    write(SOURCE, "package foo");
+    write(DEPENDENCY_ROOT.resolve("bar.a"), "bar");
+  }
+
+  @Test
+  public void secondCompilationIsFetchedFromTheCache() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    Files.delete(filesystem.resolve(OUTPUT));
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(1, compilations);
+    assertEquals("compiled 1", read(OUTPUT));
+    assertEquals(2, lookups.size());
+    assertFalse(lookups.get(0).isHit());
+    assertTrue(lookups.get(1).isHit());
+    assertEquals(GoArchiveCacheStep.CACHE_NAME, lookups.get(1).getCacheName());
+  }
+
+  @Test
+  public void changingADependencyArchiveMissesTheCache() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    write(DEPENDENCY_ROOT.resolve("bar.a"), "new bar");
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(2, compilations);
+    assertFalse(lookups.get(1).isHit());
+  }
+
+  @Test
+  public void dependenciesUnderAnotherRootShareTheEntry() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    write(Paths.get("other-deps/bar.a"), "bar");
+    GoArchiveCacheStep step =
+        new GoArchiveCacheStep(
+            filesystem,
+            cache,
+            ImmutableList.of("foo"),
+            ImmutableList.of(),
+            ImmutableList.of(SOURCE),
+            Paths.get("other-deps"),
+            ImmutableList.of(new CompileStep(true)),
+            OUTPUT);
+    assertTrue(step.execute(context).isSuccess());
+
+    assertEquals(1, compilations);
+  }
+
+  @Test
+  public void failedCompilationsAreNotStored() throws Exception {
+    assertFalse(newStep(false).execute(context).isSuccess());
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(2, compilations);
+    assertFalse(lookups.get(1).isHit());
+  }
+
+  private GoArchiveCacheStep newStep(boolean succeed) {
+    return new GoArchiveCacheStep(
+        filesystem,
+        cache,
+        ImmutableList.of("foo"),
+        ImmutableList.of(),
+        ImmutableList.of(SOURCE),
+        DEPENDENCY_ROOT,
+        ImmutableList.of(new CompileStep(succeed)),
+        OUTPUT);
+  }
+
+  private String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(filesystem.resolve(path)), StandardCharsets.UTF_8);
+  }
+
+  private void write(Path path, String content) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stands in for the compile and pack steps, counting how often the package is compiled. */
+  private class CompileStep implements Step {
+
+    private final boolean succeed;
+
+    CompileStep(boolean succeed) {
+      this.succeed = succeed;
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context) throws IOException {
+      compilations++;
+      if (!succeed) {
+        return StepExecutionResults.ERROR;
+      }
+      write(OUTPUT, "compiled " + compilations);
+      return StepExecutionResults.SUCCESS;
+    }
+
+    @Override
+    public String getShortName() {
+      return "compile";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return "compile";
+    }
+  }
+}
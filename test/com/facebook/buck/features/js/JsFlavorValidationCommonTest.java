@@ -19,6 +19,7 @@ package com.facebook.buck.features.js;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.model.FlavorDomainException;
 import com.facebook.buck.core.model.Flavored;
 import com.facebook.buck.core.model.InternalFlavor;
@@ -40,9 +41,10 @@ public class JsFlavorValidationCommonTest {
   // NOTE: JUnit does not support callbacks to infer name from
   static final Map<Class<?>, Flavored> TEST_DATA =
       ImmutableMap.of(
-          JsLibraryDescription.class, new JsLibraryDescription(),
+          JsLibraryDescription.class,
+          new JsLibraryDescription(new JsBuckConfig(FakeBuckConfig.builder().build())),
           JsBundleDescription.class,
-              new JsBundleDescription(new ToolchainProviderBuilder().build()));
+          new JsBundleDescription(new ToolchainProviderBuilder().build()));
 
   @Parameterized.Parameter public Class<?> description;
 
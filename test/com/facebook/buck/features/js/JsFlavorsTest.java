@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.FlavorDomainException;
 import com.facebook.buck.core.toolchain.impl.ToolchainProviderBuilder;
@@ -36,7 +37,8 @@ public class JsFlavorsTest {
   @BeforeClass
   public static void setupDescriptions() {
     bundleDescription = new JsBundleDescription(new ToolchainProviderBuilder().build());
-    libraryDescription = new JsLibraryDescription();
+    libraryDescription =
+        new JsLibraryDescription(new JsBuckConfig(FakeBuckConfig.builder().build()));
   }
 
   @Test
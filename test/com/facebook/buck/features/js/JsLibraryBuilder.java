@@ -16,6 +16,7 @@
 
 package com.facebook.buck.features.js;
 
+import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.targetgraph.AbstractNodeBuilder;
 import com.facebook.buck.core.sourcepath.SourcePath;
@@ -32,7 +33,8 @@ import java.util.Optional;
 public class JsLibraryBuilder
     extends AbstractNodeBuilder<
         JsLibraryDescriptionArg.Builder, JsLibraryDescriptionArg, JsLibraryDescription, JsLibrary> {
-  private static final JsLibraryDescription libraryDescription = new JsLibraryDescription();
+  private static final JsLibraryDescription libraryDescription =
+      new JsLibraryDescription(new JsBuckConfig(FakeBuckConfig.builder().build()));
 
   JsLibraryBuilder(BuildTarget target, ProjectFilesystem filesystem) {
     super(libraryDescription, target, filesystem);
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the overhead of {@link JsTransformCacheStep} when rebuilding all the files of a bundle
+ * whose contents didn't change, which is what each of them costs instead of a worker job.
+ */
+public class JsTransformCacheBenchmark {
+
+  @Param({"20000"})
+  private int modules = 200;
+
+  private Path root;
+  private ContentAddressedFileStore cache;
+  private ExecutionContext context;
+  private ImmutableList<JsTransformCacheStep> steps;
+  private final AtomicInteger transforms = new AtomicInteger();
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("js-transform-cache-benchmark");
+    cache = JsTransformCacheStep.newCache(root.resolve("cache"));
+    context = TestExecutionContext.newInstance();
+    Path worker = root.resolve("worker");
+    write(worker.resolve("worker.js"), "module.exports = transform;");
+
+    // Files of a few kilobytes, as in a typical React Native bundle.
+    Random random = new Random(0);
+    ImmutableList.Builder<JsTransformCacheStep> builder = ImmutableList.builder();
+    for (int i = 0; i < modules; i++) {
+      Path source = root.resolve("src").resolve("module" + i + ".js");
+      Path output = root.resolve("out").resolve("module" + i + ".jsfile");
+      byte[] contents = new byte[1024 + random.nextInt(8 * 1024)];
+      random.nextBytes(contents);
+      Files.createDirectories(source.getParent());
+      Files.write(source, contents);
+      builder.add(
+          new JsTransformCacheStep(
+              cache,
+              ImmutableList.of(
+                  "{\"command\":\"transform\",\"sourceJsFilePath\":\"" + source + "\"}", "node"),
+              ImmutableList.of(worker),
+              ImmutableList.of(source),
+              new CopyingTransformStep(source, output),
+              output));
+    }
+    steps = builder.build();
+
+    // Start from a cache holding the output of every file.
+    buildAll();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void rebuildingRunsNoTransforms() throws Exception {
+    rebuildFromCache();
+    assertEquals(modules, transforms.get());
+  }
+
+  @Benchmark
+  public void rebuildFromCache() throws Exception {
+    buildAll();
+  }
+
+  private void buildAll() throws Exception {
+    for (JsTransformCacheStep step : steps) {
+      step.execute(context);
+    }
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stands in for the worker by copying the source. */
+  private class CopyingTransformStep implements Step {
+
+    private final Path source;
+    private final Path output;
+
+    CopyingTransformStep(Path source, Path output) {
+      this.source = source;
+      this.output = output;
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context) throws IOException {
+      transforms.incrementAndGet();
+      Files.createDirectories(output.getParent());
+      Files.copy(source, output);
+      return StepExecutionResults.SUCCESS;
+    }
+
+    @Override
+    public String getShortName() {
+      return "transform";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return "transform " + source;
+    }
+  }
+}
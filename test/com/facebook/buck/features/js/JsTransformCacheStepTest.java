@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.CacheLookupEvent;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.ContentAddressedFileStore;
+import com.facebook.buck.util.cache.DaemonCaches;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JsTransformCacheStepTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ContentAddressedFileStore cache;
+  private ExecutionContext context;
+  private List<CacheLookupEvent> lookups;
+  private Path worker;
+  private Path source;
+  private Path output;
+  private int transforms;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = JsTransformCacheStep.newCache(tmp.getRoot().resolve("cache"));
+    lookups = new ArrayList<>();
+    context = newBuild(BuckEventBusForTests.BUILD_ID_FOR_TEST, new DaemonCaches());
+    worker = tmp.getRoot().resolve("worker");
+    source = tmp.getRoot().resolve("src/apple.js");
+    output = tmp.getRoot().resolve("out/apple.jsfile");
+    write(worker.resolve("worker.js"), "transform()");
+    write(source, "var apple;");
+  }
+
+  @Test
+  public void secondTransformIsFetchedFromTheCache() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    Files.delete(output);
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(1, transforms);
+    assertEquals("transformed 1", read(output));
+    assertEquals(2, lookups.size());
+    assertFalse(lookups.get(0).isHit());
+    assertTrue(lookups.get(1).isHit());
+    assertEquals(JsTransformCacheStep.CACHE_NAME, lookups.get(1).getCacheName());
+  }
+
+  @Test
+  public void goingBackToPreviousContentsHitsTheCache() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    write(source, "var banana;");
+    assertTrue(newStep(true).execute(context).isSuccess());
+    write(source, "var apple;");
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(2, transforms);
+    assertEquals("transformed 1", read(output));
+  }
+
+  @Test
+  public void changingTheWorkerMissesTheCacheInTheNextBuild() throws Exception {
+    assertTrue(newStep(true).execute(context).isSuccess());
+    write(worker.resolve("worker.js"), "transformDifferently()");
+    // The worker is only hashed once per build.
+    Files.delete(output);
+    assertTrue(newStep(true).execute(context).isSuccess());
+    context = newBuild(new BuildId("next"), context.getDaemonCaches());
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(2, transforms);
+    assertTrue(lookups.get(1).isHit());
+    assertFalse(lookups.get(2).isHit());
+  }
+
+  @Test
+  public void failedTransformsAreNotStored() throws Exception {
+    assertFalse(newStep(false).execute(context).isSuccess());
+    assertTrue(newStep(true).execute(context).isSuccess());
+
+    assertEquals(2, transforms);
+    assertFalse(lookups.get(1).isHit());
+  }
+
+  private ExecutionContext newBuild(BuildId buildId, DaemonCaches daemonCaches) {
+    ExecutionContext context =
+        TestExecutionContext.newBuilder()
+            .setBuckEventBus(BuckEventBusForTests.newInstance(new DefaultClock(), buildId))
+            .setDaemonCaches(daemonCaches)
+            .build();
+    context
+        .getBuckEventBus()
+        .register(
+            new Object() {
+              @Subscribe
+              public void cacheLookup(CacheLookupEvent event) {
+                lookups.add(event);
+              }
+            });
+    return context;
+  }
+
+  private JsTransformCacheStep newStep(boolean succeed) {
+    return new JsTransformCacheStep(
+        cache,
+        ImmutableList.of("{\"command\":\"transform\"}", "node"),
+        ImmutableList.of(worker),
+        ImmutableList.of(source),
+        new TransformStep(succeed),
+        output);
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stands in for the worker, counting how often it is run. */
+  private class TransformStep implements Step {
+
+    private final boolean succeed;
+
+    TransformStep(boolean succeed) {
+      this.succeed = succeed;
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context) throws IOException {
+      transforms++;
+      if (!succeed) {
+        return StepExecutionResults.ERROR;
+      }
+      write(output, "transformed " + transforms);
+      return StepExecutionResults.SUCCESS;
+    }
+
+    @Override
+    public String getShortName() {
+      return "transform";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return "transform";
+    }
+  }
+}
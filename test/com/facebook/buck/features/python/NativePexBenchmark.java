@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures {@link NativePexStep} on a binary with many modules, both writing the PEX from scratch
+ * and rewriting it after a single module changed.
+ */
+public class NativePexBenchmark {
+
+  @Param({"30000"})
+  private int modules = 300;
+
+  private static final Path BOOTSTRAP = Paths.get("bootstrap");
+  private static final Path SOURCES = Paths.get("src");
+  private static final Path CHANGED_MODULE = SOURCES.resolve("pkg0").resolve("mod0.py");
+  private static final Path PEX = Paths.get("bin.pex");
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ImmutableMap<Path, Path> moduleMap;
+  private ExecutorService executor;
+  private int threads;
+  private int edits;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("native-pex-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    threads = Runtime.getRuntime().availableProcessors();
+    executor = MostExecutors.newMultiThreadExecutor("pex_writer", threads);
+
+    write(BOOTSTRAP.resolve(NativePexStep.PEX_INFO), "{\"entry_point\": \"main\"}");
+    write(BOOTSTRAP.resolve("__main__.py"), "# bootstrap");
+
+    // Modules of a few kilobytes spread over packages of a hundred modules each.
+    Random random = new Random(0);
+    ImmutableMap.Builder<Path, Path> builder = ImmutableMap.builder();
+    for (int i = 0; i < modules; i++) {
+      Path module = Paths.get("pkg" + i / 100).resolve("mod" + i % 100 + ".py");
+      write(SOURCES.resolve(module), source(random, 1024 + random.nextInt(8 * 1024)));
+      builder.put(module, SOURCES.resolve(module));
+    }
+    moduleMap = builder.build();
+
+    // Start the incremental case from an up to date PEX.
+    writePex();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    executor.shutdownNow();
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void rewritingGivesTheSameBytesAsWritingFromScratch() throws Exception {
+    rewriteAfterChangingOneModule();
+    byte[] rewritten = Files.readAllBytes(filesystem.resolve(PEX));
+    writeFromScratch();
+    assertArrayEquals(Files.readAllBytes(filesystem.resolve(PEX)), rewritten);
+  }
+
+  @Benchmark
+  public void writeFromScratch() throws Exception {
+    Files.delete(filesystem.resolve(PEX));
+    writePex();
+  }
+
+  @Benchmark
+  public void rewriteAfterChangingOneModule() throws Exception {
+    write(CHANGED_MODULE, "EDITS = " + ++edits);
+    writePex();
+  }
+
+  private void writePex() throws Exception {
+    new NativePexStep(
+            filesystem,
+            BOOTSTRAP,
+            "#!/usr/bin/env python2.7",
+            PEX,
+            moduleMap,
+            ImmutableMap.of(),
+            ImmutableMap.of(),
+            ImmutableMultimap.of())
+        .writePex(executor, 2 * threads);
+  }
+
+  /** Text which compresses about as well as Python source. */
+  private static String source(Random random, int size) {
+    String[] words = {"def ", "return ", "self", ".", "(", ")", ":\n    ", " = ", "import ", "x"};
+    StringBuilder builder = new StringBuilder(size);
+    while (builder.length() < size) {
+      builder.append(words[random.nextInt(words.length)]).append(random.nextInt(1000));
+    }
+    return builder.toString();
+  }
+
+  private void write(Path path, String content) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.zip.CustomZipEntry;
+import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.ZipOutputStreams;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class NativePexStepTest {
+
+  private static final String SHEBANG = "#!/usr/bin/env python2.7";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    write("bootstrap/PEX-INFO", "{\"entry_point\": \"main\", \"code_hash\": null}");
+    write("bootstrap/__main__.py", "# bootstrap");
+    write("bootstrap/.bootstrap/_pex/pex.py", "# pex");
+    write("src/main.py", "import foo.bar.baz");
+    write("src/baz.py", "BAZ = 1");
+    write("src/data.txt", "data");
+    write("src/libfoo.so", "ELF");
+    write("dir/pkg/__init__.py", "");
+    write("dir/pkg/mod.py", "MOD = 1");
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(filesystem.resolve("src/lib.src.zip"))) {
+      out.putNextEntry(new CustomZipEntry("zipped/"));
+      out.closeEntry();
+      out.putNextEntry(new CustomZipEntry("zipped/mod.py"));
+      out.write("ZIPPED = 1".getBytes(UTF_8));
+      out.closeEntry();
+    }
+  }
+
+  @Test
+  public void writesAnExecutablePexWithEverythingInIt() throws Exception {
+    Path pex = writePex("bin.pex", ImmutableMap.of());
+
+    assertTrue(Files.isExecutable(pex));
+    byte[] bytes = Files.readAllBytes(pex);
+    assertEquals(SHEBANG + "\n", new String(bytes, 0, SHEBANG.length() + 1, UTF_8));
+
+    try (ZipFile zip = new ZipFile(pex.toFile())) {
+      Set<String> names =
+          Collections.list(zip.entries()).stream()
+              .map(ZipEntry::getName)
+              .collect(Collectors.toSet());
+      assertTrue(names.contains("__main__.py"));
+      assertTrue(names.contains(".bootstrap/_pex/pex.py"));
+      assertTrue(names.contains("main.py"));
+      assertTrue(names.contains("foo/bar/baz.py"));
+      assertTrue(names.contains("lib/zipped/mod.py"));
+      assertTrue(names.contains("moddir/pkg/mod.py"));
+      assertTrue(names.contains("foo/data.txt"));
+      assertTrue(names.contains("libfoo.so"));
+      assertFalse(names.stream().anyMatch(name -> name.endsWith(".pyc")));
+
+      // Packages without an __init__.py get one, as the PEX builder does.
+      assertEquals(
+          "__import__('pkg_resources').declare_namespace(__name__)", read(zip, "foo/__init__.py"));
+      assertTrue(names.contains("foo/bar/__init__.py"));
+      assertTrue(names.contains("lib/__init__.py"));
+      assertTrue(names.contains("lib/zipped/__init__.py"));
+      assertEquals("", read(zip, "moddir/pkg/__init__.py"));
+
+      assertEquals("ZIPPED = 1", read(zip, "lib/zipped/mod.py"));
+
+      JsonNode info = ObjectMappers.READER.readTree(read(zip, NativePexStep.PEX_INFO));
+      assertEquals("main", info.get("entry_point").asText());
+      assertEquals(40, info.get("code_hash").asText().length());
+    }
+  }
+
+  @Test
+  public void rewritingAPexGivesTheSameBytesAsWritingItFromScratch() throws Exception {
+    Path pex = writePex("bin.pex", ImmutableMap.of());
+    byte[] before = Files.readAllBytes(pex);
+    write("src/baz.py", "BAZ = 2");
+
+    writePex("bin.pex", ImmutableMap.of());
+    byte[] rewritten = Files.readAllBytes(pex);
+    byte[] fromScratch = Files.readAllBytes(writePex("fresh.pex", ImmutableMap.of()));
+
+    assertNotEquals(new String(before, UTF_8), new String(rewritten, UTF_8));
+    assertArrayEquals(fromScratch, rewritten);
+    try (ZipFile zip = new ZipFile(pex.toFile())) {
+      assertEquals("BAZ = 2", read(zip, "foo/bar/baz.py"));
+    }
+  }
+
+  @Test
+  public void codeHashChangesWithTheModules() throws Exception {
+    String before = codeHash(writePex("bin.pex", ImmutableMap.of()));
+    write("src/baz.py", "BAZ = 2");
+    assertNotEquals(before, codeHash(writePex("bin.pex", ImmutableMap.of())));
+  }
+
+  @Test
+  public void replacesADirectoryPex() throws Exception {
+    write("bin.pex/__main__.py", "# directory pex");
+    Path pex = writePex("bin.pex", ImmutableMap.of());
+    assertTrue(Files.isRegularFile(pex));
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void rejectsDuplicateEntries() throws Exception {
+    writePex("bin.pex", ImmutableMap.of(Paths.get("main.py"), Paths.get("src/data.txt")));
+  }
+
+  private Path writePex(String destination, ImmutableMap<Path, Path> extraResources)
+      throws Exception {
+    new NativePexStep(
+            filesystem,
+            Paths.get("bootstrap"),
+            SHEBANG,
+            Paths.get(destination),
+            ImmutableMap.of(
+                Paths.get("main.py"), Paths.get("src/main.py"),
+                Paths.get("foo/bar/baz.py"), Paths.get("src/baz.py"),
+                Paths.get("lib"), Paths.get("src/lib.src.zip")),
+            ImmutableMap.<Path, Path>builder()
+                .put(Paths.get("foo/data.txt"), Paths.get("src/data.txt"))
+                .putAll(extraResources)
+                .build(),
+            ImmutableMap.of(Paths.get("libfoo.so"), Paths.get("src/libfoo.so")),
+            ImmutableMultimap.of(Paths.get("moddir"), filesystem.resolve("dir")))
+        .writePex(MoreExecutors.newDirectExecutorService(), 4);
+    return filesystem.resolve(destination);
+  }
+
+  private static String codeHash(Path pex) throws IOException {
+    try (ZipFile zip = new ZipFile(pex.toFile())) {
+      return ObjectMappers.READER
+          .readTree(read(zip, NativePexStep.PEX_INFO))
+          .get("code_hash")
+          .asText();
+    }
+  }
+
+  private static String read(ZipFile zip, String name) throws IOException {
+    return new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry(name))), UTF_8);
+  }
+
+  private void write(String path, String content) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+}
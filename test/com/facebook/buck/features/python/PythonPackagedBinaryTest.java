@@ -99,7 +99,8 @@ public class PythonPackagedBinaryTest {
                 Optional.empty()),
             ImmutableSortedSet.of(),
             /* cache */ true,
-            /* legacyOutputPath */ false);
+            /* legacyOutputPath */ false,
+            /* nativePexWriter */ false);
 
     // Calculate and return the rule key.
     return ruleKeyFactory.build(binary);
@@ -178,4 +179,26 @@ public class PythonPackagedBinaryTest {
     assertEquals(pair3, pair4);
     assertNotEquals(pair1, pair3);
   }
+
+  @Test
+  public void shebangMatchesThePexBuilder() {
+    assertEquals(
+        "#!/usr/bin/env python3.6",
+        PythonPackagedBinary.getShebang(
+            ImmutableList.of("make_pex.py", "--python", "python3"),
+            PythonVersion.of("CPython", "3.6")));
+    assertEquals(
+        "#!/usr/bin/env pypy",
+        PythonPackagedBinary.getShebang(ImmutableList.of(), PythonVersion.of("PyPy", "2.7")));
+    assertEquals(
+        "#!/usr/bin/python",
+        PythonPackagedBinary.getShebang(
+            ImmutableList.of("make_pex.py", "--python-shebang", "/usr/bin/python", "-v"),
+            PythonVersion.of("CPython", "2.7")));
+    assertEquals(
+        "#!/opt/python",
+        PythonPackagedBinary.getShebang(
+            ImmutableList.of("--python-shebang=/usr/bin/python", "--python-shebang=/opt/python"),
+            PythonVersion.of("CPython", "2.7")));
+  }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.ClientCertificateHandler;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.BuckConfigTestUtils;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Architecture;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CacheServerIntegrationTest {
+  private static final ListeningExecutorService DIRECT_EXECUTOR_SERVICE =
+      MoreExecutors.newDirectExecutorService();
+  private static final RuleKey RULE_KEY = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey OTHER_RULE_KEY =
+      new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey MISSING_RULE_KEY =
+      new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private TestBackgroundTaskManager bgTaskManager;
+  private TaskManagerCommandScope managerScope;
+  private CacheServer cacheServer;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    bgTaskManager = TestBackgroundTaskManager.of();
+    managerScope = bgTaskManager.getNewScope(new BuildId("test"));
+    cacheServer = startCacheServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheServer.close();
+    bgTaskManager.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void storedArtifactsAreFetchedWithTheirMetadata() throws Exception {
+    store(RULE_KEY, "contents", ImmutableMap.of("key", "value"));
+
+    ArtifactCache cache = createHttpCache();
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result = cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)).get();
+    cache.close();
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals("value", result.getMetadata().get("key"));
+    assertArrayEquals("contents".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(output));
+  }
+
+  @Test
+  public void unknownArtifactsAreMisses() throws Exception {
+    ArtifactCache cache = createHttpCache();
+    CacheResult result =
+        cache
+            .fetchAsync(null, MISSING_RULE_KEY, LazyPath.ofInstance(tmp.getRoot().resolve("out")))
+            .get();
+    cache.close();
+    assertEquals(CacheResultType.MISS, result.getType());
+  }
+
+  @Test
+  public void multiFetchesReturnHitsAndMissesInOrder() throws Exception {
+    store(RULE_KEY, "first", ImmutableMap.of());
+    store(OTHER_RULE_KEY, "second", ImmutableMap.of());
+
+    ArtifactCache cache =
+        createHttpCache("http_multi_fetch = true", "http_multi_fetch_max_delay_ms = 100");
+    ImmutableList<RuleKey> ruleKeys = ImmutableList.of(OTHER_RULE_KEY, MISSING_RULE_KEY, RULE_KEY);
+    List<ListenableFuture<CacheResult>> futures = new ArrayList<>();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      futures.add(
+          cache.fetchAsync(
+              null, ruleKeys.get(i), LazyPath.ofInstance(tmp.getRoot().resolve("multi" + i))));
+    }
+    List<CacheResult> results = Futures.allAsList(futures).get();
+    cache.close();
+
+    assertEquals(CacheResultType.HIT, results.get(0).getType());
+    assertEquals(CacheResultType.MISS, results.get(1).getType());
+    assertEquals(CacheResultType.HIT, results.get(2).getType());
+    assertEquals("second", read("multi0"));
+    assertEquals("first", read("multi2"));
+  }
+
+  @Test
+  public void storedArtifactsSurviveARestart() throws Exception {
+    store(RULE_KEY, "contents", ImmutableMap.of());
+    cacheServer.close();
+    cacheServer = startCacheServer();
+
+    ArtifactCache cache = createHttpCache();
+    CacheResult result =
+        cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(tmp.getRoot().resolve("out"))).get();
+    cache.close();
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals("contents", read("out"));
+  }
+
+  @Test
+  public void unknownPathsAreNotFound() throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection)
+            new URL(String.format("http://127.0.0.1:%d/artifacts/other", cacheServer.getPort()))
+                .openConnection();
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connection.getResponseCode());
+    connection.disconnect();
+  }
+
+  private CacheServer startCacheServer() throws Exception {
+    CacheServer server =
+        new CacheServer(
+            0,
+            4,
+            new ShardedArtifactStore(tmp.getRoot().resolve("store"), 4, 1024 * 1024),
+            tmp.getRoot().resolve("uploads"));
+    server.start();
+    return server;
+  }
+
+  private void store(RuleKey ruleKey, String contents, ImmutableMap<String, String> metadata)
+      throws Exception {
+    Path artifact = tmp.getRoot().resolve("artifact");
+    Files.write(artifact, contents.getBytes(StandardCharsets.UTF_8));
+    ArtifactCache cache = createHttpCache("http_mode = readwrite");
+    cache
+        .store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(metadata).build(),
+            BorrowablePath.notBorrowablePath(artifact))
+        .get();
+    cache.close();
+  }
+
+  private String read(String path) throws IOException {
+    return new String(Files.readAllBytes(tmp.getRoot().resolve(path)), StandardCharsets.UTF_8);
+  }
+
+  private ArtifactCache createHttpCache(String... config) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("mode = http");
+    lines.add(String.format("http_url = http://127.0.0.1:%d/", cacheServer.getPort()));
+    lines.addAll(ImmutableList.copyOf(config));
+    BuckConfig buckConfig =
+        BuckConfigTestUtils.createFromReader(
+            new StringReader("[cache]\n" + Joiner.on('\n').join(lines)),
+            filesystem,
+            Architecture.detect(),
+            Platform.detect(),
+            ImmutableMap.of());
+    ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(buckConfig);
+    CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+    ParsingUnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory =
+        new ParsingUnconfiguredBuildTargetViewFactory();
+    return new ArtifactCaches(
+            cacheBuckConfig,
+            BuckEventBusForTests.newInstance(),
+            target -> unconfiguredBuildTargetFactory.create(cellPathResolver, target),
+            TargetConfigurationSerializerForTests.create(cellPathResolver),
+            filesystem,
+            Optional.empty(),
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            managerScope,
+            "test://",
+            "hostname",
+            ClientCertificateHandler.fromConfiguration(cacheBuckConfig))
+        .newInstance();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.ClientCertificateHandler;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.BuckConfigTestUtils;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.environment.Architecture;
+import com.facebook.buck.util.environment.Platform;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A load harness for {@link CacheServer}: many clients fetching artifacts of a few kilobytes at
+ * once, the way cold builds on many machines do, both with a request per artifact and in batches.
+ */
+public class CacheServerLoadBenchmark {
+
+  @Param({"5000"})
+  private int artifacts = 200;
+
+  @Param({"32"})
+  private int clients = 4;
+
+  private static final ListeningExecutorService DIRECT_EXECUTOR_SERVICE =
+      MoreExecutors.newDirectExecutorService();
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private BuckEventBus eventBus;
+  private TestBackgroundTaskManager bgTaskManager;
+  private TaskManagerCommandScope managerScope;
+  private ListeningExecutorService fetchExecutorService;
+  private CacheServer cacheServer;
+  private ImmutableList<RuleKey> ruleKeys;
+  private List<byte[]> contents;
+  private int fetches;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("cache-server-load-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    eventBus = BuckEventBusForTests.newInstance();
+    bgTaskManager = TestBackgroundTaskManager.of();
+    managerScope = bgTaskManager.getNewScope(new BuildId("benchmark"));
+    fetchExecutorService =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor("cache_fetch", clients));
+
+    ShardedArtifactStore store =
+        new ShardedArtifactStore(root.resolve("store"), 16, 1024 * 1024 * 1024);
+    cacheServer = new CacheServer(0, 16, store, root.resolve("uploads"));
+    cacheServer.start();
+
+    // Stored through the client, so that uploads go through the server too.
+    ArtifactCache httpCache = createHttpCache("http_mode = readwrite");
+    Random random = new Random(0);
+    Path artifact = Paths.get("artifact");
+    ImmutableList.Builder<RuleKey> builder = ImmutableList.builder();
+    contents = new ArrayList<>(artifacts);
+    for (int i = 0; i < artifacts; i++) {
+      byte[] bytes = new byte[1024 + random.nextInt(8 * 1024)];
+      random.nextBytes(bytes);
+      filesystem.writeBytesToPath(bytes, artifact);
+      RuleKey ruleKey = new RuleKey(HashCode.fromInt(i));
+      httpCache
+          .store(
+              ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+              BorrowablePath.notBorrowablePath(artifact))
+          .get();
+      builder.add(ruleKey);
+      contents.add(bytes);
+    }
+    httpCache.close();
+    ruleKeys = builder.build();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws Exception {
+    cacheServer.close();
+    fetchExecutorService.shutdownNow();
+    bgTaskManager.shutdown(1, TimeUnit.SECONDS);
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void fetchesTheStoredArtifacts() throws Exception {
+    for (List<Path> paths : ImmutableList.of(fetchOneByOne(), fetchInBatches())) {
+      for (int i = 0; i < artifacts; i++) {
+        assertArrayEquals(contents.get(i), Files.readAllBytes(paths.get(i)));
+      }
+    }
+  }
+
+  @Test
+  public void missingArtifactsAreMisses() throws Exception {
+    RuleKey missing = new RuleKey(HashCode.fromInt(-1));
+    for (ArtifactCache cache :
+        ImmutableList.of(
+            createHttpCache(),
+            createHttpCache("http_multi_fetch = true", "http_multi_fetch_max_delay_ms = 2"))) {
+      CacheResult result =
+          cache.fetchAsync(null, missing, LazyPath.ofInstance(root.resolve("missing"))).get();
+      assertEquals(CacheResultType.MISS, result.getType());
+      cache.close();
+    }
+  }
+
+  @Benchmark
+  public List<Path> fetchOneByOne() throws Exception {
+    return fetchAll(createHttpCache());
+  }
+
+  @Benchmark
+  public List<Path> fetchInBatches() throws Exception {
+    return fetchAll(
+        createHttpCache("http_multi_fetch = true", "http_multi_fetch_max_delay_ms = 2"));
+  }
+
+  private List<Path> fetchAll(ArtifactCache cache) throws Exception {
+    Path outputs = root.resolve("fetched" + fetches++);
+    List<Path> paths = new ArrayList<>(artifacts);
+    List<ListenableFuture<CacheResult>> results = new ArrayList<>(artifacts);
+    for (int i = 0; i < artifacts; i++) {
+      Path path = outputs.resolve("artifact" + i);
+      paths.add(path);
+      results.add(cache.fetchAsync(null, ruleKeys.get(i), LazyPath.ofInstance(path)));
+    }
+    for (CacheResult result : Futures.allAsList(results).get()) {
+      assertEquals(CacheResultType.HIT, result.getType());
+    }
+    cache.close();
+    return paths;
+  }
+
+  private ArtifactCache createHttpCache(String... config) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("mode = http");
+    lines.add(String.format("http_url = http://127.0.0.1:%d/", cacheServer.getPort()));
+    lines.add(String.format("http_thread_pool_size = %d", clients));
+    lines.addAll(ImmutableList.copyOf(config));
+    BuckConfig buckConfig =
+        BuckConfigTestUtils.createFromReader(
+            new StringReader("[cache]\n" + Joiner.on('\n').join(lines)),
+            filesystem,
+            Architecture.detect(),
+            Platform.detect(),
+            ImmutableMap.of());
+    ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(buckConfig);
+    CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+    ParsingUnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory =
+        new ParsingUnconfiguredBuildTargetViewFactory();
+    return new ArtifactCaches(
+            cacheBuckConfig,
+            eventBus,
+            target -> unconfiguredBuildTargetFactory.create(cellPathResolver, target),
+            TargetConfigurationSerializerForTests.create(cellPathResolver),
+            filesystem,
+            Optional.empty(),
+            DIRECT_EXECUTOR_SERVICE,
+            fetchExecutorService,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            managerScope,
+            "test://",
+            "hostname",
+            ClientCertificateHandler.fromConfiguration(cacheBuckConfig))
+        .newInstance();
+  }
+}
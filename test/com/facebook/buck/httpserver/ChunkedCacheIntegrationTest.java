@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.ClientCertificateHandler;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.BuckConfigTestUtils;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Architecture;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Stores two versions of a large artifact, which only differ in the middle, through a {@link
+ * CacheServer}, and checks that the second version only uploads and downloads the chunks which
+ * changed.
+ */
+public class ChunkedCacheIntegrationTest {
+
+  private static final ListeningExecutorService DIRECT_EXECUTOR_SERVICE =
+      MoreExecutors.newDirectExecutorService();
+  private static final int ARTIFACT_SIZE = 1024 * 1024;
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey RULE_KEY_2 = new RuleKey("1111111111111111111111111111111111111111");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private TestBackgroundTaskManager bgTaskManager;
+  private TaskManagerCommandScope managerScope;
+  private CacheServer cacheServer;
+  private final AtomicLong uploadedBytes = new AtomicLong();
+  private final AtomicLong downloadedBytes = new AtomicLong();
+
+  @Before
+  public void setUp() throws Exception {
+    bgTaskManager = TestBackgroundTaskManager.of();
+    managerScope = bgTaskManager.getNewScope(new BuildId("test"));
+    ShardedArtifactStore store =
+        new ShardedArtifactStore(tmp.newFolder("store"), 4, 1024 * 1024 * 1024);
+    cacheServer = new CacheServer(0, 8, store, tmp.newFolder("uploads"));
+    cacheServer.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheServer.close();
+    bgTaskManager.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void onlyTheChangedChunksAreUploadedAndDownloaded() throws Exception {
+    byte[] original = randomBytes(ARTIFACT_SIZE, 0);
+    byte[] edited = original.clone();
+    System.arraycopy(randomBytes(100, 1), 0, edited, ARTIFACT_SIZE / 2, 100);
+
+    ArtifactCache uploader = createCache(tmp.newFolder("uploader"), "mode = http");
+    store(uploader, RULE_KEY, original);
+    long originalUpload = uploadedBytes.getAndSet(0);
+    store(uploader, RULE_KEY_2, edited);
+    long editedUpload = uploadedBytes.get();
+    uploader.close();
+    assertThat(originalUpload, Matchers.greaterThan((long) ARTIFACT_SIZE));
+    assertThat(editedUpload, Matchers.lessThan(originalUpload / 10));
+
+    // Another machine, with a local cache in front which keeps the chunks it has seen.
+    ArtifactCache downloader = createCache(tmp.newFolder("downloader"), "mode = dir, http");
+    assertArrayEquals(original, fetch(downloader, RULE_KEY));
+    long originalDownload = downloadedBytes.getAndSet(0);
+    assertArrayEquals(edited, fetch(downloader, RULE_KEY_2));
+    long editedDownload = downloadedBytes.get();
+    downloader.close();
+    assertThat(originalDownload, Matchers.greaterThan((long) ARTIFACT_SIZE));
+    assertThat(editedDownload, Matchers.lessThan(originalDownload / 10));
+  }
+
+  private void store(ArtifactCache cache, RuleKey ruleKey, byte[] data) throws Exception {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, data);
+    cache
+        .store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+            BorrowablePath.notBorrowablePath(artifact))
+        .get();
+  }
+
+  private byte[] fetch(ArtifactCache cache, RuleKey ruleKey) throws Exception {
+    Path output = tmp.getRoot().resolve("output-" + ruleKey);
+    CacheResult result = cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(output)).get();
+    assertEquals(CacheResultType.HIT, result.getType());
+    return Files.readAllBytes(output);
+  }
+
+  private ArtifactCache createCache(Path root, String mode) throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+    eventBus.register(this);
+    BuckConfig buckConfig =
+        BuckConfigTestUtils.createFromReader(
+            new StringReader(
+                Joiner.on('\n')
+                    .join(
+                        "[cache]",
+                        mode,
+                        "dir = local-cache",
+                        String.format("http_url = http://127.0.0.1:%d/", cacheServer.getPort()),
+                        "http_mode = readwrite",
+                        "chunked_cache_enabled = true",
+                        "chunked_cache_minimum_size = 64kb",
+                        "chunked_cache_average_chunk_size = 4kb")),
+            filesystem,
+            Architecture.detect(),
+            Platform.detect(),
+            ImmutableMap.of());
+    ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(buckConfig);
+    CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+    ParsingUnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory =
+        new ParsingUnconfiguredBuildTargetViewFactory();
+    return new ArtifactCaches(
+            cacheBuckConfig,
+            eventBus,
+            target -> unconfiguredBuildTargetFactory.create(cellPathResolver, target),
+            TargetConfigurationSerializerForTests.create(cellPathResolver),
+            filesystem,
+            Optional.empty(),
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            managerScope,
+            "test://",
+            "hostname",
+            ClientCertificateHandler.fromConfiguration(cacheBuckConfig))
+        .newInstance();
+  }
+
+  @Subscribe
+  public void onHttpArtifactCacheFinished(HttpArtifactCacheEvent.Finished event) {
+    if (event.getOperation() == ArtifactCacheEvent.Operation.STORE) {
+      uploadedBytes.addAndGet(event.getStoreData().getRequestSizeBytes().orElse(0L));
+    } else if (event.getOperation() == ArtifactCacheEvent.Operation.FETCH) {
+      downloadedBytes.addAndGet(event.getFetchData().getResponseSizeBytes().orElse(0L));
+    }
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.ClientCertificateHandler;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.BuckConfigTestUtils;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.environment.Architecture;
+import com.facebook.buck.util.environment.Platform;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures fetching many small artifacts from the cache served by {@link WebServer}, the way a cold
+ * build does, both with a request per artifact and in batches.
+ */
+public class HttpMultiFetchBenchmark {
+
+  @Param({"5000"})
+  private int artifacts = 200;
+
+  private static final int FETCH_THREADS = 4;
+  private static final ListeningExecutorService DIRECT_EXECUTOR_SERVICE =
+      MoreExecutors.newDirectExecutorService();
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private BuckEventBus eventBus;
+  private TestBackgroundTaskManager bgTaskManager;
+  private TaskManagerCommandScope managerScope;
+  private ListeningExecutorService fetchExecutorService;
+  private WebServer webServer;
+  private ImmutableList<RuleKey> ruleKeys;
+  private int fetches;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("http-multi-fetch-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    eventBus = BuckEventBusForTests.newInstance();
+    bgTaskManager = TestBackgroundTaskManager.of();
+    managerScope = bgTaskManager.getNewScope(new BuildId("benchmark"));
+    fetchExecutorService =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor("cache_fetch", FETCH_THREADS));
+
+    // Artifacts of a few kilobytes, like most of the outputs of a large build.
+    ArtifactCache dirCache = createArtifactCache(DIRECT_EXECUTOR_SERVICE, "mode = dir", "dir = c");
+    Random random = new Random(0);
+    Path artifact = Paths.get("artifact");
+    ImmutableList.Builder<RuleKey> builder = ImmutableList.builder();
+    for (int i = 0; i < artifacts; i++) {
+      byte[] contents = new byte[1024 + random.nextInt(8 * 1024)];
+      random.nextBytes(contents);
+      filesystem.writeBytesToPath(contents, artifact);
+      RuleKey ruleKey = new RuleKey(HashCode.fromInt(i));
+      dirCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+          BorrowablePath.notBorrowablePath(artifact));
+      builder.add(ruleKey);
+    }
+    ruleKeys = builder.build();
+
+    webServer = new WebServer(/* port */ 0, filesystem);
+    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws Exception {
+    webServer.stop();
+    fetchExecutorService.shutdownNow();
+    bgTaskManager.shutdown(1, TimeUnit.SECONDS);
+    MostFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void batchesFetchTheSameArtifacts() throws Exception {
+    List<Path> oneByOne = fetchOneByOne();
+    List<Path> inBatches = fetchInBatches();
+    for (int i = 0; i < artifacts; i++) {
+      assertArrayEquals(Files.readAllBytes(oneByOne.get(i)), Files.readAllBytes(inBatches.get(i)));
+    }
+  }
+
+  @Benchmark
+  public List<Path> fetchOneByOne() throws Exception {
+    return fetchAll(createHttpCache());
+  }
+
+  @Benchmark
+  public List<Path> fetchInBatches() throws Exception {
+    return fetchAll(
+        createHttpCache("http_multi_fetch = true", "http_multi_fetch_max_delay_ms = 2"));
+  }
+
+  private List<Path> fetchAll(ArtifactCache cache) throws Exception {
+    Path outputs = root.resolve("fetched" + fetches++);
+    List<Path> paths = new ArrayList<>(artifacts);
+    List<ListenableFuture<CacheResult>> results = new ArrayList<>(artifacts);
+    for (int i = 0; i < artifacts; i++) {
+      Path path = outputs.resolve("artifact" + i);
+      paths.add(path);
+      results.add(cache.fetchAsync(null, ruleKeys.get(i), LazyPath.ofInstance(path)));
+    }
+    for (CacheResult result : Futures.allAsList(results).get()) {
+      assertEquals(CacheResultType.HIT, result.getType());
+    }
+    cache.close();
+    return paths;
+  }
+
+  private ArtifactCache createHttpCache(String... config) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("mode = http");
+    lines.add(String.format("http_url = http://127.0.0.1:%d/", webServer.getPort()));
+    lines.add(String.format("http_thread_pool_size = %d", FETCH_THREADS));
+    lines.addAll(ImmutableList.copyOf(config));
+    return createArtifactCache(fetchExecutorService, lines.toArray(new String[0]));
+  }
+
+  private ArtifactCache createArtifactCache(
+      ListeningExecutorService fetchExecutorService, String... cacheConfig) throws IOException {
+    BuckConfig config =
+        BuckConfigTestUtils.createFromReader(
+            new StringReader("[cache]\n" + Joiner.on('\n').join(cacheConfig)),
+            filesystem,
+            Architecture.detect(),
+            Platform.detect(),
+            ImmutableMap.of());
+    ArtifactCacheBuckConfig buckConfig = new ArtifactCacheBuckConfig(config);
+    CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+    ParsingUnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory =
+        new ParsingUnconfiguredBuildTargetViewFactory();
+    return new ArtifactCaches(
+            buckConfig,
+            eventBus,
+            target -> unconfiguredBuildTargetFactory.create(cellPathResolver, target),
+            TargetConfigurationSerializerForTests.create(cellPathResolver),
+            filesystem,
+            Optional.empty(),
+            DIRECT_EXECUTOR_SERVICE,
+            fetchExecutorService,
+            DIRECT_EXECUTOR_SERVICE,
+            DIRECT_EXECUTOR_SERVICE,
+            managerScope,
+            "test://",
+            "hostname",
+            ClientCertificateHandler.fromConfiguration(buckConfig))
+        .newInstance();
+  }
+}
@@ -21,12 +21,14 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.ClientCertificateHandler;
 import com.facebook.buck.artifact_cache.DirArtifactCacheTestUtil;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.TestArtifactCaches;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.core.cell.CellPathResolver;
@@ -51,11 +53,15 @@ import com.facebook.buck.io.filesystem.impl.DefaultProjectFilesystemFactory;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
 import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.DataOutputStream;
@@ -65,6 +71,8 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -176,6 +184,72 @@ public class ServedCacheIntegrationTest {
         projectFilesystem.readFileIfItExists(fetchedContents).get(), Matchers.equalTo(A_FILE_DATA));
   }
 
+  @Test
+  public void testMultiFetchFromServedDircache() throws Exception {
+    RuleKey otherRuleKey = new RuleKey("9876543210");
+    Path otherFilePath = Paths.get("otherFile");
+    projectFilesystem.writeContentsToPath("otherdata", otherFilePath);
+    dirCache.store(
+        ArtifactInfo.builder().addRuleKeys(otherRuleKey).build(),
+        BorrowablePath.notBorrowablePath(otherFilePath));
+
+    webServer = new WebServer(/* port */ 0, projectFilesystem);
+    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+
+    List<ImmutableSet<RuleKey>> multiFetches = new ArrayList<>();
+    buckEventBus.register(
+        new Object() {
+          @Subscribe
+          public void onStarted(HttpArtifactCacheEvent.Started event) {
+            if (event.getOperation() == ArtifactCacheEvent.Operation.MULTI_FETCH) {
+              multiFetches.add(event.getRuleKeys());
+            }
+          }
+        });
+
+    // Queue the fetches before any of them runs, so that they are batched.
+    ExplicitRunExecutorService fetchExecutorService = new ExplicitRunExecutorService();
+    ArtifactCache serverBackedCache =
+        createArtifactCache(
+            createMockLocalConfig(
+                "[cache]",
+                "mode = http",
+                String.format("http_url = http://127.0.0.1:%d/", webServer.getPort()),
+                "http_multi_fetch = true",
+                "http_multi_fetch_max_delay_ms = 1"),
+            fetchExecutorService);
+
+    RuleKey missingRuleKey = new RuleKey("1111111111");
+    Path fetched = tmpDir.newFile();
+    Path fetchedAgain = tmpDir.newFile();
+    Path fetchedOther = tmpDir.newFile();
+    ListenableFuture<CacheResult> hit =
+        serverBackedCache.fetchAsync(null, A_FILE_RULE_KEY, LazyPath.ofInstance(fetched));
+    ListenableFuture<CacheResult> miss =
+        serverBackedCache.fetchAsync(null, missingRuleKey, LazyPath.ofInstance(tmpDir.newFile()));
+    ListenableFuture<CacheResult> duplicateHit =
+        serverBackedCache.fetchAsync(null, A_FILE_RULE_KEY, LazyPath.ofInstance(fetchedAgain));
+    ListenableFuture<CacheResult> otherHit =
+        serverBackedCache.fetchAsync(null, otherRuleKey, LazyPath.ofInstance(fetchedOther));
+    fetchExecutorService.run();
+
+    assertThat(Futures.getDone(hit).getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(Futures.getDone(hit).getMetadata(), Matchers.equalTo(A_FILE_METADATA));
+    assertThat(Futures.getDone(miss).getType(), Matchers.equalTo(CacheResultType.MISS));
+    assertThat(Futures.getDone(duplicateHit).getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(Futures.getDone(otherHit).getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(
+        projectFilesystem.readFileIfItExists(fetched).get(), Matchers.equalTo(A_FILE_DATA));
+    assertThat(
+        projectFilesystem.readFileIfItExists(fetchedAgain).get(), Matchers.equalTo(A_FILE_DATA));
+    assertThat(
+        projectFilesystem.readFileIfItExists(fetchedOther).get(), Matchers.equalTo("otherdata"));
+    // The duplicate fetch waited for the first one rather than being sent too.
+    assertThat(
+        multiFetches,
+        Matchers.contains(ImmutableSet.of(A_FILE_RULE_KEY, missingRuleKey, otherRuleKey)));
+  }
+
   private static class ThrowAfterXBytesStream extends FilterInputStream {
     private final long bytesToThrowAfter;
     private long bytesRead = 0L;
@@ -557,6 +631,11 @@ public class ServedCacheIntegrationTest {
   }
 
   private ArtifactCache createArtifactCache(ArtifactCacheBuckConfig buckConfig) {
+    return createArtifactCache(buckConfig, DIRECT_EXECUTOR_SERVICE);
+  }
+
+  private ArtifactCache createArtifactCache(
+      ArtifactCacheBuckConfig buckConfig, ListeningExecutorService fetchExecutorService) {
     return new ArtifactCaches(
             buckConfig,
             buckEventBus,
@@ -565,7 +644,7 @@ public class ServedCacheIntegrationTest {
             projectFilesystem,
             Optional.empty(),
             DIRECT_EXECUTOR_SERVICE,
-            DIRECT_EXECUTOR_SERVICE,
+            fetchExecutorService,
             DIRECT_EXECUTOR_SERVICE,
             DIRECT_EXECUTOR_SERVICE,
             managerScope,
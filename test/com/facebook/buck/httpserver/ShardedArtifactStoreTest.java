@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.FetchResponseReadResult;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ShardedArtifactStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey KEY_A = new RuleKey("aaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbb");
+  private static final RuleKey KEY_C = new RuleKey("cccc");
+
+  private Path root;
+
+  @Before
+  public void setUp() {
+    root = tmp.getRoot().resolve("store");
+  }
+
+  @Test
+  public void storedArtifactsAreReadBackAsFetchResponses() throws IOException {
+    ShardedArtifactStore store = new ShardedArtifactStore(root, 4, 1024 * 1024);
+    store.put(ImmutableSet.of(KEY_A, KEY_B), ImmutableMap.of("key", "value"), artifact("hello"));
+
+    for (RuleKey ruleKey : ImmutableSet.of(KEY_A, KEY_B)) {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      FetchResponseReadResult result = read(store, ruleKey, payload);
+      assertEquals(ImmutableSet.of(KEY_A, KEY_B), result.getRuleKeys());
+      assertEquals(ImmutableMap.of("key", "value"), result.getMetadata());
+      assertEquals(result.getExpectedHashCode(), result.getActualHashCode());
+      assertArrayEquals("hello".getBytes(), payload.toByteArray());
+    }
+    assertFalse(store.open(KEY_C).isPresent());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedEntries() throws IOException {
+    ShardedArtifactStore store = new ShardedArtifactStore(root, 1, 1024 * 1024);
+    store.put(ImmutableSet.of(KEY_A), ImmutableMap.of(), artifact("a"));
+    long entrySizeBytes = store.getSizeBytes();
+
+    store = new ShardedArtifactStore(root, 1, 2 * entrySizeBytes);
+    store.put(ImmutableSet.of(KEY_B), ImmutableMap.of(), artifact("b"));
+    store.open(KEY_A).get().close();
+    store.put(ImmutableSet.of(KEY_C), ImmutableMap.of(), artifact("c"));
+
+    assertTrue(store.open(KEY_A).isPresent());
+    assertFalse(store.open(KEY_B).isPresent());
+    assertTrue(store.open(KEY_C).isPresent());
+    assertEquals(2 * entrySizeBytes, store.getSizeBytes());
+  }
+
+  @Test
+  public void reloadsEntriesWrittenWithADifferentNumberOfShards() throws IOException {
+    ShardedArtifactStore store = new ShardedArtifactStore(root, 8, 1024 * 1024);
+    store.put(ImmutableSet.of(KEY_A), ImmutableMap.of(), artifact("a"));
+    store.put(ImmutableSet.of(KEY_B), ImmutableMap.of(), artifact("b"));
+    long sizeBytes = store.getSizeBytes();
+
+    store = new ShardedArtifactStore(root, 3, 1024 * 1024);
+    assertEquals(sizeBytes, store.getSizeBytes());
+    for (RuleKey ruleKey : ImmutableSet.of(KEY_A, KEY_B)) {
+      FetchResponseReadResult result = read(store, ruleKey, new ByteArrayOutputStream());
+      assertEquals(ImmutableSet.of(ruleKey), result.getRuleKeys());
+    }
+  }
+
+  private Path artifact(String contents) throws IOException {
+    return Files.write(tmp.newFile(), contents.getBytes());
+  }
+
+  private static FetchResponseReadResult read(
+      ShardedArtifactStore store, RuleKey ruleKey, ByteArrayOutputStream payload)
+      throws IOException {
+    Optional<FileChannel> channel = store.open(ruleKey);
+    assertTrue(channel.isPresent());
+    try (DataInputStream input = new DataInputStream(Channels.newInputStream(channel.get()))) {
+      return HttpArtifactCacheBinaryProtocol.readFetchResponse(input, payload);
+    }
+  }
+}
@@ -32,11 +32,13 @@ import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.shell.FakeWorkerBuilder.FakeWorkerToolRule;
+import com.facebook.buck.worker.AdaptiveWorkerPoolSizing;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 public class FakeWorkerBuilder
@@ -93,6 +95,16 @@ public class FakeWorkerBuilder
       return 0;
     }
 
+    @Override
+    public int getMaxJobsPerWorker() {
+      return 1;
+    }
+
+    @Override
+    public Optional<AdaptiveWorkerPoolSizing> getAdaptivePoolSizing() {
+      return Optional.empty();
+    }
+
     @Override
     public boolean isPersistent() {
       return false;
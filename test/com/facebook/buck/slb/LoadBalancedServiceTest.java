@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.testutil.integration.HttpdForTests;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadBalancedServiceTest {
+  private static final long SLOW_SERVER_DELAY_SECONDS = 10;
+
+  private final CountDownLatch releaseSlowServer = new CountDownLatch(1);
+  private final OkHttpClient client = new OkHttpClient();
+
+  private StubServer slowServer;
+  private StubServer fastServer;
+  private BuckEventBus eventBus;
+  private FakeBuckEventListener listener;
+
+  @Before
+  public void setUp() throws Exception {
+    slowServer = new StubServer("slow", true);
+    fastServer = new StubServer("fast", false);
+    eventBus = BuckEventBusForTests.newInstance();
+    listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    releaseSlowServer.countDown();
+    slowServer.close();
+    fastServer.close();
+  }
+
+  @Test
+  public void testSlowRequestsAreHedged() throws Exception {
+    FakeLoadBalancer slb =
+        new FakeLoadBalancer(slowServer.getUri(), fastServer.getUri(), OptionalLong.of(50));
+    try (HttpResponse response = makeRequest(slb, true)) {
+      Assert.assertEquals("fast", readBody(response));
+    }
+
+    LoadBalancedServiceEventData data = getEventData();
+    Assert.assertEquals(Optional.of(fastServer.getUri()), data.getHedgeServer());
+    Assert.assertEquals(Optional.of(true), data.getHedgeWon());
+    Assert.assertEquals(slowServer.getUri(), data.getServer());
+    Assert.assertEquals(1, slowServer.getRequests());
+
+    // The slow call is cancelled, and stops counting against its server.
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (slb.inFlight.get() != 0 && System.nanoTime() < deadlineNanos) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, slb.inFlight.get());
+  }
+
+  @Test
+  public void testFastRequestsAreNotHedged() throws Exception {
+    FakeLoadBalancer slb =
+        new FakeLoadBalancer(fastServer.getUri(), slowServer.getUri(), OptionalLong.of(5000));
+    try (HttpResponse response = makeRequest(slb, true)) {
+      Assert.assertEquals("fast", readBody(response));
+    }
+
+    Assert.assertEquals(Optional.empty(), getEventData().getHedgeServer());
+    Assert.assertEquals(0, slowServer.getRequests());
+    Assert.assertEquals(0, slb.inFlight.get());
+  }
+
+  @Test
+  public void testRequestsAreNotHedgedUnlessTheServiceHedges() throws Exception {
+    FakeLoadBalancer slb =
+        new FakeLoadBalancer(fastServer.getUri(), slowServer.getUri(), OptionalLong.of(0));
+    try (HttpResponse response = makeRequest(slb, false)) {
+      Assert.assertEquals("fast", readBody(response));
+    }
+
+    Assert.assertEquals(Optional.empty(), getEventData().getHedgeServer());
+    Assert.assertEquals(0, slowServer.getRequests());
+  }
+
+  private HttpResponse makeRequest(HttpLoadBalancer slb, boolean hedgeRequests)
+      throws IOException {
+    LoadBalancedService service = new LoadBalancedService(slb, client, eventBus, hedgeRequests);
+    return service.makeRequest("/artifact", new Request.Builder().get());
+  }
+
+  private LoadBalancedServiceEventData getEventData() {
+    return listener.getEvents().stream()
+        .filter(LoadBalancedServiceEvent.class::isInstance)
+        .map(event -> ((LoadBalancedServiceEvent) event).getData())
+        .findFirst()
+        .get();
+  }
+
+  private static String readBody(HttpResponse response) throws IOException {
+    return new String(ByteStreams.toByteArray(response.getBody()), StandardCharsets.UTF_8);
+  }
+
+  /** Responds with its name, after a long time if it is slow. */
+  private class StubServer extends AbstractHandler implements AutoCloseable {
+    private final HttpdForTests httpd;
+    private final String name;
+    private final boolean slow;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    StubServer(String name, boolean slow) throws Exception {
+      this.name = name;
+      this.slow = slow;
+      httpd = HttpdForTests.httpdForOkHttpTests();
+      httpd.addHandler(this);
+      httpd.start();
+    }
+
+    URI getUri() {
+      return httpd.getRootUri();
+    }
+
+    int getRequests() {
+      return requests.get();
+    }
+
+    @Override
+    public void handle(
+        String target,
+        org.eclipse.jetty.server.Request request,
+        HttpServletRequest httpServletRequest,
+        HttpServletResponse httpServletResponse)
+        throws IOException {
+      requests.incrementAndGet();
+      if (slow) {
+        try {
+          releaseSlowServer.await(SLOW_SERVER_DELAY_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      httpServletResponse.getOutputStream().write(name.getBytes(StandardCharsets.UTF_8));
+      request.setHandled(true);
+    }
+
+    @Override
+    public void close() throws Exception {
+      httpd.close();
+    }
+  }
+
+  /** Always picks the same servers, and counts requests in flight. */
+  private static class FakeLoadBalancer implements HttpLoadBalancer {
+    private final URI bestServer;
+    private final URI hedgeServer;
+    private final OptionalLong hedgeDelayMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    FakeLoadBalancer(URI bestServer, URI hedgeServer, OptionalLong hedgeDelayMillis) {
+      this.bestServer = bestServer;
+      this.hedgeServer = hedgeServer;
+      this.hedgeDelayMillis = hedgeDelayMillis;
+    }
+
+    @Override
+    public URI getBestServer() {
+      return bestServer;
+    }
+
+    @Override
+    public Optional<URI> getHedgeServer(URI primary) {
+      return Optional.of(hedgeServer);
+    }
+
+    @Override
+    public OptionalLong getHedgeDelayMillis(URI server) {
+      return hedgeDelayMillis;
+    }
+
+    @Override
+    public void reportRequestStarted(URI server) {
+      inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void reportRequestFinished(URI server) {
+      inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void reportRequestSuccess(URI server) {}
+
+    @Override
+    public void reportRequestException(URI server) {}
+
+    @Override
+    public void close() {}
+  }
+}
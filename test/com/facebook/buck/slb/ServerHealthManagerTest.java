@@ -22,6 +22,8 @@ import com.facebook.buck.util.timing.FakeClock;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Optional;
+import java.util.OptionalLong;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -95,6 +97,56 @@ public class ServerHealthManagerTest {
     Assert.fail("All servers have high latency so an exception was expected.");
   }
 
+  @Test
+  public void testServersAreRankedByRequestLatencyOnceThereIsSome() throws IOException {
+    ServerHealthManager manager = newServerHealthManager();
+    reportLatencyToAll(manager, 1);
+    manager.reportPingLatency(SERVERS.get(2), 30);
+    for (URI server : SERVERS) {
+      manager.reportRequestLatency(server, server.equals(SERVERS.get(2)) ? 10 : 20);
+    }
+    Assert.assertEquals(SERVERS.get(2), manager.getBestServer());
+  }
+
+  @Test
+  public void testBusyServersAreSkipped() throws IOException {
+    ServerHealthManager manager = newServerHealthManager(1);
+    URI first = manager.getBestServer();
+    manager.reportRequestStarted(first);
+    URI second = manager.getBestServer();
+    Assert.assertNotEquals(first, second);
+
+    // When all servers are busy, the least busy one is used.
+    for (URI server : SERVERS) {
+      manager.reportRequestStarted(server);
+    }
+    manager.reportRequestStarted(second);
+    URI third = manager.getBestServer();
+    Assert.assertNotEquals(first, third);
+    Assert.assertNotEquals(second, third);
+  }
+
+  @Test
+  public void testHedgeServerIsAnotherServer() {
+    ServerHealthManager manager = newServerHealthManager();
+    Optional<URI> hedgeServer = manager.getHedgeServer(SERVERS.get(0));
+    Assert.assertTrue(hedgeServer.isPresent());
+    Assert.assertNotEquals(SERVERS.get(0), hedgeServer.get());
+  }
+
+  @Test
+  public void testHedgeDelayIsAHighPercentileOfRequestLatencies() {
+    ServerHealthManager manager = newServerHealthManager();
+    URI server = SERVERS.get(0);
+    for (int i = 1; i < ServerHealthManager.MIN_SAMPLES_TO_HEDGE; ++i) {
+      manager.reportRequestLatency(server, i);
+    }
+    Assert.assertEquals(OptionalLong.empty(), manager.getHedgeDelayMillis(server));
+
+    manager.reportRequestLatency(server, ServerHealthManager.MIN_SAMPLES_TO_HEDGE);
+    Assert.assertEquals(OptionalLong.of(19), manager.getHedgeDelayMillis(server));
+  }
+
   private void reportLatencyToAll(ServerHealthManager manager, int latencyMillis) {
     for (URI server : SERVERS) {
       manager.reportPingLatency(server, latencyMillis);
@@ -102,6 +154,10 @@ public class ServerHealthManagerTest {
   }
 
   private ServerHealthManager newServerHealthManager() {
+    return newServerHealthManager(0);
+  }
+
+  private ServerHealthManager newServerHealthManager(int maxConcurrentRequestsPerServer) {
     return new ServerHealthManager(
         "test_server_pool",
         SERVERS,
@@ -110,6 +166,7 @@ public class ServerHealthManagerTest {
         RANGE_MILLIS,
         MAX_ACCEPTABLE_LATENCY_MILLIS,
         MIN_SAMPLES_TO_REPORT_ERROR,
+        maxConcurrentRequestsPerServer,
         eventBus,
         NOW_FAKE_CLOCK);
   }
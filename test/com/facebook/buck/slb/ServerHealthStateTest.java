@@ -99,6 +99,43 @@ public class ServerHealthStateTest {
     Assert.assertEquals(1f, errorsPerSecond, DELTA);
   }
 
+  @Test
+  public void testRequestLatencyMovingAverage() {
+    ServerHealthState state = new ServerHealthState(SERVER);
+    Assert.assertEquals(-1, state.getRequestLatencyEwmaMillis());
+
+    state.reportRequestLatency(NOW_MILLIS, 100);
+    Assert.assertEquals(100, state.getRequestLatencyEwmaMillis());
+
+    state.reportRequestLatency(NOW_MILLIS, 200);
+    Assert.assertEquals(120, state.getRequestLatencyEwmaMillis());
+  }
+
+  @Test
+  public void testRequestLatencyPercentile() {
+    ServerHealthState state = new ServerHealthState(SERVER);
+    state.reportRequestLatency(NOW_MILLIS - RANGE_MILLIS - 1, 1000);
+    for (int latencyMillis = 20; latencyMillis > 0; --latencyMillis) {
+      state.reportRequestLatency(NOW_MILLIS, latencyMillis);
+    }
+
+    Assert.assertEquals(
+        19, state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 0.95f, 20));
+    Assert.assertEquals(
+        20, state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 1f, 20));
+    Assert.assertEquals(
+        -1, state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 0.95f, 21));
+  }
+
+  @Test
+  public void testRequestsInFlight() {
+    ServerHealthState state = new ServerHealthState(SERVER);
+    state.reportRequestStarted();
+    state.reportRequestStarted();
+    state.reportRequestFinished();
+    Assert.assertEquals(1, state.getRequestsInFlight());
+  }
+
   private void reportSamples(ServerHealthState state, long epochMillis, int latencyMillis) {
     state.reportRequestError(epochMillis);
     state.reportPingLatency(epochMillis, latencyMillis);
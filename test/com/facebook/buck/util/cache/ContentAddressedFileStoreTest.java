@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ContentAddressedFileStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ContentAddressedFileStore store;
+  private HashCode key;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new ContentAddressedFileStore("test_store", "1", tmp.getRoot().resolve("store"));
+    key = store.newKeyHasher().putInt(1).hash();
+  }
+
+  @Test
+  public void fetchesStoredFilesAndContents() throws Exception {
+    Path object = tmp.newFile("foo.o");
+    Files.write(object, new byte[] {1, 2, 3});
+    store.write(key, "stderr", "warning: foo");
+    store.store(key, "o", object);
+
+    Path output = tmp.getRoot().resolve("out/bar.o");
+    assertEquals(Optional.of("warning: foo"), store.read(key, "stderr"));
+    assertTrue(store.fetch(key, "o", output));
+    assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(output));
+  }
+
+  @Test
+  public void missesUnknownKeysAndExtensions() throws Exception {
+    store.write(key, "stderr", "");
+
+    Path output = tmp.getRoot().resolve("bar.o");
+    assertFalse(store.fetch(key, "o", output));
+    assertFalse(Files.exists(output));
+    HashCode otherKey = store.newKeyHasher().putInt(2).hash();
+    assertEquals(Optional.empty(), store.read(otherKey, "stderr"));
+  }
+
+  @Test
+  public void storingAgainReplacesTheEntryWithoutLeavingTemporaryFiles() throws Exception {
+    Path object = tmp.newFile("foo.o");
+    Files.write(object, "old".getBytes(StandardCharsets.UTF_8));
+    store.store(key, "o", object);
+    Files.write(object, "new".getBytes(StandardCharsets.UTF_8));
+    store.store(key, "o", object);
+
+    Path output = tmp.getRoot().resolve("bar.o");
+    assertTrue(store.fetch(key, "o", output));
+    assertEquals("new", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    try (Stream<Path> files = Files.walk(tmp.getRoot().resolve("store"))) {
+      assertEquals(0, files.filter(path -> path.toString().endsWith(".tmp")).count());
+    }
+  }
+
+  @Test
+  public void keysDependOnTheNameAndVersionOfTheStore() {
+    assertEquals(key, store.newKeyHasher().putInt(1).hash());
+    assertNotEquals(
+        key,
+        new ContentAddressedFileStore("test_store", "2", tmp.getRoot())
+            .newKeyHasher()
+            .putInt(1)
+            .hash());
+    assertNotEquals(
+        key,
+        new ContentAddressedFileStore("other_store", "1", tmp.getRoot())
+            .newKeyHasher()
+            .putInt(1)
+            .hash());
+  }
+
+  @Test
+  public void stringsAreSeparatedInKeys() {
+    assertNotEquals(
+        hashStrings(ImmutableList.of("ab", "c")), hashStrings(ImmutableList.of("a", "bc")));
+  }
+
+  private HashCode hashStrings(ImmutableList<String> strings) {
+    Hasher hasher = store.newKeyHasher();
+    ContentAddressedFileStore.putStrings(hasher, strings);
+    return hasher.hash();
+  }
+}
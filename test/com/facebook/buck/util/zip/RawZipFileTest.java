@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RawZipFileTest {
+
+  private static final byte[] STORED_CONTENT = "stored".getBytes(UTF_8);
+  private static final byte[] DEFLATED_CONTENT = Strings.repeat("deflated ", 100).getBytes(UTF_8);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void readsEntriesAndTheirStoredData() throws IOException {
+    Path zip = createZip();
+
+    try (RawZipFile rawZip = new RawZipFile(zip)) {
+      List<RawZipFile.Entry> entries = rawZip.getEntries();
+      assertEquals(3, entries.size());
+
+      assertEquals("dir/", entries.get(0).getName());
+      assertTrue(entries.get(0).isDirectory());
+
+      RawZipFile.Entry stored = entries.get(1);
+      assertEquals("dir/stored.txt", stored.getName());
+      assertFalse(stored.isDirectory());
+      assertEquals(ZipEntry.STORED, stored.getMethod());
+      assertArrayEquals(STORED_CONTENT, rawZip.readRawData(stored));
+
+      RawZipFile.Entry deflated = entries.get(2);
+      assertEquals("deflated.txt", deflated.getName());
+      assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+      assertEquals(DEFLATED_CONTENT.length, deflated.getSize());
+      byte[] raw = rawZip.readRawData(deflated);
+      assertEquals(deflated.getCompressedSize(), raw.length);
+      assertArrayEquals(DEFLATED_CONTENT, inflate(raw));
+    }
+  }
+
+  @Test
+  public void rawDataCanBeCopiedToAnotherZip() throws IOException {
+    Path zip = createZip();
+    Path copy = tmp.getRoot().resolve("copy.zip");
+
+    try (RawZipFile rawZip = new RawZipFile(zip);
+        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(copy)) {
+      for (RawZipFile.Entry rawEntry : rawZip.getEntries()) {
+        CustomZipEntry entry = new CustomZipEntry(rawEntry.getName());
+        if (rawEntry.getMethod() == ZipEntry.STORED) {
+          entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+        } else {
+          entry.setPrecompressed(true);
+        }
+        entry.setSize(rawEntry.getSize());
+        entry.setCompressedSize(rawEntry.getCompressedSize());
+        entry.setCrc(rawEntry.getCrc());
+        out.putNextEntry(entry);
+        out.write(rawZip.readRawData(rawEntry));
+        out.closeEntry();
+      }
+    }
+
+    try (ZipFile zipFile = new ZipFile(copy.toFile())) {
+      assertArrayEquals(
+          STORED_CONTENT,
+          ByteStreams.toByteArray(zipFile.getInputStream(zipFile.getEntry("dir/stored.txt"))));
+      assertArrayEquals(
+          DEFLATED_CONTENT,
+          ByteStreams.toByteArray(zipFile.getInputStream(zipFile.getEntry("deflated.txt"))));
+    }
+  }
+
+  @Test
+  public void skipsDataPrependedToTheZip() throws IOException {
+    Path zip = tmp.getRoot().resolve("executable.zip");
+    byte[] shebang = "#!/usr/bin/env python\n".getBytes(UTF_8);
+    Files.write(zip, shebang);
+    Files.write(zip, Files.readAllBytes(createZip()), StandardOpenOption.APPEND);
+
+    try (RawZipFile rawZip = new RawZipFile(zip)) {
+      List<RawZipFile.Entry> entries = rawZip.getEntries();
+      assertEquals(3, entries.size());
+      assertArrayEquals(STORED_CONTENT, rawZip.readRawData(entries.get(1)));
+      assertArrayEquals(DEFLATED_CONTENT, inflate(rawZip.readRawData(entries.get(2))));
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void rejectsFilesWhichAreNotZips() throws IOException {
+    Path notAZip = tmp.newFile("not-a-zip");
+    Files.write(notAZip, Strings.repeat("not a zip", 10).getBytes(UTF_8));
+    new RawZipFile(notAZip).close();
+  }
+
+  private Path createZip() throws IOException {
+    Path zip = tmp.getRoot().resolve("input.zip");
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(zip)) {
+      out.putNextEntry(new CustomZipEntry("dir/"));
+      out.closeEntry();
+
+      CustomZipEntry stored = new CustomZipEntry("dir/stored.txt");
+      stored.setCompressionLevel(Deflater.NO_COMPRESSION);
+      stored.setSize(STORED_CONTENT.length);
+      stored.setCompressedSize(STORED_CONTENT.length);
+      stored.setCrc(crc(STORED_CONTENT));
+      out.putNextEntry(stored);
+      out.write(STORED_CONTENT);
+      out.closeEntry();
+
+      out.putNextEntry(new CustomZipEntry("deflated.txt"));
+      out.write(DEFLATED_CONTENT);
+      out.closeEntry();
+    }
+    return zip;
+  }
+
+  private static long crc(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return crc.getValue();
+  }
+
+  private static byte[] inflate(byte[] raw) throws IOException {
+    return ByteStreams.toByteArray(
+        new InflaterInputStream(
+            new ByteArrayInputStream(raw), new Inflater(/* nowrap */ true)));
+  }
+}
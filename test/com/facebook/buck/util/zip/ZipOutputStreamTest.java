@@ -53,6 +53,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -324,6 +325,63 @@ public class ZipOutputStreamTest {
         }
       }
     }
+
+    @Test
+    public void storedEntriesAreAligned() throws IOException {
+      byte[] content = "cheese".getBytes(UTF_8);
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output, mode)) {
+        for (String name : ImmutableList.of("a", "bb", "ccc", "dddd")) {
+          CustomZipEntry entry = new CustomZipEntry(name);
+          entry.setCompressionLevel(NO_COMPRESSION);
+          entry.setSize(content.length);
+          entry.setCompressedSize(content.length);
+          entry.setCrc(calcCrc(content));
+          entry.setAlignment(4);
+          out.putNextEntry(entry);
+          out.write(content);
+          out.closeEntry();
+        }
+      }
+
+      try (ZipFile in = new ZipFile(output.toFile())) {
+        Enumeration<ZipArchiveEntry> entries = in.getEntries();
+        while (entries.hasMoreElements()) {
+          ZipArchiveEntry entry = entries.nextElement();
+          assertEquals(entry.getName(), 0, entry.getDataOffset() % 4);
+          assertArrayEquals(content, ByteStreams.toByteArray(in.getInputStream(entry)));
+        }
+      }
+    }
+
+    @Test
+    public void precompressedEntriesAreWrittenAsIs() throws IOException {
+      byte[] content = "cheese, cheese and more cheese".getBytes(UTF_8);
+      Deflater deflater = new Deflater(BEST_COMPRESSION, true);
+      deflater.setInput(content);
+      deflater.finish();
+      byte[] compressed = new byte[1024];
+      int compressedLength = deflater.deflate(compressed);
+      deflater.end();
+
+      try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output, mode)) {
+        CustomZipEntry entry = new CustomZipEntry("cheese.txt");
+        entry.setPrecompressed(true);
+        entry.setSize(content.length);
+        entry.setCompressedSize(compressedLength);
+        entry.setCrc(calcCrc(content));
+        out.putNextEntry(entry);
+        out.write(compressed, 0, compressedLength);
+        out.closeEntry();
+      }
+
+      try (ZipInputStream in = new ZipInputStream(Files.newInputStream(output))) {
+        ZipEntry entry = in.getNextEntry();
+        assertEquals("cheese.txt", entry.getName());
+        assertEquals(compressedLength, entry.getCompressedSize());
+        assertArrayEquals(content, ByteStreams.toByteArray(in));
+        assertNull(in.getNextEntry());
+      }
+    }
   }
 
   public static class ModeDependentTests {
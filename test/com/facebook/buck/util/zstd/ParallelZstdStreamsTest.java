@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelZstdStreamsTest {
+
+  private static final int BLOCK_SIZE = 4096;
+  private static final int PARALLELISM = 4;
+  private static final int BYTES_IN_FLIGHT = 4 * PARALLELISM * BLOCK_SIZE;
+
+  private final ListeningExecutorService executor =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(PARALLELISM));
+  private Semaphore bytesInFlight = new Semaphore(BYTES_IN_FLIGHT);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    assertEquals(BYTES_IN_FLIGHT, bytesInFlight.availablePermits());
+  }
+
+  @Test
+  public void roundTripsThroughTheParallelStreams() throws IOException {
+    for (int size : new int[] {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 100 * BLOCK_SIZE + 17}) {
+      byte[] data = compressibleBytes(size);
+      assertArrayEquals(data, ByteStreams.toByteArray(parallelInput(compress(data))));
+    }
+  }
+
+  @Test
+  public void parallelOutputIsARegularZstdStream() throws IOException {
+    byte[] data = compressibleBytes(100 * BLOCK_SIZE + 17);
+    byte[] decompressed =
+        ByteStreams.toByteArray(
+            new ZstdCompressorInputStream(new ByteArrayInputStream(compress(data))));
+    assertArrayEquals(data, decompressed);
+  }
+
+  @Test
+  public void regularZstdStreamsAreReadToo() throws IOException {
+    byte[] data = compressibleBytes(100 * BLOCK_SIZE + 17);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = new ZstdCompressorOutputStream(compressed)) {
+      out.write(data);
+    }
+    assertArrayEquals(data, ByteStreams.toByteArray(parallelInput(compressed.toByteArray())));
+  }
+
+  @Test
+  public void singleByteWritesAndReadsRoundTrip() throws IOException {
+    byte[] data = compressibleBytes(3 * BLOCK_SIZE + 5);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = parallelOutput(compressed)) {
+      for (byte b : data) {
+        out.write(b);
+      }
+    }
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    try (InputStream in = parallelInput(compressed.toByteArray())) {
+      for (int b = in.read(); b != -1; b = in.read()) {
+        decompressed.write(b);
+      }
+    }
+    assertArrayEquals(data, decompressed.toByteArray());
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedStreamsFail() throws IOException {
+    byte[] compressed = compress(compressibleBytes(100 * BLOCK_SIZE));
+    try (InputStream in = parallelInput(Arrays.copyOf(compressed, compressed.length - 10))) {
+      ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void streamsGoOnWithoutBytesInFlight() throws IOException {
+    byte[] data = compressibleBytes(10 * BLOCK_SIZE + 17);
+    byte[] compressed = compress(data);
+    Semaphore shared = bytesInFlight;
+    bytesInFlight = new Semaphore(0);
+    try {
+      assertArrayEquals(compressed, compress(data));
+      assertArrayEquals(data, ByteStreams.toByteArray(parallelInput(compressed)));
+    } finally {
+      bytesInFlight = shared;
+    }
+  }
+
+  @Test
+  public void closingStreamsReleasesTheirBytesInFlight() throws IOException {
+    byte[] compressed = compress(compressibleBytes(100 * BLOCK_SIZE));
+    try (InputStream in = parallelInput(compressed)) {
+      in.read();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void framesLargerThanABlockFail() throws IOException {
+    byte[] compressed = compress(compressibleBytes(BLOCK_SIZE));
+    ParallelZstd.writeIntLittleEndian(compressed, 12, BLOCK_SIZE + 1);
+    ByteStreams.toByteArray(parallelInput(compressed));
+  }
+
+  @Test(expected = IOException.class)
+  public void framesWithNegativeSizesFail() throws IOException {
+    byte[] compressed = compress(compressibleBytes(BLOCK_SIZE));
+    ParallelZstd.writeIntLittleEndian(compressed, 8, -1);
+    ByteStreams.toByteArray(parallelInput(compressed));
+  }
+
+  private byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = parallelOutput(compressed)) {
+      out.write(data);
+    }
+    return compressed.toByteArray();
+  }
+
+  private OutputStream parallelOutput(OutputStream out) {
+    return new ParallelZstdOutputStream(
+        out,
+        ParallelZstdOutputStream.DEFAULT_LEVEL,
+        BLOCK_SIZE,
+        executor,
+        PARALLELISM,
+        bytesInFlight);
+  }
+
+  private InputStream parallelInput(byte[] compressed) {
+    return new ParallelZstdInputStream(
+        new ByteArrayInputStream(compressed), BLOCK_SIZE, executor, PARALLELISM, bytesInFlight);
+  }
+
+  /** Random letters from alphabets of random sizes, so that blocks compress, but differently. */
+  private static byte[] compressibleBytes(int size) {
+    Random random = new Random(size);
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+    }
+    return bytes;
+  }
+}
@@ -15,6 +15,8 @@
  */
 package com.facebook.buck.worker;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 
 public class FakeWorkerProcessProtocol {
@@ -43,4 +45,39 @@ public class FakeWorkerProcessProtocol {
       return isClosed;
     }
   }
+
+  public static class FakeMultiplexedCommandSender
+      implements WorkerProcessProtocol.MultiplexedCommandSender {
+
+    private boolean isClosed = false;
+
+    @Override
+    public void handshake(int messageId) {}
+
+    @Override
+    public ListenableFuture<Integer> send(
+        int messageId,
+        WorkerProcessCommand command,
+        WorkerProcessProtocol.JobOutputListener outputListener)
+        throws IOException {
+      return Futures.immediateFuture(0);
+    }
+
+    @Override
+    public void cancel(int messageId) {}
+
+    @Override
+    public int getJobsInFlight() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      isClosed = true;
+    }
+
+    public boolean isClosed() {
+      return isClosed;
+    }
+  }
 }
@@ -30,8 +30,11 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -369,10 +372,101 @@ public class WorkerProcessPoolTest {
     worker.close();
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testSharesMultiplexedWorkersBetweenBorrowers() throws Exception {
+    int maxJobsPerWorker = 3;
+    Set<WorkerProcess> createdWorkers = new HashSet<>();
+    WorkerProcessPool pool =
+        createPool(
+            1,
+            maxJobsPerWorker,
+            Optional.empty(),
+            () -> {
+              FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    List<BorrowedWorkerProcess> borrowedWorkers = new ArrayList<>();
+    for (int i = 0; i < maxJobsPerWorker; i++) {
+      BorrowedWorkerProcess worker = pool.borrowWorkerProcess();
+      worker.get();
+      borrowedWorkers.add(worker);
+    }
+
+    assertThat(createdWorkers.size(), is(1));
+    assertThat(pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).isPresent(), is(false));
+
+    borrowedWorkers.forEach(BorrowedWorkerProcess::close);
+    pool.close();
+  }
+
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testAdaptivePoolStartsMoreWorkersWhenBorrowersWait() throws Exception {
+    WorkerProcessPool pool =
+        createPool(
+            3,
+            1,
+            Optional.of(AdaptiveWorkerPoolSizing.of(1, 1, Long.MAX_VALUE)),
+            () -> new FakeWorkerProcess(ImmutableMap.of()));
+    assertThat(pool.getActiveWorkerCount(), is(1));
+
+    BorrowedWorkerProcess first = pool.borrowWorkerProcess();
+    BorrowedWorkerProcess second = pool.borrowWorkerProcess();
+
+    assertThat(pool.getActiveWorkerCount(), is(2));
+    assertThat(second.get(), is(not(first.get())));
+
+    first.close();
+    second.close();
+    pool.close();
+  }
+
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testAdaptivePoolRetiresIdleWorkersWhenUsingTooMuchMemory() throws Exception {
+    WorkerProcessPool pool =
+        createPool(
+            2,
+            1,
+            Optional.of(AdaptiveWorkerPoolSizing.of(2, 1, 1024)),
+            () ->
+                new FakeWorkerProcess(ImmutableMap.of()) {
+                  @Override
+                  public Optional<Long> getResidentMemoryBytes() {
+                    return Optional.of(1024L);
+                  }
+                });
+
+    BorrowedWorkerProcess first = pool.borrowWorkerProcess();
+    BorrowedWorkerProcess second = pool.borrowWorkerProcess();
+    WorkerProcess firstProcess = first.get();
+    second.get();
+    assertThat(pool.getActiveWorkerCount(), is(2));
+
+    first.close();
+    assertThat(pool.getActiveWorkerCount(), is(1));
+    assertThat(firstProcess.isAlive(), is(false));
+
+    // the last worker is never retired
+    second.close();
+    assertThat(pool.getActiveWorkerCount(), is(1));
+    pool.close();
+  }
+
   private static WorkerProcessPool createPool(
       int maxWorkers, ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    return createPool(maxWorkers, 1, Optional.empty(), startWorkerProcess);
+  }
+
+  private static WorkerProcessPool createPool(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      Optional<AdaptiveWorkerPoolSizing> adaptiveSizing,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     return new WorkerProcessPool(
         maxWorkers,
+        maxJobsPerWorker,
+        adaptiveSizing,
         Hashing.sha1().hashLong(0),
         () -> {
           WorkerProcess workerProcess = startWorkerProcess.get();
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares running concurrent jobs on one worker process per job (protocol zero) with running them
+ * on a single multiplexed worker process (protocol one). The worker processes are simulated
+ * in-process, so the results show the protocol overhead and not the memory saved by running fewer
+ * processes.
+ */
+public class WorkerProcessProtocolBenchmark {
+
+  @Param({"4", "16"})
+  private int concurrency = 4;
+
+  @Param({"0", "1"})
+  private int jobMillis = 0;
+
+  @Param({"1000"})
+  private int jobCount = 200;
+
+  private static final WorkerProcessCommand COMMAND =
+      WorkerProcessCommand.of(Paths.get("args"), Paths.get("stdout"), Paths.get("stderr"));
+
+  private final AtomicInteger messageIds = new AtomicInteger(1);
+  private final List<SimulatedWorker> workers = new ArrayList<>();
+  private final List<WorkerProcessProtocol.CommandSender> zeroSenders = new ArrayList<>();
+  private ExecutorService clients;
+  private WorkerProcessProtocolOne.CommandSender oneSender;
+  private Path stdErr;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    stdErr = Files.createTempFile("buck-worker-benchmark-", "-stderr.log");
+    clients = Executors.newFixedThreadPool(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      SimulatedWorker worker = new SimulatedWorker("0", jobMillis);
+      workers.add(worker);
+      WorkerProcessProtocolZero.CommandSender sender =
+          new WorkerProcessProtocolZero.CommandSender(
+              worker.stdin, worker.stdout, stdErr, () -> {}, () -> true);
+      sender.handshake(0);
+      zeroSenders.add(sender);
+    }
+    SimulatedWorker worker = new SimulatedWorker("1", jobMillis);
+    workers.add(worker);
+    oneSender =
+        new WorkerProcessProtocolOne.CommandSender(
+            worker.stdin, worker.stdout, stdErr, () -> {}, () -> true);
+    oneSender.handshake(0);
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    for (WorkerProcessProtocol.CommandSender sender : zeroSenders) {
+      sender.close();
+    }
+    zeroSenders.clear();
+    oneSender.close();
+    workers.forEach(SimulatedWorker::shutdown);
+    workers.clear();
+    clients.shutdownNow();
+    Files.deleteIfExists(stdErr);
+  }
+
+  @Test
+  public void protocolZeroOneProcessPerJob() throws Exception {
+    runJobsWithProtocolZero();
+  }
+
+  @Test
+  public void protocolOneMultiplexed() throws Exception {
+    runJobsWithProtocolOne();
+  }
+
+  @Benchmark
+  public void runJobsWithProtocolZero() throws Exception {
+    List<Future<?>> results = new ArrayList<>();
+    for (WorkerProcessProtocol.CommandSender sender : zeroSenders) {
+      results.add(
+          clients.submit(
+              () -> {
+                for (int i = 0; i < jobCount / concurrency; i++) {
+                  int id = messageIds.getAndIncrement();
+                  sender.send(id, COMMAND);
+                  sender.receiveCommandResponse(id);
+                }
+                return null;
+              }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+  }
+
+  @Benchmark
+  public void runJobsWithProtocolOne() throws Exception {
+    List<Future<?>> results = new ArrayList<>();
+    for (int client = 0; client < concurrency; client++) {
+      results.add(
+          clients.submit(
+              () -> {
+                for (int i = 0; i < jobCount / concurrency; i++) {
+                  ListenableFuture<Integer> job =
+                      oneSender.send(
+                          messageIds.getAndIncrement(),
+                          COMMAND,
+                          new WorkerProcessProtocol.JobOutputListener() {
+                            @Override
+                            public void onStdout(String data) {}
+
+                            @Override
+                            public void onStderr(String data) {}
+                          });
+                  job.get();
+                }
+                return null;
+              }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+  }
+
+  /**
+   * Answers the handshake with the given protocol version, then answers every command after
+   * sleeping for the configured time. Protocol one commands run concurrently.
+   */
+  private static class SimulatedWorker {
+    private final OutputStream stdin;
+    private final InputStream stdout;
+    private final JsonReader reader;
+    private final JsonWriter writer;
+    private final ExecutorService jobs = Executors.newCachedThreadPool();
+    private final Thread thread;
+
+    private SimulatedWorker(String protocolVersion, int jobMillis) throws IOException {
+      Pipe toWorker = Pipe.open();
+      Pipe fromWorker = Pipe.open();
+      stdin = Channels.newOutputStream(toWorker.sink());
+      stdout = Channels.newInputStream(fromWorker.source());
+      reader =
+          new JsonReader(
+              new InputStreamReader(
+                  Channels.newInputStream(toWorker.source()), StandardCharsets.UTF_8));
+      writer =
+          new JsonWriter(
+              new OutputStreamWriter(
+                  Channels.newOutputStream(fromWorker.sink()), StandardCharsets.UTF_8));
+      boolean multiplexed = protocolVersion.equals("1");
+      thread =
+          new Thread(
+              () -> {
+                try {
+                  reader.beginArray();
+                  while (reader.hasNext()) {
+                    int id = readMessageId();
+                    if (id == 0) {
+                      synchronized (writer) {
+                        writer.beginArray();
+                        writer.beginObject();
+                        writer.name("id").value(0);
+                        writer.name("type").value("handshake");
+                        writer.name("protocol_version").value(protocolVersion);
+                        writer.name("capabilities").beginArray().endArray();
+                        writer.endObject();
+                        writer.flush();
+                      }
+                    } else if (multiplexed) {
+                      jobs.submit(
+                          () -> {
+                            runJob(id, jobMillis);
+                            return null;
+                          });
+                    } else {
+                      runJob(id, jobMillis);
+                    }
+                  }
+                  reader.endArray();
+                  synchronized (writer) {
+                    writer.endArray();
+                    writer.close();
+                  }
+                } catch (IOException | InterruptedException e) {
+                  // The benchmark is shutting down.
+                }
+              });
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private int readMessageId() throws IOException {
+      int id = -1;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals("id")) {
+          id = reader.nextInt();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return id;
+    }
+
+    private void runJob(int id, int jobMillis) throws IOException, InterruptedException {
+      if (jobMillis > 0) {
+        TimeUnit.MILLISECONDS.sleep(jobMillis);
+      }
+      synchronized (writer) {
+        writer.beginObject();
+        writer.name("id").value(id);
+        writer.name("type").value("result");
+        writer.name("exit_code").value(0);
+        writer.endObject();
+        writer.flush();
+      }
+    }
+
+    private void shutdown() {
+      jobs.shutdownNow();
+      thread.interrupt();
+    }
+  }
+}
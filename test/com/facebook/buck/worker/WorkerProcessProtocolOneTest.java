@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkerProcessProtocolOneTest {
+
+  private static final WorkerProcessCommand COMMAND =
+      WorkerProcessCommand.of(Paths.get("args"), Paths.get("stdout"), Paths.get("stderr"));
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  private ByteArrayOutputStream jsonSentToWorkerProcess;
+  private PipedOutputStream workerProcessStdout;
+  private AtomicBoolean cleanedUp;
+  private WorkerProcessProtocolOne.CommandSender protocol;
+
+  @Before
+  public void setUp() throws IOException {
+    jsonSentToWorkerProcess = new ByteArrayOutputStream();
+    workerProcessStdout = new PipedOutputStream();
+    cleanedUp = new AtomicBoolean(false);
+    protocol =
+        new WorkerProcessProtocolOne.CommandSender(
+            jsonSentToWorkerProcess,
+            new PipedInputStream(workerProcessStdout),
+            temporaryPaths.newFile(),
+            () -> cleanedUp.set(true),
+            () -> true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    workerProcessStdout.close();
+  }
+
+  @Test
+  public void testHandshakeAnnouncesVersionAndCapabilities() throws IOException {
+    handshake(0);
+
+    assertThat(
+        jsonSentToWorkerProcess.toString(),
+        Matchers.startsWith(
+            "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"1\","
+                + "\"capabilities\":[\"multiplexing\",\"streaming_output\",\"cancellation\"]}"));
+  }
+
+  @Test
+  public void testHandshakeRejectsProtocolZero() throws IOException {
+    writeFromWorker("[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\"}");
+    try {
+      protocol.handshake(0);
+      fail("Expected the handshake to fail");
+    } catch (HumanReadableException e) {
+      assertThat(e.getMessage(), Matchers.containsString("\"protocol_version\" to be \"1\""));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testCompletesJobsInTheOrderTheWorkerAnswers() throws Exception {
+    handshake(0);
+    ListenableFuture<Integer> first = protocol.send(1, COMMAND, new RecordingListener());
+    ListenableFuture<Integer> second = protocol.send(2, COMMAND, new RecordingListener());
+    assertEquals(2, protocol.getJobsInFlight());
+
+    writeFromWorker(",{\"id\":2,\"type\":\"result\",\"exit_code\":3}");
+    assertEquals(3, (int) second.get());
+    assertThat(first.isDone(), Matchers.is(false));
+
+    writeFromWorker(",{\"id\":1,\"type\":\"result\",\"exit_code\":0}");
+    assertEquals(0, (int) first.get());
+    assertEquals(0, protocol.getJobsInFlight());
+  }
+
+  @Test(timeout = 10000)
+  public void testStreamsOutputToTheJobItBelongsTo() throws Exception {
+    handshake(0);
+    RecordingListener firstListener = new RecordingListener();
+    RecordingListener secondListener = new RecordingListener();
+    ListenableFuture<Integer> first = protocol.send(1, COMMAND, firstListener);
+    ListenableFuture<Integer> second = protocol.send(2, COMMAND, secondListener);
+
+    writeFromWorker(
+        ",{\"id\":1,\"type\":\"output\",\"stream\":\"stdout\",\"data\":\"hello \"}"
+            + ",{\"id\":2,\"type\":\"output\",\"stream\":\"stderr\",\"data\":\"oops\"}"
+            + ",{\"id\":1,\"type\":\"output\",\"stream\":\"stdout\",\"data\":\"world\"}"
+            + ",{\"id\":1,\"type\":\"result\",\"exit_code\":0}"
+            + ",{\"id\":2,\"type\":\"error\",\"exit_code\":1}");
+    first.get();
+    second.get();
+
+    assertEquals("hello world", firstListener.stdout.toString());
+    assertEquals("", firstListener.stderr.toString());
+    assertEquals("", secondListener.stdout.toString());
+    assertEquals("oops", secondListener.stderr.toString());
+  }
+
+  @Test(timeout = 10000)
+  public void testCancelSendsCancelMessageAndIgnoresLateResult() throws Exception {
+    handshake(0);
+    ListenableFuture<Integer> cancelled = protocol.send(1, COMMAND, new RecordingListener());
+    ListenableFuture<Integer> other = protocol.send(2, COMMAND, new RecordingListener());
+
+    protocol.cancel(1);
+    assertTrue(cancelled.isCancelled());
+    assertThat(
+        jsonSentToWorkerProcess.toString(),
+        Matchers.containsString("{\"id\":1,\"type\":\"cancel\"}"));
+
+    writeFromWorker(
+        ",{\"id\":1,\"type\":\"result\",\"exit_code\":130}"
+            + ",{\"id\":2,\"type\":\"result\",\"exit_code\":0}");
+    assertEquals(0, (int) other.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testFailsJobsInFlightWhenWorkerSendsGarbage() throws Exception {
+    handshake(0);
+    ListenableFuture<Integer> job = protocol.send(1, COMMAND, new RecordingListener());
+
+    writeFromWorker(",><(((('> blub");
+    try {
+      job.get();
+      fail("Expected the job to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(HumanReadableException.class));
+      assertThat(
+          e.getCause().getMessage(), Matchers.containsString("Error receiving command response"));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseEndsStreamsAndFailsJobsInFlight() throws Exception {
+    handshake(0);
+    ListenableFuture<Integer> job = protocol.send(1, COMMAND, new RecordingListener());
+
+    writeFromWorker("]");
+    protocol.close();
+
+    assertTrue(cleanedUp.get());
+    assertThat(jsonSentToWorkerProcess.toString(), Matchers.endsWith("]"));
+    try {
+      job.get(1, TimeUnit.SECONDS);
+      fail("Expected the job to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(HumanReadableException.class));
+    }
+  }
+
+  private void handshake(int messageId) throws IOException {
+    writeFromWorker(
+        String.format(
+            "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"1\","
+                + "\"capabilities\":[\"multiplexing\"]}",
+            messageId));
+    protocol.handshake(messageId);
+  }
+
+  private void writeFromWorker(String json) throws IOException {
+    workerProcessStdout.write(json.getBytes(StandardCharsets.UTF_8));
+    workerProcessStdout.flush();
+  }
+
+  private static class RecordingListener implements WorkerProcessProtocol.JobOutputListener {
+    private final StringBuffer stdout = new StringBuffer();
+    private final StringBuffer stderr = new StringBuffer();
+
+    @Override
+    public void onStdout(String data) {
+      stdout.append(data);
+    }
+
+    @Override
+    public void onStderr(String data) {
+      stderr.append(data);
+    }
+  }
+}
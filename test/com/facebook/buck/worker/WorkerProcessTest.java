@@ -38,6 +38,8 @@ import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -56,7 +58,7 @@ public class WorkerProcessTest {
   }
 
   @Test
-  public void testSubmitAndWaitForJob() throws IOException {
+  public void testSubmitAndWaitForJob() throws IOException, InterruptedException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
     Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
     Path argsPath = Paths.get(tmpPath.toString(), "0.args");
@@ -89,6 +91,43 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test
+  public void testSubmitAndWaitForMultiplexedJobUsesStreamedOutput()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    Path stderrPath = Paths.get(tmpPath.toString(), "0.err");
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            Paths.get(tmpPath.toString(), "stderr"),
+            tmpPath,
+            4)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeMultiplexedCommandSender() {
+            @Override
+            public ListenableFuture<Integer> send(
+                int messageId,
+                WorkerProcessCommand command,
+                WorkerProcessProtocol.JobOutputListener outputListener)
+                throws IOException {
+              outputListener.onStdout("streamed stdout");
+              filesystem.writeContentsToPath("stderr from file", stderrPath);
+              return Futures.immediateFuture(1);
+            }
+          });
+
+      assertThat(
+          process.submitAndWaitForJob("my job args"),
+          Matchers.equalTo(
+              WorkerJobResult.of(
+                  1, Optional.of("streamed stdout"), Optional.of("stderr from file"))));
+    }
+  }
+
   @Test
   public void testClose() {
     FakeWorkerProcessProtocol.FakeCommandSender protocol =